@@ -0,0 +1,337 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jp.eisbahn.oauth2.server.clock.Clock;
+import jp.eisbahn.oauth2.server.clock.impl.SystemClock;
+
+/**
+ * This class is the TokenCacheRegistry which also forwards each invalidation
+ * to the other nodes through the InvalidationBus.
+ *
+ * Each invalidation on this node is applied to the local caches first, and
+ * then queued with the next sequence number of this node. A daemon thread
+ * sends the queued messages in the order of their numbers, so the thread
+ * which invalidates a token never waits for the network. A message from
+ * other node is applied to the local caches only. This instance remembers the
+ * last sequence number of each node. If a number is skipped, some
+ * invalidation was lost, therefore all local caches are flushed. A duplicated
+ * or older message is ignored.
+ *
+ * The daemon thread also sends a heartbeat with the number of the last sent
+ * message at the fixed interval (1 second by default). Therefore, even if the
+ * last invalidation of a node is lost, the loss is detected within about one
+ * interval. A node which has sent nothing for the expiry period (1 minute by
+ * default) is forgotten.
+ *
+ * The first message of an unknown node normally has the number 1 (or 0 for a
+ * heartbeat), otherwise its earlier messages were lost and all caches are
+ * flushed. Within two heartbeat intervals after this instance was created,
+ * each node is heard for the first time, therefore the number of its first
+ * message is taken as is, without flushing.
+ *
+ * The node ID is random by default, so that a restarted node is seen as
+ * a new node and its sequence numbers are not confused with old ones.
+ * Call the close() method when this instance is no longer used.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ClusteredTokenCacheRegistry extends TokenCacheRegistry
+		implements Closeable {
+
+	private static final Logger LOG =
+			Logger.getLogger(ClusteredTokenCacheRegistry.class.getName());
+
+	private InvalidationBus bus;
+	private String nodeId;
+	private final Object publishLock = new Object();
+	private long sequence;
+	private volatile long lastSent;
+	private final ScheduledExecutorService sender;
+	private ScheduledFuture<?> heartbeat;
+	private long heartbeatIntervalMillis = 1000L;
+	private long nodeExpiryMillis = 60000L;
+	private Clock clock = SystemClock.INSTANCE;
+	private long startedAt = clock.currentTimeMillis();
+	private Map<String, Node> nodes = new HashMap<String, Node>();
+	private AtomicLong gapCount = new AtomicLong();
+
+	/**
+	 * Initialize this instance with a random node ID.
+	 * @param bus The InvalidationBus of this node.
+	 */
+	public ClusteredTokenCacheRegistry(InvalidationBus bus) {
+		this(bus, UUID.randomUUID().toString());
+	}
+
+	/**
+	 * Initialize this instance, and start sending heartbeats.
+	 * @param bus The InvalidationBus of this node.
+	 * @param nodeId The ID of this node. It must be unique in the cluster
+	 * and must be changed when the node restarts.
+	 */
+	public ClusteredTokenCacheRegistry(InvalidationBus bus, String nodeId) {
+		super();
+		this.bus = bus;
+		this.nodeId = nodeId;
+		sender = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "oauth2-invalidation-sender");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduleHeartbeat();
+		bus.setListener(new InvalidationBus.Listener() {
+			@Override
+			public void onMessage(InvalidationMessage message) {
+				receive(message);
+			}
+		});
+	}
+
+	/**
+	 * Retrieve the ID of this node.
+	 * @return The node ID.
+	 */
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Retrieve the number of times when a lost message was detected and all
+	 * caches were flushed.
+	 * @return The count.
+	 */
+	public long getGapCount() {
+		return gapCount.get();
+	}
+
+	/**
+	 * Set the interval to send a heartbeat. By default, 1 second.
+	 * @param heartbeatIntervalMillis The interval in milliseconds.
+	 */
+	public synchronized void setHeartbeatIntervalMillis(long heartbeatIntervalMillis) {
+		if (heartbeatIntervalMillis <= 0) {
+			throw new IllegalArgumentException(
+					"heartbeatIntervalMillis must be positive.");
+		}
+		this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+		heartbeat.cancel(false);
+		scheduleHeartbeat();
+	}
+
+	/**
+	 * Set the period after which a silent node is forgotten. It should be
+	 * much longer than the heartbeat interval. By default, 1 minute.
+	 * @param nodeExpiryMillis The period in milliseconds.
+	 */
+	public synchronized void setNodeExpiryMillis(long nodeExpiryMillis) {
+		this.nodeExpiryMillis = nodeExpiryMillis;
+	}
+
+	/**
+	 * Set the Clock instance to know when each node was heard. By default,
+	 * the system clock is used. This should be set before any message is
+	 * received.
+	 * @param clock The Clock instance.
+	 */
+	public synchronized void setClock(Clock clock) {
+		this.clock = clock;
+		startedAt = clock.currentTimeMillis();
+	}
+
+	/**
+	 * Retrieve the number of the other nodes which this instance remembers.
+	 * @return The number of the nodes.
+	 */
+	public synchronized int getNodeCount() {
+		return nodes.size();
+	}
+
+	/**
+	 * Discard the entry of the token from all local caches, and publish the
+	 * invalidation to other nodes.
+	 * @param token The token string.
+	 */
+	@Override
+	public void invalidate(String token) {
+		super.invalidate(token);
+		publish(token);
+	}
+
+	/**
+	 * Discard all entries from all local caches, and publish the invalidation
+	 * to other nodes.
+	 */
+	@Override
+	public void invalidateAll() {
+		super.invalidateAll();
+		publish(null);
+	}
+
+	/**
+	 * Stop sending messages. The queued messages are still sent.
+	 */
+	@Override
+	public void close() {
+		sender.shutdown();
+	}
+
+	private void publish(String token) {
+		synchronized (publishLock) {
+			// Queued under the lock, so the messages are sent in order.
+			final InvalidationMessage message =
+					new InvalidationMessage(nodeId, ++sequence, token);
+			sender.execute(new Runnable() {
+				@Override
+				public void run() {
+					send(message);
+					lastSent = message.getSequence();
+				}
+			});
+		}
+	}
+
+	private void send(InvalidationMessage message) {
+		try {
+			bus.publish(message);
+		} catch (RuntimeException e) {
+			LOG.log(Level.WARNING, "Publishing an invalidation failed.", e);
+		}
+	}
+
+	private void scheduleHeartbeat() {
+		heartbeat = sender.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				// Runs on the sender thread, so every message up to lastSent
+				// has been sent before.
+				send(InvalidationMessage.heartbeat(nodeId, lastSent));
+				expireNodes();
+			}
+		}, heartbeatIntervalMillis, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Wait until the messages queued before this call have been sent.
+	 * This method is provided for an unit test.
+	 * @throws InterruptedException If the current thread is interrupted.
+	 */
+	void awaitSent() throws InterruptedException {
+		try {
+			sender.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					return null;
+				}
+			}).get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Forget the nodes which have sent nothing for the expiry period.
+	 */
+	synchronized void expireNodes() {
+		long expiredAt = clock.currentTimeMillis() - nodeExpiryMillis;
+		for (Iterator<Node> i = nodes.values().iterator(); i.hasNext();) {
+			if (i.next().lastHeard < expiredAt) {
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Apply the message sent by other node to the local caches.
+	 * @param message The message.
+	 */
+	synchronized void receive(InvalidationMessage message) {
+		if (nodeId.equals(message.getNodeId())) {
+			return;
+		}
+		long now = clock.currentTimeMillis();
+		Node node = nodes.get(message.getNodeId());
+		if (node == null) {
+			node = new Node();
+			if (now - startedAt < heartbeatIntervalMillis * 2) {
+				// The node may have sent its earlier messages before this
+				// node started.
+				node.sequence = message.isHeartbeat()
+						? message.getSequence() : message.getSequence() - 1;
+			}
+			nodes.put(message.getNodeId(), node);
+		}
+		node.lastHeard = now;
+		if (message.isHeartbeat()) {
+			if (message.getSequence() > node.sequence) {
+				node.sequence = message.getSequence();
+				flush();
+			}
+			return;
+		}
+		long expected = node.sequence + 1;
+		if (message.getSequence() < expected) {
+			return;
+		}
+		node.sequence = message.getSequence();
+		if (message.getSequence() > expected) {
+			flush();
+		} else if (message.getToken() == null) {
+			super.invalidateAll();
+		} else {
+			super.invalidate(message.getToken());
+		}
+	}
+
+	private void flush() {
+		gapCount.incrementAndGet();
+		super.invalidateAll();
+	}
+
+	/**
+	 * This class has the last sequence number of other node.
+	 */
+	private static class Node {
+
+		private long sequence;
+		private long lastHeard;
+
+	}
+
+}
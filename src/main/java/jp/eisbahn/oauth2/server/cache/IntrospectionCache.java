@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+/**
+ * This interface defines the cache of introspection responses.
+ *
+ * Each entry is the JSON response already encoded as UTF-8 bytes. Therefore,
+ * the Introspection endpoint can answer a cached token without the
+ * DataHandler and without serializing the JSON again. An entry must not be
+ * returned after the token's expiration time.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface IntrospectionCache extends TokenCache {
+
+	/**
+	 * Retrieve the cached response of the token.
+	 * @param token The token string.
+	 * @return The encoded response. The caller must not modify the array.
+	 * If no valid entry exists, null.
+	 */
+	public byte[] get(String token);
+
+	/**
+	 * Store the response of the token.
+	 * @param token The token string.
+	 * @param response The encoded response.
+	 * @param expiresAt The time when the token expires in milliseconds since
+	 * the epoch. The entry is not returned after this time.
+	 */
+	public void put(String token, byte[] response, long expiresAt);
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+/**
+ * This interface defines the transport of invalidations among nodes.
+ *
+ * An instance is created per node. The publish() method sends the message to
+ * all other nodes, and the messages sent by other nodes are passed to the
+ * listener. A transport doesn't have to guarantee the delivery nor the order,
+ * because the ClusteredTokenCacheRegistry flushes all caches when it detects
+ * a lost message.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface InvalidationBus {
+
+	/**
+	 * Send the message to all other nodes.
+	 * @param message The message.
+	 */
+	public void publish(InvalidationMessage message);
+
+	/**
+	 * Set the listener which receives the messages sent by other nodes.
+	 * @param listener The listener.
+	 */
+	public void setListener(Listener listener);
+
+	/**
+	 * Stop sending and receiving messages, and release resources.
+	 */
+	public void close();
+
+	/**
+	 * This interface receives the messages from the InvalidationBus.
+	 *
+	 * @author Yoichiro Tanaka
+	 *
+	 */
+	public interface Listener {
+
+		/**
+		 * Receive the message sent by other node.
+		 * @param message The message.
+		 */
+		public void onMessage(InvalidationMessage message);
+
+	}
+
+}
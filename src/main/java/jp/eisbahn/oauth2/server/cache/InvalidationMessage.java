@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * This class represents an invalidation sent from one node to the others
+ * through the InvalidationBus.
+ *
+ * Each node numbers its messages from 1 without a gap. The receiver detects
+ * a lost message when the sequence number jumps. A heartbeat message doesn't
+ * invalidate anything and doesn't take a number; it carries the number of
+ * the last message sent by the node, so that the loss of the last message
+ * is detected without waiting for the next one.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class InvalidationMessage {
+
+	private static final int VERSION = 2;
+
+	private static final int TYPE_TOKEN = 0;
+	private static final int TYPE_ALL = 1;
+	private static final int TYPE_HEARTBEAT = 2;
+
+	private String nodeId;
+	private long sequence;
+	private String token;
+	private boolean heartbeat;
+
+	/**
+	 * Initialize this instance.
+	 * @param nodeId The ID of the node which sent this message.
+	 * @param sequence The sequence number in the node.
+	 * @param token The invalidated token string. If null, all entries are
+	 * invalidated.
+	 */
+	public InvalidationMessage(String nodeId, long sequence, String token) {
+		super();
+		this.nodeId = nodeId;
+		this.sequence = sequence;
+		this.token = token;
+	}
+
+	/**
+	 * Create a heartbeat message.
+	 * @param nodeId The ID of the node which sends the message.
+	 * @param sequence The sequence number of the last message sent by the
+	 * node, or 0 if no message has been sent.
+	 * @return The message.
+	 */
+	public static InvalidationMessage heartbeat(String nodeId, long sequence) {
+		InvalidationMessage message = new InvalidationMessage(nodeId, sequence, null);
+		message.heartbeat = true;
+		return message;
+	}
+
+	/**
+	 * Retrieve the ID of the node which sent this message.
+	 * @return The node ID.
+	 */
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Retrieve the sequence number.
+	 * @return The sequence number.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Retrieve the invalidated token string.
+	 * @return The token string, or null if all entries are invalidated.
+	 */
+	public String getToken() {
+		return token;
+	}
+
+	/**
+	 * Return whether this message is a heartbeat or not.
+	 * @return True if this message is a heartbeat.
+	 */
+	public boolean isHeartbeat() {
+		return heartbeat;
+	}
+
+	/**
+	 * Encode this message to bytes for a transport over the network.
+	 * @return The encoded bytes.
+	 */
+	public byte[] toBytes() {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(VERSION);
+			out.writeUTF(nodeId);
+			out.writeLong(sequence);
+			if (heartbeat) {
+				out.writeByte(TYPE_HEARTBEAT);
+			} else if (token == null) {
+				out.writeByte(TYPE_ALL);
+			} else {
+				out.writeByte(TYPE_TOKEN);
+				out.writeUTF(token);
+			}
+			out.flush();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Decode the message from bytes.
+	 * @param bytes The buffer.
+	 * @param offset The offset of the message in the buffer.
+	 * @param length The length of the message.
+	 * @return The message.
+	 * @throws IllegalArgumentException If the bytes are not a valid message.
+	 */
+	public static InvalidationMessage fromBytes(byte[] bytes, int offset, int length) {
+		try {
+			DataInputStream in = new DataInputStream(
+					new ByteArrayInputStream(bytes, offset, length));
+			int version = in.readUnsignedByte();
+			if (version != VERSION) {
+				throw new IllegalArgumentException("Unknown version: " + version);
+			}
+			String nodeId = in.readUTF();
+			long sequence = in.readLong();
+			int type = in.readUnsignedByte();
+			if (type == TYPE_HEARTBEAT) {
+				return heartbeat(nodeId, sequence);
+			} else if (type == TYPE_ALL) {
+				return new InvalidationMessage(nodeId, sequence, null);
+			} else if (type == TYPE_TOKEN) {
+				return new InvalidationMessage(nodeId, sequence, in.readUTF());
+			}
+			throw new IllegalArgumentException("Unknown type: " + type);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Malformed message.", e);
+		}
+	}
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+/**
+ * This interface defines how to discard the cached entries derived from
+ * a token. Each cache keyed by a token implements this interface, so that
+ * entries can be dropped when the token is revoked.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface TokenCache {
+
+	/**
+	 * Discard the entry of the specified token if exists.
+	 * @param token The token string.
+	 */
+	public void invalidate(String token);
+
+	/**
+	 * Discard all entries.
+	 */
+	public void invalidateAll();
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This class holds all caches keyed by a token in the process, and forwards
+ * each invalidation to them.
+ *
+ * The invalidation is done synchronously. When the invalidate() method
+ * returns, no registered cache returns the entry of the token. Therefore, the
+ * Revocation endpoint calls this before responding, and each cache can keep
+ * its entries until the token expires.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class TokenCacheRegistry implements TokenCache {
+
+	private CopyOnWriteArrayList<TokenCache> caches = new CopyOnWriteArrayList<TokenCache>();
+
+	/**
+	 * Register the cache. If it has been registered already, nothing happens.
+	 * @param cache The cache instance.
+	 */
+	public void register(TokenCache cache) {
+		caches.addIfAbsent(cache);
+	}
+
+	/**
+	 * Unregister the cache.
+	 * @param cache The cache instance.
+	 */
+	public void unregister(TokenCache cache) {
+		caches.remove(cache);
+	}
+
+	/**
+	 * Retrieve the registered caches.
+	 * @return The unmodifiable list of the caches.
+	 */
+	public List<TokenCache> getCaches() {
+		return Collections.unmodifiableList(caches);
+	}
+
+	/**
+	 * Discard the entry of the token from all registered caches.
+	 * @param token The token string.
+	 */
+	@Override
+	public void invalidate(String token) {
+		for (TokenCache cache : caches) {
+			cache.invalidate(token);
+		}
+	}
+
+	/**
+	 * Discard all entries from all registered caches.
+	 */
+	@Override
+	public void invalidateAll() {
+		for (TokenCache cache : caches) {
+			cache.invalidateAll();
+		}
+	}
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource;
+
+/**
+ * This interface defines the cache of validation results of access tokens
+ * used by the ProtectedResource endpoint.
+ *
+ * A valid result is cached until the token expires. The fact that a token
+ * was not found is also cached for a short time as a negative entry, so that
+ * repeated requests with an unknown token don't reach the DataHandler.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface ValidationCache extends TokenCache {
+
+	/**
+	 * Retrieve the cached validation result of the token.
+	 * @param token The access token string.
+	 * @return The result. If no valid entry exists, null.
+	 */
+	public ProtectedResource.Response get(String token);
+
+	/**
+	 * Store the validation result of the token until its expiration time.
+	 * @param token The access token string.
+	 * @param response The result of the validation.
+	 */
+	public void put(String token, ProtectedResource.Response response);
+
+	/**
+	 * Store the validation result of the token which the Token endpoint has
+	 * just issued. The endpoint invalidates the token right before this call,
+	 * therefore, unlike put(), the entry left by the invalidation is
+	 * overwritten, and the negative entry of the token is discarded.
+	 * @param token The access token string.
+	 * @param response The result of the validation.
+	 */
+	public void putIssued(String token, ProtectedResource.Response response);
+
+	/**
+	 * Return whether the token is cached as not found.
+	 * @param token The access token string.
+	 * @return True if the negative entry exists.
+	 */
+	public boolean isInvalid(String token);
+
+	/**
+	 * Store the negative entry of the token.
+	 * @param token The access token string which was not found.
+	 */
+	public void putInvalid(String token);
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache.impl;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import jp.eisbahn.oauth2.server.clock.Clock;
+import jp.eisbahn.oauth2.server.clock.impl.SystemClock;
+import jp.eisbahn.oauth2.server.utils.TimingWheel;
+
+/**
+ * This class holds values keyed by a token with the expiration time of each
+ * value. This is shared by the in-memory cache implementations.
+ *
+ * Each entry is scheduled on a timing wheel, and the expired entries are
+ * removed a few at a time while new entries are stored, instead of scanning
+ * the whole map. The number of entries is bounded. When the map is full after
+ * the expired entries are removed, some values are evicted in no particular
+ * order; the tombstones are never evicted, and a value is not stored if the
+ * map is full of them. When a token is invalidated, a tombstone is left for
+ * a while, so that a value computed before the invalidation is not stored
+ * after it. When all tokens are invalidated, the values are removed but the
+ * tombstones are kept, and no value is stored for the same while.
+ *
+ * @author Yoichiro Tanaka
+ *
+ * @param <V> The type of values.
+ */
+class ExpiringTokenMap<V> {
+
+	private static final long TICK_MILLIS = 1000;
+
+	private ConcurrentMap<String, Entry<V>> entries =
+			new ConcurrentHashMap<String, Entry<V>>();
+	private Clock clock = SystemClock.INSTANCE;
+	private TimingWheel<Entry<V>> wheel = createWheel();
+
+	private int maxEntries = 10000;
+	private long maxTimeToLiveMillis = 0;
+	private long tombstoneMillis = 10000;
+	private volatile long allInvalidatedUntil;
+
+	void setClock(Clock clock) {
+		this.clock = clock;
+		this.wheel = createWheel();
+	}
+
+	void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	void setMaxTimeToLiveMillis(long maxTimeToLiveMillis) {
+		this.maxTimeToLiveMillis = maxTimeToLiveMillis;
+	}
+
+	void setTombstoneMillis(long tombstoneMillis) {
+		this.tombstoneMillis = tombstoneMillis;
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	V get(String token) {
+		Entry<V> entry = entries.get(token);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.expiresAt <= clock.currentTimeMillis()) {
+			if (entries.remove(token, entry)) {
+				entry.cancel();
+			}
+			return null;
+		}
+		return entry.value;
+	}
+
+	void put(String token, V value, long expiresAt) {
+		put(token, value, expiresAt, false);
+	}
+
+	/**
+	 * Store the value even if the token was invalidated recently.
+	 */
+	void overwrite(String token, V value, long expiresAt) {
+		put(token, value, expiresAt, true);
+	}
+
+	private void put(String token, V value, long expiresAt, boolean overwrite) {
+		long now = clock.currentTimeMillis();
+		if (maxTimeToLiveMillis > 0) {
+			expiresAt = Math.min(expiresAt, now + maxTimeToLiveMillis);
+		}
+		if (expiresAt <= now) {
+			return;
+		}
+		if (!overwrite && now < allInvalidatedUntil) {
+			// All tokens were invalidated recently.
+			return;
+		}
+		wheel.advance(now);
+		if (entries.size() >= maxEntries) {
+			evict();
+			if (entries.size() >= maxEntries) {
+				return;
+			}
+		}
+		Entry<V> entry = new Entry<V>(token, value, expiresAt);
+		Entry<V> current = entries.putIfAbsent(token, entry);
+		while (current != null) {
+			if (!overwrite && current.value == null && current.expiresAt > now) {
+				// Invalidated recently.
+				return;
+			}
+			if (entries.replace(token, current, entry)) {
+				current.cancel();
+				break;
+			}
+			current = entries.putIfAbsent(token, entry);
+		}
+		entry.timeout = wheel.schedule(entry, expiresAt);
+	}
+
+	void invalidate(String token) {
+		Entry<V> previous;
+		if (tombstoneMillis > 0) {
+			long expiresAt = clock.currentTimeMillis() + tombstoneMillis;
+			Entry<V> tombstone = new Entry<V>(token, null, expiresAt);
+			previous = entries.put(token, tombstone);
+			tombstone.timeout = wheel.schedule(tombstone, expiresAt);
+		} else {
+			previous = entries.remove(token);
+		}
+		if (previous != null) {
+			previous.cancel();
+		}
+	}
+
+	void invalidateAll() {
+		if (tombstoneMillis > 0) {
+			allInvalidatedUntil = clock.currentTimeMillis() + tombstoneMillis;
+		}
+		Iterator<Entry<V>> iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			Entry<V> entry = iterator.next();
+			if (entry.value != null) {
+				iterator.remove();
+				entry.cancel();
+			}
+		}
+	}
+
+	private TimingWheel<Entry<V>> createWheel() {
+		return new TimingWheel<Entry<V>>(
+				TICK_MILLIS, new TimingWheel.ExpirationHandler<Entry<V>>() {
+					@Override
+					public void expired(Entry<V> entry) {
+						entries.remove(entry.token, entry);
+					}
+				}, clock.currentTimeMillis());
+	}
+
+	private void evict() {
+		Iterator<Entry<V>> iterator = entries.values().iterator();
+		while (entries.size() >= maxEntries && iterator.hasNext()) {
+			Entry<V> entry = iterator.next();
+			if (entry.value == null) {
+				// A tombstone.
+				continue;
+			}
+			iterator.remove();
+			entry.cancel();
+		}
+	}
+
+	private static class Entry<V> {
+
+		private final String token;
+		private final V value;
+		private final long expiresAt;
+		private volatile TimingWheel.Timeout<Entry<V>> timeout;
+
+		private Entry(String token, V value, long expiresAt) {
+			this.token = token;
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+
+		private void cancel() {
+			TimingWheel.Timeout<Entry<V>> current = timeout;
+			if (current != null) {
+				current.cancel();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache.impl;
+
+import jp.eisbahn.oauth2.server.cache.IntrospectionCache;
+import jp.eisbahn.oauth2.server.clock.Clock;
+
+/**
+ * This class is the IntrospectionCache implementation which holds the entries
+ * in the heap.
+ *
+ * Each entry lives until the token's expiration time, or until the max time
+ * to live if it is set and shorter. The number of entries is bounded. When
+ * the cache is full, the expired entries are purged first, and then some
+ * entries are evicted in no particular order. After a token is invalidated,
+ * the response computed before the invalidation is not stored for a while
+ * (10 seconds by default).
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class InMemoryIntrospectionCache implements IntrospectionCache {
+
+	private ExpiringTokenMap<byte[]> entries = new ExpiringTokenMap<byte[]>();
+
+	/**
+	 * Set the Clock instance to check the expiration of each entry.
+	 * This must be set before storing entries. By default, the system clock
+	 * is used.
+	 * @param clock The Clock instance.
+	 */
+	public void setClock(Clock clock) {
+		entries.setClock(clock);
+	}
+
+	/**
+	 * Set the max number of entries. By default, 10000.
+	 * @param maxEntries The max number of entries.
+	 */
+	public void setMaxEntries(int maxEntries) {
+		entries.setMaxEntries(maxEntries);
+	}
+
+	/**
+	 * Set the max time to live of each entry. By default, 0, which means that
+	 * each entry lives until the token expires.
+	 * @param maxTimeToLiveMillis The time in milliseconds.
+	 */
+	public void setMaxTimeToLiveMillis(long maxTimeToLiveMillis) {
+		entries.setMaxTimeToLiveMillis(maxTimeToLiveMillis);
+	}
+
+	/**
+	 * Set the time while a response is not stored after the token, or all
+	 * tokens, are invalidated. By default, 10 seconds.
+	 * @param tombstoneMillis The time in milliseconds.
+	 */
+	public void setTombstoneMillis(long tombstoneMillis) {
+		entries.setTombstoneMillis(tombstoneMillis);
+	}
+
+	/**
+	 * Retrieve the current number of entries, including expired ones and
+	 * tombstones which have not been purged yet.
+	 * @return The number of entries.
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.cache.IntrospectionCache#get(java.lang.String)
+	 */
+	@Override
+	public byte[] get(String token) {
+		return entries.get(token);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.cache.IntrospectionCache#put(java.lang.String, byte[], long)
+	 */
+	@Override
+	public void put(String token, byte[] response, long expiresAt) {
+		entries.put(token, response, expiresAt);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.cache.TokenCache#invalidate(java.lang.String)
+	 */
+	@Override
+	public void invalidate(String token) {
+		entries.invalidate(token);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.cache.TokenCache#invalidateAll()
+	 */
+	@Override
+	public void invalidateAll() {
+		entries.invalidateAll();
+	}
+
+}
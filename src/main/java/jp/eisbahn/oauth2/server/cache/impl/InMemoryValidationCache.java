@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache.impl;
+
+import jp.eisbahn.oauth2.server.cache.ValidationCache;
+import jp.eisbahn.oauth2.server.clock.Clock;
+import jp.eisbahn.oauth2.server.clock.impl.SystemClock;
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource.Response;
+import jp.eisbahn.oauth2.server.utils.StringInterner;
+
+/**
+ * This class is the ValidationCache implementation which holds the entries
+ * in the heap.
+ *
+ * Each valid result lives until the token's expiration time, or until the max
+ * time to live if it is set and shorter. Each negative entry lives for the
+ * negative time to live (5 seconds by default). Both are bounded by the max
+ * number of entries respectively.
+ *
+ * The client ID, the user ID and the scope of each cached result are
+ * canonicalized by a StringInterner, so that the results of many tokens
+ * issued to the same client share these strings.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class InMemoryValidationCache implements ValidationCache {
+
+	private ExpiringTokenMap<Response> validEntries = new ExpiringTokenMap<Response>();
+	private ExpiringTokenMap<Boolean> invalidEntries = new ExpiringTokenMap<Boolean>();
+
+	private long negativeTimeToLiveMillis = 5000;
+	private Clock clock = SystemClock.INSTANCE;
+	private StringInterner stringInterner = StringInterner.SHARED;
+
+	/**
+	 * Set the Clock instance to check the expiration of each entry.
+	 * This must be set before storing entries. By default, the system clock
+	 * is used.
+	 * @param clock The Clock instance.
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+		validEntries.setClock(clock);
+		invalidEntries.setClock(clock);
+	}
+
+	/**
+	 * Set the StringInterner which canonicalizes the strings of each result.
+	 * By default, the shared instance is used. If null, each result is stored
+	 * as is.
+	 * @param stringInterner The StringInterner instance.
+	 */
+	public void setStringInterner(StringInterner stringInterner) {
+		this.stringInterner = stringInterner;
+	}
+
+	/**
+	 * Set the max number of entries. By default, 10000.
+	 * @param maxEntries The max number of entries.
+	 */
+	public void setMaxEntries(int maxEntries) {
+		validEntries.setMaxEntries(maxEntries);
+		invalidEntries.setMaxEntries(maxEntries);
+	}
+
+	/**
+	 * Set the max time to live of each valid result. By default, 0, which
+	 * means that each result lives until the token expires.
+	 * @param maxTimeToLiveMillis The time in milliseconds.
+	 */
+	public void setMaxTimeToLiveMillis(long maxTimeToLiveMillis) {
+		validEntries.setMaxTimeToLiveMillis(maxTimeToLiveMillis);
+	}
+
+	/**
+	 * Set the time to live of each negative entry. By default, 5 seconds.
+	 * @param negativeTimeToLiveMillis The time in milliseconds.
+	 */
+	public void setNegativeTimeToLiveMillis(long negativeTimeToLiveMillis) {
+		this.negativeTimeToLiveMillis = negativeTimeToLiveMillis;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.cache.ValidationCache#get(java.lang.String)
+	 */
+	@Override
+	public Response get(String token) {
+		return validEntries.get(token);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.cache.ValidationCache#put(java.lang.String, jp.eisbahn.oauth2.server.endpoint.ProtectedResource.Response)
+	 */
+	@Override
+	public void put(String token, Response response) {
+		response = intern(response);
+		validEntries.put(token, response, response.getExpiresAt());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.cache.ValidationCache#putIssued(java.lang.String, jp.eisbahn.oauth2.server.endpoint.ProtectedResource.Response)
+	 */
+	@Override
+	public void putIssued(String token, Response response) {
+		response = intern(response);
+		invalidEntries.invalidate(token);
+		validEntries.overwrite(token, response, response.getExpiresAt());
+	}
+
+	private Response intern(Response response) {
+		if (stringInterner != null) {
+			String remoteUser = stringInterner.intern(response.getRemoteUser());
+			String clientId = stringInterner.intern(response.getClientId());
+			String scope = stringInterner.intern(response.getScope());
+			if (remoteUser != response.getRemoteUser()
+					|| clientId != response.getClientId()
+					|| scope != response.getScope()) {
+				if (response.isScopeMaskCompiled()) {
+					response = new Response(remoteUser, clientId, scope,
+							response.getExpiresAt(), response.getScopeMask());
+				} else {
+					response = new Response(remoteUser, clientId, scope,
+							response.getExpiresAt());
+				}
+			}
+		}
+		return response;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.cache.ValidationCache#isInvalid(java.lang.String)
+	 */
+	@Override
+	public boolean isInvalid(String token) {
+		return invalidEntries.get(token) != null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.cache.ValidationCache#putInvalid(java.lang.String)
+	 */
+	@Override
+	public void putInvalid(String token) {
+		invalidEntries.put(token, Boolean.TRUE,
+				clock.currentTimeMillis() + negativeTimeToLiveMillis);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.cache.TokenCache#invalidate(java.lang.String)
+	 */
+	@Override
+	public void invalidate(String token) {
+		validEntries.invalidate(token);
+		invalidEntries.invalidate(token);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.cache.TokenCache#invalidateAll()
+	 */
+	@Override
+	public void invalidateAll() {
+		validEntries.invalidateAll();
+		invalidEntries.invalidateAll();
+	}
+
+}
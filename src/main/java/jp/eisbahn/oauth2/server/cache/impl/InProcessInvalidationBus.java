@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache.impl;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import jp.eisbahn.oauth2.server.cache.InvalidationBus;
+import jp.eisbahn.oauth2.server.cache.InvalidationMessage;
+
+/**
+ * This class is the InvalidationBus implementation which delivers the
+ * messages among instances in the same JVM.
+ *
+ * The instances created with the same Topic form a cluster. Each published
+ * message is passed to the listeners of all other instances synchronously.
+ * This is useful to run several nodes in one process, for instance, in tests.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class InProcessInvalidationBus implements InvalidationBus {
+
+	private Topic topic;
+	private volatile Listener listener;
+
+	/**
+	 * Initialize this instance and join the topic.
+	 * @param topic The topic shared among the nodes.
+	 */
+	public InProcessInvalidationBus(Topic topic) {
+		super();
+		this.topic = topic;
+		topic.buses.add(this);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.cache.InvalidationBus#publish(jp.eisbahn.oauth2.server.cache.InvalidationMessage)
+	 */
+	@Override
+	public void publish(InvalidationMessage message) {
+		for (InProcessInvalidationBus bus : topic.buses) {
+			if (bus != this) {
+				bus.deliver(message);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.cache.InvalidationBus#setListener(jp.eisbahn.oauth2.server.cache.InvalidationBus.Listener)
+	 */
+	@Override
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.cache.InvalidationBus#close()
+	 */
+	@Override
+	public void close() {
+		topic.buses.remove(this);
+	}
+
+	private void deliver(InvalidationMessage message) {
+		Listener current = listener;
+		if (current != null) {
+			current.onMessage(message);
+		}
+	}
+
+	/**
+	 * This class represents a group of the InProcessInvalidationBus instances
+	 * which exchange the messages.
+	 *
+	 * @author Yoichiro Tanaka
+	 *
+	 */
+	public static class Topic {
+
+		private List<InProcessInvalidationBus> buses =
+				new CopyOnWriteArrayList<InProcessInvalidationBus>();
+
+	}
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache.impl;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jp.eisbahn.oauth2.server.cache.InvalidationBus;
+import jp.eisbahn.oauth2.server.cache.InvalidationMessage;
+
+/**
+ * This class is the InvalidationBus implementation which sends each message
+ * to the peers as a UDP datagram.
+ *
+ * The peers are listed explicitly, therefore several nodes can run on one
+ * machine with the loopback address and different ports. A datagram may be
+ * lost, but the loss is detected by the sequence number when the next message
+ * or heartbeat from the same node arrives, and then all caches of the receiver
+ * are flushed.
+ * A received datagram which cannot be decoded is ignored.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class UdpInvalidationBus implements InvalidationBus {
+
+	private static final Logger LOG =
+			Logger.getLogger(UdpInvalidationBus.class.getName());
+
+	private static final int MAX_DATAGRAM_SIZE = 8192;
+
+	private InetSocketAddress bindAddress =
+			new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+	private List<InetSocketAddress> peers = new ArrayList<InetSocketAddress>();
+	private volatile Listener listener;
+	private DatagramSocket socket;
+	private Thread receiver;
+
+	/**
+	 * Set the local address to receive messages. By default, the loopback
+	 * address with an ephemeral port.
+	 * @param bindAddress The local address.
+	 */
+	public void setBindAddress(InetSocketAddress bindAddress) {
+		this.bindAddress = bindAddress;
+	}
+
+	/**
+	 * Set the addresses of other nodes.
+	 * @param peers The list of the addresses.
+	 */
+	public void setPeers(List<InetSocketAddress> peers) {
+		this.peers = new ArrayList<InetSocketAddress>(peers);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.cache.InvalidationBus#setListener(jp.eisbahn.oauth2.server.cache.InvalidationBus.Listener)
+	 */
+	@Override
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Bind the socket and start receiving messages.
+	 * @throws SocketException If the socket could not be bound.
+	 */
+	public synchronized void start() throws SocketException {
+		if (socket != null) {
+			throw new IllegalStateException("Already started.");
+		}
+		socket = new DatagramSocket(bindAddress);
+		final DatagramSocket current = socket;
+		receiver = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				receive(current);
+			}
+		}, "oauth2-invalidation-" + current.getLocalPort());
+		receiver.setDaemon(true);
+		receiver.start();
+	}
+
+	/**
+	 * Retrieve the local port number.
+	 * @return The port number, or -1 if not started.
+	 */
+	public synchronized int getLocalPort() {
+		return socket != null ? socket.getLocalPort() : -1;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.cache.InvalidationBus#publish(jp.eisbahn.oauth2.server.cache.InvalidationMessage)
+	 */
+	@Override
+	public void publish(InvalidationMessage message) {
+		DatagramSocket current;
+		synchronized (this) {
+			current = socket;
+		}
+		if (current == null) {
+			throw new IllegalStateException("Not started.");
+		}
+		byte[] bytes = message.toBytes();
+		for (InetSocketAddress peer : peers) {
+			try {
+				current.send(new DatagramPacket(bytes, bytes.length, peer));
+			} catch (IOException e) {
+				LOG.log(Level.WARNING,
+						"Sending an invalidation to " + peer + " failed.", e);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.cache.InvalidationBus#close()
+	 */
+	@Override
+	public void close() {
+		Thread thread;
+		synchronized (this) {
+			if (socket == null) {
+				return;
+			}
+			socket.close();
+			socket = null;
+			thread = receiver;
+			receiver = null;
+		}
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void receive(DatagramSocket current) {
+		byte[] buffer = new byte[MAX_DATAGRAM_SIZE];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		while (!current.isClosed()) {
+			try {
+				packet.setLength(buffer.length);
+				current.receive(packet);
+			} catch (IOException e) {
+				if (!current.isClosed()) {
+					LOG.log(Level.WARNING, "Receiving an invalidation failed.", e);
+				}
+				continue;
+			}
+			InvalidationMessage message;
+			try {
+				message = InvalidationMessage.fromBytes(
+						packet.getData(), packet.getOffset(), packet.getLength());
+			} catch (IllegalArgumentException e) {
+				LOG.log(Level.FINE, "Ignored a malformed invalidation.", e);
+				continue;
+			}
+			Listener target = listener;
+			if (target != null) {
+				try {
+					target.onMessage(message);
+				} catch (RuntimeException e) {
+					LOG.log(Level.WARNING, "Applying an invalidation failed.", e);
+				}
+			}
+		}
+	}
+
+}
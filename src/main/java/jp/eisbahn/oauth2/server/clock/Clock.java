@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.clock;
+
+/**
+ * This interface provides the current time to the expiration checks.
+ *
+ * The endpoints and the in-memory stores read the time through this interface
+ * instead of the system clock directly, so that a cheaper clock can be used on
+ * a hot path, and the time can be controlled in tests.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface Clock {
+
+	/**
+	 * Retrieve the current time.
+	 * @return The epoch time in milliseconds.
+	 */
+	public long currentTimeMillis();
+
+}
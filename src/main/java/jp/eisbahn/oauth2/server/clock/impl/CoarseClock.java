@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.clock.impl;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import jp.eisbahn.oauth2.server.clock.Clock;
+
+/**
+ * This class is the Clock implementation which returns a cached time.
+ *
+ * A daemon thread updates the cached time at the fixed resolution (10
+ * milliseconds by default), and each call only reads a volatile field.
+ * The returned time may lag behind the system clock by the resolution,
+ * therefore a token may be accepted for that long after its expiration time.
+ * Call the stop() method when this instance is no longer used.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class CoarseClock implements Clock {
+
+	private volatile long now = System.currentTimeMillis();
+	private ScheduledExecutorService executor;
+
+	/**
+	 * Initialize this instance with the resolution of 10 milliseconds, and
+	 * start updating the time.
+	 */
+	public CoarseClock() {
+		this(10);
+	}
+
+	/**
+	 * Initialize this instance and start updating the time.
+	 * @param resolutionMillis The interval to update the time in milliseconds.
+	 */
+	public CoarseClock(long resolutionMillis) {
+		super();
+		if (resolutionMillis <= 0) {
+			throw new IllegalArgumentException("resolutionMillis must be positive.");
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "oauth2-coarse-clock");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				now = System.currentTimeMillis();
+			}
+		}, resolutionMillis, resolutionMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.clock.Clock#currentTimeMillis()
+	 */
+	@Override
+	public long currentTimeMillis() {
+		return now;
+	}
+
+	/**
+	 * Stop updating the time. After this, the returned time doesn't change.
+	 */
+	public void stop() {
+		executor.shutdownNow();
+	}
+
+}
@@ -18,6 +18,8 @@
 
 package jp.eisbahn.oauth2.server.data;
 
+import java.util.List;
+
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.Request;
@@ -38,7 +40,7 @@ import jp.eisbahn.oauth2.server.models.Request;
  * Authorization Code Grant:<br />
  *   <ul>
  *   <li>validateClient(clientId, clientSecret, grantType)</li>
- *   <li>getAuthInfoByCode(code)</li>
+ *   <li>consumeAuthInfoByCode(code)</li>
  *   <li>createOrUpdateAccessToken(authInfo)</li>
  *   </ul>
  * </p>
@@ -82,6 +84,14 @@ import jp.eisbahn.oauth2.server.models.Request;
  *   </ul>
  * </p>
  * 
+ * <p>
+ * [Revocation phase]<br />
+ *   <ul>
+ *   <li>validateClient(clientId, clientSecret, "revocation")</li>
+ *   <li>revokeToken(clientId, token, tokenTypeHint)</li>
+ *   </ul>
+ * </p>
+ * 
  * @author Yoichiro Tanaka
  *
  */
@@ -182,6 +192,28 @@ public abstract class DataHandler {
 	 */
 	public abstract AuthInfo getAuthInfoByCode(String code);
 
+	/**
+	 * Retrieve the authorization information by the authorization code value
+	 * and invalidate the code at once.
+	 * This method is used by the Authorization Code grant instead of the
+	 * getAuthInfoByCode() method. The code must be invalidated atomically, so
+	 * that only one of the concurrent requests which present the same code
+	 * receives the authorization information, and the others receive null.
+	 * The code is invalidated even if it is presented by another client,
+	 * because it may be stolen.
+	 * 
+	 * <p>The default implementation calls the getAuthInfoByCode() method and
+	 * doesn't invalidate the code. Override this method with a compare and
+	 * delete operation of your database, or use the
+	 * InMemoryAuthorizationCodeStore.</p>
+	 * @param code The authorization code value.
+	 * @return The authorization information instance, or null if the code is
+	 * not found or was already consumed.
+	 */
+	public AuthInfo consumeAuthInfoByCode(String code) {
+		return getAuthInfoByCode(code);
+	}
+
 	/**
 	 * Retrieve the authorization information by the refresh token string.
 	 * This method is used to re-issue an access token with the refresh token.
@@ -259,4 +291,50 @@ public abstract class DataHandler {
 	 */
 	public abstract AuthInfo getAuthInfoById(String id);
 
+	/**
+	 * Revoke the token.
+	 * This method is used by the Revocation endpoint. This sub class should
+	 * invalidate the access token or the refresh token issued to the client in
+	 * your database or etc. When a refresh token is revoked, the access tokens
+	 * issued by the same authorization should also be revoked. If the token is
+	 * not found or was issued to other client, this method should do nothing.
+	 * 
+	 * <p>The default implementation throws UnsupportedOperationException, and
+	 * the Revocation endpoint returns the "unsupported_token_type" error.
+	 * If the token cannot be revoked now, throw
+	 * TemporarilyUnavailableException, then the endpoint returns the
+	 * "temporarily_unavailable" error.</p>
+	 * @param clientId The client ID which requested the revocation.
+	 * @param token The access token or refresh token string.
+	 * @param tokenTypeHint The "token_type_hint" parameter value, or null.
+	 * @return The access token strings revoked by this call, including the
+	 * token itself if it is an access token. The validation caches discard
+	 * these tokens. If they are unknown, return null, then all entries of
+	 * the caches are discarded.
+	 */
+	public List<String> revokeToken(String clientId, String token,
+			String tokenTypeHint) {
+		throw new UnsupportedOperationException("Revocation is not supported.");
+	}
+
+	/**
+	 * Store the access token which was issued without calling the
+	 * createOrUpdateAccessToken() method.
+	 * This method is used by the WriteBehindDataHandlerFactory, which issues
+	 * each access token in memory and stores it to your database later.
+	 * This sub class should store the access token as is, replacing the
+	 * access token issued by the same authorization before. The same access
+	 * token may be passed more than once after a restart, therefore this
+	 * method should be idempotent.
+	 * 
+	 * <p>The default implementation throws UnsupportedOperationException.</p>
+	 * @param authInfo The authorization information to which the access
+	 * token is issued.
+	 * @param accessToken The access token to be stored.
+	 */
+	public void storeAccessToken(AuthInfo authInfo, AccessToken accessToken) {
+		throw new UnsupportedOperationException(
+				"Storing an access token is not supported.");
+	}
+
 }
@@ -0,0 +1,316 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.utils.StringInterner;
+
+/**
+ * This class appends the issued access tokens to a local file.
+ *
+ * <p>Each record is framed by its length and a CRC-32 checksum, and has a
+ * sequence number. When the access tokens up to a sequence number are stored
+ * to the database, a flushed record is appended. When this journal is opened,
+ * the access tokens after the last flushed record are returned, and a torn
+ * record at the end of the file is discarded.</p>
+ *
+ * <p>The appended records are forced to the disk by group commit: a thread
+ * which calls sync() forces all records appended so far, so the concurrent
+ * callers share one fsync. When all records have been flushed and the file
+ * grows larger than the compaction size, the file is truncated.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+class AccessTokenJournal {
+
+	private static final Logger LOG =
+			Logger.getLogger(AccessTokenJournal.class.getName());
+
+	private static final byte TYPE_ACCESS_TOKEN = 1;
+	private static final byte TYPE_FLUSHED = 2;
+	private static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+	private final File file;
+	private final Object syncLock = new Object();
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private long written;
+	private long flushed;
+	private long synced;
+	private long compactionSize = 1024 * 1024;
+
+	AccessTokenJournal(File file) {
+		this.file = file;
+	}
+
+	void setCompactionSize(long compactionSize) {
+		this.compactionSize = compactionSize;
+	}
+
+	/**
+	 * Open the journal file and read the records which have not been flushed.
+	 * @return The records in the appended order.
+	 * @throws IOException If the file could not be read.
+	 */
+	synchronized List<Record> open() throws IOException {
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		List<Record> records = new ArrayList<Record>();
+		long position = 0;
+		long length = channel.size();
+		ByteBuffer header = ByteBuffer.allocate(4);
+		while (position + 4 <= length) {
+			header.clear();
+			channel.read(header, position);
+			int size = header.getInt(0);
+			if (size <= 0 || size > MAX_RECORD_SIZE
+					|| position + 4 + size + 4 > length) {
+				break;
+			}
+			ByteBuffer frame = ByteBuffer.allocate(size + 4);
+			channel.read(frame, position + 4);
+			CRC32 crc = new CRC32();
+			crc.update(frame.array(), 0, size);
+			if ((int)crc.getValue() != frame.getInt(size)) {
+				break;
+			}
+			Record record = decode(frame.array(), size);
+			if (record.accessToken != null) {
+				records.add(record);
+			} else {
+				flushed = Math.max(flushed, record.sequence);
+			}
+			written = Math.max(written, record.sequence);
+			position += 4 + size + 4;
+		}
+		if (position < length) {
+			LOG.warning("Discarded " + (length - position)
+					+ " bytes of a torn record at the end of " + file + ".");
+			channel.truncate(position);
+		}
+		channel.position(position);
+		synced = written;
+		Iterator<Record> iterator = records.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().sequence <= flushed) {
+				iterator.remove();
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Append the access token and force it to the disk.
+	 * @param authInfo The authorization information.
+	 * @param accessToken The access token.
+	 * @return The sequence number of the record.
+	 * @throws IOException If the record could not be written.
+	 */
+	long append(AuthInfo authInfo, AccessToken accessToken) throws IOException {
+		long sequence = write(authInfo, accessToken);
+		sync(sequence);
+		return sequence;
+	}
+
+	/**
+	 * Append the access token without forcing it to the disk. The caller
+	 * must call sync() with the returned sequence number before it hands the
+	 * access token out.
+	 * @param authInfo The authorization information.
+	 * @param accessToken The access token.
+	 * @return The sequence number of the record.
+	 * @throws IOException If the record could not be written.
+	 */
+	synchronized long write(AuthInfo authInfo, AccessToken accessToken)
+			throws IOException {
+		long sequence = ++written;
+		writeFrame(encode(sequence, authInfo, accessToken));
+		return sequence;
+	}
+
+	/**
+	 * Record that the access tokens up to the sequence number have been
+	 * stored to the database. This record is not forced to the disk, because
+	 * storing an access token again is harmless. The caller must have stored
+	 * all access tokens up to the sequence number, not only the last one,
+	 * because the records before it are never replayed.
+	 * @param sequence The sequence number.
+	 * @throws IOException If the record could not be written.
+	 */
+	synchronized void markFlushed(long sequence) throws IOException {
+		flushed = Math.max(flushed, sequence);
+		if (flushed == written && channel.size() >= compactionSize) {
+			channel.truncate(0);
+			channel.position(0);
+			return;
+		}
+		writeFrame(encode(sequence, null, null));
+	}
+
+	synchronized long getWritten() {
+		return written;
+	}
+
+	synchronized void close() throws IOException {
+		if (raf != null) {
+			raf.close();
+			raf = null;
+			channel = null;
+		}
+	}
+
+	/**
+	 * Force the records up to the sequence number to the disk. The records
+	 * appended by the other threads so far are forced together.
+	 * @param sequence The sequence number.
+	 * @throws IOException If the records could not be forced.
+	 */
+	void sync(long sequence) throws IOException {
+		synchronized (syncLock) {
+			if (synced >= sequence) {
+				return;
+			}
+			FileChannel current;
+			long target;
+			synchronized (this) {
+				current = channel;
+				target = written;
+			}
+			current.force(false);
+			synced = target;
+		}
+	}
+
+	private void writeFrame(byte[] payload) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		ByteBuffer frame = ByteBuffer.allocate(4 + payload.length + 4);
+		frame.putInt(payload.length);
+		frame.put(payload);
+		frame.putInt((int)crc.getValue());
+		frame.flip();
+		while (frame.hasRemaining()) {
+			channel.write(frame);
+		}
+	}
+
+	private static byte[] encode(long sequence, AuthInfo authInfo,
+			AccessToken accessToken) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(sequence);
+		if (accessToken == null) {
+			out.writeByte(TYPE_FLUSHED);
+			return bytes.toByteArray();
+		}
+		out.writeByte(TYPE_ACCESS_TOKEN);
+		writeString(out, authInfo.getId());
+		writeString(out, authInfo.getUserId());
+		writeString(out, authInfo.getClientId());
+		writeString(out, authInfo.getScope());
+		writeString(out, authInfo.getRefreshToken());
+		writeString(out, authInfo.getCode());
+		writeString(out, authInfo.getRedirectUri());
+		writeString(out, accessToken.getAuthId());
+		writeString(out, accessToken.getToken());
+		out.writeLong(accessToken.getExpiresIn());
+		Date createdOn = accessToken.getCreatedOn();
+		out.writeBoolean(createdOn != null);
+		out.writeLong(createdOn != null ? createdOn.getTime() : 0);
+		out.writeLong(accessToken.getExpiresAt());
+		return bytes.toByteArray();
+	}
+
+	private static Record decode(byte[] payload, int size) throws IOException {
+		DataInputStream in =
+				new DataInputStream(new ByteArrayInputStream(payload, 0, size));
+		long sequence = in.readLong();
+		if (in.readByte() != TYPE_ACCESS_TOKEN) {
+			return new Record(sequence, null, null);
+		}
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setId(readString(in));
+		authInfo.setUserId(readString(in));
+		authInfo.setClientId(readString(in));
+		authInfo.setScope(readString(in));
+		authInfo.setRefreshToken(readString(in));
+		authInfo.setCode(readString(in));
+		authInfo.setRedirectUri(readString(in));
+		AccessToken accessToken = new AccessToken();
+		accessToken.setAuthId(readString(in));
+		accessToken.setToken(readString(in));
+		accessToken.setExpiresIn(in.readLong());
+		boolean hasCreatedOn = in.readBoolean();
+		long createdOn = in.readLong();
+		if (hasCreatedOn) {
+			accessToken.setCreatedOn(new Date(createdOn));
+		}
+		accessToken.setExpiresAt(in.readLong());
+		Interning.intern(authInfo, StringInterner.SHARED);
+		return new Record(sequence, authInfo, accessToken);
+	}
+
+	private static void writeString(DataOutputStream out, String value)
+			throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * This class represents an access token read from the journal.
+	 */
+	static class Record {
+
+		final long sequence;
+		final AuthInfo authInfo;
+		final AccessToken accessToken;
+
+		Record(long sequence, AuthInfo authInfo, AccessToken accessToken) {
+			this.sequence = sequence;
+			this.authInfo = authInfo;
+			this.accessToken = accessToken;
+		}
+
+	}
+
+}
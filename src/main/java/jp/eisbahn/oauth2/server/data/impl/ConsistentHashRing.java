@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.impl;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * This class maps a key to one of the shards by consistent hashing.
+ *
+ * Each shard has some virtual nodes on the ring. When a shard is appended,
+ * only about 1/N of the keys move to the new shard.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+class ConsistentHashRing {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final long[] points;
+	private final int[] shards;
+
+	ConsistentHashRing(int shardCount, int virtualNodes) {
+		int size = shardCount * virtualNodes;
+		long[][] nodes = new long[size][];
+		for (int shard = 0; shard < shardCount; shard++) {
+			for (int i = 0; i < virtualNodes; i++) {
+				nodes[shard * virtualNodes + i] =
+						new long[] {hash("shard-" + shard + "-" + i), shard};
+			}
+		}
+		Arrays.sort(nodes, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] o1, long[] o2) {
+				return o1[0] < o2[0] ? -1 : (o1[0] > o2[0] ? 1 : 0);
+			}
+		});
+		points = new long[size];
+		shards = new int[size];
+		for (int i = 0; i < size; i++) {
+			points[i] = nodes[i][0];
+			shards[i] = (int)nodes[i][1];
+		}
+	}
+
+	int getShard(String key) {
+		int index = Arrays.binarySearch(points, hash(key));
+		if (index < 0) {
+			index = -index - 1;
+			if (index == points.length) {
+				index = 0;
+			}
+		}
+		return shards[index];
+	}
+
+	static long hash(String key) {
+		// FNV-1a followed by the MurmurHash3 finalizer.
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : key.getBytes(UTF_8)) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+}
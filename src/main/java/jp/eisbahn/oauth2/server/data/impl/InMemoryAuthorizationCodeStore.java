@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.impl;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.codec.binary.Base64;
+
+import jp.eisbahn.oauth2.server.clock.Clock;
+import jp.eisbahn.oauth2.server.clock.impl.SystemClock;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.utils.StringInterner;
+import jp.eisbahn.oauth2.server.utils.TimingWheel;
+
+/**
+ * This class keeps the authorization codes in memory, and consumes each
+ * code only once.
+ *
+ * <p>Your authorization endpoint issues a code by the issue() method, and
+ * your DataHandler implements the consumeAuthInfoByCode() method by calling
+ * the consume() method of this class. The consume() method removes the code
+ * from a ConcurrentHashMap, so that exactly one of the concurrent requests
+ * which present the same code receives the authorization information,
+ * without any database lock.</p>
+ *
+ * <p>Each code expires after the lifetime (600 seconds by default), and the
+ * expired codes are removed by a timing wheel while new codes are issued.
+ * The codes are visible only to this process, therefore the requests which
+ * present a code must be routed to the process which issued it.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class InMemoryAuthorizationCodeStore {
+
+	private static final long TICK_MILLIS = 1000;
+	private static final int CODE_BYTES = 32;
+
+	private final ConcurrentMap<String, Entry> codes =
+			new ConcurrentHashMap<String, Entry>();
+	private final SecureRandom random = new SecureRandom();
+	private Clock clock = SystemClock.INSTANCE;
+	private TimingWheel<Entry> wheel = createWheel();
+	private long codeLifetime = 600;
+	private StringInterner stringInterner = StringInterner.SHARED;
+
+	/**
+	 * Set the lifetime of each authorization code.
+	 * @param codeLifetime The lifetime in seconds.
+	 */
+	public void setCodeLifetime(long codeLifetime) {
+		this.codeLifetime = codeLifetime;
+	}
+
+	/**
+	 * Set the StringInterner which canonicalizes the client ID, the user ID,
+	 * the scope and the redirect URI of each stored authorization information.
+	 * By default, the shared instance is used. If null, nothing is interned.
+	 * @param stringInterner The StringInterner instance.
+	 */
+	public void setStringInterner(StringInterner stringInterner) {
+		this.stringInterner = stringInterner;
+	}
+
+	/**
+	 * Set the clock to check the expiration of each code.
+	 * The codes issued before are discarded.
+	 * @param clock The Clock instance.
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+		codes.clear();
+		wheel = createWheel();
+	}
+
+	/**
+	 * Issue a new authorization code for the authorization information.
+	 * The code is also set to the authorization information.
+	 * @param authInfo The authorization information.
+	 * @return The issued code.
+	 */
+	public String issue(AuthInfo authInfo) {
+		byte[] bytes = new byte[CODE_BYTES];
+		random.nextBytes(bytes);
+		String code = Base64.encodeBase64URLSafeString(bytes);
+		authInfo.setCode(code);
+		put(code, authInfo);
+		return code;
+	}
+
+	/**
+	 * Store the authorization information with the code issued by yourself.
+	 * If the code exists already, it is replaced.
+	 * @param code The authorization code.
+	 * @param authInfo The authorization information.
+	 */
+	public void put(String code, AuthInfo authInfo) {
+		long now = clock.currentTimeMillis();
+		wheel.advance(now);
+		long expiresAt = now + codeLifetime * 1000;
+		Interning.intern(authInfo, stringInterner);
+		Entry entry = new Entry(code, authInfo, expiresAt);
+		Entry previous = codes.put(code, entry);
+		if (previous != null) {
+			previous.cancel();
+		}
+		entry.timeout = wheel.schedule(entry, expiresAt);
+	}
+
+	/**
+	 * Retrieve the authorization information without consuming the code.
+	 * @param code The authorization code.
+	 * @return The authorization information, or null if the code is not
+	 * found, expired or consumed.
+	 */
+	public AuthInfo get(String code) {
+		if (code == null) {
+			return null;
+		}
+		Entry entry = codes.get(code);
+		if (entry == null || entry.expiresAt <= clock.currentTimeMillis()) {
+			return null;
+		}
+		return entry.authInfo;
+	}
+
+	/**
+	 * Retrieve the authorization information and remove the code atomically.
+	 * @param code The authorization code.
+	 * @return The authorization information, or null if the code is not
+	 * found, expired or consumed already.
+	 */
+	public AuthInfo consume(String code) {
+		if (code == null) {
+			return null;
+		}
+		Entry entry = codes.remove(code);
+		if (entry == null) {
+			return null;
+		}
+		entry.cancel();
+		if (entry.expiresAt <= clock.currentTimeMillis()) {
+			return null;
+		}
+		return entry.authInfo;
+	}
+
+	/**
+	 * Retrieve the number of the codes which have not been consumed or removed.
+	 * @return The number of the codes.
+	 */
+	public int size() {
+		return codes.size();
+	}
+
+	private TimingWheel<Entry> createWheel() {
+		return new TimingWheel<Entry>(
+				TICK_MILLIS, new TimingWheel.ExpirationHandler<Entry>() {
+					@Override
+					public void expired(Entry entry) {
+						codes.remove(entry.code, entry);
+					}
+				}, clock.currentTimeMillis());
+	}
+
+	private static class Entry {
+
+		private final String code;
+		private final AuthInfo authInfo;
+		private final long expiresAt;
+		private volatile TimingWheel.Timeout<Entry> timeout;
+
+		private Entry(String code, AuthInfo authInfo, long expiresAt) {
+			this.code = code;
+			this.authInfo = authInfo;
+			this.expiresAt = expiresAt;
+		}
+
+		private void cancel() {
+			TimingWheel.Timeout<Entry> current = timeout;
+			if (current != null) {
+				current.cancel();
+			}
+		}
+
+	}
+
+}
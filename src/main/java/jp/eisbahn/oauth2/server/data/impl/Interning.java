@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.impl;
+
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.utils.StringInterner;
+
+/**
+ * This class replaces the repeated values of the models held in memory
+ * with the canonical instances.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+final class Interning {
+
+	private Interning() {
+	}
+
+	static void intern(AuthInfo authInfo, StringInterner interner) {
+		if (authInfo == null || interner == null) {
+			return;
+		}
+		authInfo.setClientId(interner.intern(authInfo.getClientId()));
+		authInfo.setUserId(interner.intern(authInfo.getUserId()));
+		authInfo.setScope(interner.intern(authInfo.getScope()));
+		authInfo.setRedirectUri(interner.intern(authInfo.getRedirectUri()));
+	}
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import jp.eisbahn.oauth2.server.utils.TimingWheel;
+
+/**
+ * This class remembers the keys written recently for a while.
+ * Each key is forgotten by a timing wheel after the specified period.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+class RecentWrites {
+
+	private static final long TICK_MILLIS = 100;
+
+	private final ConcurrentMap<String, Write> writes =
+			new ConcurrentHashMap<String, Write>();
+	private final TimingWheel<Write> wheel;
+	private volatile long allWrittenUntil = Long.MIN_VALUE;
+
+	RecentWrites(long now) {
+		wheel = new TimingWheel<Write>(TICK_MILLIS,
+				new TimingWheel.ExpirationHandler<Write>() {
+					@Override
+					public void expired(Write write) {
+						writes.remove(write.key, write);
+					}
+				}, now);
+	}
+
+	void record(String key, long until, long now) {
+		if (key == null) {
+			return;
+		}
+		wheel.advance(now);
+		Write write = new Write(key, until);
+		writes.put(key, write);
+		wheel.schedule(write, until);
+	}
+
+	void recordAll(long until) {
+		if (until > allWrittenUntil) {
+			allWrittenUntil = until;
+		}
+	}
+
+	boolean isRecent(String key, long now) {
+		if (allWrittenUntil > now) {
+			return true;
+		}
+		if (key == null) {
+			return false;
+		}
+		Write write = writes.get(key);
+		return write != null && write.until > now;
+	}
+
+	int size() {
+		return writes.size();
+	}
+
+	private static class Write {
+
+		private final String key;
+		private final long until;
+
+		private Write(String key, long until) {
+			this.key = key;
+			this.until = until;
+		}
+
+	}
+
+}
@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.impl;
+
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class routes each call to the DataHandler of the primary or
+ * a replica. This instance is created by the ReplicaRoutingDataHandlerFactory
+ * per request, and each DataHandler is created when it is used first.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ReplicaRoutingDataHandler extends DataHandler {
+
+	private final ReplicaRoutingDataHandlerFactory factory;
+	private DataHandler primary;
+	private DataHandler replica;
+
+	/**
+	 * Initialize this instance.
+	 * @param request The request object.
+	 * @param factory The factory which has the primary and the replicas.
+	 */
+	public ReplicaRoutingDataHandler(Request request,
+			ReplicaRoutingDataHandlerFactory factory) {
+		super(request);
+		this.factory = factory;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#validateClient(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public boolean validateClient(String clientId, String clientSecret,
+			String grantType) {
+		return getPrimary().validateClient(clientId, clientSecret, grantType);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getUserId(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public String getUserId(String username, String password) {
+		return getPrimary().getUserId(username, password);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#createOrUpdateAuthInfo(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public AuthInfo createOrUpdateAuthInfo(String clientId, String userId,
+			String scope) {
+		AuthInfo authInfo =
+				getPrimary().createOrUpdateAuthInfo(clientId, userId, scope);
+		if (authInfo != null) {
+			factory.recordWrite(authInfo.getId());
+		}
+		return authInfo;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#createOrUpdateAccessToken(jp.eisbahn.oauth2.server.models.AuthInfo)
+	 */
+	@Override
+	public AccessToken createOrUpdateAccessToken(AuthInfo authInfo) {
+		AccessToken accessToken = getPrimary().createOrUpdateAccessToken(authInfo);
+		factory.recordWrite(authInfo.getId());
+		if (accessToken != null) {
+			factory.recordWrite(accessToken.getToken());
+			factory.recordWrite(accessToken.getAuthId());
+		}
+		return accessToken;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getAuthInfoByCode(java.lang.String)
+	 */
+	@Override
+	public AuthInfo getAuthInfoByCode(String code) {
+		return getPrimary().getAuthInfoByCode(code);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#consumeAuthInfoByCode(java.lang.String)
+	 */
+	@Override
+	public AuthInfo consumeAuthInfoByCode(String code) {
+		return getPrimary().consumeAuthInfoByCode(code);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getAuthInfoByRefreshToken(java.lang.String)
+	 */
+	@Override
+	public AuthInfo getAuthInfoByRefreshToken(String refreshToken) {
+		return getPrimary().getAuthInfoByRefreshToken(refreshToken);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getClientUserId(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public String getClientUserId(String clientId, String clientSecret) {
+		return getPrimary().getClientUserId(clientId, clientSecret);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#validateClientById(java.lang.String)
+	 */
+	@Override
+	public boolean validateClientById(String clientId) {
+		return getReplica().validateClientById(clientId);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#validateUserById(java.lang.String)
+	 */
+	@Override
+	public boolean validateUserById(String userId) {
+		return getReplica().validateUserById(userId);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getAccessToken(java.lang.String)
+	 */
+	@Override
+	public AccessToken getAccessToken(String token) {
+		if (factory.isRecentlyWritten(token)) {
+			return getPrimary().getAccessToken(token);
+		}
+		DataHandler handler = getReplica();
+		AccessToken accessToken = handler.getAccessToken(token);
+		if (accessToken == null && handler != getPrimary(false)
+				&& factory.isFallbackToPrimary()) {
+			accessToken = getPrimary().getAccessToken(token);
+		}
+		return accessToken;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getAuthInfoById(java.lang.String)
+	 */
+	@Override
+	public AuthInfo getAuthInfoById(String id) {
+		if (factory.isRecentlyWritten(id)) {
+			return getPrimary().getAuthInfoById(id);
+		}
+		DataHandler handler = getReplica();
+		AuthInfo authInfo = handler.getAuthInfoById(id);
+		if (authInfo == null && handler != getPrimary(false)
+				&& factory.isFallbackToPrimary()) {
+			authInfo = getPrimary().getAuthInfoById(id);
+		}
+		return authInfo;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#revokeToken(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public List<String> revokeToken(String clientId, String token,
+			String tokenTypeHint) {
+		List<String> revoked =
+				getPrimary().revokeToken(clientId, token, tokenTypeHint);
+		factory.recordWrite(token);
+		if (revoked == null) {
+			factory.recordWriteAll();
+		} else {
+			for (String accessToken : revoked) {
+				factory.recordWrite(accessToken);
+			}
+		}
+		return revoked;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#storeAccessToken(jp.eisbahn.oauth2.server.models.AuthInfo, jp.eisbahn.oauth2.server.models.AccessToken)
+	 */
+	@Override
+	public void storeAccessToken(AuthInfo authInfo, AccessToken accessToken) {
+		getPrimary().storeAccessToken(authInfo, accessToken);
+		factory.recordWrite(accessToken.getToken());
+		factory.recordWrite(accessToken.getAuthId());
+	}
+
+	private DataHandler getPrimary() {
+		return getPrimary(true);
+	}
+
+	private DataHandler getPrimary(boolean create) {
+		if (primary == null && create) {
+			primary = factory.createPrimaryHandler(getRequest());
+		}
+		return primary;
+	}
+
+	private DataHandler getReplica() {
+		if (replica == null) {
+			replica = factory.createReplicaHandler(getRequest());
+			if (replica == null) {
+				replica = getPrimary();
+			}
+		}
+		return replica;
+	}
+
+}
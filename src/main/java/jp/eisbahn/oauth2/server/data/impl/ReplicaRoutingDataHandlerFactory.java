@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.impl;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.eisbahn.oauth2.server.clock.Clock;
+import jp.eisbahn.oauth2.server.clock.impl.SystemClock;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class sends the reads of the ProtectedResource endpoint to read
+ * replicas, and the other calls to the primary database.
+ *
+ * <p>getAccessToken(), getAuthInfoById(), validateClientById() and
+ * validateUserById() are called by the DataHandler of a replica. The calls
+ * made while issuing or revoking a token, including getAuthInfoByCode() and
+ * getAuthInfoByRefreshToken(), are called by the DataHandler of the primary,
+ * so that an authorization code is never accepted twice because of
+ * a stale replica.</p>
+ *
+ * <p>The access tokens and the authorization information written through
+ * this instance are remembered for the replica lag period (1 second by
+ * default), and they are read from the primary during the period.
+ * Therefore, a token just issued or revoked is never read as stale data.
+ * Writes made by other nodes are not known to this instance, so a token
+ * issued by another node may be missing on a replica during the lag. By
+ * default, such a token is reported as invalid. If the fallback is enabled,
+ * it is read from the primary again, but then every request with an unknown
+ * token, including a forged one, reaches the primary.</p>
+ *
+ * <p>Each replica is used in turn for each request.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ReplicaRoutingDataHandlerFactory implements DataHandlerFactory {
+
+	private final DataHandlerFactory primary;
+	private final DataHandlerFactory[] replicas;
+	private final AtomicInteger next = new AtomicInteger();
+
+	private Clock clock = SystemClock.INSTANCE;
+	private RecentWrites recentWrites =
+			new RecentWrites(clock.currentTimeMillis());
+	private long replicaLagMillis = 1000;
+	private boolean fallbackToPrimary = false;
+
+	/**
+	 * Initialize this instance.
+	 * @param primary The DataHandlerFactory of the primary database.
+	 * @param replicas The DataHandlerFactory instances of the replicas.
+	 * If this is empty, all calls are sent to the primary.
+	 */
+	public ReplicaRoutingDataHandlerFactory(DataHandlerFactory primary,
+			List<DataHandlerFactory> replicas) {
+		super();
+		this.primary = primary;
+		this.replicas =
+				replicas.toArray(new DataHandlerFactory[replicas.size()]);
+	}
+
+	/**
+	 * Set the period during which the written data is read from the primary.
+	 * This should be longer than the replication lag of your database.
+	 * @param replicaLagMillis The period in milliseconds.
+	 */
+	public void setReplicaLagMillis(long replicaLagMillis) {
+		this.replicaLagMillis = replicaLagMillis;
+	}
+
+	/**
+	 * Set whether the data which is not found on a replica is read from
+	 * the primary again. The default value is false, so that requests with
+	 * unknown tokens don't reach the primary.
+	 * @param fallbackToPrimary If true, the primary is queried on a miss.
+	 */
+	public void setFallbackToPrimary(boolean fallbackToPrimary) {
+		this.fallbackToPrimary = fallbackToPrimary;
+	}
+
+	/**
+	 * Set the clock to measure the replica lag period.
+	 * The remembered writes are discarded.
+	 * @param clock The Clock instance.
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+		this.recentWrites = new RecentWrites(clock.currentTimeMillis());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandlerFactory#create(jp.eisbahn.oauth2.server.models.Request)
+	 */
+	@Override
+	public DataHandler create(Request request) {
+		return new ReplicaRoutingDataHandler(request, this);
+	}
+
+	DataHandler createPrimaryHandler(Request request) {
+		return primary.create(request);
+	}
+
+	DataHandler createReplicaHandler(Request request) {
+		if (replicas.length == 0) {
+			return null;
+		}
+		int index = (next.getAndIncrement() & Integer.MAX_VALUE) % replicas.length;
+		return replicas[index].create(request);
+	}
+
+	boolean isFallbackToPrimary() {
+		return fallbackToPrimary;
+	}
+
+	void recordWrite(String key) {
+		long now = clock.currentTimeMillis();
+		recentWrites.record(key, now + replicaLagMillis, now);
+	}
+
+	void recordWriteAll() {
+		recentWrites.recordAll(clock.currentTimeMillis() + replicaLagMillis);
+	}
+
+	boolean isRecentlyWritten(String key) {
+		return recentWrites.isRecent(key, clock.currentTimeMillis());
+	}
+
+}
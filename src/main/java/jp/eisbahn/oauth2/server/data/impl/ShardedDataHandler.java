@@ -0,0 +1,344 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class routes each call to the DataHandler of a shard.
+ * This instance is created by the ShardedDataHandlerFactory per request,
+ * and the DataHandler of each shard is created when it is used first.
+ * Each call goes to exactly one shard, according to the data placement
+ * described in {@link ShardedDataHandlerFactory}.
+ *
+ * <p>The AuthInfo and AccessToken instances returned by this class are
+ * copies which have the shard prefix. The instances returned by the
+ * DataHandler of each shard are never modified.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ShardedDataHandler extends DataHandler {
+
+	private final ShardedDataHandlerFactory factory;
+	private final DataHandler[] handlers;
+
+	/**
+	 * Initialize this instance.
+	 * @param request The request object.
+	 * @param factory The factory which has the shards.
+	 */
+	public ShardedDataHandler(Request request,
+			ShardedDataHandlerFactory factory) {
+		super(request);
+		this.factory = factory;
+		handlers = new DataHandler[factory.getShardCount()];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#validateClient(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public boolean validateClient(String clientId, String clientSecret,
+			String grantType) {
+		return getHandler(factory.getDirectoryShard())
+				.validateClient(clientId, clientSecret, grantType);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getUserId(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public String getUserId(String username, String password) {
+		return getHandler(factory.getDirectoryShard())
+				.getUserId(username, password);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#createOrUpdateAuthInfo(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public AuthInfo createOrUpdateAuthInfo(String clientId, String userId,
+			String scope) {
+		int shard = factory.getShard(clientId, userId);
+		return toSharded(shard, getHandler(shard)
+				.createOrUpdateAuthInfo(clientId, userId, scope));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#createOrUpdateAccessToken(jp.eisbahn.oauth2.server.models.AuthInfo)
+	 */
+	@Override
+	public AccessToken createOrUpdateAccessToken(AuthInfo authInfo) {
+		int shard = factory.getShard(authInfo.getId());
+		if (shard < 0) {
+			shard = factory.getShard(authInfo.getClientId(), authInfo.getUserId());
+		}
+		return toSharded(shard, getHandler(shard)
+				.createOrUpdateAccessToken(toOriginal(authInfo)));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getAuthInfoByCode(java.lang.String)
+	 */
+	@Override
+	public AuthInfo getAuthInfoByCode(String code) {
+		int shard = factory.getShard(code);
+		if (shard >= 0) {
+			return toSharded(shard, getHandler(shard)
+					.getAuthInfoByCode(factory.removePrefix(code)));
+		}
+		shard = factory.getLegacyShard();
+		if (shard < 0) {
+			return null;
+		}
+		return toSharded(shard, getHandler(shard).getAuthInfoByCode(code));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#consumeAuthInfoByCode(java.lang.String)
+	 */
+	@Override
+	public AuthInfo consumeAuthInfoByCode(String code) {
+		int shard = factory.getShard(code);
+		if (shard >= 0) {
+			return toSharded(shard, getHandler(shard)
+					.consumeAuthInfoByCode(factory.removePrefix(code)));
+		}
+		shard = factory.getLegacyShard();
+		if (shard < 0) {
+			return null;
+		}
+		return toSharded(shard, getHandler(shard).consumeAuthInfoByCode(code));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getAuthInfoByRefreshToken(java.lang.String)
+	 */
+	@Override
+	public AuthInfo getAuthInfoByRefreshToken(String refreshToken) {
+		int shard = factory.getShard(refreshToken);
+		if (shard >= 0) {
+			return toSharded(shard, getHandler(shard)
+					.getAuthInfoByRefreshToken(factory.removePrefix(refreshToken)));
+		}
+		shard = factory.getLegacyShard();
+		if (shard < 0) {
+			return null;
+		}
+		return toSharded(shard,
+				getHandler(shard).getAuthInfoByRefreshToken(refreshToken));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getClientUserId(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public String getClientUserId(String clientId, String clientSecret) {
+		return getHandler(factory.getDirectoryShard())
+				.getClientUserId(clientId, clientSecret);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#validateClientById(java.lang.String)
+	 */
+	@Override
+	public boolean validateClientById(String clientId) {
+		return getHandler(factory.getDirectoryShard())
+				.validateClientById(clientId);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#validateUserById(java.lang.String)
+	 */
+	@Override
+	public boolean validateUserById(String userId) {
+		return getHandler(factory.getDirectoryShard())
+				.validateUserById(userId);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getAccessToken(java.lang.String)
+	 */
+	@Override
+	public AccessToken getAccessToken(String token) {
+		int shard = factory.getShard(token);
+		if (shard >= 0) {
+			return toSharded(shard, getHandler(shard)
+					.getAccessToken(factory.removePrefix(token)));
+		}
+		shard = factory.getLegacyShard();
+		if (shard < 0) {
+			return null;
+		}
+		return toSharded(shard, getHandler(shard).getAccessToken(token));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getAuthInfoById(java.lang.String)
+	 */
+	@Override
+	public AuthInfo getAuthInfoById(String id) {
+		int shard = factory.getShard(id);
+		if (shard >= 0) {
+			return toSharded(shard, getHandler(shard)
+					.getAuthInfoById(factory.removePrefix(id)));
+		}
+		shard = factory.getLegacyShard();
+		if (shard < 0) {
+			return null;
+		}
+		return toSharded(shard, getHandler(shard).getAuthInfoById(id));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#revokeToken(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public List<String> revokeToken(String clientId, String token,
+			String tokenTypeHint) {
+		int shard = factory.getShard(token);
+		if (shard >= 0) {
+			return toRevoked(shard, getHandler(shard).revokeToken(clientId,
+					factory.removePrefix(token), tokenTypeHint));
+		}
+		shard = factory.getLegacyShard();
+		if (shard < 0) {
+			return null;
+		}
+		return toRevoked(shard,
+				getHandler(shard).revokeToken(clientId, token, tokenTypeHint));
+	}
+
+	private List<String> toRevoked(int shard, List<String> revoked) {
+		if (revoked == null) {
+			return null;
+		}
+		List<String> result = toSharded(shard, revoked, null);
+		if (shard == factory.getLegacyShard()) {
+			// Each value of the legacy shard is also accepted without the
+			// prefix, so it may be cached in both forms.
+			result.addAll(revoked);
+		}
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#storeAccessToken(jp.eisbahn.oauth2.server.models.AuthInfo, jp.eisbahn.oauth2.server.models.AccessToken)
+	 */
+	@Override
+	public void storeAccessToken(AuthInfo authInfo, AccessToken accessToken) {
+		int shard = factory.getShard(authInfo.getId());
+		if (shard < 0) {
+			shard = factory.getShard(authInfo.getClientId(), authInfo.getUserId());
+		}
+		AccessToken original = copy(accessToken);
+		original.setAuthId(factory.removePrefix(accessToken.getAuthId()));
+		original.setToken(factory.removePrefix(accessToken.getToken()));
+		getHandler(shard).storeAccessToken(toOriginal(authInfo), original);
+	}
+
+	private DataHandler getHandler(int shard) {
+		DataHandler handler = handlers[shard];
+		if (handler == null) {
+			handler = factory.createShardHandler(shard, getRequest());
+			handlers[shard] = handler;
+		}
+		return handler;
+	}
+
+	private AuthInfo toSharded(int shard, AuthInfo source) {
+		if (source == null) {
+			return null;
+		}
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setId(factory.addPrefix(shard, source.getId()));
+		authInfo.setUserId(source.getUserId());
+		authInfo.setClientId(source.getClientId());
+		authInfo.setScope(source.getScope());
+		authInfo.setRefreshToken(factory.addPrefix(shard, source.getRefreshToken()));
+		authInfo.setCode(factory.addPrefix(shard, source.getCode()));
+		authInfo.setRedirectUri(source.getRedirectUri());
+		return authInfo;
+	}
+
+	private AuthInfo toOriginal(AuthInfo source) {
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setId(factory.removePrefix(source.getId()));
+		authInfo.setUserId(source.getUserId());
+		authInfo.setClientId(source.getClientId());
+		authInfo.setScope(source.getScope());
+		authInfo.setRefreshToken(factory.removePrefix(source.getRefreshToken()));
+		authInfo.setCode(factory.removePrefix(source.getCode()));
+		authInfo.setRedirectUri(source.getRedirectUri());
+		return authInfo;
+	}
+
+	private AccessToken toSharded(int shard, AccessToken source) {
+		if (source == null) {
+			return null;
+		}
+		AccessToken accessToken = copy(source);
+		accessToken.setAuthId(factory.addPrefix(shard, source.getAuthId()));
+		accessToken.setToken(factory.addPrefix(shard, source.getToken()));
+		return accessToken;
+	}
+
+	private AccessToken copy(AccessToken source) {
+		AccessToken accessToken = new AccessToken();
+		accessToken.setAuthId(source.getAuthId());
+		accessToken.setToken(source.getToken());
+		accessToken.setExpiresIn(source.getExpiresIn());
+		accessToken.setCreatedOn(source.getCreatedOn());
+		accessToken.setExpiresAt(source.getExpiresAt());
+		return accessToken;
+	}
+
+	private List<String> toSharded(int shard, List<String> tokens,
+			List<String> result) {
+		if (result == null) {
+			result = new ArrayList<String>(tokens.size());
+		}
+		for (String token : tokens) {
+			result.add(factory.addPrefix(shard, token));
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.impl;
+
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class distributes the authorization data to some shards.
+ *
+ * <p>Each shard is represented by a DataHandlerFactory instance of your
+ * database. The data is placed as follows:</p>
+ * <ul>
+ * <li>The authorization information, and the codes, refresh tokens and access
+ * tokens which belong to it, are stored to the shard chosen by consistent
+ * hashing on the client ID and the user ID. The ID, code and refresh token
+ * of the authorization information and the access token string issued
+ * through the created DataHandler have a shard prefix, for instance "1~xxxx".
+ * Therefore, getAccessToken(), getAuthInfoById(), getAuthInfoByCode() and
+ * getAuthInfoByRefreshToken() go straight to the shard without a lookup.</li>
+ * <li>The client information and the user information are not sharded. They
+ * are looked up only on the directory shard (the shard 0 by default), by
+ * validateClient(), getClientUserId(), validateClientById(), getUserId() and
+ * validateUserById(). Therefore, a client or a user must exist on the
+ * directory shard, and doesn't need to exist on the other shards.</li>
+ * <li>A value which doesn't have a valid prefix, for instance a token issued
+ * before the sharding was introduced, is looked up only on the legacy shard
+ * (the shard 0 by default), which should be the database used before the
+ * sharding. Therefore, an invalid token costs one lookup, not one per shard.
+ * If no value was issued before the sharding, set -1 to skip the lookup.
+ * A value issued by the legacy shard with the prefix is also accepted
+ * without it, therefore the revokeToken() method returns both forms of each
+ * revoked value of the legacy shard, so that a cache keyed by either form is
+ * invalidated.</li>
+ * </ul>
+ * <p>The prefix is removed before each value is passed to the DataHandler of
+ * the shard, so your DataHandler doesn't need to know about the sharding.
+ * If you issue authorization codes yourself, add the prefix by
+ * {@link #addPrefix(int, String)} with the shard returned by
+ * {@link #getShard(String, String)}.</p>
+ *
+ * <p>The order of the shards must not be changed, because the prefix is the
+ * index of the shard. Appending a new shard moves about 1/N of the new
+ * authorization information to it.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ShardedDataHandlerFactory implements DataHandlerFactory {
+
+	/**
+	 * The character which separates the shard prefix and the original value.
+	 */
+	public static final char SEPARATOR = '~';
+
+	private static final int DEFAULT_VIRTUAL_NODES = 160;
+	private static final int MAX_PREFIX_LENGTH = 4;
+
+	private final DataHandlerFactory[] factories;
+	private ConsistentHashRing ring;
+	private int directoryShard = 0;
+	private int legacyShard = 0;
+
+	/**
+	 * Initialize this instance with the factories of each shard.
+	 * @param factories The DataHandlerFactory instances. The index of each
+	 * factory is used as the shard prefix.
+	 */
+	public ShardedDataHandlerFactory(List<DataHandlerFactory> factories) {
+		super();
+		if (factories == null || factories.isEmpty()) {
+			throw new IllegalArgumentException("No shard is specified.");
+		}
+		this.factories =
+				factories.toArray(new DataHandlerFactory[factories.size()]);
+		ring = new ConsistentHashRing(this.factories.length,
+				DEFAULT_VIRTUAL_NODES);
+	}
+
+	/**
+	 * Set the number of the virtual nodes of each shard on the hash ring.
+	 * The more nodes, the more even the distribution is. The default value
+	 * is 160. All nodes in a cluster must use the same value.
+	 * @param virtualNodes The number of the virtual nodes.
+	 */
+	public void setVirtualNodes(int virtualNodes) {
+		if (virtualNodes <= 0) {
+			throw new IllegalArgumentException(
+					"virtualNodes must be positive: " + virtualNodes);
+		}
+		ring = new ConsistentHashRing(factories.length, virtualNodes);
+	}
+
+	/**
+	 * Set the shard which stores the client information and the user
+	 * information. The default value is 0.
+	 * @param directoryShard The index of the shard.
+	 */
+	public void setDirectoryShard(int directoryShard) {
+		if (directoryShard < 0 || directoryShard >= factories.length) {
+			throw new IllegalArgumentException(
+					"Invalid directory shard: " + directoryShard);
+		}
+		this.directoryShard = directoryShard;
+	}
+
+	/**
+	 * Retrieve the shard which stores the client information and the user
+	 * information.
+	 * @return The index of the shard.
+	 */
+	public int getDirectoryShard() {
+		return directoryShard;
+	}
+
+	/**
+	 * Set the shard on which a value without a prefix is looked up.
+	 * The default value is 0.
+	 * @param legacyShard The index of the shard, or -1 if a value without
+	 * a prefix should never be found.
+	 */
+	public void setLegacyShard(int legacyShard) {
+		if (legacyShard < -1 || legacyShard >= factories.length) {
+			throw new IllegalArgumentException(
+					"Invalid legacy shard: " + legacyShard);
+		}
+		this.legacyShard = legacyShard;
+	}
+
+	/**
+	 * Retrieve the shard on which a value without a prefix is looked up.
+	 * @return The index of the shard, or -1 if it is not looked up.
+	 */
+	public int getLegacyShard() {
+		return legacyShard;
+	}
+
+	/**
+	 * Retrieve the number of the shards.
+	 * @return The number of the shards.
+	 */
+	public int getShardCount() {
+		return factories.length;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandlerFactory#create(jp.eisbahn.oauth2.server.models.Request)
+	 */
+	@Override
+	public DataHandler create(Request request) {
+		return new ShardedDataHandler(request, this);
+	}
+
+	/**
+	 * Retrieve the shard which stores the authorization information of
+	 * the client and the user.
+	 * @param clientId The client ID.
+	 * @param userId The user ID.
+	 * @return The index of the shard.
+	 */
+	public int getShard(String clientId, String userId) {
+		return ring.getShard(clientId + '\u0000' + userId);
+	}
+
+	/**
+	 * Retrieve the shard of the value which has a shard prefix.
+	 * @param value The value, for instance, an access token string.
+	 * @return The index of the shard. If the value doesn't have a valid
+	 * prefix, this returns -1.
+	 */
+	public int getShard(String value) {
+		if (value == null) {
+			return -1;
+		}
+		int pos = value.indexOf(SEPARATOR);
+		if (pos <= 0 || pos > MAX_PREFIX_LENGTH) {
+			return -1;
+		}
+		int shard = 0;
+		for (int i = 0; i < pos; i++) {
+			int digit = Character.digit(value.charAt(i), Character.MAX_RADIX);
+			if (digit < 0) {
+				return -1;
+			}
+			shard = shard * Character.MAX_RADIX + digit;
+		}
+		return shard < factories.length ? shard : -1;
+	}
+
+	/**
+	 * Add the shard prefix to the value.
+	 * @param shard The index of the shard.
+	 * @param value The original value.
+	 * @return The value which has the prefix. If the value is null,
+	 * this returns null.
+	 */
+	public String addPrefix(int shard, String value) {
+		if (value == null) {
+			return null;
+		}
+		return Integer.toString(shard, Character.MAX_RADIX) + SEPARATOR + value;
+	}
+
+	/**
+	 * Remove the shard prefix from the value.
+	 * @param value The value which has the prefix.
+	 * @return The original value. If the value doesn't have a valid prefix,
+	 * the value is returned as is.
+	 */
+	public String removePrefix(String value) {
+		if (getShard(value) < 0) {
+			return value;
+		}
+		return value.substring(value.indexOf(SEPARATOR) + 1);
+	}
+
+	DataHandler createShardHandler(int shard, Request request) {
+		return factories[shard].create(request);
+	}
+
+}
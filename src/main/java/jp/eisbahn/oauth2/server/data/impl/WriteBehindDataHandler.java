@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.impl;
+
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.exceptions.TemporarilyUnavailableException;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+
+/**
+ * This class issues each access token through the
+ * WriteBehindDataHandlerFactory, and delegates the other calls to
+ * your DataHandler.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class WriteBehindDataHandler extends DataHandler {
+
+	private final DataHandler delegate;
+	private final WriteBehindDataHandlerFactory factory;
+
+	/**
+	 * Initialize this instance.
+	 * @param delegate The DataHandler of your database.
+	 * @param factory The factory which holds the access tokens in memory.
+	 */
+	public WriteBehindDataHandler(DataHandler delegate,
+			WriteBehindDataHandlerFactory factory) {
+		super(delegate.getRequest());
+		this.delegate = delegate;
+		this.factory = factory;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#validateClient(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public boolean validateClient(String clientId, String clientSecret,
+			String grantType) {
+		return delegate.validateClient(clientId, clientSecret, grantType);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getUserId(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public String getUserId(String username, String password) {
+		return delegate.getUserId(username, password);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#createOrUpdateAuthInfo(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public AuthInfo createOrUpdateAuthInfo(String clientId, String userId,
+			String scope) {
+		return delegate.createOrUpdateAuthInfo(clientId, userId, scope);
+	}
+
+	/**
+	 * Issue a new access token in memory. It is stored to the database
+	 * asynchronously. The createOrUpdateAccessToken() method of the delegate
+	 * is not called, and the lifetime is the one set to the factory.
+	 * @param authInfo The authorization information.
+	 * @return The issued access token.
+	 */
+	@Override
+	public AccessToken createOrUpdateAccessToken(AuthInfo authInfo) {
+		return factory.issue(authInfo);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getAuthInfoByCode(java.lang.String)
+	 */
+	@Override
+	public AuthInfo getAuthInfoByCode(String code) {
+		return delegate.getAuthInfoByCode(code);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#consumeAuthInfoByCode(java.lang.String)
+	 */
+	@Override
+	public AuthInfo consumeAuthInfoByCode(String code) {
+		return delegate.consumeAuthInfoByCode(code);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getAuthInfoByRefreshToken(java.lang.String)
+	 */
+	@Override
+	public AuthInfo getAuthInfoByRefreshToken(String refreshToken) {
+		return delegate.getAuthInfoByRefreshToken(refreshToken);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getClientUserId(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public String getClientUserId(String clientId, String clientSecret) {
+		return delegate.getClientUserId(clientId, clientSecret);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#validateClientById(java.lang.String)
+	 */
+	@Override
+	public boolean validateClientById(String clientId) {
+		return delegate.validateClientById(clientId);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#validateUserById(java.lang.String)
+	 */
+	@Override
+	public boolean validateUserById(String userId) {
+		return delegate.validateUserById(userId);
+	}
+
+	/**
+	 * Retrieve the access token from memory if it has not been stored yet,
+	 * otherwise from the database.
+	 * @param token The access token string.
+	 * @return The access token, or null if not found.
+	 */
+	@Override
+	public AccessToken getAccessToken(String token) {
+		AccessToken accessToken = factory.getPending(token);
+		if (accessToken != null) {
+			return accessToken;
+		}
+		return delegate.getAccessToken(token);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getAuthInfoById(java.lang.String)
+	 */
+	@Override
+	public AuthInfo getAuthInfoById(String id) {
+		return delegate.getAuthInfoById(id);
+	}
+
+	/**
+	 * Revoke the token after all access tokens issued so far are stored.
+	 * @param clientId The client ID.
+	 * @param token The access token or refresh token string.
+	 * @param tokenTypeHint The "token_type_hint" parameter value, or null.
+	 * @return The revoked access token strings.
+	 * @throws TemporarilyUnavailableException If the access tokens are not
+	 * stored within the flush timeout.
+	 */
+	@Override
+	public List<String> revokeToken(String clientId, String token,
+			String tokenTypeHint) {
+		if (!factory.awaitFlushed()) {
+			throw new TemporarilyUnavailableException(
+					"The issued access tokens have not been stored yet");
+		}
+		return delegate.revokeToken(clientId, token, tokenTypeHint);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#storeAccessToken(jp.eisbahn.oauth2.server.models.AuthInfo, jp.eisbahn.oauth2.server.models.AccessToken)
+	 */
+	@Override
+	public void storeAccessToken(AuthInfo authInfo, AccessToken accessToken) {
+		delegate.storeAccessToken(authInfo, accessToken);
+	}
+
+}
@@ -0,0 +1,383 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.codec.binary.Base64;
+
+import jp.eisbahn.oauth2.server.clock.Clock;
+import jp.eisbahn.oauth2.server.clock.impl.SystemClock;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.utils.StringInterner;
+
+/**
+ * This class issues access tokens without waiting for the database.
+ *
+ * <p>The createOrUpdateAccessToken() method of the created DataHandler
+ * generates a new access token, appends it to a local journal file and
+ * returns it as soon as the journal is forced to the disk. The concurrent
+ * requests share one fsync. The access token can be read by getAccessToken()
+ * from memory immediately, and a background thread stores it to your
+ * database by {@link DataHandler#storeAccessToken(AuthInfo, AccessToken)}.
+ * The other methods are delegated to your DataHandler as is, except that
+ * revokeToken() waits until the issued access tokens are stored. If they are
+ * not stored within the flush timeout (10 seconds by default), revokeToken()
+ * throws TemporarilyUnavailableException and the client gets the
+ * "temporarily_unavailable" error.</p>
+ *
+ * <p>The createOrUpdateAccessToken() method of your DataHandler is never
+ * called. Each call issues a new access token, even if the authorization
+ * already has a valid one, and its lifetime is the value set by
+ * setExpiresIn(), not the one your DataHandler would decide.</p>
+ *
+ * <p>When the database is slower than the issuance, the number of the access
+ * tokens which have not been stored reaches the maximum (10000 by default),
+ * and the issuance waits for the background thread. A failed store is retried
+ * in order. When this instance is started, the access tokens which had not
+ * been stored before the last shutdown are read from the journal and stored
+ * again.</p>
+ *
+ * <p>The access tokens in memory are visible only to this process until they
+ * are stored. The DataHandler which stores them is created with a null
+ * request.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class WriteBehindDataHandlerFactory implements DataHandlerFactory {
+
+	private static final Logger LOG =
+			Logger.getLogger(WriteBehindDataHandlerFactory.class.getName());
+
+	private static final int TOKEN_BYTES = 32;
+
+	private final DataHandlerFactory delegate;
+	private final AccessTokenJournal journal;
+	private final ConcurrentMap<String, Pending> pending =
+			new ConcurrentHashMap<String, Pending>();
+	private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<Pending>();
+	private final SecureRandom random = new SecureRandom();
+	private final Object issueLock = new Object();
+	private final Object flushLock = new Object();
+
+	private Clock clock = SystemClock.INSTANCE;
+	private int maxPending = 10000;
+	private long expiresIn = 3600;
+	private long retryMillis = 1000;
+	private long flushTimeoutMillis = 10000;
+
+	private Semaphore permits;
+	private Thread flusher;
+	private volatile boolean running;
+	private long flushedSequence;
+
+	/**
+	 * Initialize this instance.
+	 * @param delegate The DataHandlerFactory of your database.
+	 * @param journalFile The journal file. It is created if it doesn't exist.
+	 */
+	public WriteBehindDataHandlerFactory(DataHandlerFactory delegate,
+			File journalFile) {
+		super();
+		this.delegate = delegate;
+		this.journal = new AccessTokenJournal(journalFile);
+	}
+
+	/**
+	 * Set the maximum number of the access tokens which have not been stored
+	 * to the database. This must be set before start() is called.
+	 * @param maxPending The maximum number.
+	 */
+	public void setMaxPending(int maxPending) {
+		this.maxPending = maxPending;
+	}
+
+	/**
+	 * Set the lifetime of each issued access token.
+	 * @param expiresIn The lifetime in seconds. The default value is 3600.
+	 */
+	public void setExpiresIn(long expiresIn) {
+		this.expiresIn = expiresIn;
+	}
+
+	/**
+	 * Set the interval of retrying a failed store.
+	 * @param retryMillis The interval in milliseconds. The default value is
+	 * 1000.
+	 */
+	public void setRetryMillis(long retryMillis) {
+		this.retryMillis = retryMillis;
+	}
+
+	/**
+	 * Set the maximum time for which revokeToken() waits until the issued
+	 * access tokens are stored.
+	 * @param flushTimeoutMillis The timeout in milliseconds. The default value
+	 * is 10000.
+	 */
+	public void setFlushTimeoutMillis(long flushTimeoutMillis) {
+		this.flushTimeoutMillis = flushTimeoutMillis;
+	}
+
+	/**
+	 * Set the journal file size at which it is truncated when all access
+	 * tokens have been stored.
+	 * @param compactionSize The size in bytes. The default value is 1 MB.
+	 */
+	public void setCompactionSize(long compactionSize) {
+		journal.setCompactionSize(compactionSize);
+	}
+
+	/**
+	 * Set the clock which stamps the creation time of each access token.
+	 * @param clock The Clock instance.
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Open the journal, replay the access tokens which have not been stored,
+	 * and start the background thread.
+	 * @throws IOException If the journal could not be opened.
+	 */
+	public synchronized void start() throws IOException {
+		if (running) {
+			throw new IllegalStateException("Already started.");
+		}
+		List<AccessTokenJournal.Record> records = journal.open();
+		permits = new Semaphore(maxPending);
+		flushedSequence = records.isEmpty()
+				? journal.getWritten() : records.get(0).sequence - 1;
+		for (AccessTokenJournal.Record record : records) {
+			Pending item = new Pending(record.sequence, record.authInfo,
+					record.accessToken);
+			pending.put(record.accessToken.getToken(), item);
+			queue.add(item);
+			permits.tryAcquire();
+		}
+		if (!records.isEmpty()) {
+			LOG.info("Replaying " + records.size()
+					+ " access tokens from the journal.");
+		}
+		running = true;
+		flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, "oauth2-write-behind");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Stop the background thread and close the journal. The access tokens
+	 * which have not been stored are stored after the next start.
+	 */
+	public void close() {
+		Thread thread;
+		synchronized (this) {
+			if (!running) {
+				return;
+			}
+			running = false;
+			thread = flusher;
+			flusher = null;
+		}
+		thread.interrupt();
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			journal.close();
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Closing the journal failed.", e);
+		}
+	}
+
+	/**
+	 * Retrieve the number of the access tokens which have not been stored.
+	 * @return The number of the access tokens.
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandlerFactory#create(jp.eisbahn.oauth2.server.models.Request)
+	 */
+	@Override
+	public DataHandler create(Request request) {
+		return new WriteBehindDataHandler(delegate.create(request), this);
+	}
+
+	AccessToken issue(AuthInfo authInfo) {
+		if (!running) {
+			throw new IllegalStateException("Not started.");
+		}
+		byte[] bytes = new byte[TOKEN_BYTES];
+		random.nextBytes(bytes);
+		AccessToken accessToken = new AccessToken();
+		accessToken.setAuthId(authInfo.getId());
+		accessToken.setToken(Base64.encodeBase64URLSafeString(bytes));
+		accessToken.setExpiresIn(expiresIn);
+		accessToken.setCreatedOn(new Date(clock.currentTimeMillis()));
+		Interning.intern(authInfo, StringInterner.SHARED);
+		permits.acquireUninterruptibly();
+		Pending item;
+		// The sequence number is assigned and the item is queued under the
+		// same lock, so the background thread stores the access tokens in the
+		// order of the journal, and each flushed record covers only the
+		// stored ones. The fsync is shared outside of the lock.
+		synchronized (issueLock) {
+			long sequence;
+			try {
+				sequence = journal.write(authInfo, accessToken);
+			} catch (IOException e) {
+				permits.release();
+				throw new IllegalStateException("Writing the journal failed.", e);
+			}
+			item = new Pending(sequence, authInfo, accessToken);
+			pending.put(accessToken.getToken(), item);
+			queue.add(item);
+		}
+		try {
+			journal.sync(item.sequence);
+		} catch (IOException e) {
+			throw new IllegalStateException("Writing the journal failed.", e);
+		}
+		return accessToken;
+	}
+
+	AccessToken getPending(String token) {
+		if (token == null) {
+			return null;
+		}
+		Pending item = pending.get(token);
+		return item != null ? item.accessToken : null;
+	}
+
+	/**
+	 * Wait until the access tokens issued so far are stored.
+	 * @return False if they are not stored within the flush timeout.
+	 */
+	boolean awaitFlushed() {
+		long target = journal.getWritten();
+		long deadline = System.currentTimeMillis() + flushTimeoutMillis;
+		boolean interrupted = false;
+		boolean flushed;
+		synchronized (flushLock) {
+			while (running && flushedSequence < target) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					break;
+				}
+				try {
+					flushLock.wait(Math.min(remaining, retryMillis));
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			flushed = !running || flushedSequence >= target;
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return flushed;
+	}
+
+	private void flush() {
+		while (running) {
+			Pending item;
+			try {
+				item = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (!store(item)) {
+				return;
+			}
+			pending.remove(item.accessToken.getToken(), item);
+			permits.release();
+			try {
+				journal.markFlushed(item.sequence);
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "Writing the journal failed.", e);
+			}
+			synchronized (flushLock) {
+				flushedSequence = item.sequence;
+				flushLock.notifyAll();
+			}
+		}
+	}
+
+	private boolean store(Pending item) {
+		while (running) {
+			try {
+				DataHandler dataHandler = delegate.create(null);
+				dataHandler.storeAccessToken(item.authInfo, item.accessToken);
+				return true;
+			} catch (RuntimeException e) {
+				LOG.log(Level.WARNING, "Storing an access token failed.", e);
+			}
+			try {
+				Thread.sleep(retryMillis);
+			} catch (InterruptedException e) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private static class Pending {
+
+		private final long sequence;
+		private final AuthInfo authInfo;
+		private final AccessToken accessToken;
+
+		private Pending(long sequence, AuthInfo authInfo,
+				AccessToken accessToken) {
+			this.sequence = sequence;
+			this.authInfo = authInfo;
+			this.accessToken = accessToken;
+		}
+
+	}
+
+}
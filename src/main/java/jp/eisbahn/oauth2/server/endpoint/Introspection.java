@@ -0,0 +1,330 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.endpoint;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import jp.eisbahn.oauth2.server.cache.IntrospectionCache;
+import jp.eisbahn.oauth2.server.clock.Clock;
+import jp.eisbahn.oauth2.server.clock.impl.SystemClock;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcher;
+import jp.eisbahn.oauth2.server.models.ClientCredential;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.utils.Util;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * This class provides the token introspection defined by RFC 7662.
+ * 
+ * A resource server sends the token with its own client credential, and
+ * this handleRequest() method returns whether the token is active, and
+ * the scope, the client ID, the user ID and the expiration time if active.
+ * The token is validated by the ProtectedResource instance, therefore the
+ * result is same as the ProtectedResourceFilter. The client credential is
+ * checked by the validateClient() method of the DataHandler with "introspection"
+ * as the grant type.
+ * 
+ * If an IntrospectionCache instance is set, the encoded response of each
+ * active token is cached until the token expires. A cached token is answered
+ * without calling the DataHandler to validate the token.
+ * 
+ * The authenticated client credential of each resource server is remembered
+ * for a short time (60 seconds by default), so that the validateClient()
+ * method, which usually compares a slow password hash, is not called for each
+ * introspection. Only a SHA-256 digest of the secret is kept. A changed or
+ * revoked credential is still accepted until the period passes, unless
+ * invalidateClient() is called.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class Introspection {
+
+	/**
+	 * The grant type passed to the validateClient() method of DataHandler
+	 * to authenticate the resource server.
+	 */
+	public static final String GRANT_TYPE = "introspection";
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final byte[] INACTIVE = "{\"active\":false}".getBytes(UTF_8);
+	private static final int MAX_AUTHENTICATED_CLIENTS = 1024;
+
+	private DataHandlerFactory dataHandlerFactory;
+	private ClientCredentialFetcher clientCredentialFetcher;
+	private ProtectedResource protectedResource;
+	private IntrospectionCache cache;
+	private final ConcurrentMap<String, AuthenticatedClient> authenticatedClients =
+			new ConcurrentHashMap<String, AuthenticatedClient>();
+	private long clientCacheMillis = 60000;
+	private Clock clock = SystemClock.INSTANCE;
+
+	/**
+	 * Set the DataHandlerFactory instance.
+	 * This is used to authenticate the resource server.
+	 * @param dataHandlerFactory The DataHandlerFactory instance.
+	 */
+	public void setDataHandlerFactory(DataHandlerFactory dataHandlerFactory) {
+		this.dataHandlerFactory = dataHandlerFactory;
+	}
+
+	/**
+	 * Set the ClientCredentialFetcher instance.
+	 * @param clientCredentialFetcher The ClientCredentialFetcher instance.
+	 */
+	public void setClientCredentialFetcher(ClientCredentialFetcher clientCredentialFetcher) {
+		this.clientCredentialFetcher = clientCredentialFetcher;
+	}
+
+	/**
+	 * Set the ProtectedResource instance which validates each token.
+	 * @param protectedResource The ProtectedResource instance.
+	 */
+	public void setProtectedResource(ProtectedResource protectedResource) {
+		this.protectedResource = protectedResource;
+	}
+
+	/**
+	 * Set the IntrospectionCache instance. By default, nothing is cached.
+	 * @param cache The IntrospectionCache instance.
+	 */
+	public void setCache(IntrospectionCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Retrieve the IntrospectionCache instance.
+	 * @return The IntrospectionCache instance, or null if nothing is cached.
+	 */
+	public IntrospectionCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Set the period for which an authenticated client credential is
+	 * remembered.
+	 * @param clientCacheMillis The period in milliseconds. The default value
+	 * is 60000. If 0, validateClient() is called for each request.
+	 */
+	public void setClientCacheMillis(long clientCacheMillis) {
+		this.clientCacheMillis = clientCacheMillis;
+		authenticatedClients.clear();
+	}
+
+	/**
+	 * Forget the authenticated credential of the client, for instance, when
+	 * its secret is changed or revoked.
+	 * @param clientId The client ID.
+	 */
+	public void invalidateClient(String clientId) {
+		authenticatedClients.remove(clientId);
+	}
+
+	/**
+	 * Set the Clock instance. By default, the system clock is used.
+	 * @param clock The Clock instance.
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Handle the introspection request.
+	 * The status code is 200 when the request is valid, regardless of whether
+	 * the token is active. If the client credential is invalid, the code is
+	 * 401. If the token parameter is not specified, the code is 400.
+	 * @param request The request instance.
+	 * @return The response object which has the status code and JSON string.
+	 */
+	public Response handleRequest(Request request) {
+		try {
+			ClientCredential clientCredential = clientCredentialFetcher.fetch(request);
+			String clientId = clientCredential.getClientId();
+			if (StringUtils.isEmpty(clientId)) {
+				throw new OAuthError.InvalidRequest("'client_id' not found");
+			}
+			String clientSecret = clientCredential.getClientSecret();
+			if (StringUtils.isEmpty(clientSecret)) {
+				throw new OAuthError.InvalidRequest("'client_secret' not found");
+			}
+			String token = request.getParameter("token");
+			if (StringUtils.isEmpty(token)) {
+				throw new OAuthError.InvalidRequest("'token' not found");
+			}
+			if (!authenticate(request, clientId, clientSecret)) {
+				throw new OAuthError.InvalidClient("");
+			}
+			return new Response(200, introspect(request, token));
+		} catch (OAuthError e) {
+			return new Response(e.getCode(), Util.toJson(e).getBytes(UTF_8));
+		}
+	}
+
+	private boolean authenticate(Request request, String clientId,
+			String clientSecret) {
+		long now = clock.currentTimeMillis();
+		byte[] digest = null;
+		if (clientCacheMillis > 0) {
+			digest = DigestUtils.sha256(clientSecret);
+			AuthenticatedClient authenticated = authenticatedClients.get(clientId);
+			if (authenticated != null && authenticated.expiresAt > now
+					&& MessageDigest.isEqual(authenticated.secretDigest, digest)) {
+				return true;
+			}
+		}
+		DataHandler dataHandler = dataHandlerFactory.create(request);
+		if (!dataHandler.validateClient(clientId, clientSecret, GRANT_TYPE)) {
+			// The remembered credential is kept, so that a wrong secret doesn't
+			// force the next valid request to the slow path.
+			return false;
+		}
+		if (clientCacheMillis > 0) {
+			if (authenticatedClients.size() >= MAX_AUTHENTICATED_CLIENTS) {
+				authenticatedClients.clear();
+			}
+			authenticatedClients.put(clientId,
+					new AuthenticatedClient(digest, now + clientCacheMillis));
+		}
+		return true;
+	}
+
+	private byte[] introspect(Request request, String token) {
+		if (cache != null) {
+			byte[] cached = cache.get(token);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		ProtectedResource.Response result;
+		try {
+			result = protectedResource.validateToken(request, token);
+		} catch (OAuthError e) {
+			return INACTIVE;
+		}
+		Map<String, Object> body = new LinkedHashMap<String, Object>();
+		body.put("active", true);
+		if (StringUtils.isNotEmpty(result.getScope())) {
+			body.put("scope", result.getScope());
+		}
+		body.put("client_id", result.getClientId());
+		body.put("sub", result.getRemoteUser());
+		body.put("token_type", "Bearer");
+		if (result.getExpiresAt() > 0) {
+			body.put("exp", result.getExpiresAt() / 1000);
+		}
+		byte[] encoded = Util.toJson(body).getBytes(UTF_8);
+		if (cache != null && result.getExpiresAt() > 0) {
+			cache.put(token, encoded, result.getExpiresAt());
+		}
+		return encoded;
+	}
+
+	private static class AuthenticatedClient {
+
+		private final byte[] secretDigest;
+		private final long expiresAt;
+
+		private AuthenticatedClient(byte[] secretDigest, long expiresAt) {
+			this.secretDigest = secretDigest;
+			this.expiresAt = expiresAt;
+		}
+
+	}
+
+	/**
+	 * This class has two properties: A status code and JSON string as the result
+	 * of the introspection.
+	 * 
+	 * @author Yoichiro Tanaka
+	 *
+	 */
+	public static class Response {
+
+		private final int code;
+		private final byte[] body;
+
+		/**
+		 * Initialize this instance with arguments passed.
+		 * @param code The status code.
+		 * @param body The JSON string encoded as UTF-8.
+		 */
+		public Response(int code, byte[] body) {
+			super();
+			this.code = code;
+			this.body = body;
+		}
+
+		/**
+		 * Retrieve the status code value.
+		 * @return The HTTP status code value.
+		 */
+		public int getCode() {
+			return code;
+		}
+
+		/**
+		 * Retrieve the JSON string.
+		 * @return The JSON string.
+		 */
+		public String getBody() {
+			return new String(body, UTF_8);
+		}
+
+		/**
+		 * Retrieve the JSON string encoded as UTF-8. The array is a copy,
+		 * because the body may be shared with the cache. To avoid the copy,
+		 * use getBodyLength() and writeBodyTo().
+		 * @return The encoded JSON string.
+		 */
+		public byte[] getBodyBytes() {
+			return body.clone();
+		}
+
+		/**
+		 * Retrieve the length of the JSON string encoded as UTF-8.
+		 * @return The length in bytes.
+		 */
+		public int getBodyLength() {
+			return body.length;
+		}
+
+		/**
+		 * Write the JSON string encoded as UTF-8 to the stream.
+		 * @param out The stream.
+		 * @throws IOException If the stream fails.
+		 */
+		public void writeBodyTo(OutputStream out) throws IOException {
+			out.write(body);
+		}
+
+	}
+
+}
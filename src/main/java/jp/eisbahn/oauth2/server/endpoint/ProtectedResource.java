@@ -18,15 +18,22 @@
 
 package jp.eisbahn.oauth2.server.endpoint;
 
+import jp.eisbahn.oauth2.server.cache.ValidationCache;
+import jp.eisbahn.oauth2.server.clock.Clock;
+import jp.eisbahn.oauth2.server.clock.impl.SystemClock;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcher;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcher.FetchResult;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcherProvider;
+import jp.eisbahn.oauth2.server.instrumentation.Instrumentation;
+import jp.eisbahn.oauth2.server.instrumentation.InstrumentedDataHandler;
+import jp.eisbahn.oauth2.server.instrumentation.impl.NoopInstrumentation;
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.scope.ScopeRegistry;
 
 /**
  * This class provides the function to judge whether an access to protected
@@ -45,6 +52,10 @@ public class ProtectedResource {
 
 	private AccessTokenFetcherProvider accessTokenFetcherProvider;
 	private DataHandlerFactory dataHandlerFactory;
+	private Instrumentation instrumentation = new NoopInstrumentation();
+	private ValidationCache validationCache;
+	private Clock clock = SystemClock.INSTANCE;
+	private ScopeRegistry scopeRegistry;
 
 	/**
 	 * This method handles a request and judges whether the request can be
@@ -57,19 +68,90 @@ public class ProtectedResource {
 	 * why this request was judged as invalid.
 	 */
 	public Response handleRequest(Request request) throws OAuthError {
+		if (!instrumentation.isEnabled()) {
+			return validate(request, false);
+		}
+		instrumentation.beginProtectedResourceRequest();
+		long start = System.nanoTime();
+		String clientId = null;
+		String outcome = Instrumentation.SUCCESS;
+		try {
+			Response response = validate(request, true);
+			clientId = response.getClientId();
+			return response;
+		} catch (OAuthError e) {
+			outcome = e.getClass().getSimpleName();
+			throw e;
+		} catch (RuntimeException e) {
+			outcome = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			instrumentation.recordProtectedResourceRequest(clientId, outcome,
+					System.nanoTime() - start);
+		}
+	}
+
+	private Response validate(Request request, boolean instrumented)
+			throws OAuthError {
 		AccessTokenFetcher accessTokenFetcher = accessTokenFetcherProvider.getFetcher(request);
 		if (accessTokenFetcher == null) {
 			throw new OAuthError.InvalidRequest("Access token was not specified.");
 		}
 		FetchResult fetchResult = accessTokenFetcher.fetch(request);
-		String token = fetchResult.getToken();
+		return validateToken(request, fetchResult.getToken(), instrumented);
+	}
+
+	/**
+	 * Validate the access token passed directly, not fetched from the request.
+	 * This method is used by other endpoints which need the same validation,
+	 * for instance, the Introspection endpoint. The elapsed time is not
+	 * reported to the Instrumentation instance, but each call against the
+	 * DataHandler is measured if the instance is enabled.
+	 * 
+	 * @param request The request object passed to the DataHandlerFactory.
+	 * @param token The access token string.
+	 * @return If the access token is valid, this result has the information
+	 * of the token.
+	 * @throws OAuthError If the access token is invalid.
+	 */
+	public Response validateToken(Request request, String token) throws OAuthError {
+		return validateToken(request, token, instrumentation.isEnabled());
+	}
+
+	private Response validateToken(Request request, String token,
+			boolean instrumented) throws OAuthError {
+		boolean cacheable = validationCache != null && token != null;
+		if (cacheable) {
+			Response cached = validationCache.get(token);
+			if (cached != null) {
+				if (!cached.isScopeMaskCompiled() && scopeRegistry != null) {
+					// Put by the Token endpoint, which doesn't know the registry.
+					cached = new Response(cached.getRemoteUser(),
+							cached.getClientId(), cached.getScope(),
+							cached.getExpiresAt(),
+							scopeRegistry.toMask(cached.getScope()));
+					validationCache.put(token, cached);
+				}
+				return cached;
+			}
+			if (validationCache.isInvalid(token)) {
+				throw new OAuthError.InvalidToken("Invalid access token.");
+			}
+		}
 		DataHandler dataHandler = dataHandlerFactory.create(request);
+		if (instrumented && !(dataHandler instanceof InstrumentedDataHandler)) {
+			dataHandler = new InstrumentedDataHandler(
+					dataHandler, instrumentation, null, null);
+		}
 		AccessToken accessToken = dataHandler.getAccessToken(token);
 		if (accessToken == null) {
+			if (cacheable) {
+				validationCache.putInvalid(token);
+			}
 			throw new OAuthError.InvalidToken("Invalid access token.");
 		}
-		long now = System.currentTimeMillis();
-		if (accessToken.getCreatedOn().getTime() + accessToken.getExpiresIn() * 1000 <= now) {
+		long expiresAt = accessToken.getExpiresAt();
+		if (expiresAt <= clock.currentTimeMillis()) {
 			throw new OAuthError.ExpiredToken();
 		}
 		AuthInfo authInfo = dataHandler.getAuthInfoById(accessToken.getAuthId());
@@ -82,10 +164,20 @@ public class ProtectedResource {
 		if (!dataHandler.validateUserById(authInfo.getUserId())) {
 			throw new OAuthError.InvalidToken("Invalid user.");
 		}
-		return new Response(
+		long scopeMask = 0L;
+		if (scopeRegistry != null) {
+			scopeMask = scopeRegistry.toMask(authInfo.getScope());
+		}
+		Response response = new Response(
 			authInfo.getUserId(),
 			authInfo.getClientId(),
-			authInfo.getScope());
+			authInfo.getScope(),
+			expiresAt,
+			scopeMask);
+		if (cacheable) {
+			validationCache.put(token, response);
+		}
+		return response;
 	}
 
 	/**
@@ -104,6 +196,60 @@ public class ProtectedResource {
 		this.dataHandlerFactory = dataHandlerFactory;
 	}
 
+	/**
+	 * Set the Instrumentation instance.
+	 * The elapsed time of each request is reported to this instance per
+	 * outcome. If the instance is enabled, each call against the DataHandler
+	 * is also measured. By default, nothing is measured.
+	 * @param instrumentation The Instrumentation instance.
+	 */
+	public void setInstrumentation(Instrumentation instrumentation) {
+		this.instrumentation = instrumentation;
+	}
+
+	/**
+	 * Set the Clock instance.
+	 * The expiration time of each access token is compared with the time
+	 * returned by this instance. By default, the system clock is used.
+	 * @param clock The Clock instance.
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Set the ValidationCache instance.
+	 * Each valid result is cached until the token expires, and each token not
+	 * found is cached as a negative entry. Register the instance to the
+	 * TokenCacheRegistry used by the Revocation endpoint, so that a revoked
+	 * token is not served from the cache. By default, nothing is cached.
+	 * @param validationCache The ValidationCache instance.
+	 */
+	public void setValidationCache(ValidationCache validationCache) {
+		this.validationCache = validationCache;
+	}
+
+	/**
+	 * Set the ScopeRegistry instance.
+	 * The scope string of each valid access token is compiled into a bitmask
+	 * by this instance. The bitmask is cached with the result, so that each
+	 * resource can check its required scopes by a single AND operation. The
+	 * bitmask of the AuthInfo is ignored, because it may have been compiled by
+	 * another registry. By default, the bitmask is 0.
+	 * @param scopeRegistry The ScopeRegistry instance.
+	 */
+	public void setScopeRegistry(ScopeRegistry scopeRegistry) {
+		this.scopeRegistry = scopeRegistry;
+	}
+
+	/**
+	 * Retrieve the ScopeRegistry instance.
+	 * @return The ScopeRegistry instance, or null if it is not set.
+	 */
+	public ScopeRegistry getScopeRegistry() {
+		return scopeRegistry;
+	}
+
 	/**
 	 * This class has the information about an OAuth2.0 request.
 	 * 
@@ -120,6 +266,9 @@ public class ProtectedResource {
 		private String remoteUser;
 		private String clientId;
 		private String scope;
+		private long expiresAt;
+		private long scopeMask;
+		private boolean scopeMaskCompiled;
 
 		/**
 		 * This constructor initializes this instance.
@@ -128,9 +277,46 @@ public class ProtectedResource {
 		 * @param scope The scope string authorized by the remote user.
 		 */
 		public Response(String remoteUser, String clientId, String scope) {
+			this(remoteUser, clientId, scope, 0);
+		}
+
+		/**
+		 * This constructor initializes this instance with the expiration time.
+		 * @param remoteUser The remote user's ID.
+		 * @param clientId The client ID.
+		 * @param scope The scope string authorized by the remote user.
+		 * @param expiresAt The time when the access token expires in
+		 * milliseconds since the epoch.
+		 */
+		public Response(String remoteUser, String clientId, String scope,
+				long expiresAt) {
+			this(remoteUser, clientId, scope, expiresAt, 0L, false);
+		}
+
+		/**
+		 * This constructor initializes this instance with the expiration time
+		 * and the bitmask of the scopes.
+		 * @param remoteUser The remote user's ID.
+		 * @param clientId The client ID.
+		 * @param scope The scope string authorized by the remote user.
+		 * @param expiresAt The time when the access token expires in
+		 * milliseconds since the epoch.
+		 * @param scopeMask The bitmask of the scopes compiled by
+		 * a ScopeRegistry.
+		 */
+		public Response(String remoteUser, String clientId, String scope,
+				long expiresAt, long scopeMask) {
+			this(remoteUser, clientId, scope, expiresAt, scopeMask, true);
+		}
+
+		private Response(String remoteUser, String clientId, String scope,
+				long expiresAt, long scopeMask, boolean scopeMaskCompiled) {
 			this.remoteUser = remoteUser;
 			this.clientId = clientId;
 			this.scope = scope;
+			this.expiresAt = expiresAt;
+			this.scopeMask = scopeMask;
+			this.scopeMaskCompiled = scopeMaskCompiled;
 		}
 
 		/**
@@ -157,6 +343,43 @@ public class ProtectedResource {
 			return scope;
 		}
 
+		/**
+		 * Retrieve the time when the access token expires.
+		 * @return The time in milliseconds since the epoch. If unknown, 0.
+		 */
+		public long getExpiresAt() {
+			return expiresAt;
+		}
+
+		/**
+		 * Retrieve the bitmask of the scopes authorized by the remote user.
+		 * @return The bitmask. If no ScopeRegistry is used, 0.
+		 */
+		public long getScopeMask() {
+			return scopeMask;
+		}
+
+		/**
+		 * Judge whether the bitmask of the scopes has been compiled. If not,
+		 * the ProtectedResource compiles it when this instance is read from
+		 * the validation cache.
+		 * @return True if this instance was created with the bitmask, even if
+		 * it is 0.
+		 */
+		public boolean isScopeMaskCompiled() {
+			return scopeMaskCompiled;
+		}
+
+		/**
+		 * Judge whether all required scopes are authorized.
+		 * @param requiredMask The bitmask of the required scopes compiled by
+		 * the ScopeRegistry.
+		 * @return True if all required scopes are authorized.
+		 */
+		public boolean hasScopes(long requiredMask) {
+			return (scopeMask & requiredMask) == requiredMask;
+		}
+
 	}
 
 }
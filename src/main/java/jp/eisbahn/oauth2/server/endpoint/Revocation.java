@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.endpoint;
+
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.cache.TokenCacheRegistry;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.TemporarilyUnavailableException;
+import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcher;
+import jp.eisbahn.oauth2.server.models.ClientCredential;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.utils.Util;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * This class provides the token revocation defined by RFC 7009.
+ * 
+ * The client sends the access token or the refresh token with its client
+ * credential. The client credential is checked by the validateClient() method
+ * of the DataHandler with "revocation" as the grant type, and the token is
+ * revoked by the revokeToken() method. Then, the revoked access tokens are
+ * discarded from all caches registered to the TokenCacheRegistry before this
+ * handleRequest() method returns. Therefore, no revoked token is served from
+ * the caches after the client receives the response.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+public class Revocation {
+
+	/**
+	 * The grant type passed to the validateClient() method of DataHandler
+	 * to authenticate the client.
+	 */
+	public static final String GRANT_TYPE = "revocation";
+
+	private DataHandlerFactory dataHandlerFactory;
+	private ClientCredentialFetcher clientCredentialFetcher;
+	private TokenCacheRegistry cacheRegistry = new TokenCacheRegistry();
+
+	/**
+	 * Set the DataHandlerFactory instance.
+	 * @param dataHandlerFactory The DataHandlerFactory instance.
+	 */
+	public void setDataHandlerFactory(DataHandlerFactory dataHandlerFactory) {
+		this.dataHandlerFactory = dataHandlerFactory;
+	}
+
+	/**
+	 * Set the ClientCredentialFetcher instance.
+	 * @param clientCredentialFetcher The ClientCredentialFetcher instance.
+	 */
+	public void setClientCredentialFetcher(ClientCredentialFetcher clientCredentialFetcher) {
+		this.clientCredentialFetcher = clientCredentialFetcher;
+	}
+
+	/**
+	 * Set the TokenCacheRegistry instance which has all caches to be
+	 * invalidated. By default, an empty registry is used.
+	 * @param cacheRegistry The TokenCacheRegistry instance.
+	 */
+	public void setCacheRegistry(TokenCacheRegistry cacheRegistry) {
+		this.cacheRegistry = cacheRegistry;
+	}
+
+	/**
+	 * Retrieve the TokenCacheRegistry instance.
+	 * @return The TokenCacheRegistry instance.
+	 */
+	public TokenCacheRegistry getCacheRegistry() {
+		return cacheRegistry;
+	}
+
+	/**
+	 * Handle the revocation request.
+	 * The status code is 200 when the request is valid, even if the token is
+	 * invalid or unknown. If the client credential is invalid, the code is 401.
+	 * If the token parameter is not specified or the DataHandler doesn't support
+	 * the revocation, the code is 400. If the DataHandler throws
+	 * TemporarilyUnavailableException, the code is 503.
+	 * @param request The request instance.
+	 * @return The response object which has the status code and JSON string.
+	 */
+	public Response handleRequest(Request request) {
+		try {
+			ClientCredential clientCredential = clientCredentialFetcher.fetch(request);
+			String clientId = clientCredential.getClientId();
+			if (StringUtils.isEmpty(clientId)) {
+				throw new OAuthError.InvalidRequest("'client_id' not found");
+			}
+			String clientSecret = clientCredential.getClientSecret();
+			if (StringUtils.isEmpty(clientSecret)) {
+				throw new OAuthError.InvalidRequest("'client_secret' not found");
+			}
+			String token = request.getParameter("token");
+			if (StringUtils.isEmpty(token)) {
+				throw new OAuthError.InvalidRequest("'token' not found");
+			}
+			String tokenTypeHint = request.getParameter("token_type_hint");
+			DataHandler dataHandler = dataHandlerFactory.create(request);
+			if (!dataHandler.validateClient(clientId, clientSecret, GRANT_TYPE)) {
+				throw new OAuthError.InvalidClient("");
+			}
+			List<String> revoked;
+			try {
+				revoked = dataHandler.revokeToken(clientId, token, tokenTypeHint);
+			} catch (UnsupportedOperationException e) {
+				throw new OAuthError.UnsupportedTokenType(e.getMessage());
+			} catch (TemporarilyUnavailableException e) {
+				throw new OAuthError.TemporarilyUnavailable(e.getMessage());
+			}
+			invalidate(token, revoked);
+			return new Response(200, "");
+		} catch (OAuthError e) {
+			return new Response(e.getCode(), Util.toJson(e));
+		}
+	}
+
+	private void invalidate(String token, List<String> revoked) {
+		if (revoked == null) {
+			cacheRegistry.invalidateAll();
+			return;
+		}
+		cacheRegistry.invalidate(token);
+		for (String accessToken : revoked) {
+			if (!accessToken.equals(token)) {
+				cacheRegistry.invalidate(accessToken);
+			}
+		}
+	}
+
+	/**
+	 * This class has two properties: A status code and JSON string as the result
+	 * of the revocation.
+	 * 
+	 * @author Yoichiro Tanaka
+	 *
+	 */
+	public static class Response {
+
+		private int code;
+		private String body;
+
+		/**
+		 * Initialize this instance with arguments passed.
+		 * @param code The status code.
+		 * @param body The JSON string. If succeeded, this is an empty string.
+		 */
+		public Response(int code, String body) {
+			super();
+			this.code = code;
+			this.body = body;
+		}
+
+		/**
+		 * Retrieve the status code value.
+		 * @return The HTTP status code value.
+		 */
+		public int getCode() {
+			return code;
+		}
+
+		/**
+		 * Retrieve the JSON string. If succeeded, this is an empty string.
+		 * @return The JSON string.
+		 */
+		public String getBody() {
+			return body;
+		}
+
+	}
+
+}
@@ -18,6 +18,10 @@
 
 package jp.eisbahn.oauth2.server.endpoint;
 
+import jp.eisbahn.oauth2.server.cache.TokenCache;
+import jp.eisbahn.oauth2.server.cache.ValidationCache;
+import jp.eisbahn.oauth2.server.clock.Clock;
+import jp.eisbahn.oauth2.server.clock.impl.SystemClock;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
@@ -25,8 +29,14 @@ import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcher
 import jp.eisbahn.oauth2.server.granttype.GrantHandler;
 import jp.eisbahn.oauth2.server.granttype.GrantHandlerProvider;
 import jp.eisbahn.oauth2.server.granttype.GrantHandler.GrantHandlerResult;
+import jp.eisbahn.oauth2.server.instrumentation.Instrumentation;
+import jp.eisbahn.oauth2.server.instrumentation.InstrumentedDataHandler;
+import jp.eisbahn.oauth2.server.instrumentation.impl.NoopInstrumentation;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.ClientCredential;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.ratelimit.FailureTracker;
+import jp.eisbahn.oauth2.server.ratelimit.RateLimiter;
 import jp.eisbahn.oauth2.server.utils.Util;
 
 import org.apache.commons.lang3.StringUtils;
@@ -48,6 +58,15 @@ public class Token {
 	private DataHandlerFactory dataHandlerFactory;
 	private GrantHandlerProvider grantHandlerProvider;
 	private ClientCredentialFetcher clientCredentialFetcher;
+	private Instrumentation instrumentation = new NoopInstrumentation();
+	private TokenCache cacheRegistry;
+	private ValidationCache validationCache;
+	private RateLimiter rateLimiter;
+	private FailureTracker failureTracker;
+	private Clock clock = SystemClock.INSTANCE;
+
+	private static final Response TOO_MANY_REQUESTS = new Response(429,
+			Util.toJson(new OAuthError.TooManyRequests()));
 
 	/**
 	 * Set the DataHandlerFactory instance.
@@ -84,6 +103,76 @@ public class Token {
 		this.clientCredentialFetcher = clientCredentialFetcher;
 	}
 
+	/**
+	 * Set the Instrumentation instance.
+	 * The elapsed time of each request is reported to this instance per
+	 * grant type. If the instance is enabled, each call against the DataHandler
+	 * is also measured. By default, nothing is measured.
+	 * @param instrumentation The Instrumentation instance.
+	 */
+	public void setInstrumentation(Instrumentation instrumentation) {
+		this.instrumentation = instrumentation;
+	}
+
+	/**
+	 * Set the TokenCache instance, usually the TokenCacheRegistry.
+	 * The createOrUpdateAccessToken() method of the DataHandler may return
+	 * the existing token with updated information. Therefore, the cached
+	 * results for the issued token are invalidated through this instance
+	 * after issuing. By default, nothing is invalidated.
+	 * @param cacheRegistry The TokenCache instance.
+	 */
+	public void setCacheRegistry(TokenCache cacheRegistry) {
+		this.cacheRegistry = cacheRegistry;
+	}
+
+	/**
+	 * Set the ValidationCache instance which the ProtectedResource endpoint
+	 * reads. The validation result of each issued token is put into this
+	 * cache, so that the first request with the token is validated without
+	 * calling the DataHandler. This is effective only when the GrantHandler
+	 * sets the AuthInfo and the expiration time to its result, as the bundled
+	 * grant handlers do. By default, nothing is put.
+	 * @param validationCache The ValidationCache instance.
+	 */
+	public void setValidationCache(ValidationCache validationCache) {
+		this.validationCache = validationCache;
+	}
+
+	/**
+	 * Set the RateLimiter instance.
+	 * Each request is checked with its client ID before the DataHandler is
+	 * called, and a rejected request gets the TooManyRequests error
+	 * immediately. By default, no request is limited.
+	 * @param rateLimiter The RateLimiter instance.
+	 */
+	public void setRateLimiter(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Set the FailureTracker instance for the client authentication.
+	 * A client in a backoff period gets the TooManyRequests error without
+	 * calling the validateClient() method of the DataHandler. The key is the
+	 * client ID with {@link FailureTracker#CLIENT_PREFIX}. By default,
+	 * failures are not tracked.
+	 * @param failureTracker The FailureTracker instance.
+	 */
+	public void setFailureTracker(FailureTracker failureTracker) {
+		this.failureTracker = failureTracker;
+	}
+
+	/**
+	 * Set the Clock instance.
+	 * The expiration time of each issued access token is compared with the
+	 * time returned by this instance before the token is put into the
+	 * ValidationCache. By default, the system clock is used.
+	 * @param clock The Clock instance.
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
 	/**
 	 * Handle the request and issue a token.
 	 * This class is an entry point to issue the token. When this method receives
@@ -98,6 +187,15 @@ public class Token {
 	 * @return The response object which has the status code and JSON string.
 	 */
 	public Response handleRequest(Request request) {
+		boolean instrumented = instrumentation.isEnabled();
+		long start = 0L;
+		if (instrumented) {
+			instrumentation.beginTokenRequest();
+			start = System.nanoTime();
+		}
+		String grantType = null;
+		String clientId = null;
+		String outcome = Instrumentation.SUCCESS;
 		try {
 			String type = request.getParameter("grant_type");
 			if (StringUtils.isEmpty(type)) {
@@ -107,25 +205,77 @@ public class Token {
 			if (handler == null) {
 				throw new OAuthError.UnsupportedGrantType("");
 			}
-			DataHandler dataHandler = dataHandlerFactory.create(request);
+			grantType = type;
 			ClientCredential clientCredential =
 					clientCredentialFetcher.fetch(request);
-			String clientId = clientCredential.getClientId();
+			clientId = clientCredential.getClientId();
 			if (StringUtils.isEmpty(clientId)) {
 				throw new OAuthError.InvalidRequest("'client_id' not found");
 			}
+			if (rateLimiter != null && !rateLimiter.tryAcquire(clientId)) {
+				outcome = OAuthError.TooManyRequests.class.getSimpleName();
+				return TOO_MANY_REQUESTS;
+			}
+			DataHandler dataHandler = dataHandlerFactory.create(request);
 			String clientSecret = clientCredential.getClientSecret();
 			if (StringUtils.isEmpty(clientSecret)) {
 				throw new OAuthError.InvalidRequest("'client_secret' not found");
 			}
+			if (instrumented && !(dataHandler instanceof InstrumentedDataHandler)) {
+				dataHandler = new InstrumentedDataHandler(
+						dataHandler, instrumentation, type, clientId);
+			}
+			String failureKey = FailureTracker.CLIENT_PREFIX + clientId;
+			if (failureTracker != null && failureTracker.isBlocked(failureKey)) {
+				outcome = OAuthError.TooManyRequests.class.getSimpleName();
+				return TOO_MANY_REQUESTS;
+			}
 			if (!dataHandler.validateClient(clientId, clientSecret, type)) {
+				if (failureTracker != null) {
+					failureTracker.recordFailure(failureKey);
+				}
 				throw new OAuthError.InvalidClient("");
 			}
+			if (failureTracker != null) {
+				failureTracker.recordSuccess(failureKey);
+			}
 			GrantHandlerResult handlerResult = handler.handleRequest(dataHandler);
+			if (cacheRegistry != null) {
+				cacheRegistry.invalidate(handlerResult.getAccessToken());
+			}
+			if (validationCache != null) {
+				putValidationResult(handlerResult);
+			}
 			return new Response(200, Util.toJson(handlerResult));
 		} catch (OAuthError e) {
+			outcome = e.getClass().getSimpleName();
 			return new Response(e.getCode(), Util.toJson(e));
+		} catch (RuntimeException e) {
+			outcome = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			if (instrumented) {
+				instrumentation.recordTokenRequest(grantType, clientId, outcome,
+						System.nanoTime() - start);
+			}
+		}
+	}
+
+	private void putValidationResult(GrantHandlerResult handlerResult) {
+		AuthInfo authInfo = handlerResult.getAuthInfo();
+		long expiresAt = handlerResult.getExpiresAt();
+		if (authInfo == null || expiresAt <= clock.currentTimeMillis()) {
+			return;
 		}
+		// The token has just been invalidated through the cache registry,
+		// which may include this cache. The bitmask is compiled by the
+		// ProtectedResource with its own registry on the first hit.
+		validationCache.putIssued(handlerResult.getAccessToken(),
+				new ProtectedResource.Response(
+						authInfo.getUserId(),
+						authInfo.getClientId(),
+						authInfo.getScope(),
+						expiresAt));
 	}
 
 	/**
@@ -440,4 +440,89 @@ public abstract class OAuthError extends Exception {
 
 	}
 
+	/**
+	 * This means that the authorization server doesn't support the revocation
+	 * of the presented token type. For instance, this error type is
+	 * "unsupported_token_type".
+	 * 
+	 * @author Yoichiro Tanaka
+	 *
+	 */
+	public static class UnsupportedTokenType extends OAuthError {
+
+		/**
+		 * Initialize this instance. The HTTP status code is set as 400.
+		 * @param description The error description string.
+		 */
+		public UnsupportedTokenType(String description) {
+			super(description);
+		}
+
+		/**
+		 * Retrieve the error type string.
+		 * This method returns the fixed string "unsupported_token_type".
+		 */
+		@Override
+		public String getType() {
+			return "unsupported_token_type";
+		}
+
+	}
+
+	/**
+	 * This means that the client sent too many requests in a short time.
+	 * For instance, this error type is "temporarily_unavailable".
+	 * 
+	 * @author Yoichiro Tanaka
+	 *
+	 */
+	public static class TooManyRequests extends OAuthError {
+
+		/**
+		 * Initialize this instance. The HTTP status code is set as 429.
+		 */
+		public TooManyRequests() {
+			super(429, "Too many requests");
+		}
+
+		/**
+		 * Retrieve the error type string.
+		 * This method returns the fixed string "temporarily_unavailable".
+		 */
+		@Override
+		public String getType() {
+			return "temporarily_unavailable";
+		}
+
+	}
+
+	/**
+	 * This means that the server cannot handle the request now because of
+	 * a temporary problem of the storage.
+	 * For instance, this error type is "temporarily_unavailable".
+	 * 
+	 * @author Yoichiro Tanaka
+	 *
+	 */
+	public static class TemporarilyUnavailable extends OAuthError {
+
+		/**
+		 * Initialize this instance. The HTTP status code is set as 503.
+		 * @param description The description.
+		 */
+		public TemporarilyUnavailable(String description) {
+			super(503, description);
+		}
+
+		/**
+		 * Retrieve the error type string.
+		 * This method returns the fixed string "temporarily_unavailable".
+		 */
+		@Override
+		public String getType() {
+			return "temporarily_unavailable";
+		}
+
+	}
+
 }
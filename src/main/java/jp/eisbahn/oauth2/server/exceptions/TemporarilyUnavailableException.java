@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.exceptions;
+
+/**
+ * This exception is thrown by a DataHandler when it cannot finish the
+ * operation in time, for instance, because the database is not reachable.
+ * The endpoint returns the "temporarily_unavailable" error with 503, and the
+ * client can retry the request later.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+@SuppressWarnings("serial")
+public class TemporarilyUnavailableException extends RuntimeException {
+
+	/**
+	 * Initialize this instance.
+	 * @param message The detail message.
+	 */
+	public TemporarilyUnavailableException(String message) {
+		super(message);
+	}
+
+}
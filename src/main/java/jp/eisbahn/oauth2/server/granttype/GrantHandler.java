@@ -18,6 +18,7 @@
 
 package jp.eisbahn.oauth2.server.granttype;
 
+import org.codehaus.jackson.annotate.JsonIgnore;
 import org.codehaus.jackson.annotate.JsonProperty;
 import org.codehaus.jackson.annotate.JsonPropertyOrder;
 import org.codehaus.jackson.map.annotate.JsonSerialize;
@@ -25,6 +26,7 @@ import org.codehaus.jackson.map.annotate.JsonSerialize.Inclusion;
 
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
 
 /**
  * This interface defines how to issue a token for each grant type.
@@ -72,6 +74,8 @@ public interface GrantHandler {
 		@JsonProperty("refresh_token")
 		private String refreshToken;
 		private String scope;
+		private AuthInfo authInfo;
+		private long expiresAt;
 
 		/**
 		 * Initialize this instance with these arguments.
@@ -155,6 +159,47 @@ public interface GrantHandler {
 			return scope;
 		}
 
+		/**
+		 * Set the authorization information which the token was issued for.
+		 * This value is not included in the response.
+		 * @param authInfo The AuthInfo instance.
+		 */
+		@JsonIgnore
+		public void setAuthInfo(AuthInfo authInfo) {
+			this.authInfo = authInfo;
+		}
+
+		/**
+		 * Retrieve the authorization information which the token was issued
+		 * for.
+		 * @return The AuthInfo instance. If the grant handler didn't set it,
+		 * this result is null.
+		 */
+		@JsonIgnore
+		public AuthInfo getAuthInfo() {
+			return authInfo;
+		}
+
+		/**
+		 * Set the time when the issued access token expires.
+		 * This value is not included in the response.
+		 * @param expiresAt The time in milliseconds since the epoch.
+		 */
+		@JsonIgnore
+		public void setExpiresAt(long expiresAt) {
+			this.expiresAt = expiresAt;
+		}
+
+		/**
+		 * Retrieve the time when the issued access token expires.
+		 * @return The time in milliseconds since the epoch. If unknown, this
+		 * result is 0.
+		 */
+		@JsonIgnore
+		public long getExpiresAt() {
+			return expiresAt;
+		}
+
 	}
 
 }
@@ -70,6 +70,8 @@ public abstract class AbstractGrantHandler implements GrantHandler {
 		AccessToken accessToken = dataHandler.createOrUpdateAccessToken(authInfo);
 		GrantHandlerResult result =
 				new GrantHandlerResult("Bearer", accessToken.getToken());
+		result.setAuthInfo(authInfo);
+		result.setExpiresAt(accessToken.getExpiresAt());
 		if (accessToken.getExpiresIn() > 0) {
 			result.setExpiresIn(accessToken.getExpiresIn());
 		}
@@ -49,7 +49,7 @@ public class AuthorizationCode extends AbstractGrantHandler {
 		String code = getParameter(request, "code");
 		String redirectUri = getParameter(request, "redirect_uri");
 
-		AuthInfo authInfo = dataHandler.getAuthInfoByCode(code);
+		AuthInfo authInfo = dataHandler.consumeAuthInfoByCode(code);
 		if (authInfo == null) {
 			throw new OAuthError.InvalidGrant("");
 		}
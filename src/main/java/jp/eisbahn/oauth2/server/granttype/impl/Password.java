@@ -25,6 +25,7 @@ import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.ClientCredential;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.ratelimit.FailureTracker;
 
 /**
  * This class is an implementation for processing the Resource Owner Password
@@ -35,6 +36,20 @@ import jp.eisbahn.oauth2.server.models.Request;
  */
 public class Password extends AbstractGrantHandler {
 
+	private FailureTracker failureTracker;
+
+	/**
+	 * Set the FailureTracker instance for the username.
+	 * A username in a backoff period gets the TooManyRequests error without
+	 * calling the getUserId() method of the DataHandler. The key is the
+	 * username with {@link FailureTracker#USER_PREFIX}, so the instance can be
+	 * shared with the Token endpoint. By default, failures are not tracked.
+	 * @param failureTracker The FailureTracker instance.
+	 */
+	public void setFailureTracker(FailureTracker failureTracker) {
+		this.failureTracker = failureTracker;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see jp.eisbahn.oauth2.server.granttype.GrantHandler#handleRequest(jp.eisbahn.oauth2.server.data.DataHandler)
@@ -49,10 +64,20 @@ public class Password extends AbstractGrantHandler {
 		String username = getParameter(request, "username");
 		String password = getParameter(request, "password");
 
+		String failureKey = FailureTracker.USER_PREFIX + username;
+		if (failureTracker != null && failureTracker.isBlocked(failureKey)) {
+			throw new OAuthError.TooManyRequests();
+		}
 		String userId = dataHandler.getUserId(username, password);
 		if (StringUtils.isEmpty(userId)) {
+			if (failureTracker != null) {
+				failureTracker.recordFailure(failureKey);
+			}
 			throw new OAuthError.InvalidGrant("");
 		}
+		if (failureTracker != null) {
+			failureTracker.recordSuccess(failureKey);
+		}
 		String scope = request.getParameter("scope");
 
 		AuthInfo authInfo =
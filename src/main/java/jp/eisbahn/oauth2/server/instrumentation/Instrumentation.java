@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.instrumentation;
+
+/**
+ * This interface defines how to receive measurements taken while processing
+ * OAuth 2.0 requests.
+ *
+ * <p>The Token and ProtectedResource endpoints report the elapsed time of each
+ * handled request to the instance set to them. If the instance is enabled,
+ * each call against the DataHandler is also measured and reported separately.
+ * When the isEnabled() method returns false, the endpoints never call other
+ * methods of this interface, and never take a time stamp.</p>
+ *
+ * <p>When a request or a call starts, the matching begin method is called
+ * on the thread which later calls the record method. The record method is
+ * always called when the request or the call finishes, even if it failed.
+ * Therefore, an implementation can start a span in the begin method and end
+ * it in the record method, for instance a Java Flight Recorder event which
+ * covers the real interval. An implementation which needs only the elapsed
+ * time can do nothing in the begin methods.</p>
+ *
+ * <p>The outcome string passed to each method is {@link #SUCCESS} when the
+ * processing succeeded. Otherwise, it is the simple class name of the thrown
+ * exception, for instance "InvalidToken" or "ExpiredToken".</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface Instrumentation {
+
+	/**
+	 * The outcome string which represents that the processing succeeded.
+	 */
+	public static final String SUCCESS = "success";
+
+	/**
+	 * Return whether this instance wants to receive measurements or not.
+	 * @return If false, the endpoints skip all measurements.
+	 */
+	public boolean isEnabled();
+
+	/**
+	 * Notify that the Token endpoint started to handle a request.
+	 */
+	public void beginTokenRequest();
+
+	/**
+	 * Record a request handled by the Token endpoint.
+	 * @param grantType The grant type. If the grant type was not specified or
+	 * is not supported, this value is null.
+	 * @param clientId The client ID. If the client credential could not be
+	 * fetched yet, this value is null.
+	 * @param outcome The outcome string.
+	 * @param elapsedNanos The elapsed time in nanoseconds.
+	 */
+	public void recordTokenRequest(String grantType, String clientId,
+			String outcome, long elapsedNanos);
+
+	/**
+	 * Notify that the ProtectedResource endpoint started to handle a request.
+	 */
+	public void beginProtectedResourceRequest();
+
+	/**
+	 * Record a request handled by the ProtectedResource endpoint.
+	 * @param clientId The client ID. If the authorization information
+	 * could not be found, this value is null.
+	 * @param outcome The outcome string.
+	 * @param elapsedNanos The elapsed time in nanoseconds.
+	 */
+	public void recordProtectedResourceRequest(String clientId,
+			String outcome, long elapsedNanos);
+
+	/**
+	 * Notify that a call against the DataHandler started.
+	 * @param method The method name of the DataHandler.
+	 */
+	public void beginDataHandlerCall(String method);
+
+	/**
+	 * Record a call against the DataHandler.
+	 * @param method The method name of the DataHandler, for instance,
+	 * "getAccessToken".
+	 * @param grantType The grant type if the call is a part of issuing a token,
+	 * otherwise null.
+	 * @param clientId The client ID if it is known, otherwise null.
+	 * @param outcome The outcome string.
+	 * @param elapsedNanos The elapsed time in nanoseconds.
+	 */
+	public void recordDataHandlerCall(String method, String grantType,
+			String clientId, String outcome, long elapsedNanos);
+
+}
@@ -0,0 +1,343 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.instrumentation;
+
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class wraps a DataHandler and measures each call against it.
+ * Each method delegates the call to the wrapped DataHandler instance, and
+ * reports the elapsed time and the outcome to the Instrumentation instance.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class InstrumentedDataHandler extends DataHandler {
+
+	private DataHandler delegate;
+	private Instrumentation instrumentation;
+	private String grantType;
+	private String clientId;
+
+	/**
+	 * Initialize this instance with the DataHandler to be wrapped.
+	 * @param delegate The DataHandler instance which processes each call
+	 * actually.
+	 * @param instrumentation The instance to which measurements are reported.
+	 * @param grantType The grant type if this instance is used to issue
+	 * a token, otherwise null.
+	 * @param clientId The client ID if it is known, otherwise null.
+	 */
+	public InstrumentedDataHandler(DataHandler delegate,
+			Instrumentation instrumentation, String grantType, String clientId) {
+		super(delegate.getRequest());
+		this.delegate = delegate;
+		this.instrumentation = instrumentation;
+		this.grantType = grantType;
+		this.clientId = clientId;
+	}
+
+	/**
+	 * Retrieve the wrapped DataHandler instance.
+	 * @return The DataHandler instance.
+	 */
+	public DataHandler getDelegate() {
+		return delegate;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getRequest()
+	 */
+	@Override
+	public Request getRequest() {
+		return delegate.getRequest();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#validateClient(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public boolean validateClient(String clientId, String clientSecret,
+			String grantType) {
+		long start = begin("validateClient");
+		String outcome = Instrumentation.SUCCESS;
+		try {
+			return delegate.validateClient(clientId, clientSecret, grantType);
+		} catch (RuntimeException e) {
+			outcome = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			record("validateClient", outcome, start);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getUserId(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public String getUserId(String username, String password) {
+		long start = begin("getUserId");
+		String outcome = Instrumentation.SUCCESS;
+		try {
+			return delegate.getUserId(username, password);
+		} catch (RuntimeException e) {
+			outcome = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			record("getUserId", outcome, start);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#createOrUpdateAuthInfo(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public AuthInfo createOrUpdateAuthInfo(String clientId, String userId,
+			String scope) {
+		long start = begin("createOrUpdateAuthInfo");
+		String outcome = Instrumentation.SUCCESS;
+		try {
+			return delegate.createOrUpdateAuthInfo(clientId, userId, scope);
+		} catch (RuntimeException e) {
+			outcome = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			record("createOrUpdateAuthInfo", outcome, start);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#createOrUpdateAccessToken(jp.eisbahn.oauth2.server.models.AuthInfo)
+	 */
+	@Override
+	public AccessToken createOrUpdateAccessToken(AuthInfo authInfo) {
+		long start = begin("createOrUpdateAccessToken");
+		String outcome = Instrumentation.SUCCESS;
+		try {
+			return delegate.createOrUpdateAccessToken(authInfo);
+		} catch (RuntimeException e) {
+			outcome = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			record("createOrUpdateAccessToken", outcome, start);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getAuthInfoByCode(java.lang.String)
+	 */
+	@Override
+	public AuthInfo getAuthInfoByCode(String code) {
+		long start = begin("getAuthInfoByCode");
+		String outcome = Instrumentation.SUCCESS;
+		try {
+			return delegate.getAuthInfoByCode(code);
+		} catch (RuntimeException e) {
+			outcome = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			record("getAuthInfoByCode", outcome, start);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#consumeAuthInfoByCode(java.lang.String)
+	 */
+	@Override
+	public AuthInfo consumeAuthInfoByCode(String code) {
+		long start = begin("consumeAuthInfoByCode");
+		String outcome = Instrumentation.SUCCESS;
+		try {
+			return delegate.consumeAuthInfoByCode(code);
+		} catch (RuntimeException e) {
+			outcome = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			record("consumeAuthInfoByCode", outcome, start);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getAuthInfoByRefreshToken(java.lang.String)
+	 */
+	@Override
+	public AuthInfo getAuthInfoByRefreshToken(String refreshToken) {
+		long start = begin("getAuthInfoByRefreshToken");
+		String outcome = Instrumentation.SUCCESS;
+		try {
+			return delegate.getAuthInfoByRefreshToken(refreshToken);
+		} catch (RuntimeException e) {
+			outcome = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			record("getAuthInfoByRefreshToken", outcome, start);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getClientUserId(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public String getClientUserId(String clientId, String clientSecret) {
+		long start = begin("getClientUserId");
+		String outcome = Instrumentation.SUCCESS;
+		try {
+			return delegate.getClientUserId(clientId, clientSecret);
+		} catch (RuntimeException e) {
+			outcome = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			record("getClientUserId", outcome, start);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#validateClientById(java.lang.String)
+	 */
+	@Override
+	public boolean validateClientById(String clientId) {
+		long start = begin("validateClientById");
+		String outcome = Instrumentation.SUCCESS;
+		try {
+			return delegate.validateClientById(clientId);
+		} catch (RuntimeException e) {
+			outcome = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			record("validateClientById", outcome, start);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#validateUserById(java.lang.String)
+	 */
+	@Override
+	public boolean validateUserById(String userId) {
+		long start = begin("validateUserById");
+		String outcome = Instrumentation.SUCCESS;
+		try {
+			return delegate.validateUserById(userId);
+		} catch (RuntimeException e) {
+			outcome = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			record("validateUserById", outcome, start);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getAccessToken(java.lang.String)
+	 */
+	@Override
+	public AccessToken getAccessToken(String token) {
+		long start = begin("getAccessToken");
+		String outcome = Instrumentation.SUCCESS;
+		try {
+			return delegate.getAccessToken(token);
+		} catch (RuntimeException e) {
+			outcome = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			record("getAccessToken", outcome, start);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getAuthInfoById(java.lang.String)
+	 */
+	@Override
+	public AuthInfo getAuthInfoById(String id) {
+		long start = begin("getAuthInfoById");
+		String outcome = Instrumentation.SUCCESS;
+		try {
+			return delegate.getAuthInfoById(id);
+		} catch (RuntimeException e) {
+			outcome = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			record("getAuthInfoById", outcome, start);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#revokeToken(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public List<String> revokeToken(String clientId, String token,
+			String tokenTypeHint) {
+		long start = begin("revokeToken");
+		String outcome = Instrumentation.SUCCESS;
+		try {
+			return delegate.revokeToken(clientId, token, tokenTypeHint);
+		} catch (RuntimeException e) {
+			outcome = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			record("revokeToken", outcome, start);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#storeAccessToken(jp.eisbahn.oauth2.server.models.AuthInfo, jp.eisbahn.oauth2.server.models.AccessToken)
+	 */
+	@Override
+	public void storeAccessToken(AuthInfo authInfo, AccessToken accessToken) {
+		long start = begin("storeAccessToken");
+		String outcome = Instrumentation.SUCCESS;
+		try {
+			delegate.storeAccessToken(authInfo, accessToken);
+		} catch (RuntimeException e) {
+			outcome = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			record("storeAccessToken", outcome, start);
+		}
+	}
+
+	private long begin(String method) {
+		instrumentation.beginDataHandlerCall(method);
+		return System.nanoTime();
+	}
+
+	private void record(String method, String outcome, long start) {
+		instrumentation.recordDataHandlerCall(method, grantType, clientId,
+				outcome, System.nanoTime() - start);
+	}
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.instrumentation;
+
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class decorates a DataHandlerFactory so that each DataHandler created
+ * by it is wrapped with the InstrumentedDataHandler.
+ *
+ * <p>Use this class when you want to measure the calls against the DataHandler
+ * regardless of the endpoint, for instance, to set it to the Token endpoint
+ * and also to your own code which uses the DataHandler directly. If the same
+ * Instrumentation instance is also set to the endpoints, each call is
+ * measured only once, because the endpoints don't wrap the DataHandler
+ * which has been wrapped already. In that case, the grant type and the
+ * client ID are not reported. When the instrumentation is not enabled,
+ * the created DataHandler is returned as is.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class InstrumentedDataHandlerFactory implements DataHandlerFactory {
+
+	private DataHandlerFactory delegate;
+	private Instrumentation instrumentation;
+
+	/**
+	 * Initialize this instance.
+	 * @param delegate The DataHandlerFactory which creates each DataHandler
+	 * actually.
+	 * @param instrumentation The instance to which measurements are reported.
+	 */
+	public InstrumentedDataHandlerFactory(DataHandlerFactory delegate,
+			Instrumentation instrumentation) {
+		super();
+		this.delegate = delegate;
+		this.instrumentation = instrumentation;
+	}
+
+	/**
+	 * Create a DataHandler instance with the decorated factory and wrap it.
+	 * @param request The request object.
+	 * @return The wrapped DataHandler instance.
+	 */
+	@Override
+	public DataHandler create(Request request) {
+		DataHandler dataHandler = delegate.create(request);
+		if (!instrumentation.isEnabled()) {
+			return dataHandler;
+		}
+		return new InstrumentedDataHandler(dataHandler, instrumentation, null, null);
+	}
+
+}
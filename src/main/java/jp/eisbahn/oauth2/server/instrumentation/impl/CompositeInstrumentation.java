@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.instrumentation.impl;
+
+import jp.eisbahn.oauth2.server.instrumentation.Instrumentation;
+
+/**
+ * This class forwards each measurement to some Instrumentation instances.
+ * For instance, you can record the measurements to both Micrometer and Java
+ * Flight Recorder. Only the instances which are enabled at the time receive
+ * the measurement. Each begin method is forwarded to all instances, so that
+ * none of them keeps a span begun for an earlier request.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class CompositeInstrumentation implements Instrumentation {
+
+	private Instrumentation[] instrumentations;
+
+	/**
+	 * Initialize this instance with the Instrumentation instances.
+	 * @param instrumentations The instances to which each measurement is
+	 * forwarded.
+	 */
+	public CompositeInstrumentation(Instrumentation... instrumentations) {
+		super();
+		this.instrumentations = instrumentations;
+	}
+
+	/**
+	 * Retrieve the Instrumentation instances.
+	 * @return The instances to which each measurement is forwarded.
+	 */
+	public Instrumentation[] getInstrumentations() {
+		return instrumentations;
+	}
+
+	/**
+	 * Return whether at least one of the instances is enabled or not.
+	 * @return If one of the instances is enabled, return true.
+	 */
+	@Override
+	public boolean isEnabled() {
+		for (Instrumentation instrumentation : instrumentations) {
+			if (instrumentation.isEnabled()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.instrumentation.Instrumentation#beginTokenRequest()
+	 */
+	@Override
+	public void beginTokenRequest() {
+		for (Instrumentation instrumentation : instrumentations) {
+			instrumentation.beginTokenRequest();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.instrumentation.Instrumentation#recordTokenRequest(java.lang.String, java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public void recordTokenRequest(String grantType, String clientId,
+			String outcome, long elapsedNanos) {
+		for (Instrumentation instrumentation : instrumentations) {
+			if (instrumentation.isEnabled()) {
+				instrumentation.recordTokenRequest(
+						grantType, clientId, outcome, elapsedNanos);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.instrumentation.Instrumentation#beginProtectedResourceRequest()
+	 */
+	@Override
+	public void beginProtectedResourceRequest() {
+		for (Instrumentation instrumentation : instrumentations) {
+			instrumentation.beginProtectedResourceRequest();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.instrumentation.Instrumentation#recordProtectedResourceRequest(java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public void recordProtectedResourceRequest(String clientId,
+			String outcome, long elapsedNanos) {
+		for (Instrumentation instrumentation : instrumentations) {
+			if (instrumentation.isEnabled()) {
+				instrumentation.recordProtectedResourceRequest(
+						clientId, outcome, elapsedNanos);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.instrumentation.Instrumentation#beginDataHandlerCall(java.lang.String)
+	 */
+	@Override
+	public void beginDataHandlerCall(String method) {
+		for (Instrumentation instrumentation : instrumentations) {
+			instrumentation.beginDataHandlerCall(method);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.instrumentation.Instrumentation#recordDataHandlerCall(java.lang.String, java.lang.String, java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public void recordDataHandlerCall(String method, String grantType,
+			String clientId, String outcome, long elapsedNanos) {
+		for (Instrumentation instrumentation : instrumentations) {
+			if (instrumentation.isEnabled()) {
+				instrumentation.recordDataHandlerCall(
+						method, grantType, clientId, outcome, elapsedNanos);
+			}
+		}
+	}
+
+}
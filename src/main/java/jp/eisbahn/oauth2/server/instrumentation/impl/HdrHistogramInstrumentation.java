@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.instrumentation.impl;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import jp.eisbahn.oauth2.server.instrumentation.Instrumentation;
+
+/**
+ * This class is the Instrumentation implementation which records the latency
+ * of each DataHandler method to an HdrHistogram Recorder, and logs the calls
+ * slower than the threshold.
+ *
+ * <p>A Recorder is created per DataHandler method name, such as
+ * "getAccessToken" or "createOrUpdateAccessToken". Recording a value is
+ * wait-free and doesn't allocate any object once the Recorder exists. To read
+ * the percentiles, call the getIntervalHistogram() method periodically: it
+ * returns the values recorded since the previous call and resets the
+ * Recorder.</p>
+ *
+ * <p>Each call which took longer than the slow call threshold (100 ms by
+ * default) is logged with the WARNING level to the logger named with this
+ * class name. The requests handled by the endpoints are not recorded by this
+ * class, because the DataHandler is the only part which depends on an
+ * external storage. The HdrHistogram library is an optional dependency.
+ * When you use this class, you have to add it to your application.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class HdrHistogramInstrumentation implements Instrumentation {
+
+	private static final Logger LOG =
+			Logger.getLogger(HdrHistogramInstrumentation.class.getName());
+
+	private static final int SIGNIFICANT_DIGITS = 3;
+
+	private ConcurrentMap<String, Recorder> recorders =
+			new ConcurrentHashMap<String, Recorder>();
+
+	private long slowCallThresholdNanos = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/**
+	 * Set the threshold to log a slow call.
+	 * @param slowCallThresholdMillis The threshold in milliseconds. If this
+	 * value is 0 or less, no call is logged.
+	 */
+	public void setSlowCallThresholdMillis(long slowCallThresholdMillis) {
+		this.slowCallThresholdNanos =
+				TimeUnit.MILLISECONDS.toNanos(slowCallThresholdMillis);
+	}
+
+	/**
+	 * Retrieve the names of the DataHandler methods recorded so far.
+	 * @return The set of the method names.
+	 */
+	public Set<String> getMethods() {
+		return recorders.keySet();
+	}
+
+	/**
+	 * Retrieve the histogram of the values recorded for the specified method
+	 * since the previous call of this method. The values are in nanoseconds.
+	 * @param method The DataHandler method name.
+	 * @return The histogram. If the method has never been recorded, this
+	 * result is null.
+	 */
+	public Histogram getIntervalHistogram(String method) {
+		Recorder recorder = recorders.get(method);
+		if (recorder == null) {
+			return null;
+		}
+		return recorder.getIntervalHistogram();
+	}
+
+	/**
+	 * This method always returns true.
+	 * @return Always true.
+	 */
+	@Override
+	public boolean isEnabled() {
+		return true;
+	}
+
+	/**
+	 * Do nothing, because only the elapsed time is recorded.
+	 */
+	@Override
+	public void beginTokenRequest() {
+	}
+
+	/**
+	 * This implementation does nothing.
+	 */
+	@Override
+	public void recordTokenRequest(String grantType, String clientId,
+			String outcome, long elapsedNanos) {
+	}
+
+	/**
+	 * Do nothing, because only the elapsed time is recorded.
+	 */
+	@Override
+	public void beginProtectedResourceRequest() {
+	}
+
+	/**
+	 * This implementation does nothing.
+	 */
+	@Override
+	public void recordProtectedResourceRequest(String clientId,
+			String outcome, long elapsedNanos) {
+	}
+
+	/**
+	 * Do nothing, because only the elapsed time is recorded.
+	 */
+	@Override
+	public void beginDataHandlerCall(String method) {
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.instrumentation.Instrumentation#recordDataHandlerCall(java.lang.String, java.lang.String, java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public void recordDataHandlerCall(String method, String grantType,
+			String clientId, String outcome, long elapsedNanos) {
+		Recorder recorder = recorders.get(method);
+		if (recorder == null) {
+			Recorder created = new Recorder(SIGNIFICANT_DIGITS);
+			recorder = recorders.putIfAbsent(method, created);
+			if (recorder == null) {
+				recorder = created;
+			}
+		}
+		recorder.recordValue(Math.max(elapsedNanos, 0));
+		if (slowCallThresholdNanos > 0 && elapsedNanos >= slowCallThresholdNanos
+				&& LOG.isLoggable(Level.WARNING)) {
+			LOG.log(Level.WARNING,
+					"Slow DataHandler call: method={0}, grantType={1}, "
+					+ "clientId={2}, outcome={3}, elapsed={4}ms",
+					new Object[] {method, grantType, clientId, outcome,
+						TimeUnit.NANOSECONDS.toMillis(elapsedNanos)});
+		}
+	}
+
+}
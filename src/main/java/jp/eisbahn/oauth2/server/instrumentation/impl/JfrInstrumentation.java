@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.instrumentation.impl;
+
+import jdk.jfr.EventType;
+import jp.eisbahn.oauth2.server.instrumentation.Instrumentation;
+
+/**
+ * This class is the Instrumentation implementation which commits Java Flight
+ * Recorder events. The following events are committed, so that the latency of
+ * OAuth 2.0 requests can be correlated with GC pauses and I/O stalls in one
+ * recording.
+ * <ul>
+ * <li>jp.eisbahn.oauth2.TokenIssuance</li>
+ * <li>jp.eisbahn.oauth2.BearerValidation</li>
+ * <li>jp.eisbahn.oauth2.DataHandlerCall</li>
+ * </ul>
+ *
+ * <p>Each event has the hash code of the client ID and the error type (the
+ * simple class name of the thrown exception, or null on success).
+ * TokenIssuance and DataHandlerCall events also have the grant type. Each
+ * event begins in the begin method and ends in the record method, which are
+ * called on the same thread, so its start time and duration cover the real
+ * interval on the JFR timeline, and the threshold setting of the recording
+ * is applied. If a record method is called without the begin method, the
+ * event has no duration.</p>
+ *
+ * <p>The isEnabled() method returns true only while one of the events is
+ * enabled in a running recording. Otherwise, the endpoints skip all
+ * measurements.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class JfrInstrumentation implements Instrumentation {
+
+	private static final EventType TOKEN_ISSUANCE =
+			EventType.getEventType(TokenIssuanceEvent.class);
+	private static final EventType BEARER_VALIDATION =
+			EventType.getEventType(BearerValidationEvent.class);
+	private static final EventType DATA_HANDLER_CALL =
+			EventType.getEventType(DataHandlerCallEvent.class);
+
+	private static final ThreadLocal<TokenIssuanceEvent> TOKEN_EVENTS =
+			new ThreadLocal<TokenIssuanceEvent>();
+	private static final ThreadLocal<BearerValidationEvent> BEARER_EVENTS =
+			new ThreadLocal<BearerValidationEvent>();
+	private static final ThreadLocal<DataHandlerCallEvent> DATA_HANDLER_EVENTS =
+			new ThreadLocal<DataHandlerCallEvent>();
+
+	/**
+	 * Return whether one of the events is enabled or not.
+	 * @return If a recording enables one of the events, return true.
+	 */
+	@Override
+	public boolean isEnabled() {
+		return TOKEN_ISSUANCE.isEnabled()
+				|| BEARER_VALIDATION.isEnabled()
+				|| DATA_HANDLER_CALL.isEnabled();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.instrumentation.Instrumentation#beginTokenRequest()
+	 */
+	@Override
+	public void beginTokenRequest() {
+		TokenIssuanceEvent event = new TokenIssuanceEvent();
+		if (event.isEnabled()) {
+			event.begin();
+			TOKEN_EVENTS.set(event);
+		} else {
+			TOKEN_EVENTS.remove();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.instrumentation.Instrumentation#recordTokenRequest(java.lang.String, java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public void recordTokenRequest(String grantType, String clientId,
+			String outcome, long elapsedNanos) {
+		TokenIssuanceEvent event = TOKEN_EVENTS.get();
+		if (event != null) {
+			TOKEN_EVENTS.remove();
+		} else {
+			event = new TokenIssuanceEvent();
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.grantType = grantType;
+			event.clientIdHash = hash(clientId);
+			event.errorType = toErrorType(outcome);
+			event.commit();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.instrumentation.Instrumentation#beginProtectedResourceRequest()
+	 */
+	@Override
+	public void beginProtectedResourceRequest() {
+		BearerValidationEvent event = new BearerValidationEvent();
+		if (event.isEnabled()) {
+			event.begin();
+			BEARER_EVENTS.set(event);
+		} else {
+			BEARER_EVENTS.remove();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.instrumentation.Instrumentation#recordProtectedResourceRequest(java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public void recordProtectedResourceRequest(String clientId,
+			String outcome, long elapsedNanos) {
+		BearerValidationEvent event = BEARER_EVENTS.get();
+		if (event != null) {
+			BEARER_EVENTS.remove();
+		} else {
+			event = new BearerValidationEvent();
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.clientIdHash = hash(clientId);
+			event.errorType = toErrorType(outcome);
+			event.commit();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.instrumentation.Instrumentation#beginDataHandlerCall(java.lang.String)
+	 */
+	@Override
+	public void beginDataHandlerCall(String method) {
+		DataHandlerCallEvent event = new DataHandlerCallEvent();
+		if (event.isEnabled()) {
+			event.begin();
+			DATA_HANDLER_EVENTS.set(event);
+		} else {
+			DATA_HANDLER_EVENTS.remove();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.instrumentation.Instrumentation#recordDataHandlerCall(java.lang.String, java.lang.String, java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public void recordDataHandlerCall(String method, String grantType,
+			String clientId, String outcome, long elapsedNanos) {
+		DataHandlerCallEvent event = DATA_HANDLER_EVENTS.get();
+		if (event != null) {
+			DATA_HANDLER_EVENTS.remove();
+		} else {
+			event = new DataHandlerCallEvent();
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.method = method;
+			event.grantType = grantType;
+			event.clientIdHash = hash(clientId);
+			event.errorType = toErrorType(outcome);
+			event.commit();
+		}
+	}
+
+	private static int hash(String clientId) {
+		return clientId != null ? clientId.hashCode() : 0;
+	}
+
+	private static String toErrorType(String outcome) {
+		return Instrumentation.SUCCESS.equals(outcome) ? null : outcome;
+	}
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.instrumentation.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import jp.eisbahn.oauth2.server.instrumentation.Instrumentation;
+
+/**
+ * This class is the Instrumentation implementation which records each
+ * measurement to a Micrometer MeterRegistry.
+ *
+ * <p>The following timers are registered. Each timer has the request count
+ * and the latency histogram.</p>
+ * <ul>
+ * <li>oauth2.token.requests (tags: grant_type, outcome)</li>
+ * <li>oauth2.protected_resource.requests (tags: outcome)</li>
+ * <li>oauth2.data_handler.calls (tags: method, outcome)</li>
+ * </ul>
+ *
+ * <p>The percentile histogram is published for these timers by a MeterFilter
+ * which this instance adds to the registry. The client ID is never used as
+ * a tag, because the number of clients is unbounded. Each timer is cached after the first registration, therefore
+ * recording a measurement doesn't allocate any object in this class.
+ * The Micrometer library is an optional dependency. When you use this class,
+ * you have to add it to your application.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class MicrometerInstrumentation implements Instrumentation {
+
+	private static final String UNKNOWN = "unknown";
+	private static final String PREFIX = "oauth2.";
+
+	private MeterRegistry registry;
+
+	private ConcurrentMap<String, ConcurrentMap<String, Timer>> tokenTimers =
+			new ConcurrentHashMap<String, ConcurrentMap<String, Timer>>();
+	private ConcurrentMap<String, Timer> protectedResourceTimers =
+			new ConcurrentHashMap<String, Timer>();
+	private ConcurrentMap<String, ConcurrentMap<String, Timer>> dataHandlerTimers =
+			new ConcurrentHashMap<String, ConcurrentMap<String, Timer>>();
+
+	/**
+	 * Initialize this instance with the global registry of Micrometer.
+	 * This constructor is used when the class name is specified as an
+	 * init-param value of the TokenServlet or the ProtectedResourceFilter.
+	 */
+	public MicrometerInstrumentation() {
+		this(Metrics.globalRegistry);
+	}
+
+	/**
+	 * Initialize this instance with the specified registry.
+	 * @param registry The registry to which each timer is registered.
+	 */
+	public MicrometerInstrumentation(MeterRegistry registry) {
+		super();
+		this.registry = registry;
+		registry.config().meterFilter(new MeterFilter() {
+			@Override
+			public DistributionStatisticConfig configure(Meter.Id id,
+					DistributionStatisticConfig config) {
+				if (!id.getName().startsWith(PREFIX)) {
+					return config;
+				}
+				return DistributionStatisticConfig.builder()
+						.percentilesHistogram(true)
+						.build()
+						.merge(config);
+			}
+		});
+	}
+
+	/**
+	 * This method always returns true.
+	 * @return Always true.
+	 */
+	@Override
+	public boolean isEnabled() {
+		return true;
+	}
+
+	/**
+	 * Do nothing, because only the elapsed time is recorded.
+	 */
+	@Override
+	public void beginTokenRequest() {
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.instrumentation.Instrumentation#recordTokenRequest(java.lang.String, java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public void recordTokenRequest(String grantType, String clientId,
+			String outcome, long elapsedNanos) {
+		getTimer(tokenTimers, "oauth2.token.requests", "grant_type",
+				grantType, outcome).record(elapsedNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Do nothing, because only the elapsed time is recorded.
+	 */
+	@Override
+	public void beginProtectedResourceRequest() {
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.instrumentation.Instrumentation#recordProtectedResourceRequest(java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public void recordProtectedResourceRequest(String clientId,
+			String outcome, long elapsedNanos) {
+		Timer timer = protectedResourceTimers.get(outcome);
+		if (timer == null) {
+			timer = registry.timer("oauth2.protected_resource.requests",
+					"outcome", outcome);
+			protectedResourceTimers.putIfAbsent(outcome, timer);
+		}
+		timer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Do nothing, because only the elapsed time is recorded.
+	 */
+	@Override
+	public void beginDataHandlerCall(String method) {
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.instrumentation.Instrumentation#recordDataHandlerCall(java.lang.String, java.lang.String, java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public void recordDataHandlerCall(String method, String grantType,
+			String clientId, String outcome, long elapsedNanos) {
+		getTimer(dataHandlerTimers, "oauth2.data_handler.calls", "method",
+				method, outcome).record(elapsedNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private Timer getTimer(ConcurrentMap<String, ConcurrentMap<String, Timer>> timers,
+			String name, String tagName, String tagValue, String outcome) {
+		String key = tagValue != null ? tagValue : UNKNOWN;
+		ConcurrentMap<String, Timer> byOutcome = timers.get(key);
+		if (byOutcome == null) {
+			ConcurrentMap<String, Timer> created = new ConcurrentHashMap<String, Timer>();
+			byOutcome = timers.putIfAbsent(key, created);
+			if (byOutcome == null) {
+				byOutcome = created;
+			}
+		}
+		Timer timer = byOutcome.get(outcome);
+		if (timer == null) {
+			// Registering the same meter twice returns the existing one.
+			timer = registry.timer(name, tagName, key, "outcome", outcome);
+			byOutcome.putIfAbsent(outcome, timer);
+		}
+		return timer;
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.instrumentation.impl;
+
+import jp.eisbahn.oauth2.server.instrumentation.Instrumentation;
+
+/**
+ * This class is the Instrumentation implementation which measures nothing.
+ * The Token and ProtectedResource endpoints use this instance by default.
+ * Because the isEnabled() method returns false, the endpoints never take
+ * a time stamp and never wrap the DataHandler.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class NoopInstrumentation implements Instrumentation {
+
+	/**
+	 * This method always returns false.
+	 * @return Always false.
+	 */
+	@Override
+	public boolean isEnabled() {
+		return false;
+	}
+
+	/**
+	 * Do nothing.
+	 */
+	@Override
+	public void beginTokenRequest() {
+	}
+
+	/**
+	 * Do nothing.
+	 */
+	@Override
+	public void recordTokenRequest(String grantType, String clientId,
+			String outcome, long elapsedNanos) {
+	}
+
+	/**
+	 * Do nothing.
+	 */
+	@Override
+	public void beginProtectedResourceRequest() {
+	}
+
+	/**
+	 * Do nothing.
+	 */
+	@Override
+	public void recordProtectedResourceRequest(String clientId,
+			String outcome, long elapsedNanos) {
+	}
+
+	/**
+	 * Do nothing.
+	 */
+	@Override
+	public void beginDataHandlerCall(String method) {
+	}
+
+	/**
+	 * Do nothing.
+	 */
+	@Override
+	public void recordDataHandlerCall(String method, String grantType,
+			String clientId, String outcome, long elapsedNanos) {
+	}
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.instrumentation.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * This class is a Java Flight Recorder event which represents a request
+ * handled by the Token endpoint. This event is committed by the
+ * JfrInstrumentation.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+@Name("jp.eisbahn.oauth2.TokenIssuance")
+@Label("Token Issuance")
+@Category("OAuth 2.0")
+@Description("A request handled by the Token endpoint")
+@StackTrace(false)
+public class TokenIssuanceEvent extends jdk.jfr.Event {
+
+	@Label("Grant Type")
+	String grantType;
+
+	@Label("Client ID Hash")
+	int clientIdHash;
+
+	@Label("Error Type")
+	String errorType;
+
+}
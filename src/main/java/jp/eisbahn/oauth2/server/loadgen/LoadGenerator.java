@@ -0,0 +1,363 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.loadgen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource;
+import jp.eisbahn.oauth2.server.endpoint.Token;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+
+/**
+ * This class generates a load against the Token and ProtectedResource
+ * endpoints in process, to reproduce a production traffic mix without
+ * deploying the application.
+ *
+ * <p>Each request type has a weight. By default, 90% of the requests validate
+ * a bearer token, 5% use the refresh_token grant, 3% use the
+ * authorization_code grant and 2% are expected to fail. The access tokens and
+ * the refresh tokens are chosen from the lists set to this instance with a
+ * Zipf distribution (the exponent is 1.0 by default), so that a few tokens are
+ * reused much more often than the others, like real clients. The
+ * authorization codes are used in order, since each code can be redeemed only
+ * once.</p>
+ *
+ * <p>The load is open-loop: the requests are scheduled at the arrival rate,
+ * regardless of how long the previous requests take, and handed to the worker
+ * threads. The inter-arrival times are exponentially distributed (a Poisson
+ * process) by default. The latency of each request is measured from its
+ * scheduled time, and recorded to an HdrHistogram per request type. The
+ * HdrHistogram library is an optional dependency. When you use this class, you
+ * have to add it to your application.</p>
+ *
+ * <pre>
+ * LoadGenerator generator = new LoadGenerator(token, protectedResource);
+ * generator.setClientCredential("clientId1", "clientSecret1");
+ * generator.setAccessTokens(accessTokens);
+ * generator.setRefreshTokens(refreshTokens);
+ * generator.setAuthorizationCodes(codes, "https://client.example.com/cb");
+ * generator.setRequestsPerSecond(5000);
+ * generator.run(60000).print(System.out);
+ * </pre>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class LoadGenerator {
+
+	private final Token token;
+	private final ProtectedResource protectedResource;
+
+	private Map<RequestType, Integer> weights =
+			new EnumMap<RequestType, Integer>(RequestType.class);
+	private List<String> accessTokens = Collections.emptyList();
+	private List<String> refreshTokens = Collections.emptyList();
+	private List<String> authorizationCodes = Collections.emptyList();
+	private String redirectUri;
+	private String clientId;
+	private String clientSecret;
+	private double zipfExponent = 1.0;
+	private double requestsPerSecond = 1000;
+	private boolean poissonArrivals = true;
+	private int threads = 16;
+	private long seed = System.nanoTime();
+
+	/**
+	 * Initialize this instance.
+	 * @param token The Token endpoint instance.
+	 * @param protectedResource The ProtectedResource endpoint instance.
+	 */
+	public LoadGenerator(Token token, ProtectedResource protectedResource) {
+		this.token = token;
+		this.protectedResource = protectedResource;
+		weights.put(RequestType.BEARER_VALIDATION, 90);
+		weights.put(RequestType.REFRESH_TOKEN, 5);
+		weights.put(RequestType.AUTHORIZATION_CODE, 3);
+		weights.put(RequestType.ERROR, 2);
+	}
+
+	/**
+	 * Set the weight of the request type. The ratio of the type is its weight
+	 * divided by the sum of all weights.
+	 * @param type The request type.
+	 * @param weight The weight. If 0, the type is never issued.
+	 */
+	public void setWeight(RequestType type, int weight) {
+		if (weight < 0) {
+			throw new IllegalArgumentException("Invalid weight: " + weight);
+		}
+		weights.put(type, weight);
+	}
+
+	/**
+	 * Set the client credential sent to the Token endpoint.
+	 * @param clientId The client ID.
+	 * @param clientSecret The client secret.
+	 */
+	public void setClientCredential(String clientId, String clientSecret) {
+		this.clientId = clientId;
+		this.clientSecret = clientSecret;
+	}
+
+	/**
+	 * Set the access tokens used for the bearer validation requests.
+	 * The first token is the most popular one.
+	 * @param accessTokens The list of the access tokens.
+	 */
+	public void setAccessTokens(List<String> accessTokens) {
+		this.accessTokens = new ArrayList<String>(accessTokens);
+	}
+
+	/**
+	 * Set the refresh tokens used for the refresh_token grant requests.
+	 * The first token is the most popular one.
+	 * @param refreshTokens The list of the refresh tokens.
+	 */
+	public void setRefreshTokens(List<String> refreshTokens) {
+		this.refreshTokens = new ArrayList<String>(refreshTokens);
+	}
+
+	/**
+	 * Set the authorization codes used for the authorization_code grant
+	 * requests. The codes are used in order. When all codes are used, they are
+	 * used again from the first one.
+	 * @param authorizationCodes The list of the authorization codes.
+	 * @param redirectUri The redirect URI sent with each code.
+	 */
+	public void setAuthorizationCodes(List<String> authorizationCodes,
+			String redirectUri) {
+		this.authorizationCodes = new ArrayList<String>(authorizationCodes);
+		this.redirectUri = redirectUri;
+	}
+
+	/**
+	 * Set the exponent of the Zipf distribution to choose the tokens.
+	 * @param zipfExponent The exponent. If 0, the tokens are chosen uniformly.
+	 */
+	public void setZipfExponent(double zipfExponent) {
+		this.zipfExponent = zipfExponent;
+	}
+
+	/**
+	 * Set the arrival rate.
+	 * @param requestsPerSecond The number of the requests per second.
+	 */
+	public void setRequestsPerSecond(double requestsPerSecond) {
+		if (requestsPerSecond <= 0) {
+			throw new IllegalArgumentException(
+					"Invalid rate: " + requestsPerSecond);
+		}
+		this.requestsPerSecond = requestsPerSecond;
+	}
+
+	/**
+	 * Set whether the inter-arrival times are exponentially distributed or
+	 * constant.
+	 * @param poissonArrivals If true, the requests arrive as a Poisson
+	 * process. If false, they arrive at a fixed interval.
+	 */
+	public void setPoissonArrivals(boolean poissonArrivals) {
+		this.poissonArrivals = poissonArrivals;
+	}
+
+	/**
+	 * Set the number of the worker threads which issue the requests.
+	 * @param threads The number of the threads.
+	 */
+	public void setThreads(int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("Invalid threads: " + threads);
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Set the seed of the random number generator, to reproduce the same
+	 * sequence of the requests.
+	 * @param seed The seed.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Generate the load for the specified duration. This method blocks until
+	 * all scheduled requests complete.
+	 * @param durationMillis The duration in milliseconds.
+	 * @return The result of this run.
+	 * @throws InterruptedException If the current thread is interrupted.
+	 */
+	public LoadResult run(long durationMillis) throws InterruptedException {
+		final RequestType[] types = RequestType.values();
+		final int[] cumulativeWeights = new int[types.length];
+		int totalWeight = 0;
+		for (int i = 0; i < types.length; i++) {
+			Integer weight = weights.get(types[i]);
+			totalWeight += weight == null ? 0 : weight;
+			cumulativeWeights[i] = totalWeight;
+		}
+		if (totalWeight == 0) {
+			throw new IllegalStateException("No request type has a weight.");
+		}
+		ZipfDistribution accessTokenRanks =
+				createDistribution(RequestType.BEARER_VALIDATION, accessTokens);
+		ZipfDistribution refreshTokenRanks =
+				createDistribution(RequestType.REFRESH_TOKEN, refreshTokens);
+		if (authorizationCodes.isEmpty()
+				&& weightOf(RequestType.AUTHORIZATION_CODE) > 0) {
+			throw new IllegalStateException("No authorization code is set.");
+		}
+
+		final LoadResult result = new LoadResult();
+		ExecutorService executor = Executors.newFixedThreadPool(threads,
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r,
+								"oauth2-load-generator-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		Random random = new Random(seed);
+		double meanIntervalNanos = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+		long start = System.nanoTime();
+		long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+		double scheduled = start;
+		int codeIndex = 0;
+		long sequence = 0;
+		try {
+			while (true) {
+				if (poissonArrivals) {
+					scheduled += -Math.log(1.0 - random.nextDouble()) * meanIntervalNanos;
+				} else {
+					scheduled += meanIntervalNanos;
+				}
+				final long intended = (long)scheduled;
+				if (intended - end >= 0) {
+					break;
+				}
+				long delay = intended - System.nanoTime();
+				if (delay > 0) {
+					LockSupport.parkNanos(delay);
+				}
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				int value = random.nextInt(totalWeight);
+				int index = 0;
+				while (cumulativeWeights[index] <= value) {
+					index++;
+				}
+				final RequestType type = types[index];
+				final SyntheticRequest request;
+				switch (type) {
+				case BEARER_VALIDATION:
+					request = bearerRequest(
+							accessTokens.get(accessTokenRanks.next(random)));
+					break;
+				case REFRESH_TOKEN:
+					request = tokenRequest("refresh_token").parameter(
+							"refresh_token",
+							refreshTokens.get(refreshTokenRanks.next(random)));
+					break;
+				case AUTHORIZATION_CODE:
+					request = tokenRequest("authorization_code")
+							.parameter("code", authorizationCodes.get(codeIndex))
+							.parameter("redirect_uri", redirectUri);
+					codeIndex = (codeIndex + 1) % authorizationCodes.size();
+					break;
+				default:
+					request = (sequence & 1) == 0
+							? bearerRequest("invalid-" + sequence)
+							: tokenRequest("unsupported");
+					break;
+				}
+				sequence++;
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						boolean error = !issue(request);
+						result.record(type, System.nanoTime() - intended, error);
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			result.setElapsedNanos(System.nanoTime() - start);
+		}
+		return result;
+	}
+
+	private int weightOf(RequestType type) {
+		Integer weight = weights.get(type);
+		return weight == null ? 0 : weight;
+	}
+
+	private ZipfDistribution createDistribution(RequestType type,
+			List<String> values) {
+		if (values.isEmpty()) {
+			if (weightOf(type) > 0) {
+				throw new IllegalStateException("No token is set for " + type + ".");
+			}
+			return null;
+		}
+		return new ZipfDistribution(values.size(), zipfExponent);
+	}
+
+	private SyntheticRequest bearerRequest(String accessToken) {
+		return new SyntheticRequest().header("Authorization",
+				"Bearer " + accessToken);
+	}
+
+	private SyntheticRequest tokenRequest(String grantType) {
+		return new SyntheticRequest()
+				.parameter("grant_type", grantType)
+				.parameter("client_id", clientId)
+				.parameter("client_secret", clientSecret);
+	}
+
+	private boolean issue(SyntheticRequest request) {
+		try {
+			if (request.getHeader("Authorization") != null) {
+				protectedResource.handleRequest(request);
+				return true;
+			}
+			return token.handleRequest(request).getCode() == 200;
+		} catch (OAuthError e) {
+			return false;
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+}
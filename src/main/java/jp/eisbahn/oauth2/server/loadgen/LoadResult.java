@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.loadgen;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * This class has the result of a run of the LoadGenerator: the latency
+ * histogram, the number of the requests and the number of the error
+ * responses per request type.
+ *
+ * Each latency is measured from the time when the request was scheduled to
+ * start, not from the time when it actually started. Therefore, the time
+ * which a request waited for a free worker thread is included, and the
+ * histograms are not affected by the coordinated omission.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class LoadResult {
+
+	private static final int SIGNIFICANT_DIGITS = 3;
+
+	private static final double NANOS_PER_MICRO = 1000.0;
+
+	private final Map<RequestType, Histogram> histograms =
+			new EnumMap<RequestType, Histogram>(RequestType.class);
+	private final Map<RequestType, AtomicLong> errors =
+			new EnumMap<RequestType, AtomicLong>(RequestType.class);
+	private volatile long elapsedNanos;
+
+	LoadResult() {
+		for (RequestType type : RequestType.values()) {
+			histograms.put(type, new ConcurrentHistogram(SIGNIFICANT_DIGITS));
+			errors.put(type, new AtomicLong());
+		}
+	}
+
+	void record(RequestType type, long latencyNanos, boolean error) {
+		histograms.get(type).recordValue(Math.max(latencyNanos, 0));
+		if (error) {
+			errors.get(type).incrementAndGet();
+		}
+	}
+
+	void setElapsedNanos(long elapsedNanos) {
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * Retrieve the latency histogram of the type. The values are in
+	 * nanoseconds.
+	 * @param type The request type.
+	 * @return The histogram.
+	 */
+	public Histogram getHistogram(RequestType type) {
+		return histograms.get(type);
+	}
+
+	/**
+	 * Retrieve the number of the requests of the type.
+	 * @param type The request type.
+	 * @return The number of the requests.
+	 */
+	public long getCount(RequestType type) {
+		return histograms.get(type).getTotalCount();
+	}
+
+	/**
+	 * Retrieve the number of the requests of all types.
+	 * @return The number of the requests.
+	 */
+	public long getTotalCount() {
+		long total = 0;
+		for (RequestType type : RequestType.values()) {
+			total += getCount(type);
+		}
+		return total;
+	}
+
+	/**
+	 * Retrieve the number of the requests of the type which resulted in an
+	 * error response or an exception.
+	 * @param type The request type.
+	 * @return The number of the error responses.
+	 */
+	public long getErrorCount(RequestType type) {
+		return errors.get(type).get();
+	}
+
+	/**
+	 * Retrieve the elapsed time of the run.
+	 * @return The elapsed time in nanoseconds.
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Print the summary of each request type, followed by the percentile
+	 * distribution of each type in the HdrHistogram format. The latencies
+	 * are printed in microseconds.
+	 * @param out The stream to which the result is printed.
+	 */
+	public void print(PrintStream out) {
+		double seconds = elapsedNanos / 1e9;
+		out.printf("%-20s %10s %10s %10s %10s %10s %10s%n", "type", "count",
+				"errors", "p50(us)", "p99(us)", "p99.9(us)", "max(us)");
+		for (RequestType type : RequestType.values()) {
+			Histogram histogram = histograms.get(type);
+			if (histogram.getTotalCount() == 0) {
+				continue;
+			}
+			out.printf("%-20s %10d %10d %10.1f %10.1f %10.1f %10.1f%n", type,
+					histogram.getTotalCount(), getErrorCount(type),
+					histogram.getValueAtPercentile(50.0) / NANOS_PER_MICRO,
+					histogram.getValueAtPercentile(99.0) / NANOS_PER_MICRO,
+					histogram.getValueAtPercentile(99.9) / NANOS_PER_MICRO,
+					histogram.getMaxValue() / NANOS_PER_MICRO);
+		}
+		if (seconds > 0) {
+			out.printf("throughput: %.1f requests/sec%n",
+					getTotalCount() / seconds);
+		}
+		for (RequestType type : RequestType.values()) {
+			Histogram histogram = histograms.get(type);
+			if (histogram.getTotalCount() == 0) {
+				continue;
+			}
+			out.println();
+			out.println(type);
+			histogram.outputPercentileDistribution(out, NANOS_PER_MICRO);
+		}
+	}
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.loadgen;
+
+/**
+ * This enum defines the kinds of the requests issued by the LoadGenerator.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public enum RequestType {
+
+	/**
+	 * A request to the ProtectedResource endpoint with a valid bearer token.
+	 */
+	BEARER_VALIDATION,
+
+	/**
+	 * A request to the Token endpoint with the refresh_token grant.
+	 */
+	REFRESH_TOKEN,
+
+	/**
+	 * A request to the Token endpoint with the authorization_code grant.
+	 */
+	AUTHORIZATION_CODE,
+
+	/**
+	 * A request which is expected to fail: an unknown bearer token or an
+	 * unsupported grant type, alternately.
+	 */
+	ERROR
+
+}
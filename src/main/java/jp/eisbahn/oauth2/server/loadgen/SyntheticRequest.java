@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.loadgen;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class is the Request implementation built by the LoadGenerator.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+class SyntheticRequest implements Request {
+
+	private final Map<String, String> parameters = new HashMap<String, String>();
+	private final Map<String, String> headers = new HashMap<String, String>();
+
+	SyntheticRequest parameter(String name, String value) {
+		parameters.put(name, value);
+		return this;
+	}
+
+	SyntheticRequest header(String name, String value) {
+		headers.put(name, value);
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.models.Request#getParameter(java.lang.String)
+	 */
+	@Override
+	public String getParameter(String name) {
+		return parameters.get(name);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.models.Request#getParameterMap()
+	 */
+	@Override
+	public Map<String, String> getParameterMap() {
+		return Collections.unmodifiableMap(parameters);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.models.Request#getHeader(java.lang.String)
+	 */
+	@Override
+	public String getHeader(String name) {
+		return headers.get(name);
+	}
+
+}
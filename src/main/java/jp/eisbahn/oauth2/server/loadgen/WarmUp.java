@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.loadgen;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Base64;
+
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource;
+import jp.eisbahn.oauth2.server.endpoint.Token;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcherProvider;
+import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcher;
+import jp.eisbahn.oauth2.server.granttype.GrantHandlerProvider;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class drives synthetic requests through the Token and
+ * ProtectedResource endpoints, so that the JIT compiler has compiled the
+ * request handling code before the first real request arrives.
+ *
+ * <p>The requests are processed by endpoint instances created by this class,
+ * with the same GrantHandlerProvider, ClientCredentialFetcher and
+ * AccessTokenFetcherProvider as the real endpoints, and with a DataHandler
+ * which never accesses any storage. Therefore, the warm-up doesn't issue any
+ * real token, and is not reported to any Instrumentation, cache or rate
+ * limiter.</p>
+ *
+ * <p>Each iteration sends a successful request and a request with an invalid
+ * client credential for every grant type registered to the
+ * GrantHandlerProvider, using both the Authorization header and the request
+ * parameters for the client credential, and requests without or with an
+ * unsupported grant type. Then it validates a bearer token passed in the
+ * Authorization header and in the request parameter, and an invalid, an
+ * expired and a missing token.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class WarmUp {
+
+	private static final DataHandlerFactory DATA_HANDLER_FACTORY =
+			new DataHandlerFactory() {
+				@Override
+				public DataHandler create(Request request) {
+					return new WarmUpDataHandler(request);
+				}
+			};
+
+	private GrantHandlerProvider grantHandlerProvider;
+	private ClientCredentialFetcher clientCredentialFetcher;
+	private AccessTokenFetcherProvider accessTokenFetcherProvider;
+	private int iterations = 1000;
+
+	/**
+	 * Set the GrantHandlerProvider to warm up the Token endpoint.
+	 * @param grantHandlerProvider The provider used by the Token endpoint.
+	 * @param clientCredentialFetcher The fetcher used by the Token endpoint.
+	 */
+	public void setTokenComponents(GrantHandlerProvider grantHandlerProvider,
+			ClientCredentialFetcher clientCredentialFetcher) {
+		this.grantHandlerProvider = grantHandlerProvider;
+		this.clientCredentialFetcher = clientCredentialFetcher;
+	}
+
+	/**
+	 * Set the AccessTokenFetcherProvider to warm up the ProtectedResource
+	 * endpoint.
+	 * @param accessTokenFetcherProvider The provider used by the
+	 * ProtectedResource endpoint.
+	 */
+	public void setAccessTokenFetcherProvider(
+			AccessTokenFetcherProvider accessTokenFetcherProvider) {
+		this.accessTokenFetcherProvider = accessTokenFetcherProvider;
+	}
+
+	/**
+	 * Set the number of the iterations.
+	 * @param iterations The number of the iterations. The default value is
+	 * 1000.
+	 */
+	public void setIterations(int iterations) {
+		if (iterations < 0) {
+			throw new IllegalArgumentException("Invalid iterations: " + iterations);
+		}
+		this.iterations = iterations;
+	}
+
+	/**
+	 * Drive the synthetic requests through the endpoints whose components
+	 * have been set. This method blocks until all requests are processed.
+	 * @return The number of the processed requests.
+	 */
+	public long run() {
+		List<Request> tokenRequests = new ArrayList<Request>();
+		Token token = null;
+		if (grantHandlerProvider != null) {
+			token = new Token();
+			token.setDataHandlerFactory(DATA_HANDLER_FACTORY);
+			token.setGrantHandlerProvider(grantHandlerProvider);
+			token.setClientCredentialFetcher(clientCredentialFetcher);
+			if (grantHandlerProvider.getHandlers() != null) {
+				for (String grantType : grantHandlerProvider.getHandlers().keySet()) {
+					tokenRequests.add(tokenRequest(grantType, false,
+							WarmUpDataHandler.CLIENT_SECRET));
+					tokenRequests.add(tokenRequest(grantType, true,
+							WarmUpDataHandler.CLIENT_SECRET));
+					tokenRequests.add(tokenRequest(grantType, false,
+							WarmUpDataHandler.INVALID));
+				}
+			}
+			tokenRequests.add(tokenRequest(null, false,
+					WarmUpDataHandler.CLIENT_SECRET));
+			tokenRequests.add(tokenRequest("warm_up", false,
+					WarmUpDataHandler.CLIENT_SECRET));
+		}
+		List<Request> resourceRequests = new ArrayList<Request>();
+		ProtectedResource protectedResource = null;
+		if (accessTokenFetcherProvider != null) {
+			protectedResource = new ProtectedResource();
+			protectedResource.setDataHandlerFactory(DATA_HANDLER_FACTORY);
+			protectedResource.setAccessTokenFetcherProvider(accessTokenFetcherProvider);
+			resourceRequests.add(new SyntheticRequest().header("Authorization",
+					"Bearer " + WarmUpDataHandler.TOKEN));
+			resourceRequests.add(new SyntheticRequest().parameter("access_token",
+					WarmUpDataHandler.TOKEN));
+			resourceRequests.add(new SyntheticRequest().header("Authorization",
+					"Bearer " + WarmUpDataHandler.INVALID));
+			resourceRequests.add(new SyntheticRequest().header("Authorization",
+					"Bearer " + WarmUpDataHandler.EXPIRED));
+			resourceRequests.add(new SyntheticRequest());
+		}
+		long count = 0;
+		for (int i = 0; i < iterations; i++) {
+			for (Request request : tokenRequests) {
+				try {
+					token.handleRequest(request);
+				} catch (RuntimeException e) {
+					// The custom components may not accept the synthetic requests.
+				}
+				count++;
+			}
+			for (Request request : resourceRequests) {
+				try {
+					protectedResource.handleRequest(request);
+				} catch (OAuthError e) {
+					// The error paths are warmed up as well.
+				} catch (RuntimeException e) {
+					// The custom components may not accept the synthetic requests.
+				}
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private Request tokenRequest(String grantType, boolean basic,
+			String clientSecret) {
+		SyntheticRequest request = new SyntheticRequest()
+				.parameter("code", "warm-up-code")
+				.parameter("redirect_uri", WarmUpDataHandler.REDIRECT_URI)
+				.parameter("refresh_token", WarmUpDataHandler.TOKEN)
+				.parameter("username", WarmUpDataHandler.USER_ID)
+				.parameter("password", "warm-up-password")
+				.parameter("scope", WarmUpDataHandler.SCOPE);
+		if (grantType != null) {
+			request.parameter("grant_type", grantType);
+		}
+		if (basic) {
+			String credential = WarmUpDataHandler.CLIENT_ID + ":" + clientSecret;
+			request.header("Authorization", "Basic " + Base64.encodeBase64String(
+					credential.getBytes(Charset.forName("UTF-8"))));
+		} else {
+			request.parameter("client_id", WarmUpDataHandler.CLIENT_ID)
+					.parameter("client_secret", clientSecret);
+		}
+		return request;
+	}
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.loadgen;
+
+import java.util.Date;
+
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class is the DataHandler used by the WarmUp class. It never accesses
+ * any storage. Every value is accepted, except the values equal to
+ * {@link #INVALID}, and the access token equal to {@link #EXPIRED} has
+ * expired.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+class WarmUpDataHandler extends DataHandler {
+
+	static final String CLIENT_ID = "warm-up-client";
+	static final String CLIENT_SECRET = "warm-up-secret";
+	static final String USER_ID = "warm-up-user";
+	static final String REDIRECT_URI = "https://warm-up.invalid/callback";
+	static final String SCOPE = "warm-up";
+	static final String TOKEN = "warm-up-token";
+	static final String EXPIRED = "warm-up-expired";
+	static final String INVALID = "warm-up-invalid";
+
+	WarmUpDataHandler(Request request) {
+		super(request);
+	}
+
+	private AuthInfo createAuthInfo() {
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setId("warm-up-auth");
+		authInfo.setClientId(CLIENT_ID);
+		authInfo.setUserId(USER_ID);
+		authInfo.setRedirectUri(REDIRECT_URI);
+		authInfo.setRefreshToken(TOKEN);
+		authInfo.setScope(SCOPE);
+		return authInfo;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#validateClient(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public boolean validateClient(String clientId, String clientSecret,
+			String grantType) {
+		return !INVALID.equals(clientSecret);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getUserId(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public String getUserId(String username, String password) {
+		return INVALID.equals(password) ? null : USER_ID;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#createOrUpdateAuthInfo(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public AuthInfo createOrUpdateAuthInfo(String clientId, String userId,
+			String scope) {
+		AuthInfo authInfo = createAuthInfo();
+		authInfo.setClientId(clientId);
+		authInfo.setUserId(userId);
+		authInfo.setScope(scope);
+		return authInfo;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#createOrUpdateAccessToken(jp.eisbahn.oauth2.server.models.AuthInfo)
+	 */
+	@Override
+	public AccessToken createOrUpdateAccessToken(AuthInfo authInfo) {
+		AccessToken accessToken = new AccessToken();
+		accessToken.setAuthId(authInfo.getId());
+		accessToken.setToken(TOKEN);
+		accessToken.setExpiresIn(3600);
+		accessToken.setCreatedOn(new Date());
+		return accessToken;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getAuthInfoByCode(java.lang.String)
+	 */
+	@Override
+	public AuthInfo getAuthInfoByCode(String code) {
+		return INVALID.equals(code) ? null : createAuthInfo();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getAuthInfoByRefreshToken(java.lang.String)
+	 */
+	@Override
+	public AuthInfo getAuthInfoByRefreshToken(String refreshToken) {
+		return INVALID.equals(refreshToken) ? null : createAuthInfo();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getClientUserId(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public String getClientUserId(String clientId, String clientSecret) {
+		return USER_ID;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#validateClientById(java.lang.String)
+	 */
+	@Override
+	public boolean validateClientById(String clientId) {
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#validateUserById(java.lang.String)
+	 */
+	@Override
+	public boolean validateUserById(String userId) {
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getAccessToken(java.lang.String)
+	 */
+	@Override
+	public AccessToken getAccessToken(String token) {
+		if (INVALID.equals(token)) {
+			return null;
+		}
+		AccessToken accessToken = new AccessToken();
+		accessToken.setAuthId("warm-up-auth");
+		accessToken.setToken(token);
+		accessToken.setExpiresIn(3600);
+		long createdOn = System.currentTimeMillis();
+		if (EXPIRED.equals(token)) {
+			createdOn -= 7200 * 1000L;
+		}
+		accessToken.setCreatedOn(new Date(createdOn));
+		return accessToken;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.data.DataHandler#getAuthInfoById(java.lang.String)
+	 */
+	@Override
+	public AuthInfo getAuthInfoById(String id) {
+		return createAuthInfo();
+	}
+
+}
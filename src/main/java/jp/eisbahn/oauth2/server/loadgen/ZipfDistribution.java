@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.loadgen;
+
+import java.util.Random;
+
+/**
+ * This class draws ranks from a Zipf distribution, to choose which token
+ * a request reuses. The rank 0 is the most popular one.
+ *
+ * The probability of the rank k is proportional to 1 / (k + 1)^exponent.
+ * When the exponent is 0, every rank is chosen uniformly. The cumulative
+ * probabilities are computed once, and each draw is a binary search.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ZipfDistribution {
+
+	private final double[] cumulative;
+
+	/**
+	 * Initialize this instance.
+	 * @param size The number of the ranks.
+	 * @param exponent The exponent. This must be 0 or more.
+	 */
+	public ZipfDistribution(int size, double exponent) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("Invalid size: " + size);
+		}
+		if (exponent < 0 || Double.isNaN(exponent)) {
+			throw new IllegalArgumentException("Invalid exponent: " + exponent);
+		}
+		cumulative = new double[size];
+		double sum = 0;
+		for (int i = 0; i < size; i++) {
+			sum += 1.0 / Math.pow(i + 1, exponent);
+			cumulative[i] = sum;
+		}
+		for (int i = 0; i < size; i++) {
+			cumulative[i] /= sum;
+		}
+		cumulative[size - 1] = 1.0;
+	}
+
+	/**
+	 * Retrieve the number of the ranks.
+	 * @return The number of the ranks.
+	 */
+	public int size() {
+		return cumulative.length;
+	}
+
+	/**
+	 * Draw a rank.
+	 * @param random The random number generator.
+	 * @return The rank from 0 to size() - 1.
+	 */
+	public int next(Random random) {
+		double value = random.nextDouble();
+		int low = 0;
+		int high = cumulative.length - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (cumulative[middle] <= value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+}
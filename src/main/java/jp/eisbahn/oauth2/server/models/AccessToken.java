@@ -27,15 +27,22 @@ import java.util.Date;
  * The DataHandler implementation may store this to your database or
  * something to cache in memory or other lightweight storage.
  * 
+ * The expiration time is held as an epoch time in milliseconds. If it is not
+ * set explicitly, it is computed from the created time and the expires_in
+ * value, so that the existing DataHandler implementations work as before.
+ * 
  * @author Yoichiro Tanaka
  *
  */
 public class AccessToken {
 
+	private static final long UNSET = Long.MIN_VALUE;
+
 	private String authId;
 	private String token;
 	private long expiresIn;
-	private Date createdOn;
+	private long createdOn = UNSET;
+	private long expiresAt = UNSET;
 
 	/**
 	 * Set the ID of the authorization information to relate between the
@@ -92,15 +99,44 @@ public class AccessToken {
 	 * @param createdOn The date and time value.
 	 */
 	public void setCreatedOn(Date createdOn) {
-		this.createdOn = createdOn;
+		this.createdOn = createdOn != null ? createdOn.getTime() : UNSET;
 	}
 
 	/**
 	 * Retrieve the time when this access token is created.
+	 * The returned value is a copy, therefore changing it doesn't affect
+	 * this access token.
 	 * @return The date and time value when this is created.
 	 */
 	public Date getCreatedOn() {
-		return createdOn;
+		return createdOn != UNSET ? new Date(createdOn) : null;
+	}
+
+	/**
+	 * Set the time when this access token expires.
+	 * If this is not set, the time is computed from the created time and
+	 * the expires_in value. This doesn't change the expires_in value returned
+	 * to the client.
+	 * @param expiresAt The epoch time in milliseconds.
+	 */
+	public void setExpiresAt(long expiresAt) {
+		this.expiresAt = expiresAt;
+	}
+
+	/**
+	 * Retrieve the time when this access token expires.
+	 * @return The epoch time in milliseconds. If neither this value nor
+	 * the created time is set, this returns 0, which means that this access
+	 * token has already expired.
+	 */
+	public long getExpiresAt() {
+		if (expiresAt != UNSET) {
+			return expiresAt;
+		}
+		if (createdOn == UNSET) {
+			return 0;
+		}
+		return createdOn + expiresIn * 1000;
 	}
 
 }
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.ratelimit;
+
+/**
+ * This interface tracks failed authentications per key, for instance,
+ * a client ID or a username, and decides whether the key is in a backoff
+ * period.
+ *
+ * The endpoints check the isBlocked() method before calling the DataHandler
+ * to verify a credential, so that a key under attack doesn't cost the
+ * expensive verification. Then the result of the verification is reported.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface FailureTracker {
+
+	/**
+	 * The prefix of the key for a client ID. The key of a client and the key
+	 * of a user never collide, so that one instance can be shared by the
+	 * Token endpoint and the Password grant handler.
+	 */
+	public static final String CLIENT_PREFIX = "client:";
+
+	/**
+	 * The prefix of the key for a username.
+	 */
+	public static final String USER_PREFIX = "user:";
+
+	/**
+	 * Return whether the key is in a backoff period or not.
+	 * @param key The client ID or the username with its prefix.
+	 * @return True if the authentication should be rejected without
+	 * verification.
+	 */
+	public boolean isBlocked(String key);
+
+	/**
+	 * Record a failed authentication.
+	 * @param key The client ID or the username with its prefix.
+	 */
+	public void recordFailure(String key);
+
+	/**
+	 * Record a successful authentication.
+	 * @param key The client ID or the username with its prefix.
+	 */
+	public void recordSuccess(String key);
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.ratelimit;
+
+/**
+ * This interface decides whether a request from the client is accepted or
+ * rejected because of its rate.
+ *
+ * The Token endpoint calls the tryAcquire() method with the client ID of each
+ * request before calling the DataHandler. If this returns false, the request
+ * is rejected immediately with the TooManyRequests error.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface RateLimiter {
+
+	/**
+	 * Try to accept a request from the client.
+	 * @param clientId The client ID.
+	 * @return True if the request is accepted, false if rejected.
+	 */
+	public boolean tryAcquire(String clientId);
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.ratelimit.impl;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import jp.eisbahn.oauth2.server.clock.Clock;
+import jp.eisbahn.oauth2.server.clock.impl.SystemClock;
+import jp.eisbahn.oauth2.server.ratelimit.FailureTracker;
+
+/**
+ * This class is the FailureTracker implementation which has a fixed number of
+ * stripes.
+ *
+ * Each key is hashed with a random seed to one stripe, and each stripe is a
+ * single long value which has a fingerprint of the key, the number of failures
+ * and the time of the last failure, updated by compare-and-set. Therefore,
+ * the memory usage is fixed (8 bytes per stripe, 65536 stripes by default)
+ * however many keys are attacked.
+ *
+ * After the failures reach the threshold (5 by default), the key is blocked
+ * for the base backoff (1 second by default) since the last failure, and
+ * the period is doubled by each further failure up to the max backoff (15
+ * minutes by default). The count is reset by a success, or when no failure
+ * happened during the max backoff. When two keys share a stripe, the newer
+ * failure replaces the older record, unless the older key is blocked. So a key
+ * may lose its count, but a blocked key keeps being blocked, and no key is
+ * blocked because of another key.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class StripedFailureTracker implements FailureTracker {
+
+	private static final int MAX_FAILURES = 0xff;
+
+	private final long seed = new Random().nextLong();
+	private long origin;
+
+	private AtomicLongArray stripes = new AtomicLongArray(65536);
+	private int threshold = 5;
+	private long baseBackoffSeconds = 1;
+	private long maxBackoffSeconds = 15 * 60;
+	private Clock clock = SystemClock.INSTANCE;
+
+	/**
+	 * Initialize this instance.
+	 */
+	public StripedFailureTracker() {
+		super();
+		origin = clock.currentTimeMillis();
+	}
+
+	/**
+	 * Set the number of stripes. It is rounded up to a power of two.
+	 * By default, 65536.
+	 * @param count The number of stripes.
+	 */
+	public void setStripes(int count) {
+		int size = Integer.highestOneBit(Math.max(1, count - 1)) << 1;
+		stripes = new AtomicLongArray(Math.max(1, Math.min(size, 1 << 30)));
+	}
+
+	/**
+	 * Set the number of failures after which the key is blocked. By default, 5.
+	 * @param threshold The number of failures.
+	 */
+	public void setThreshold(int threshold) {
+		this.threshold = Math.max(1, Math.min(threshold, MAX_FAILURES));
+	}
+
+	/**
+	 * Set the first backoff period. By default, 1 second.
+	 * @param baseBackoffSeconds The period in seconds.
+	 */
+	public void setBaseBackoffSeconds(long baseBackoffSeconds) {
+		this.baseBackoffSeconds = baseBackoffSeconds;
+	}
+
+	/**
+	 * Set the max backoff period. By default, 15 minutes.
+	 * @param maxBackoffSeconds The period in seconds.
+	 */
+	public void setMaxBackoffSeconds(long maxBackoffSeconds) {
+		this.maxBackoffSeconds = maxBackoffSeconds;
+	}
+
+	/**
+	 * Set the Clock instance. By default, the system clock is used.
+	 * @param clock The Clock instance.
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+		origin = clock.currentTimeMillis();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.ratelimit.FailureTracker#isBlocked(java.lang.String)
+	 */
+	@Override
+	public boolean isBlocked(String key) {
+		long hash = hash(key);
+		long value = stripes.get(index(hash));
+		return value != 0 && fingerprintOf(value) == fingerprint(hash)
+				&& isBlocked(value, now());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.ratelimit.FailureTracker#recordFailure(java.lang.String)
+	 */
+	@Override
+	public void recordFailure(String key) {
+		long hash = hash(key);
+		int index = index(hash);
+		int fingerprint = fingerprint(hash);
+		long now = now();
+		while (true) {
+			long current = stripes.get(index);
+			int failures = 1;
+			if (current != 0) {
+				if (fingerprintOf(current) == fingerprint) {
+					if (now - lastFailureOf(current) <= maxBackoffSeconds) {
+						failures = Math.min(failuresOf(current) + 1, MAX_FAILURES);
+					}
+				} else if (isBlocked(current, now)) {
+					return;
+				}
+			}
+			long next = ((long)fingerprint << 40) | ((long)failures << 32)
+					| (now & 0xffffffffL);
+			if (stripes.compareAndSet(index, current, next)) {
+				return;
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.ratelimit.FailureTracker#recordSuccess(java.lang.String)
+	 */
+	@Override
+	public void recordSuccess(String key) {
+		long hash = hash(key);
+		int index = index(hash);
+		long current = stripes.get(index);
+		if (current != 0 && fingerprintOf(current) == fingerprint(hash)) {
+			stripes.compareAndSet(index, current, 0);
+		}
+	}
+
+	private boolean isBlocked(long value, long now) {
+		int failures = failuresOf(value);
+		if (failures < threshold) {
+			return false;
+		}
+		long backoff = baseBackoffSeconds << Math.min(failures - threshold, 30);
+		return now < lastFailureOf(value) + Math.min(backoff, maxBackoffSeconds);
+	}
+
+	private long now() {
+		// Seconds since this instance was created.
+		return (clock.currentTimeMillis() - origin) / 1000;
+	}
+
+	private long hash(String key) {
+		long hash = seed;
+		for (int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	private int index(long hash) {
+		return (int)hash & (stripes.length() - 1);
+	}
+
+	private static int fingerprint(long hash) {
+		// 24 bits, never 0.
+		return (int)(hash >>> 40) | 1;
+	}
+
+	private static int fingerprintOf(long value) {
+		return (int)(value >>> 40);
+	}
+
+	private static int failuresOf(long value) {
+		return (int)(value >>> 32) & 0xff;
+	}
+
+	private static long lastFailureOf(long value) {
+		return value & 0xffffffffL;
+	}
+
+}
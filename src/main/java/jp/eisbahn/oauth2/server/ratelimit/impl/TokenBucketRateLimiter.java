@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.ratelimit.impl;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jp.eisbahn.oauth2.server.clock.Clock;
+import jp.eisbahn.oauth2.server.clock.impl.SystemClock;
+import jp.eisbahn.oauth2.server.ratelimit.RateLimiter;
+
+/**
+ * This class is the RateLimiter implementation which has a token bucket for
+ * each client.
+ *
+ * Each bucket holds up to the capacity, and is refilled at the fixed rate per
+ * second. A request consumes one token, and is rejected if the bucket is
+ * empty. The limit is 20 requests as a burst and 10 requests per second by
+ * default, and can be changed per client.
+ *
+ * The state of a bucket is a single long value, the time when the bucket
+ * becomes full again, and it is updated by compare-and-set without a lock.
+ * The number of buckets is bounded (100000 by default). When it is reached,
+ * the full buckets are discarded, because a full bucket is the same as a new
+ * one. This scan runs at most once per second. If the buckets are still at the
+ * bound, the clients which don't have a bucket share one overflow bucket of
+ * the default limit, so a flood of random client IDs neither grows the map
+ * nor scans it on each request, and the clients which already have a bucket
+ * are not affected. However, a legitimate client which sends its first request
+ * during such a flood shares the overflow bucket with the flood and is
+ * throttled with it, until the flood stops and its buckets become full and are
+ * discarded. The clients which have their own limit always get their own
+ * bucket, so set a limit by setLimit() for the clients which must not be
+ * affected, or raise the bound.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class TokenBucketRateLimiter implements RateLimiter {
+
+	private static final long NANOS_PER_MILLI = 1000000L;
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	private static final long PURGE_INTERVAL_MILLIS = 1000L;
+
+	private ConcurrentMap<String, Bucket> buckets =
+			new ConcurrentHashMap<String, Bucket>();
+	private ConcurrentMap<String, Limit> limits =
+			new ConcurrentHashMap<String, Limit>();
+	private volatile Limit defaultLimit = new Limit(20, 10.0);
+	private volatile Bucket overflow = new Bucket(defaultLimit, 0L);
+	private final AtomicLong nextPurge = new AtomicLong();
+	private int maxBuckets = 100000;
+	private Clock clock = SystemClock.INSTANCE;
+
+	/**
+	 * Set the limit applied to the clients which don't have their own limit.
+	 * @param capacity The max number of requests as a burst.
+	 * @param refillPerSecond The number of requests allowed per second.
+	 */
+	public void setDefaultLimit(int capacity, double refillPerSecond) {
+		defaultLimit = new Limit(capacity, refillPerSecond);
+		overflow = new Bucket(defaultLimit, 0L);
+		buckets.clear();
+	}
+
+	/**
+	 * Set the limit of the client.
+	 * @param clientId The client ID.
+	 * @param capacity The max number of requests as a burst.
+	 * @param refillPerSecond The number of requests allowed per second.
+	 */
+	public void setLimit(String clientId, int capacity, double refillPerSecond) {
+		limits.put(clientId, new Limit(capacity, refillPerSecond));
+		buckets.remove(clientId);
+	}
+
+	/**
+	 * Remove the limit of the client. After this, the default limit is applied.
+	 * @param clientId The client ID.
+	 */
+	public void removeLimit(String clientId) {
+		limits.remove(clientId);
+		buckets.remove(clientId);
+	}
+
+	/**
+	 * Set the max number of buckets. By default, 100000.
+	 * @param maxBuckets The max number of buckets.
+	 */
+	public void setMaxBuckets(int maxBuckets) {
+		this.maxBuckets = maxBuckets;
+	}
+
+	/**
+	 * Retrieve the number of buckets, excluding the overflow bucket.
+	 * @return The number of buckets.
+	 */
+	public int getBucketCount() {
+		return buckets.size();
+	}
+
+	/**
+	 * Set the Clock instance. By default, the system clock is used.
+	 * @param clock The Clock instance.
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.ratelimit.RateLimiter#tryAcquire(java.lang.String)
+	 */
+	@Override
+	public boolean tryAcquire(String clientId) {
+		long millis = clock.currentTimeMillis();
+		long now = millis * NANOS_PER_MILLI;
+		Bucket bucket = buckets.get(clientId);
+		if (bucket == null) {
+			Limit limit = limits.get(clientId);
+			if (limit == null && buckets.size() >= maxBuckets) {
+				purgeIfDue(millis, now);
+				if (buckets.size() >= maxBuckets) {
+					return overflow.tryAcquire(now);
+				}
+			}
+			bucket = new Bucket(limit != null ? limit : defaultLimit, now);
+			Bucket current = buckets.putIfAbsent(clientId, bucket);
+			if (current != null) {
+				bucket = current;
+			}
+		}
+		return bucket.tryAcquire(now);
+	}
+
+	private void purgeIfDue(long millis, long now) {
+		long next = nextPurge.get();
+		if (millis < next
+				|| !nextPurge.compareAndSet(next, millis + PURGE_INTERVAL_MILLIS)) {
+			return;
+		}
+		purge(now);
+	}
+
+	private void purge(long now) {
+		Iterator<Bucket> iterator = buckets.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().isFull(now)) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private static class Limit {
+
+		private final long intervalNanos;
+		private final long burstNanos;
+
+		private Limit(int capacity, double refillPerSecond) {
+			if (capacity <= 0 || refillPerSecond <= 0) {
+				throw new IllegalArgumentException(
+						"capacity and refillPerSecond must be positive.");
+			}
+			this.intervalNanos = Math.max(1L, (long)(NANOS_PER_SECOND / refillPerSecond));
+			this.burstNanos = intervalNanos * capacity;
+		}
+
+	}
+
+	private static class Bucket {
+
+		private final Limit limit;
+		// The time when this bucket becomes full.
+		private final AtomicLong fullAt;
+
+		private Bucket(Limit limit, long now) {
+			this.limit = limit;
+			this.fullAt = new AtomicLong(now);
+		}
+
+		private boolean tryAcquire(long now) {
+			while (true) {
+				long current = fullAt.get();
+				long next = Math.max(current, now) + limit.intervalNanos;
+				if (next - now > limit.burstNanos) {
+					return false;
+				}
+				if (fullAt.compareAndSet(current, next)) {
+					return true;
+				}
+			}
+		}
+
+		private boolean isFull(long now) {
+			return fullAt.get() <= now;
+		}
+
+	}
+
+}
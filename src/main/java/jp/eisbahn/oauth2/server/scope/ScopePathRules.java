@@ -0,0 +1,367 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.scope;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds the scopes required by each path, compiled into a trie
+ * of path segments.
+ *
+ * <p>Each rule has a path pattern and the required scopes delimited by
+ * whitespace. A pattern is one of the following, like the url-pattern of
+ * the Servlet specification:</p>
+ * <ul>
+ * <li>An exact path, for instance "/api/status".</li>
+ * <li>A path prefix which ends with "/*", for instance "/api/admin/*". This
+ * matches "/api/admin" and all paths under it.</li>
+ * </ul>
+ * <p>In addition, a segment "*" in the middle of a pattern matches any one
+ * segment, for instance "/api/users/&#42;/profile". When some rules match
+ * a path, the rule which matches the most segments is applied, and a literal
+ * segment has priority over "*". A rule without scopes makes the path
+ * require nothing.</p>
+ *
+ * <p>The scopes in the rules are registered to the ScopeRegistry passed to
+ * the constructor, therefore the required scopes of each path are compiled
+ * into a bitmask at once. The rules must be added before this instance is
+ * used by some threads.</p>
+ *
+ * <p>A path is normalized before it is matched. The dot segments are
+ * resolved, so "/api/public/../admin" is matched as "/api/admin". The path
+ * passed to getRequiredMask() must be decoded already, like the servlet path
+ * and the path info, and a "%" in it is a literal character. A raw request
+ * URI is passed to getRequiredMaskOfRequestUri() instead: the path
+ * parameters (";" and after in each segment) are removed and the
+ * percent-encoded characters are decoded before the dot segments are
+ * resolved, so "/api/%61dmin" and "/api;x=y/admin" are matched as
+ * "/api/admin".</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ScopePathRules {
+
+	private static final String WILDCARD = "*";
+
+	private final ScopeRegistry scopeRegistry;
+	private final Node root = new Node();
+	private int size;
+
+	/**
+	 * Initialize this instance.
+	 * @param scopeRegistry The ScopeRegistry which compiles the scopes.
+	 */
+	public ScopePathRules(ScopeRegistry scopeRegistry) {
+		super();
+		this.scopeRegistry = scopeRegistry;
+	}
+
+	/**
+	 * Retrieve the ScopeRegistry which compiles the scopes.
+	 * @return The ScopeRegistry instance.
+	 */
+	public ScopeRegistry getScopeRegistry() {
+		return scopeRegistry;
+	}
+
+	/**
+	 * Retrieve the number of the rules.
+	 * @return The number of the rules.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Add the rule. If a rule of the same pattern exists, it is replaced.
+	 * @param pattern The path pattern which starts with "/".
+	 * @param scopes The required scopes delimited by whitespace. If this is
+	 * null or empty, the path requires nothing.
+	 * @throws IllegalArgumentException If the pattern is invalid.
+	 */
+	public void add(String pattern, String scopes) {
+		if (pattern == null || !pattern.startsWith("/")) {
+			throw new IllegalArgumentException("Invalid path pattern: " + pattern);
+		}
+		long mask = 0;
+		if (scopes != null) {
+			for (String scope : scopes.trim().split("\\s+")) {
+				if (scope.length() > 0) {
+					mask |= 1L << scopeRegistry.register(scope);
+				}
+			}
+		}
+		boolean prefix = pattern.endsWith("/*");
+		String path = prefix ? pattern.substring(0, pattern.length() - 2) : pattern;
+		Node node = root;
+		for (String segment : path.split("/")) {
+			if (segment.length() == 0) {
+				continue;
+			}
+			node = node.child(segment);
+		}
+		if (prefix) {
+			if (!node.hasPrefix) {
+				size++;
+			}
+			node.prefixMask = mask;
+			node.hasPrefix = true;
+		} else {
+			if (!node.hasExact) {
+				size++;
+			}
+			node.exactMask = mask;
+			node.hasExact = true;
+		}
+	}
+
+	/**
+	 * Add the rules read from the reader. Each line has a path pattern and
+	 * the required scopes delimited by whitespace. A semicolon also separates
+	 * the rules. An empty line and a line which starts with "#" are ignored.
+	 * For instance:
+	 * <pre>
+	 * # pattern          scopes
+	 * /api/admin/*       admin
+	 * /api/users/&#42;/mail  read mail
+	 * /api/public/*
+	 * </pre>
+	 * @param reader The reader of the rules.
+	 * @throws IOException If the rules could not be read.
+	 * @throws IllegalArgumentException If a rule is invalid.
+	 */
+	public void load(Reader reader) throws IOException {
+		BufferedReader in = new BufferedReader(reader);
+		String line;
+		while ((line = in.readLine()) != null) {
+			for (String rule : line.split(";")) {
+				rule = rule.trim();
+				if (rule.length() == 0 || rule.startsWith("#")) {
+					continue;
+				}
+				int pos = indexOfWhitespace(rule);
+				if (pos < 0) {
+					add(rule, null);
+				} else {
+					add(rule.substring(0, pos), rule.substring(pos + 1));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the bitmask of the scopes required by the path.
+	 * @param path The decoded path in the application, for instance the
+	 * servlet path and the path info. The path is normalized before matching.
+	 * @return The bitmask of the required scopes. If no rule matches the path,
+	 * 0 is returned.
+	 */
+	public long getRequiredMask(String path) {
+		if (path == null) {
+			return 0;
+		}
+		return getMatchedMask(normalize(path));
+	}
+
+	/**
+	 * Retrieve the bitmask of the scopes required by the path which is not
+	 * decoded yet, for instance the request URI without the query string.
+	 * @param rawPath The raw path in the application. The path is decoded and
+	 * normalized before matching.
+	 * @return The bitmask of the required scopes. If no rule matches the path,
+	 * 0 is returned.
+	 */
+	public long getRequiredMaskOfRequestUri(String rawPath) {
+		if (rawPath == null) {
+			return 0;
+		}
+		return getMatchedMask(normalizeRequestUri(rawPath));
+	}
+
+	private long getMatchedMask(String path) {
+		Match match = new Match();
+		match(root, path, 0, match);
+		return match.mask;
+	}
+
+	/**
+	 * Normalize the decoded path. The dot segments are resolved, and a dot
+	 * segment which goes above the root is ignored. The other characters,
+	 * including "%" and ";", are kept as is.
+	 * @param path The decoded path.
+	 * @return The normalized path which starts with "/".
+	 */
+	public static String normalize(String path) {
+		if (path.indexOf("/.") < 0 && path.startsWith("/")) {
+			return path;
+		}
+		return normalize(path, false);
+	}
+
+	/**
+	 * Normalize the raw path. The path parameters are removed, the
+	 * percent-encoded characters are decoded, and the dot segments are
+	 * resolved. A dot segment which goes above the root is ignored.
+	 * @param rawPath The raw path which is not decoded yet.
+	 * @return The normalized path which starts with "/".
+	 */
+	public static String normalizeRequestUri(String rawPath) {
+		if (rawPath.indexOf('%') < 0 && rawPath.indexOf(';') < 0
+				&& rawPath.indexOf("/.") < 0 && rawPath.startsWith("/")) {
+			return rawPath;
+		}
+		return normalize(rawPath, true);
+	}
+
+	private static String normalize(String path, boolean raw) {
+		List<String> segments = new ArrayList<String>();
+		for (String segment : path.split("/")) {
+			if (raw) {
+				int pos = segment.indexOf(';');
+				if (pos >= 0) {
+					segment = segment.substring(0, pos);
+				}
+				segment = decode(segment);
+			}
+			if (segment.length() == 0 || segment.equals(".")) {
+				continue;
+			}
+			if (segment.equals("..")) {
+				if (!segments.isEmpty()) {
+					segments.remove(segments.size() - 1);
+				}
+				continue;
+			}
+			segments.add(segment);
+		}
+		if (segments.isEmpty()) {
+			return "/";
+		}
+		StringBuilder sb = new StringBuilder();
+		for (String segment : segments) {
+			sb.append('/').append(segment);
+		}
+		return sb.toString();
+	}
+
+	private static String decode(String segment) {
+		if (segment.indexOf('%') < 0) {
+			return segment;
+		}
+		try {
+			return URLDecoder.decode(segment.replace("+", "%2B"), "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		} catch (IllegalArgumentException e) {
+			return segment;
+		}
+	}
+
+	private static boolean match(Node node, String path, int start,
+			Match match) {
+		int length = path.length();
+		while (start < length && path.charAt(start) == '/') {
+			start++;
+		}
+		if (start >= length) {
+			if (node.hasExact) {
+				match.mask = node.exactMask;
+				return true;
+			}
+			if (node.hasPrefix) {
+				match.mask = node.prefixMask;
+				return true;
+			}
+			return false;
+		}
+		int end = path.indexOf('/', start);
+		if (end < 0) {
+			end = length;
+		}
+		if (node.children != null) {
+			Node child = node.children.get(path.substring(start, end));
+			if (child != null && match(child, path, end, match)) {
+				return true;
+			}
+		}
+		if (node.wildcard != null
+				&& match(node.wildcard, path, end, match)) {
+			return true;
+		}
+		if (node.hasPrefix) {
+			match.mask = node.prefixMask;
+			return true;
+		}
+		return false;
+	}
+
+	private static int indexOfWhitespace(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			if (Character.isWhitespace(value.charAt(i))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static class Node {
+
+		private Map<String, Node> children;
+		private Node wildcard;
+		private boolean hasExact;
+		private long exactMask;
+		private boolean hasPrefix;
+		private long prefixMask;
+
+		private Node child(String segment) {
+			if (segment.equals(WILDCARD)) {
+				if (wildcard == null) {
+					wildcard = new Node();
+				}
+				return wildcard;
+			}
+			if (children == null) {
+				children = new HashMap<String, Node>();
+			}
+			Node child = children.get(segment);
+			if (child == null) {
+				child = new Node();
+				children.put(segment, child);
+			}
+			return child;
+		}
+
+	}
+
+	private static class Match {
+
+		private long mask;
+
+	}
+
+}
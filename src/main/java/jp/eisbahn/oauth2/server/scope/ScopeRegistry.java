@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.scope;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class assigns a bit position to each known scope, and converts
+ * a scope string into a bitmask and vice versa.
+ *
+ * <p>Register the scopes which your resources require at startup. Then a set
+ * of scopes is represented as a long value, and whether an access token has
+ * all required scopes is judged by a single AND operation:</p>
+ *
+ * <pre>
+ * ScopeRegistry registry = new ScopeRegistry();
+ * registry.setScopes("read write admin");
+ * long required = registry.compile("read write");
+ * boolean allowed = ScopeRegistry.containsAll(response.getScopeMask(), required);
+ * </pre>
+ *
+ * <p>Up to 64 scopes can be registered. Each scope string is split by
+ * a space character as defined by RFC 6749. Registering is not expected to
+ * be frequent; each registration copies the internal table, and reading it
+ * never takes a lock.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ScopeRegistry {
+
+	/**
+	 * The maximum number of the scopes which can be registered.
+	 */
+	public static final int MAX_SCOPES = 64;
+
+	private volatile Table table = new Table(new HashMap<String, Integer>(),
+			new String[0]);
+
+	/**
+	 * Register the scopes delimited by a space character.
+	 * @param scopes The scope string.
+	 */
+	public void setScopes(String scopes) {
+		if (scopes == null) {
+			return;
+		}
+		for (String scope : scopes.split(" ")) {
+			if (scope.length() > 0) {
+				register(scope);
+			}
+		}
+	}
+
+	/**
+	 * Register the scope and return the bit position of it.
+	 * If the scope has been registered already, the same position is returned.
+	 * @param scope The scope name.
+	 * @return The bit position from 0 to 63.
+	 * @throws IllegalStateException If 64 scopes have been registered already.
+	 */
+	public synchronized int register(String scope) {
+		if (scope == null || scope.length() == 0 || scope.indexOf(' ') >= 0) {
+			throw new IllegalArgumentException("Invalid scope: " + scope);
+		}
+		Table current = table;
+		Integer position = current.positions.get(scope);
+		if (position != null) {
+			return position;
+		}
+		int size = current.names.length;
+		if (size >= MAX_SCOPES) {
+			throw new IllegalStateException(
+					"Too many scopes are registered: " + scope);
+		}
+		Map<String, Integer> positions =
+				new HashMap<String, Integer>(current.positions);
+		positions.put(scope, size);
+		String[] names = new String[size + 1];
+		System.arraycopy(current.names, 0, names, 0, size);
+		names[size] = scope;
+		table = new Table(positions, names);
+		return size;
+	}
+
+	/**
+	 * Retrieve the number of the registered scopes.
+	 * @return The number of the scopes.
+	 */
+	public int size() {
+		return table.names.length;
+	}
+
+	/**
+	 * Retrieve the bit of the scope.
+	 * @param scope The scope name.
+	 * @return The bitmask which has only the bit of the scope, or 0 if the
+	 * scope is not registered.
+	 */
+	public long getMask(String scope) {
+		Integer position = table.positions.get(scope);
+		return position != null ? 1L << position : 0;
+	}
+
+	/**
+	 * Convert the scope string into the bitmask. The scopes which are not
+	 * registered are ignored. Use this method for the scopes granted to
+	 * an access token.
+	 * @param scope The scope string delimited by a space character.
+	 * @return The bitmask.
+	 */
+	public long toMask(String scope) {
+		return toMask(scope, false);
+	}
+
+	/**
+	 * Convert the scope string into the bitmask. Use this method for the
+	 * scopes required by a resource, so that a typo is found at startup.
+	 * @param scope The scope string delimited by a space character.
+	 * @return The bitmask.
+	 * @throws IllegalArgumentException If the scope string has a scope which
+	 * is not registered.
+	 */
+	public long compile(String scope) {
+		return toMask(scope, true);
+	}
+
+	/**
+	 * Convert the bitmask into the scope string.
+	 * @param mask The bitmask.
+	 * @return The scope names delimited by a space character in the order of
+	 * the bit positions. If the bitmask is 0, an empty string is returned.
+	 */
+	public String toScope(long mask) {
+		String[] names = table.names;
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < names.length; i++) {
+			if ((mask & (1L << i)) != 0) {
+				if (sb.length() > 0) {
+					sb.append(' ');
+				}
+				sb.append(names[i]);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Judge whether the granted scopes contain all required scopes.
+	 * @param granted The bitmask of the granted scopes.
+	 * @param required The bitmask of the required scopes.
+	 * @return True if all required bits are set in the granted bitmask.
+	 */
+	public static boolean containsAll(long granted, long required) {
+		return (granted & required) == required;
+	}
+
+	private long toMask(String scope, boolean strict) {
+		if (scope == null) {
+			return 0;
+		}
+		Map<String, Integer> positions = table.positions;
+		long mask = 0;
+		int length = scope.length();
+		int start = 0;
+		while (start < length) {
+			int end = scope.indexOf(' ', start);
+			if (end < 0) {
+				end = length;
+			}
+			if (end > start) {
+				String name = scope.substring(start, end);
+				Integer position = positions.get(name);
+				if (position != null) {
+					mask |= 1L << position;
+				} else if (strict) {
+					throw new IllegalArgumentException(
+							"Unknown scope: " + name);
+				}
+			}
+			start = end + 1;
+		}
+		return mask;
+	}
+
+	private static class Table {
+
+		private final Map<String, Integer> positions;
+		private final String[] names;
+
+		private Table(Map<String, Integer> positions, String[] names) {
+			this.positions = positions;
+			this.names = names;
+		}
+
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.jdkhttp;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.utils.Util;
+
+/**
+ * This class adapts an HttpExchange of the JDK HTTP server to the Request
+ * interface.
+ *
+ * The parameters are decoded from the query string and, if the content type
+ * is application/x-www-form-urlencoded, from the request body. When the same
+ * name appears more than once, the first value is used, and the query string
+ * takes precedence over the body. Each name and value is decoded by
+ * {@link Util#decodeParam(String)}, and a parameter which has an illegal
+ * escape sequence is skipped.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class HttpExchangeRequestAdapter implements Request {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+	private HttpExchange exchange;
+	private Map<String, String> parameterMap;
+
+	/**
+	 * Initialize this instance with the HttpExchange and its request body.
+	 * @param exchange The exchange object.
+	 * @param body The request body which has been read from the exchange.
+	 * If null, only the query string is decoded.
+	 */
+	public HttpExchangeRequestAdapter(HttpExchange exchange, byte[] body) {
+		super();
+		this.exchange = exchange;
+		this.parameterMap = decodeParameters(exchange, body);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.models.Request#getParameter(java.lang.String)
+	 */
+	@Override
+	public String getParameter(String name) {
+		return parameterMap.get(name);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.models.Request#getParameterMap()
+	 */
+	@Override
+	public Map<String, String> getParameterMap() {
+		return parameterMap;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.models.Request#getHeader(java.lang.String)
+	 */
+	@Override
+	public String getHeader(String name) {
+		return exchange.getRequestHeaders().getFirst(name);
+	}
+
+	private static Map<String, String> decodeParameters(HttpExchange exchange,
+			byte[] body) {
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		putFirstValues(result, exchange.getRequestURI().getRawQuery());
+		String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+		if (body != null && body.length > 0 && contentType != null
+				&& contentType.toLowerCase().startsWith(FORM_CONTENT_TYPE)) {
+			putFirstValues(result, new String(body, UTF_8));
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	private static void putFirstValues(Map<String, String> target, String source) {
+		if (source == null || source.isEmpty()) {
+			return;
+		}
+		for (String pair : source.split("&")) {
+			if (pair.isEmpty()) {
+				continue;
+			}
+			int index = pair.indexOf('=');
+			String name = decode(index < 0 ? pair : pair.substring(0, index));
+			String value = index < 0 ? "" : decode(pair.substring(index + 1));
+			if (name != null && value != null && !target.containsKey(name)) {
+				target.put(name, value);
+			}
+		}
+	}
+
+	private static String decode(String value) {
+		try {
+			return Util.decodeParam(value);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+}
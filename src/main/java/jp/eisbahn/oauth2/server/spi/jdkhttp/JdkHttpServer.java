@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.jdkhttp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpServer;
+
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource;
+import jp.eisbahn.oauth2.server.endpoint.Token;
+import jp.eisbahn.oauth2.server.utils.VirtualThreads;
+
+/**
+ * This class runs the Token endpoint and the ProtectedResource endpoint as
+ * a standalone HTTP server with the HTTP server bundled in the JDK.
+ *
+ * No other library is needed, and the server starts in a few milliseconds,
+ * therefore this class is suitable for a sidecar process. Each request is
+ * handled on a virtual thread, because the DataHandler may block to access
+ * a storage. If virtual threads are not available, or when the number of
+ * worker threads is set, a bounded pool is used instead. For instance:<br />
+ * <br />
+ * <code>
+ * JdkHttpServer server = new JdkHttpServer();<br />
+ * server.setPort(8080);<br />
+ * server.setToken(token);<br />
+ * server.setProtectedResource(protectedResource);<br />
+ * server.start();<br />
+ * </code>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class JdkHttpServer {
+
+	private int port = 8080;
+	private int backlog = 0;
+	private String tokenPath = "/token";
+	private String validationPath = "/validate";
+	private int workerThreads = 0;
+	private int maxContentLength = 64 * 1024;
+	private Token token;
+	private ProtectedResource protectedResource;
+
+	private HttpServer server;
+	private ExecutorService executor;
+
+	/**
+	 * Start listening. This method returns after the port is bound.
+	 * @throws IOException When the port could not be bound.
+	 */
+	public void start() throws IOException {
+		if (token == null && protectedResource == null) {
+			throw new IllegalStateException(
+					"Either the Token or the ProtectedResource must be set.");
+		}
+		executor = createExecutor();
+		try {
+			server = HttpServer.create(new InetSocketAddress(port), backlog);
+			server.createContext("/", new OAuth2Handler(token, protectedResource,
+					tokenPath, validationPath, maxContentLength));
+			server.setExecutor(executor);
+			server.start();
+		} catch (IOException e) {
+			stop();
+			throw e;
+		} catch (RuntimeException e) {
+			stop();
+			throw e;
+		}
+	}
+
+	/**
+	 * Stop listening and release all threads. The exchanges in progress are
+	 * not waited for.
+	 */
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Retrieve the port number actually bound. This is useful when 0 is set
+	 * as the port number.
+	 * @return The port number, or -1 if this server is not started.
+	 */
+	public int getBoundPort() {
+		if (server == null) {
+			return -1;
+		}
+		return server.getAddress().getPort();
+	}
+
+	private ExecutorService createExecutor() {
+		if (workerThreads <= 0) {
+			return VirtualThreads.newVirtualThreadPerTaskExecutor("oauth2-jdkhttp");
+		}
+		final AtomicInteger count = new AtomicInteger();
+		return Executors.newFixedThreadPool(workerThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "oauth2-jdkhttp-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Set the port number to listen. By default, 8080 is used.
+	 * @param port The port number.
+	 */
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * Set the max number of queued incoming connections. By default, 0 is
+	 * used, and the system default value is applied.
+	 * @param backlog The number of connections.
+	 */
+	public void setBacklog(int backlog) {
+		this.backlog = backlog;
+	}
+
+	/**
+	 * Set the path to issue a token. By default, "/token" is used.
+	 * @param tokenPath The path.
+	 */
+	public void setTokenPath(String tokenPath) {
+		this.tokenPath = tokenPath;
+	}
+
+	/**
+	 * Set the path to validate an access token. By default, "/validate"
+	 * is used.
+	 * @param validationPath The path.
+	 */
+	public void setValidationPath(String validationPath) {
+		this.validationPath = validationPath;
+	}
+
+	/**
+	 * Set the number of threads which handle requests with the DataHandler.
+	 * By default, 0 is set, and a virtual thread is started per request.
+	 * If a positive number is set, a pool of the fixed number of threads
+	 * is used.
+	 * @param workerThreads The number of threads.
+	 */
+	public void setWorkerThreads(int workerThreads) {
+		this.workerThreads = workerThreads;
+	}
+
+	/**
+	 * Set the max length of the request body. By default, 64KB.
+	 * @param maxContentLength The length in bytes.
+	 */
+	public void setMaxContentLength(int maxContentLength) {
+		this.maxContentLength = maxContentLength;
+	}
+
+	/**
+	 * Set the Token endpoint.
+	 * @param token The Token instance.
+	 */
+	public void setToken(Token token) {
+		this.token = token;
+	}
+
+	/**
+	 * Set the ProtectedResource endpoint.
+	 * @param protectedResource The ProtectedResource instance.
+	 */
+	public void setProtectedResource(ProtectedResource protectedResource) {
+		this.protectedResource = protectedResource;
+	}
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.jdkhttp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource;
+import jp.eisbahn.oauth2.server.endpoint.Token;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.utils.Util;
+
+/**
+ * This handler processes each HTTP exchange with the Token endpoint or the
+ * ProtectedResource endpoint.
+ *
+ * A POST request to the token path is handled by the Token endpoint, and the
+ * issued token is written as the JSON string. A request to the validation
+ * path is handled by the ProtectedResource endpoint. If the access token is
+ * valid, the client ID, the remote user's ID and the scope are written as the
+ * JSON string. Otherwise, the status code and the WWW-Authenticate header are
+ * set as same as the ProtectedResourceFilter. A request body larger than the
+ * max content length is rejected with 413.
+ *
+ * The endpoints call the DataHandler which may block. The JDK HTTP server
+ * runs this handler on the executor set to the server, therefore the
+ * JdkHttpServer sets an executor of virtual threads or a bounded pool.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class OAuth2Handler implements HttpHandler {
+
+	private static final Logger LOG =
+			Logger.getLogger(OAuth2Handler.class.getName());
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String JSON_CONTENT_TYPE = "application/json; charset=UTF-8";
+
+	private Token token;
+	private ProtectedResource protectedResource;
+	private String tokenPath;
+	private String validationPath;
+	private int maxContentLength;
+
+	/**
+	 * Initialize this instance.
+	 * @param token The Token endpoint. If null, the token path is not served.
+	 * @param protectedResource The ProtectedResource endpoint. If null, the
+	 * validation path is not served.
+	 * @param tokenPath The path to issue a token, for instance, "/token".
+	 * @param validationPath The path to validate an access token, for
+	 * instance, "/validate".
+	 * @param maxContentLength The max length of the request body in bytes.
+	 */
+	public OAuth2Handler(Token token, ProtectedResource protectedResource,
+			String tokenPath, String validationPath, int maxContentLength) {
+		super();
+		this.token = token;
+		this.protectedResource = protectedResource;
+		this.tokenPath = tokenPath;
+		this.validationPath = validationPath;
+		this.maxContentLength = maxContentLength;
+	}
+
+	/**
+	 * Handle the exchange and write the response.
+	 * @param exchange The exchange object.
+	 * @throws IOException When the error regarding I/O occurred.
+	 */
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		try {
+			dispatch(exchange);
+		} catch (RuntimeException e) {
+			LOG.log(Level.SEVERE, "Processing the request failed.", e);
+			if (exchange.getResponseCode() == -1) {
+				writeResponse(exchange, 500, null);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void dispatch(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		if (token != null && path.equals(tokenPath)) {
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				exchange.getResponseHeaders().set("Allow", "POST");
+				writeResponse(exchange, 405, null);
+				return;
+			}
+			byte[] body = readBody(exchange);
+			if (body == null) {
+				writeResponse(exchange, 413, null);
+				return;
+			}
+			Token.Response result =
+					token.handleRequest(new HttpExchangeRequestAdapter(exchange, body));
+			writeResponse(exchange, result.getCode(), result.getBody());
+		} else if (protectedResource != null && path.equals(validationPath)) {
+			byte[] body = readBody(exchange);
+			if (body == null) {
+				writeResponse(exchange, 413, null);
+				return;
+			}
+			validate(exchange, body);
+		} else {
+			writeResponse(exchange, 404, null);
+		}
+	}
+
+	private void validate(HttpExchange exchange, byte[] body) throws IOException {
+		try {
+			ProtectedResource.Response result = protectedResource.handleRequest(
+					new HttpExchangeRequestAdapter(exchange, body));
+			Map<String, String> json = new LinkedHashMap<String, String>();
+			json.put("client_id", result.getClientId());
+			json.put("remote_user", result.getRemoteUser());
+			json.put("scope", result.getScope());
+			writeResponse(exchange, 200, Util.toJson(json));
+		} catch (OAuthError e) {
+			exchange.getResponseHeaders().set("WWW-Authenticate",
+					Util.toWwwAuthenticate(e.getType(), e.getDescription(), null));
+			writeResponse(exchange, e.getCode(), Util.toJson(e));
+		}
+	}
+
+	private byte[] readBody(HttpExchange exchange) throws IOException {
+		String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+		if (contentLength != null) {
+			try {
+				if (Long.parseLong(contentLength.trim()) > maxContentLength) {
+					return null;
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			if (out.size() + read > maxContentLength) {
+				return null;
+			}
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	private void writeResponse(HttpExchange exchange, int code, String body)
+			throws IOException {
+		Headers headers = exchange.getResponseHeaders();
+		headers.set("Cache-Control", "no-store");
+		if (body == null) {
+			exchange.sendResponseHeaders(code, -1);
+			return;
+		}
+		byte[] bytes = body.getBytes(UTF_8);
+		headers.set("Content-Type", JSON_CONTENT_TYPE);
+		exchange.sendResponseHeaders(code, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.flush();
+	}
+
+}
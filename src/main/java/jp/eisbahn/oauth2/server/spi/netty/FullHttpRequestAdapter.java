@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.netty;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.CharsetUtil;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class adapts a FullHttpRequest of Netty to a Request interface.
+ *
+ * The parameters are decoded from both the query string and the request body
+ * encoded as "application/x-www-form-urlencoded". If the same name is
+ * included in both, the value in the query string is used as same as the
+ * Servlet API. Each parameter is decoded only once when this instance is
+ * created, because the content of the FullHttpRequest is released after
+ * the handler returns.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class FullHttpRequestAdapter implements Request {
+
+	private FullHttpRequest request;
+	private Map<String, String> parameterMap;
+
+	/**
+	 * Initialize this instance with the FullHttpRequest.
+	 * @param request The request object aggregated by Netty.
+	 */
+	public FullHttpRequestAdapter(FullHttpRequest request) {
+		super();
+		this.request = request;
+		this.parameterMap = decodeParameters(request);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.models.Request#getParameter(java.lang.String)
+	 */
+	@Override
+	public String getParameter(String name) {
+		return parameterMap.get(name);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.models.Request#getParameterMap()
+	 */
+	@Override
+	public Map<String, String> getParameterMap() {
+		return parameterMap;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.models.Request#getHeader(java.lang.String)
+	 */
+	@Override
+	public String getHeader(String name) {
+		return request.headers().get(name);
+	}
+
+	private static Map<String, String> decodeParameters(FullHttpRequest request) {
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		putFirstValues(result,
+				new QueryStringDecoder(request.uri(), CharsetUtil.UTF_8).parameters());
+		String contentType = request.headers().get(HttpHeaderNames.CONTENT_TYPE);
+		if (contentType != null
+				&& contentType.toLowerCase().startsWith(
+						HttpHeaderValues.APPLICATION_X_WWW_FORM_URLENCODED.toString())
+				&& request.content().isReadable()) {
+			String body = request.content().toString(CharsetUtil.UTF_8);
+			putFirstValues(result,
+					new QueryStringDecoder(body, CharsetUtil.UTF_8, false).parameters());
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	private static void putFirstValues(Map<String, String> target,
+			Map<String, List<String>> source) {
+		for (Map.Entry<String, List<String>> entry : source.entrySet()) {
+			if (!target.containsKey(entry.getKey()) && !entry.getValue().isEmpty()) {
+				target.put(entry.getKey(), entry.getValue().get(0));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.netty;
+
+import java.net.InetSocketAddress;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutorGroup;
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource;
+import jp.eisbahn.oauth2.server.endpoint.Token;
+
+/**
+ * This class runs the Token endpoint and the ProtectedResource endpoint as
+ * a standalone HTTP server with Netty.
+ *
+ * The event loops only decode and encode HTTP messages. Each request is
+ * handled on the worker group, because the DataHandler may block to access
+ * a storage. The connections are kept alive when the client requests it,
+ * and pipelined requests are answered in order. For instance:<br />
+ * <br />
+ * <code>
+ * NettyServer server = new NettyServer();<br />
+ * server.setPort(8080);<br />
+ * server.setToken(token);<br />
+ * server.setProtectedResource(protectedResource);<br />
+ * server.start();<br />
+ * </code>
+ *
+ * The Netty library is an optional dependency. When you use this class, you
+ * have to add the netty-codec-http to your application.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class NettyServer {
+
+	private int port = 8080;
+	private String tokenPath = "/token";
+	private String validationPath = "/validate";
+	private int workerThreads = 16;
+	private int maxContentLength = 64 * 1024;
+	private Token token;
+	private ProtectedResource protectedResource;
+
+	private EventLoopGroup bossGroup;
+	private EventLoopGroup ioGroup;
+	private EventExecutorGroup workerGroup;
+	private Channel channel;
+
+	/**
+	 * Start listening. This method returns after the port is bound.
+	 * @throws InterruptedException When the current thread was interrupted
+	 * while binding.
+	 */
+	public void start() throws InterruptedException {
+		if (token == null && protectedResource == null) {
+			throw new IllegalStateException(
+					"Either the Token or the ProtectedResource must be set.");
+		}
+		bossGroup = new NioEventLoopGroup(1);
+		ioGroup = new NioEventLoopGroup();
+		workerGroup = new DefaultEventExecutorGroup(workerThreads);
+		final OAuth2HttpHandler handler = new OAuth2HttpHandler(
+				token, protectedResource, tokenPath, validationPath);
+		ServerBootstrap bootstrap = new ServerBootstrap();
+		bootstrap.group(bossGroup, ioGroup)
+			.channel(NioServerSocketChannel.class)
+			.childOption(ChannelOption.TCP_NODELAY, true)
+			.childHandler(new ChannelInitializer<SocketChannel>() {
+				@Override
+				protected void initChannel(SocketChannel ch) {
+					ChannelPipeline pipeline = ch.pipeline();
+					pipeline.addLast("codec", new HttpServerCodec());
+					pipeline.addLast("aggregator", new HttpObjectAggregator(maxContentLength));
+					pipeline.addLast(workerGroup, "oauth2", handler);
+				}
+			});
+		try {
+			channel = bootstrap.bind(port).sync().channel();
+		} catch (InterruptedException e) {
+			stop();
+			throw e;
+		} catch (RuntimeException e) {
+			stop();
+			throw e;
+		}
+	}
+
+	/**
+	 * Stop listening and release all threads.
+	 */
+	public void stop() {
+		if (channel != null) {
+			channel.close().syncUninterruptibly();
+			channel = null;
+		}
+		if (bossGroup != null) {
+			bossGroup.shutdownGracefully().syncUninterruptibly();
+			ioGroup.shutdownGracefully().syncUninterruptibly();
+			workerGroup.shutdownGracefully().syncUninterruptibly();
+			bossGroup = null;
+			ioGroup = null;
+			workerGroup = null;
+		}
+	}
+
+	/**
+	 * Retrieve the port number actually bound. This is useful when 0 is set
+	 * as the port number.
+	 * @return The port number, or -1 if this server is not started.
+	 */
+	public int getBoundPort() {
+		if (channel == null) {
+			return -1;
+		}
+		return ((InetSocketAddress)channel.localAddress()).getPort();
+	}
+
+	/**
+	 * Set the port number to listen. By default, 8080 is used.
+	 * @param port The port number.
+	 */
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * Set the path to issue a token. By default, "/token" is used.
+	 * @param tokenPath The path.
+	 */
+	public void setTokenPath(String tokenPath) {
+		this.tokenPath = tokenPath;
+	}
+
+	/**
+	 * Set the path to validate an access token. By default, "/validate"
+	 * is used.
+	 * @param validationPath The path.
+	 */
+	public void setValidationPath(String validationPath) {
+		this.validationPath = validationPath;
+	}
+
+	/**
+	 * Set the number of threads which handle requests with the DataHandler.
+	 * By default, 16 threads are used.
+	 * @param workerThreads The number of threads.
+	 */
+	public void setWorkerThreads(int workerThreads) {
+		this.workerThreads = workerThreads;
+	}
+
+	/**
+	 * Set the max length of the request body. By default, 64KB.
+	 * @param maxContentLength The length in bytes.
+	 */
+	public void setMaxContentLength(int maxContentLength) {
+		this.maxContentLength = maxContentLength;
+	}
+
+	/**
+	 * Set the Token endpoint.
+	 * @param token The Token instance.
+	 */
+	public void setToken(Token token) {
+		this.token = token;
+	}
+
+	/**
+	 * Set the ProtectedResource endpoint.
+	 * @param protectedResource The ProtectedResource instance.
+	 */
+	public void setProtectedResource(ProtectedResource protectedResource) {
+		this.protectedResource = protectedResource;
+	}
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.netty;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.CharsetUtil;
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource;
+import jp.eisbahn.oauth2.server.endpoint.Token;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.utils.Util;
+
+/**
+ * This handler processes each aggregated HTTP request with the Token endpoint
+ * or the ProtectedResource endpoint.
+ *
+ * A POST request to the token path is handled by the Token endpoint, and the
+ * issued token is written as the JSON string. A request to the validation
+ * path is handled by the ProtectedResource endpoint. If the access token is
+ * valid, the client ID, the remote user's ID and the scope are written as the
+ * JSON string. Otherwise, the status code and the WWW-Authenticate header are
+ * set as same as the ProtectedResourceFilter.
+ *
+ * The endpoints call the DataHandler which may block. Therefore, this handler
+ * should be added to the pipeline with an EventExecutorGroup other than the
+ * event loop. Because each channel is bound to one executor, the responses of
+ * pipelined requests are written in the order of the requests.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+@Sharable
+public class OAuth2HttpHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+	private static final Logger LOG =
+			Logger.getLogger(OAuth2HttpHandler.class.getName());
+
+	private static final String JSON_CONTENT_TYPE = "application/json; charset=UTF-8";
+
+	private Token token;
+	private ProtectedResource protectedResource;
+	private String tokenPath;
+	private String validationPath;
+
+	/**
+	 * Initialize this instance.
+	 * @param token The Token endpoint. If null, the token path is not served.
+	 * @param protectedResource The ProtectedResource endpoint. If null, the
+	 * validation path is not served.
+	 * @param tokenPath The path to issue a token, for instance, "/token".
+	 * @param validationPath The path to validate an access token, for
+	 * instance, "/validate".
+	 */
+	public OAuth2HttpHandler(Token token, ProtectedResource protectedResource,
+			String tokenPath, String validationPath) {
+		super();
+		this.token = token;
+		this.protectedResource = protectedResource;
+		this.tokenPath = tokenPath;
+		this.validationPath = validationPath;
+	}
+
+	/**
+	 * Handle the request and write the response.
+	 * @param ctx The context object.
+	 * @param request The request object.
+	 */
+	@Override
+	protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+		FullHttpResponse response;
+		if (!request.decoderResult().isSuccess()) {
+			response = createResponse(HttpResponseStatus.BAD_REQUEST, null);
+		} else {
+			try {
+				response = dispatch(request);
+			} catch (RuntimeException e) {
+				LOG.log(Level.SEVERE, "Processing the request failed.", e);
+				response = createResponse(HttpResponseStatus.INTERNAL_SERVER_ERROR, null);
+			}
+		}
+		write(ctx, request, response);
+	}
+
+	/**
+	 * Close the channel when an unexpected error occurred.
+	 * @param ctx The context object.
+	 * @param cause The error.
+	 */
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+		LOG.log(Level.WARNING, "Closing the channel by an error.", cause);
+		ctx.close();
+	}
+
+	private FullHttpResponse dispatch(FullHttpRequest request) {
+		String path = new QueryStringDecoder(request.uri()).path();
+		if (token != null && path.equals(tokenPath)) {
+			if (!HttpMethod.POST.equals(request.method())) {
+				FullHttpResponse response =
+						createResponse(HttpResponseStatus.METHOD_NOT_ALLOWED, null);
+				response.headers().set(HttpHeaderNames.ALLOW, HttpMethod.POST.name());
+				return response;
+			}
+			Token.Response result = token.handleRequest(new FullHttpRequestAdapter(request));
+			return createResponse(HttpResponseStatus.valueOf(result.getCode()),
+					result.getBody());
+		} else if (protectedResource != null && path.equals(validationPath)) {
+			return validate(request);
+		} else {
+			return createResponse(HttpResponseStatus.NOT_FOUND, null);
+		}
+	}
+
+	private FullHttpResponse validate(FullHttpRequest request) {
+		try {
+			ProtectedResource.Response result =
+					protectedResource.handleRequest(new FullHttpRequestAdapter(request));
+			Map<String, String> body = new LinkedHashMap<String, String>();
+			body.put("client_id", result.getClientId());
+			body.put("remote_user", result.getRemoteUser());
+			body.put("scope", result.getScope());
+			return createResponse(HttpResponseStatus.OK, Util.toJson(body));
+		} catch (OAuthError e) {
+			FullHttpResponse response =
+					createResponse(HttpResponseStatus.valueOf(e.getCode()), Util.toJson(e));
+			response.headers().set(HttpHeaderNames.WWW_AUTHENTICATE,
+					Util.toWwwAuthenticate(e.getType(), e.getDescription(), null));
+			return response;
+		}
+	}
+
+	private FullHttpResponse createResponse(HttpResponseStatus status, String body) {
+		ByteBuf content = body != null
+				? Unpooled.copiedBuffer(body, CharsetUtil.UTF_8) : Unpooled.EMPTY_BUFFER;
+		FullHttpResponse response =
+				new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, content);
+		if (body != null) {
+			response.headers().set(HttpHeaderNames.CONTENT_TYPE, JSON_CONTENT_TYPE);
+		}
+		response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_STORE);
+		HttpUtil.setContentLength(response, content.readableBytes());
+		return response;
+	}
+
+	private void write(ChannelHandlerContext ctx, FullHttpRequest request,
+			FullHttpResponse response) {
+		boolean keepAlive = HttpUtil.isKeepAlive(request)
+				&& request.decoderResult().isSuccess();
+		HttpUtil.setKeepAlive(response, keepAlive);
+		ChannelFuture future = ctx.writeAndFlush(response);
+		if (!keepAlive) {
+			future.addListener(ChannelFutureListener.CLOSE);
+		}
+	}
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletContext;
+
+/**
+ * This class shares the components, such as the DataHandlerFactory and the
+ * ValidationCache, among the servlets and filters in the same web
+ * application.
+ *
+ * <p>When this registry is stored in the ServletContext (usually by the
+ * ComponentRegistryListener), TokenServlet, ProtectedResourceFilter,
+ * IntrospectionServlet and RevocationServlet get each component specified by
+ * the class name in their init-param values from this registry, instead of
+ * creating their own instances. Therefore, the same class name results in
+ * the same instance, and a connection pool or a cache held by the component
+ * is created only once. For instance, the validation cache populated by the
+ * TokenServlet is read by the ProtectedResourceFilter.</p>
+ *
+ * <p>An instance which needs constructor arguments can be registered with
+ * the register() method before the servlets are initialized. It is
+ * referred by the name passed to the method.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ComponentRegistry {
+
+	/**
+	 * The name of the ServletContext attribute which has this registry.
+	 */
+	public static final String ATTRIBUTE = ComponentRegistry.class.getName();
+
+	private static final Logger LOG =
+			Logger.getLogger(ComponentRegistry.class.getName());
+
+	private final Map<String, Object> components = new LinkedHashMap<String, Object>();
+
+	/**
+	 * Retrieve the registry stored in the ServletContext.
+	 * @param context The ServletContext instance.
+	 * @return The registry. If the context has no registry, or the context
+	 * is null, this result is null.
+	 */
+	public static ComponentRegistry get(ServletContext context) {
+		if (context == null) {
+			return null;
+		}
+		return (ComponentRegistry)context.getAttribute(ATTRIBUTE);
+	}
+
+	/**
+	 * Register the component with the name.
+	 * @param name The name, usually the class name of the component.
+	 * @param component The component instance.
+	 * @throws IllegalStateException If a component has been registered with
+	 * the name already.
+	 */
+	public synchronized void register(String name, Object component) {
+		if (components.containsKey(name)) {
+			throw new IllegalStateException("Already registered: " + name);
+		}
+		components.put(name, component);
+	}
+
+	/**
+	 * Retrieve the component registered with the name. If there is no such
+	 * component, the name is treated as a class name, and its instance is
+	 * created and registered.
+	 * @param name The name of the component.
+	 * @return The component instance.
+	 * @throws ClassNotFoundException If the class is not found.
+	 * @throws InstantiationException If the class could not be instantiated.
+	 * @throws IllegalAccessException If the constructor is not accessible.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T> T getInstance(String name)
+			throws ClassNotFoundException, InstantiationException,
+			IllegalAccessException {
+		Object component = components.get(name);
+		if (component == null) {
+			component = Class.forName(name).newInstance();
+			components.put(name, component);
+		}
+		return (T)component;
+	}
+
+	/**
+	 * Retrieve the names of the registered components.
+	 * @return The names in the registered order.
+	 */
+	public synchronized List<String> getNames() {
+		return Collections.unmodifiableList(
+				new ArrayList<String>(components.keySet()));
+	}
+
+	/**
+	 * Close the registered components which implement the Closeable
+	 * interface, in the reverse order of the registration, and remove all
+	 * components. A failure to close a component is logged.
+	 */
+	public synchronized void close() {
+		List<Object> values = new ArrayList<Object>(components.values());
+		components.clear();
+		Collections.reverse(values);
+		for (Object value : values) {
+			if (value instanceof Closeable) {
+				try {
+					((Closeable)value).close();
+				} catch (IOException e) {
+					LOG.log(Level.WARNING, "Closing a component failed.", e);
+				} catch (RuntimeException e) {
+					LOG.log(Level.WARNING, "Closing a component failed.", e);
+				}
+			}
+		}
+	}
+
+}
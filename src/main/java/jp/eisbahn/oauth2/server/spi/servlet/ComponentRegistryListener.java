@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * This class is a ServletContextListener which stores a ComponentRegistry in
+ * the ServletContext, so that the servlets and filters of this framework in
+ * the web application share their components.
+ *
+ * The class names specified as the "oauth2.components" context-param value
+ * (delimited by commas) are instantiated when the web application starts,
+ * so that a misconfiguration is found before the first request. The others
+ * are instantiated when the first servlet or filter refers them. When the
+ * web application stops, the components which implement Closeable are
+ * closed. For instance, specify the following in your web.xml file:<br />
+ * <br />
+ * <code>
+ * &lt;context-param&gt;<br />
+ * &nbsp;&nbsp;&lt;param-name&gt;oauth2.components&lt;/param-name&gt;<br />
+ * &nbsp;&nbsp;&lt;param-value&gt;your-data-handler-factory-class-name&lt;/param-value&gt;<br />
+ * &lt;/context-param&gt;<br />
+ * &lt;listener&gt;<br />
+ * &nbsp;&nbsp;&lt;listener-class&gt;jp.eisbahn.oauth2.server.spi.servlet.ComponentRegistryListener&lt;/listener-class&gt;<br />
+ * &lt;/listener&gt;
+ * </code>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ComponentRegistryListener implements ServletContextListener {
+
+	private static final String COMPONENTS = "oauth2.components";
+
+	/**
+	 * Create the registry and the components specified as the context-param
+	 * value, and store the registry in the ServletContext.
+	 * @param event The event object.
+	 * @throws IllegalStateException If a component could not be created.
+	 */
+	@Override
+	public void contextInitialized(ServletContextEvent event) {
+		ServletContext context = event.getServletContext();
+		ComponentRegistry registry = ComponentRegistry.get(context);
+		if (registry == null) {
+			registry = new ComponentRegistry();
+		}
+		String names = context.getInitParameter(COMPONENTS);
+		if (names != null) {
+			for (String name : StringUtils.split(names, ", ")) {
+				try {
+					registry.getInstance(name);
+				} catch (ClassNotFoundException e) {
+					throw new IllegalStateException(e.getMessage(), e);
+				} catch (InstantiationException e) {
+					throw new IllegalStateException(e.getMessage(), e);
+				} catch (IllegalAccessException e) {
+					throw new IllegalStateException(e.getMessage(), e);
+				}
+			}
+		}
+		context.setAttribute(ComponentRegistry.ATTRIBUTE, registry);
+	}
+
+	/**
+	 * Remove the registry from the ServletContext, and close the components.
+	 * @param event The event object.
+	 */
+	@Override
+	public void contextDestroyed(ServletContextEvent event) {
+		ServletContext context = event.getServletContext();
+		ComponentRegistry registry = ComponentRegistry.get(context);
+		if (registry != null) {
+			context.removeAttribute(ComponentRegistry.ATTRIBUTE);
+			registry.close();
+		}
+	}
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.utils.FormParameters;
+
+/**
+ * This class adapts a HttpServletRequest to a Request interface, reading
+ * the parameters from the form body by itself.
+ *
+ * The body is read once into a pooled buffer and parsed by FormParameters,
+ * so that the container's parameter parsing is not used. If the request has
+ * a query string, a parameter which is not found in the body is looked up
+ * from the container as well.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class FormBodyRequestAdapter implements Request {
+
+	private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+	private static final int POOLED_BUFFER_SIZE = 4096;
+	private static final int MAX_POOLED_BUFFERS = 64;
+
+	private static final Queue<byte[]> BUFFERS = new ConcurrentLinkedQueue<byte[]>();
+	private static final AtomicInteger POOLED_COUNT = new AtomicInteger();
+
+	private HttpServletRequest request;
+	private FormParameters parameters;
+
+	/**
+	 * Initialize this instance.
+	 * @param request The request object on the Servlet API.
+	 * @param parameters The parameters read from the body.
+	 */
+	public FormBodyRequestAdapter(HttpServletRequest request,
+			FormParameters parameters) {
+		super();
+		this.request = request;
+		this.parameters = parameters;
+	}
+
+	/**
+	 * Return whether the request has a form body or not.
+	 * @param request The request object.
+	 * @return True if the content type is application/x-www-form-urlencoded.
+	 */
+	public static boolean hasFormBody(HttpServletRequest request) {
+		String contentType = request.getContentType();
+		return contentType != null
+				&& contentType.regionMatches(true, 0, FORM_CONTENT_TYPE,
+						0, FORM_CONTENT_TYPE.length());
+	}
+
+	/**
+	 * Read the body of the request and parse it.
+	 * @param request The request object.
+	 * @param maxBodySize The max size of the body in bytes.
+	 * @return The parsed parameters, or null if the body is larger than
+	 * the max size.
+	 * @throws IOException If reading the body failed.
+	 * @throws IllegalArgumentException If the body has an illegal escape
+	 * sequence.
+	 */
+	public static FormParameters readBody(HttpServletRequest request,
+			int maxBodySize) throws IOException {
+		int contentLength = request.getContentLength();
+		if (contentLength > maxBodySize) {
+			return null;
+		}
+		int limit = contentLength >= 0 ? contentLength : maxBodySize;
+		byte[] buffer = acquire(limit);
+		try {
+			InputStream in = request.getInputStream();
+			int length = 0;
+			while (length < limit) {
+				if (length == buffer.length) {
+					byte[] larger = new byte[Math.min(limit, length * 2)];
+					System.arraycopy(buffer, 0, larger, 0, length);
+					release(buffer);
+					buffer = larger;
+				}
+				int read = in.read(buffer, length,
+						Math.min(buffer.length, limit) - length);
+				if (read < 0) {
+					break;
+				}
+				length += read;
+			}
+			if (contentLength < 0 && length == maxBodySize && in.read() != -1) {
+				return null;
+			}
+			return FormParameters.parse(buffer, 0, length);
+		} finally {
+			release(buffer);
+		}
+	}
+
+	private static byte[] acquire(int capacity) {
+		if (capacity <= POOLED_BUFFER_SIZE) {
+			byte[] buffer = BUFFERS.poll();
+			if (buffer != null) {
+				POOLED_COUNT.decrementAndGet();
+				return buffer;
+			}
+			return new byte[POOLED_BUFFER_SIZE];
+		}
+		return new byte[capacity];
+	}
+
+	private static void release(byte[] buffer) {
+		if (buffer.length != POOLED_BUFFER_SIZE) {
+			return;
+		}
+		if (POOLED_COUNT.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+			BUFFERS.offer(buffer);
+		} else {
+			POOLED_COUNT.decrementAndGet();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.models.Request#getParameter(java.lang.String)
+	 */
+	@Override
+	public String getParameter(String name) {
+		String value = parameters.get(name);
+		if (value == null && request.getQueryString() != null) {
+			value = request.getParameter(name);
+		}
+		return value;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.models.Request#getHeader(java.lang.String)
+	 */
+	@Override
+	public String getHeader(String name) {
+		return request.getHeader(name);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.models.Request#getParameterMap()
+	 */
+	@Override
+	public Map<String, String> getParameterMap() {
+		if (request.getQueryString() == null) {
+			return parameters.toMap();
+		}
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		for (Map.Entry<String, String[]> entry : request.getParameterMap().entrySet()) {
+			String[] values = entry.getValue();
+			if (values != null && values.length > 0) {
+				result.put(entry.getKey(), values[0]);
+			}
+		}
+		result.putAll(parameters.toMap());
+		return result;
+	}
+
+}
@@ -18,6 +18,7 @@
 
 package jp.eisbahn.oauth2.server.spi.servlet;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
@@ -65,10 +66,15 @@ public class HttpServletRequestAdapter implements Request {
 	 * (non-Javadoc)
 	 * @see jp.eisbahn.oauth2.server.models.Request#getParameterMap()
 	 */
-	@SuppressWarnings("unchecked")
 	@Override
 	public Map<String, String> getParameterMap() {
-		return request.getParameterMap();
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		for (Map.Entry<String, String[]> entry : request.getParameterMap().entrySet()) {
+			String[] values = entry.getValue();
+			result.put(entry.getKey(),
+					values != null && values.length > 0 ? values[0] : null);
+		}
+		return result;
 	}
 
 }
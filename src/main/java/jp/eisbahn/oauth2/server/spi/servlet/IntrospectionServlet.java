@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import jp.eisbahn.oauth2.server.cache.IntrospectionCache;
+import jp.eisbahn.oauth2.server.cache.impl.InMemoryIntrospectionCache;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.endpoint.Introspection;
+import jp.eisbahn.oauth2.server.endpoint.Introspection.Response;
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource;
+import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcher;
+import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcherImpl;
+
+/**
+ * This class is an HttpServlet implementation of the token introspection
+ * endpoint defined by RFC 7662.
+ * 
+ * This instance needs a DataHandlerFactory instance. The implementation class
+ * name is specified as the "dataHandlerFactory" init-param value as same as
+ * the TokenServlet. Optionally, you can specify the class name of
+ * a ClientCredentialFetcher implementation as the "clientCredentialFetcher"
+ * init-param value, and the class name of an IntrospectionCache
+ * implementation as the "introspectionCache" init-param value. By default,
+ * the ClientCredentialFetcherImpl and the InMemoryIntrospectionCache are used.
+ * The cache is invalidated by the RevocationServlet in the same web
+ * application.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+@SuppressWarnings("serial")
+public class IntrospectionServlet extends HttpServlet {
+
+	private static final String DATA_HANDLER_FACTORY_CLASSNAME = "dataHandlerFactory";
+	private static final String CLIENT_CREDENTIAL_FETCHER_CLASSNAME = "clientCredentialFetcher";
+	private static final String INTROSPECTION_CACHE_CLASSNAME = "introspectionCache";
+
+	private ComponentRegistry components;
+	private Introspection introspection;
+
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		components = ComponentRegistry.get(config.getServletContext());
+		try {
+			DataHandlerFactory dataHandlerFactory =
+					createInstance(DATA_HANDLER_FACTORY_CLASSNAME, config);
+			ClientCredentialFetcher clientCredentialFetcher =
+					createInstance(CLIENT_CREDENTIAL_FETCHER_CLASSNAME, config);
+			if (clientCredentialFetcher == null) {
+				clientCredentialFetcher = new ClientCredentialFetcherImpl();
+			}
+			IntrospectionCache cache = createInstance(INTROSPECTION_CACHE_CLASSNAME, config);
+			if (cache == null) {
+				cache = new InMemoryIntrospectionCache();
+			}
+			ProtectedResource protectedResource = new ProtectedResource();
+			protectedResource.setDataHandlerFactory(dataHandlerFactory);
+			introspection = new Introspection();
+			introspection.setDataHandlerFactory(dataHandlerFactory);
+			introspection.setClientCredentialFetcher(clientCredentialFetcher);
+			introspection.setProtectedResource(protectedResource);
+			introspection.setCache(cache);
+			TokenCaches.getRegistry(config.getServletContext()).register(cache);
+		} catch (ClassNotFoundException e) {
+			throw new ServletException(e.getMessage(), e);
+		} catch (InstantiationException e) {
+			throw new ServletException(e.getMessage(), e);
+		} catch (IllegalAccessException e) {
+			throw new ServletException(e.getMessage(), e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T createInstance(String name, ServletConfig config)
+			throws InstantiationException, IllegalAccessException, ClassNotFoundException {
+		String className = config.getInitParameter(name);
+		if (className == null) {
+			return null;
+		} else if (components != null) {
+			return components.<T>getInstance(className);
+		} else {
+			Class<?> clazz = Class.forName(className);
+			return (T)clazz.newInstance();
+		}
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		HttpServletRequestAdapter request = new HttpServletRequestAdapter(req);
+		Response response = introspection.handleRequest(request);
+		resp.setStatus(response.getCode());
+		resp.setContentType("application/json; charset=UTF-8");
+		resp.setContentLength(response.getBodyLength());
+		OutputStream out = resp.getOutputStream();
+		response.writeBodyTo(out);
+		out.flush();
+	}
+
+}
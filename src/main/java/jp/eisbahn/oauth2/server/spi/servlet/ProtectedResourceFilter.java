@@ -19,9 +19,18 @@
 package jp.eisbahn.oauth2.server.spi.servlet;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -33,12 +42,21 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang3.StringUtils;
 
+import jp.eisbahn.oauth2.server.cache.ValidationCache;
+import jp.eisbahn.oauth2.server.clock.impl.CoarseClock;
 import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
 import jp.eisbahn.oauth2.server.endpoint.ProtectedResource;
 import jp.eisbahn.oauth2.server.endpoint.ProtectedResource.Response;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcherProvider;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.DefaultAccessTokenFetcherProvider;
+import jp.eisbahn.oauth2.server.instrumentation.Instrumentation;
+import jp.eisbahn.oauth2.server.instrumentation.impl.CompositeInstrumentation;
+import jp.eisbahn.oauth2.server.loadgen.WarmUp;
+import jp.eisbahn.oauth2.server.scope.ScopePathRules;
+import jp.eisbahn.oauth2.server.scope.ScopeRegistry;
+import jp.eisbahn.oauth2.server.utils.Util;
+import jp.eisbahn.oauth2.server.utils.VirtualThreads;
 
 /**
  * This servlet filter checks whether a request to access to each protected
@@ -64,6 +82,54 @@ import jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.DefaultAccessTokenFetch
  * &lt;/filter&gt;
  * </code>
  * 
+ * Optionally, you can specify the class name of an Instrumentation
+ * implementation as the "instrumentation" init-param value to measure
+ * each request. If some class names delimited by a comma are specified,
+ * each measurement is forwarded to all of them.
+ * 
+ * When "virtualThread" is specified as the "executionMode" init-param value,
+ * each access token is validated on a new virtual thread (on Java 21 or
+ * later) instead of the container's thread. To release the container's
+ * thread while validating, declare this filter and the following servlets
+ * with &lt;async-supported&gt;true&lt;/async-supported&gt;. An invalid
+ * request is answered on the virtual thread, and only a valid request is
+ * dispatched again to continue on the container's thread. Map this filter
+ * with both the REQUEST and the ASYNC dispatcher types, so that the
+ * following filters are applied to the dispatched request. Otherwise, the
+ * container's thread waits for the virtual thread. The default value is
+ * "container".
+ * 
+ * The expiration time of each access token is compared with the time of
+ * a CoarseClock, which is started at the initialization and stopped by the
+ * destroy() method, so that no request reads the system clock. Therefore,
+ * a token may be accepted for up to 10 milliseconds after its expiration.
+ * 
+ * To cache the validation result of each access token, specify the class
+ * name of a ValidationCache implementation as the "validationCache"
+ * init-param value, for instance, InMemoryValidationCache. The cache is
+ * invalidated by the RevocationServlet in the same web application. When
+ * the ComponentRegistryListener is registered, the cache (and the other
+ * components) are shared with the TokenServlet, which puts the result of
+ * each issued token into the cache.
+ * 
+ * To require scopes per path, specify the rules as the "scopeRules"
+ * init-param value, or the path of a rules file in the web application
+ * (for instance, "/WEB-INF/scope-rules.txt") as the "scopeRulesFile"
+ * init-param value. Each rule is a path pattern followed by the required
+ * scopes, delimited by a newline or a semicolon, for instance
+ * "/api/admin/* admin; /api/mail/* read mail". See {@link ScopePathRules}
+ * for the patterns. The rules are compiled at the initialization, and
+ * a request without the required scopes is rejected with 403 and the
+ * "insufficient_scope" error after the validation. The bitmask of the
+ * granted scopes is set as the "scope_mask" request attribute.
+ * 
+ * To warm up the JIT compiler, specify the number of iterations as the
+ * "warmUpIterations" init-param value. Synthetic bearer tokens, including
+ * invalid, expired and missing ones, are validated with a DataHandler which
+ * doesn't access any storage (see {@link WarmUp}) before this method returns,
+ * so that the web application is not started until the warm-up has
+ * completed.
+ * 
  * @author Yoichiro Tanaka
  *
  */
@@ -71,8 +137,24 @@ public class ProtectedResourceFilter implements Filter {
 
 	private static final String DATA_HANDLER_FACTORY_CLASSNAME = "dataHandlerFactory";
 	private static final String ACCESS_TOKEN_FETCHER_PROVIDER_CLASSNAME = "accessTokenFetcherProvider";
+	private static final String INSTRUMENTATION_CLASSNAME = "instrumentation";
+	private static final String EXECUTION_MODE = "executionMode";
+	private static final String VALIDATION_CACHE_CLASSNAME = "validationCache";
+	private static final String SCOPE_RULES = "scopeRules";
+	private static final String SCOPE_RULES_FILE = "scopeRulesFile";
+	private static final String WARM_UP_ITERATIONS = "warmUpIterations";
 
+	private static final Logger LOG =
+			Logger.getLogger(ProtectedResourceFilter.class.getName());
+
+	private static final String VALIDATED =
+			ProtectedResourceFilter.class.getName() + ".validated";
+
+	private ComponentRegistry components;
 	private ProtectedResource protectedResource;
+	private ExecutorService executor;
+	private CoarseClock clock;
+	private ScopePathRules scopePathRules;
 
 	/**
 	 * Initialize this filter.
@@ -85,12 +167,30 @@ public class ProtectedResourceFilter implements Filter {
 	 */
 	@Override
 	public void init(FilterConfig config) throws ServletException {
+		components = ComponentRegistry.get(config.getServletContext());
 		try {
 			DataHandlerFactory dataHandlerFactory = getDataHandlerFactory(config);
 			AccessTokenFetcherProvider accessTokenFetcherProvider = getAccessTokenFetcherProvider(config);
 			protectedResource = new ProtectedResource();
 			protectedResource.setDataHandlerFactory(dataHandlerFactory);
 			protectedResource.setAccessTokenFetcherProvider(accessTokenFetcherProvider);
+			clock = new CoarseClock();
+			protectedResource.setClock(clock);
+			Instrumentation instrumentation = getInstrumentation(config);
+			if (instrumentation != null) {
+				protectedResource.setInstrumentation(instrumentation);
+			}
+			executor = getExecutor(config);
+			ValidationCache validationCache = createInstance(VALIDATION_CACHE_CLASSNAME, config);
+			if (validationCache != null) {
+				protectedResource.setValidationCache(validationCache);
+				TokenCaches.getRegistry(config.getServletContext()).register(validationCache);
+			}
+			scopePathRules = getScopePathRules(config);
+			if (scopePathRules != null) {
+				protectedResource.setScopeRegistry(scopePathRules.getScopeRegistry());
+			}
+			warmUp(config, accessTokenFetcherProvider);
 		} catch (ClassNotFoundException e) {
 			throw new ServletException(e.getMessage(), e);
 		} catch (InstantiationException e) {
@@ -114,40 +214,193 @@ public class ProtectedResourceFilter implements Filter {
 	@Override
 	public void doFilter(ServletRequest req, ServletResponse resp,
 			FilterChain chain) throws IOException, ServletException {
-		if (req instanceof HttpServletRequest) {
-			HttpServletRequest httpRequest = (HttpServletRequest)req;
-			HttpServletRequestAdapter adapter = new HttpServletRequestAdapter(httpRequest);
+		if (!(req instanceof HttpServletRequest)) {
+			throw new ServletException("This filter is available under HTTP Servlet container.");
+		}
+		HttpServletRequest httpRequest = (HttpServletRequest)req;
+		final HttpServletRequestAdapter adapter = new HttpServletRequestAdapter(httpRequest);
+		if (executor == null) {
+			Object result;
 			try {
-				Response response = protectedResource.handleRequest(adapter);
-				req.setAttribute("client_id", response.getClientId());
-				req.setAttribute("remote_user", response.getRemoteUser());
-				req.setAttribute("scope", response.getScope());
-				chain.doFilter(req, resp);
+				result = protectedResource.handleRequest(adapter);
 			} catch (OAuthError e) {
-				if (resp instanceof HttpServletResponse) {
-					HttpServletResponse httpResponse = (HttpServletResponse)resp;
-					httpResponse.setStatus(e.getCode());
-					List<String> params = new ArrayList<String>();
-					params.add("error=\"" + e.getType() + "\"");
-					if (StringUtils.isNotBlank(e.getDescription())) {
-						params.add("error_description=\"" + e.getDescription() + "\"");
-					}
-					String error = StringUtils.join(params, ", ");
-					httpResponse.setHeader("WWW-Authenticate", "Bearer " + error);
-				} else {
-					throw new ServletException("This filter is available under HTTP Servlet container.");
-				}
+				result = e;
 			}
+			if (applyResult(result, req, resp)) {
+				chain.doFilter(req, resp);
+			}
+			return;
+		}
+		if (req.getDispatcherType() == DispatcherType.ASYNC
+				&& req.getAttribute(VALIDATED) != null) {
+			// Dispatched again after the validation and the scope check
+			// have passed on the virtual thread.
+			req.removeAttribute(VALIDATED);
+			chain.doFilter(req, resp);
+		} else if (req.isAsyncSupported()) {
+			final AsyncContext asyncContext = req.startAsync();
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					completeAsync(asyncContext, validate(adapter));
+				}
+			});
 		} else {
-			throw new ServletException("This filter is available under HTTP Servlet container.");
+			Future<Object> future = executor.submit(new Callable<Object>() {
+				@Override
+				public Object call() {
+					return validate(adapter);
+				}
+			});
+			if (applyResult(waitFor(future), req, resp)) {
+				chain.doFilter(req, resp);
+			}
+		}
+	}
+
+	private void completeAsync(AsyncContext asyncContext, Object result) {
+		ServletRequest req = asyncContext.getRequest();
+		ServletResponse resp = asyncContext.getResponse();
+		try {
+			if (applyResult(result, req, resp)) {
+				// Only a valid request is dispatched, so the servlet never
+				// receives an unchecked request, even if this filter is not
+				// mapped with the ASYNC dispatcher type.
+				req.setAttribute(VALIDATED, Boolean.TRUE);
+				asyncContext.dispatch();
+				return;
+			}
+		} catch (ServletException e) {
+			LOG.log(Level.SEVERE, "Validating an access token failed.", e);
+			setInternalServerError(resp);
+		} catch (RuntimeException e) {
+			LOG.log(Level.SEVERE, "Validating an access token failed.", e);
+			setInternalServerError(resp);
+		}
+		asyncContext.complete();
+	}
+
+	private static void setInternalServerError(ServletResponse resp) {
+		if (resp instanceof HttpServletResponse && !resp.isCommitted()) {
+			((HttpServletResponse)resp).setStatus(
+					HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 		}
 	}
 
 	/**
-	 * Do nothing.
+	 * Stop the clock, and shut down the executor if the virtual thread
+	 * execution mode is used.
 	 */
 	@Override
 	public void destroy() {
+		if (clock != null) {
+			clock.stop();
+		}
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	private Object validate(HttpServletRequestAdapter adapter) {
+		try {
+			return protectedResource.handleRequest(adapter);
+		} catch (OAuthError e) {
+			return e;
+		} catch (RuntimeException e) {
+			return e;
+		}
+	}
+
+	private Object waitFor(Future<Object> future) throws ServletException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServletException(e.getMessage(), e);
+		} catch (ExecutionException e) {
+			throw new ServletException(e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	private boolean applyResult(Object result, ServletRequest req,
+			ServletResponse resp) throws ServletException {
+		if (result instanceof Response) {
+			Response response = (Response)result;
+			if (scopePathRules != null) {
+				long required = scopePathRules.getRequiredMask(
+						getPathInApplication((HttpServletRequest)req));
+				if (!response.hasScopes(required)) {
+					ScopeRegistry registry = scopePathRules.getScopeRegistry();
+					writeError(resp, 403, "insufficient_scope",
+							"Insufficient scope.", registry.toScope(required));
+					return false;
+				}
+				req.setAttribute("scope_mask", response.getScopeMask());
+			}
+			req.setAttribute("client_id", response.getClientId());
+			req.setAttribute("remote_user", response.getRemoteUser());
+			req.setAttribute("scope", response.getScope());
+			return true;
+		} else if (result instanceof OAuthError) {
+			OAuthError e = (OAuthError)result;
+			writeError(resp, e.getCode(), e.getType(), e.getDescription(), null);
+			return false;
+		} else {
+			throw (RuntimeException)result;
+		}
+	}
+
+	private static String getPathInApplication(HttpServletRequest request) {
+		String servletPath = request.getServletPath();
+		String pathInfo = request.getPathInfo();
+		if (pathInfo == null) {
+			return servletPath;
+		}
+		return servletPath + pathInfo;
+	}
+
+	private void writeError(ServletResponse resp, int status, String type,
+			String description, String scope) throws ServletException {
+		if (!(resp instanceof HttpServletResponse)) {
+			throw new ServletException("This filter is available under HTTP Servlet container.");
+		}
+		HttpServletResponse httpResponse = (HttpServletResponse)resp;
+		httpResponse.setStatus(status);
+		httpResponse.setHeader("WWW-Authenticate",
+				Util.toWwwAuthenticate(type, description, scope));
+	}
+
+	private ScopePathRules getScopePathRules(FilterConfig config)
+			throws ServletException {
+		String rules = config.getInitParameter(SCOPE_RULES);
+		String file = config.getInitParameter(SCOPE_RULES_FILE);
+		if (rules == null && file == null) {
+			return null;
+		}
+		ScopePathRules scopePathRules = new ScopePathRules(new ScopeRegistry());
+		try {
+			if (rules != null) {
+				scopePathRules.load(new StringReader(rules));
+			}
+			if (file != null) {
+				InputStream in = config.getServletContext().getResourceAsStream(file);
+				if (in == null) {
+					throw new ServletException("Scope rules file not found: " + file);
+				}
+				try {
+					scopePathRules.load(new InputStreamReader(in, "UTF-8"));
+				} finally {
+					in.close();
+				}
+			}
+		} catch (IOException e) {
+			throw new ServletException(e.getMessage(), e);
+		} catch (IllegalArgumentException e) {
+			throw new ServletException(e.getMessage(), e);
+		} catch (IllegalStateException e) {
+			throw new ServletException(e.getMessage(), e);
+		}
+		return scopePathRules;
 	}
 
 	private AccessTokenFetcherProvider getAccessTokenFetcherProvider(FilterConfig config)
@@ -165,15 +418,66 @@ public class ProtectedResourceFilter implements Filter {
 		return createInstance(DATA_HANDLER_FACTORY_CLASSNAME, config);
 	}
 
+	private Instrumentation getInstrumentation(FilterConfig config)
+			throws InstantiationException, IllegalAccessException, ClassNotFoundException {
+		String classNames = config.getInitParameter(INSTRUMENTATION_CLASSNAME);
+		if (classNames == null) {
+			return null;
+		}
+		String[] names = StringUtils.split(classNames, ", ");
+		Instrumentation[] instrumentations = new Instrumentation[names.length];
+		for (int i = 0; i < names.length; i++) {
+			instrumentations[i] = (Instrumentation)Class.forName(names[i]).newInstance();
+		}
+		if (instrumentations.length == 1) {
+			return instrumentations[0];
+		} else {
+			return new CompositeInstrumentation(instrumentations);
+		}
+	}
+
+	private ExecutorService getExecutor(FilterConfig config) throws ServletException {
+		String mode = config.getInitParameter(EXECUTION_MODE);
+		if (mode == null || mode.equals("container")) {
+			return null;
+		} else if (mode.equals("virtualThread")) {
+			return VirtualThreads.newVirtualThreadPerTaskExecutor("oauth2-protected-resource");
+		} else {
+			throw new ServletException("Unknown execution mode: " + mode);
+		}
+	}
+
+	private void warmUp(FilterConfig config,
+			AccessTokenFetcherProvider accessTokenFetcherProvider)
+			throws ServletException {
+		String iterations = config.getInitParameter(WARM_UP_ITERATIONS);
+		if (iterations == null) {
+			return;
+		}
+		WarmUp warmUp = new WarmUp();
+		try {
+			warmUp.setIterations(Integer.parseInt(iterations));
+		} catch (IllegalArgumentException e) {
+			throw new ServletException("Invalid warm-up iterations: " + iterations);
+		}
+		warmUp.setAccessTokenFetcherProvider(accessTokenFetcherProvider);
+		long start = System.nanoTime();
+		long count = warmUp.run();
+		LOG.log(Level.INFO, "Warm-up completed: {0} requests in {1} ms.",
+				new Object[] {count, (System.nanoTime() - start) / 1000000});
+	}
+
 	@SuppressWarnings("unchecked")
 	private <T> T createInstance(String name, FilterConfig config)
 			throws InstantiationException, IllegalAccessException, ClassNotFoundException {
 		String className = config.getInitParameter(name);
-		if (className != null) {
+		if (className == null) {
+			return null;
+		} else if (components != null) {
+			return components.<T>getInstance(className);
+		} else {
 			Class<?> clazz = Class.forName(className);
 			return (T)clazz.newInstance();
-		} else {
-			return null;
 		}
 	}
 
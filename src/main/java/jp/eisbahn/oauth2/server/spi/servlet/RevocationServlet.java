@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.endpoint.Revocation;
+import jp.eisbahn.oauth2.server.endpoint.Revocation.Response;
+import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcher;
+import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcherImpl;
+
+/**
+ * This class is an HttpServlet implementation of the token revocation
+ * endpoint defined by RFC 7009.
+ * 
+ * This instance needs a DataHandlerFactory instance. The implementation class
+ * name is specified as the "dataHandlerFactory" init-param value as same as
+ * the TokenServlet. Optionally, you can specify the class name of
+ * a ClientCredentialFetcher implementation as the "clientCredentialFetcher"
+ * init-param value.
+ * 
+ * The caches of the IntrospectionServlet and the ProtectedResourceFilter in
+ * the same web application are invalidated before each response is sent.
+ * 
+ * @author Yoichiro Tanaka
+ *
+ */
+@SuppressWarnings("serial")
+public class RevocationServlet extends HttpServlet {
+
+	private static final String DATA_HANDLER_FACTORY_CLASSNAME = "dataHandlerFactory";
+	private static final String CLIENT_CREDENTIAL_FETCHER_CLASSNAME = "clientCredentialFetcher";
+
+	private ComponentRegistry components;
+	private Revocation revocation;
+
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		components = ComponentRegistry.get(config.getServletContext());
+		try {
+			DataHandlerFactory dataHandlerFactory =
+					createInstance(DATA_HANDLER_FACTORY_CLASSNAME, config);
+			ClientCredentialFetcher clientCredentialFetcher =
+					createInstance(CLIENT_CREDENTIAL_FETCHER_CLASSNAME, config);
+			if (clientCredentialFetcher == null) {
+				clientCredentialFetcher = new ClientCredentialFetcherImpl();
+			}
+			revocation = new Revocation();
+			revocation.setDataHandlerFactory(dataHandlerFactory);
+			revocation.setClientCredentialFetcher(clientCredentialFetcher);
+			revocation.setCacheRegistry(TokenCaches.getRegistry(config.getServletContext()));
+		} catch (ClassNotFoundException e) {
+			throw new ServletException(e.getMessage(), e);
+		} catch (InstantiationException e) {
+			throw new ServletException(e.getMessage(), e);
+		} catch (IllegalAccessException e) {
+			throw new ServletException(e.getMessage(), e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T createInstance(String name, ServletConfig config)
+			throws InstantiationException, IllegalAccessException, ClassNotFoundException {
+		String className = config.getInitParameter(name);
+		if (className == null) {
+			return null;
+		} else if (components != null) {
+			return components.<T>getInstance(className);
+		} else {
+			Class<?> clazz = Class.forName(className);
+			return (T)clazz.newInstance();
+		}
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		HttpServletRequestAdapter request = new HttpServletRequestAdapter(req);
+		Response response = revocation.handleRequest(request);
+		resp.setStatus(response.getCode());
+		if (StringUtils.isNotEmpty(response.getBody())) {
+			resp.setContentType("application/json; charset=UTF-8");
+			PrintWriter writer = resp.getWriter();
+			IOUtils.write(response.getBody(), writer);
+			writer.flush();
+		}
+	}
+
+}
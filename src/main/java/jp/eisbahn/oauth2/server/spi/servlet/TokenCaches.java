@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import javax.servlet.ServletContext;
+
+import jp.eisbahn.oauth2.server.cache.TokenCacheRegistry;
+
+/**
+ * This class shares one TokenCacheRegistry instance among the servlets and
+ * filters in the same web application, so that the RevocationServlet can
+ * invalidate the caches of the IntrospectionServlet and the
+ * ProtectedResourceFilter.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+class TokenCaches {
+
+	static final String REGISTRY_ATTRIBUTE = TokenCacheRegistry.class.getName();
+
+	static TokenCacheRegistry getRegistry(ServletContext context) {
+		synchronized (context) {
+			TokenCacheRegistry registry =
+					(TokenCacheRegistry)context.getAttribute(REGISTRY_ATTRIBUTE);
+			if (registry == null) {
+				registry = new TokenCacheRegistry();
+				context.setAttribute(REGISTRY_ATTRIBUTE, registry);
+			}
+			return registry;
+		}
+	}
+
+}
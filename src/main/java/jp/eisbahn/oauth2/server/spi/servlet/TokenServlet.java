@@ -20,7 +20,14 @@ package jp.eisbahn.oauth2.server.spi.servlet;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -28,14 +35,28 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 
+import jp.eisbahn.oauth2.server.cache.ValidationCache;
 import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
 import jp.eisbahn.oauth2.server.endpoint.Token;
 import jp.eisbahn.oauth2.server.endpoint.Token.Response;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcher;
 import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcherImpl;
+import jp.eisbahn.oauth2.server.granttype.GrantHandler;
 import jp.eisbahn.oauth2.server.granttype.GrantHandlerProvider;
 import jp.eisbahn.oauth2.server.granttype.impl.DefaultGrantHandlerProvider;
+import jp.eisbahn.oauth2.server.granttype.impl.Password;
+import jp.eisbahn.oauth2.server.instrumentation.Instrumentation;
+import jp.eisbahn.oauth2.server.instrumentation.impl.CompositeInstrumentation;
+import jp.eisbahn.oauth2.server.loadgen.WarmUp;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.ratelimit.FailureTracker;
+import jp.eisbahn.oauth2.server.ratelimit.RateLimiter;
+import jp.eisbahn.oauth2.server.utils.FormParameters;
+import jp.eisbahn.oauth2.server.utils.Util;
+import jp.eisbahn.oauth2.server.utils.VirtualThreads;
 
 /**
  * This class is an HttpServlet implementation of the Token issuing endpoint.
@@ -65,6 +86,46 @@ import jp.eisbahn.oauth2.server.granttype.impl.DefaultGrantHandlerProvider;
  * &lt;/servlet&gt;
  * </code>
  * 
+ * Optionally, you can specify the class name of an Instrumentation
+ * implementation as the "instrumentation" init-param value to measure
+ * each request. If some class names delimited by a comma are specified,
+ * each measurement is forwarded to all of them.
+ * 
+ * When "virtualThread" is specified as the "executionMode" init-param value,
+ * each request is handled on a new virtual thread (on Java 21 or later)
+ * instead of the container's thread, so that a blocking DataHandler doesn't
+ * occupy the container's thread pool. In this mode, this servlet should be
+ * declared with &lt;async-supported&gt;true&lt;/async-supported&gt;.
+ * Otherwise, the container's thread waits for the virtual thread. The
+ * default value is "container".
+ * 
+ * When "streaming" is specified as the "requestParser" init-param value,
+ * an application/x-www-form-urlencoded body is read and parsed by this
+ * servlet (see FormBodyRequestAdapter) instead of the container's parameter
+ * parsing. The body must not exceed 64 KB. The default value is "container".
+ * 
+ * To limit the rate of requests per client, specify the class name of
+ * a RateLimiter implementation as the "rateLimiter" init-param value.
+ * To slow down repeated authentication failures, specify the class name of
+ * a FailureTracker implementation as the "failureTracker" init-param value.
+ * The instance is set to the Token for the client_id, and to each Password
+ * grant handler of the GrantHandlerProvider for the username.
+ * 
+ * When the ComponentRegistryListener is registered in the web application,
+ * each component specified by its class name is shared with the other
+ * servlets and filters of this framework through the ComponentRegistry.
+ * Then, specify the same ValidationCache class name as the "validationCache"
+ * init-param value of this servlet and the ProtectedResourceFilter: the
+ * validation result of each issued token is put into the cache, and the
+ * first request with the token is validated without the DataHandler.
+ * 
+ * To warm up the JIT compiler, specify the number of iterations as the
+ * "warmUpIterations" init-param value. Synthetic requests of every grant type
+ * and error path are processed with a DataHandler which doesn't access any
+ * storage (see {@link WarmUp}) before this method returns. Declare this
+ * servlet with &lt;load-on-startup&gt;, so that the container starts routing
+ * requests to it only after the warm-up has completed.
+ * 
  * @author Yoichiro Tanaka
  *
  */
@@ -74,8 +135,22 @@ public class TokenServlet extends HttpServlet {
 	private static final String DATA_HANDLER_FACTORY_CLASSNAME = "dataHandlerFactory";
 	private static final String GRANT_HANDLER_PROVIDER_CLASSNAME = "grantHandlerProvider";
 	private static final String CLIENT_CREDENTIAL_FETCHER_CLASSNAME = "clientCredentialFetcher";
+	private static final String INSTRUMENTATION_CLASSNAME = "instrumentation";
+	private static final String EXECUTION_MODE = "executionMode";
+	private static final String REQUEST_PARSER = "requestParser";
+	private static final String RATE_LIMITER_CLASSNAME = "rateLimiter";
+	private static final String WARM_UP_ITERATIONS = "warmUpIterations";
+	private static final String VALIDATION_CACHE_CLASSNAME = "validationCache";
+	private static final String FAILURE_TRACKER_CLASSNAME = "failureTracker";
+
+	private static final int MAX_FORM_BODY_SIZE = 64 * 1024;
+
+	private static final Logger LOG = Logger.getLogger(TokenServlet.class.getName());
 
+	private ComponentRegistry components;
 	private Token token;
+	private ExecutorService executor;
+	private boolean streamingParser;
 
 	/**
 	 * Initialize this servlet.
@@ -88,6 +163,7 @@ public class TokenServlet extends HttpServlet {
 	 */
 	@Override
 	public void init(ServletConfig config) throws ServletException {
+		components = ComponentRegistry.get(config.getServletContext());
 		try {
 			DataHandlerFactory dataHandlerFactory = getDataHandlerFactory(config);
 			GrantHandlerProvider grantHandlerProvider = getGrantHandlerProvider(config);
@@ -96,6 +172,27 @@ public class TokenServlet extends HttpServlet {
 			token.setDataHandlerFactory(dataHandlerFactory);
 			token.setGrantHandlerProvider(grantHandlerProvider);
 			token.setClientCredentialFetcher(clientCredentialFetcher);
+			Instrumentation instrumentation = getInstrumentation(config);
+			if (instrumentation != null) {
+				token.setInstrumentation(instrumentation);
+			}
+			executor = getExecutor(config);
+			streamingParser = isStreamingParser(config);
+			RateLimiter rateLimiter = createInstance(RATE_LIMITER_CLASSNAME, config);
+			if (rateLimiter != null) {
+				token.setRateLimiter(rateLimiter);
+			}
+			ValidationCache validationCache = createInstance(VALIDATION_CACHE_CLASSNAME, config);
+			if (validationCache != null) {
+				token.setValidationCache(validationCache);
+				TokenCaches.getRegistry(config.getServletContext()).register(validationCache);
+			}
+			FailureTracker failureTracker = createInstance(FAILURE_TRACKER_CLASSNAME, config);
+			warmUp(config, grantHandlerProvider, clientCredentialFetcher);
+			// Set after the warm-up, so that its synthetic failures are not tracked.
+			if (failureTracker != null) {
+				setFailureTracker(failureTracker, grantHandlerProvider);
+			}
 		} catch (ClassNotFoundException e) {
 			throw new ServletException(e.getMessage(), e);
 		} catch (InstantiationException e) {
@@ -130,15 +227,90 @@ public class TokenServlet extends HttpServlet {
 		return createInstance(DATA_HANDLER_FACTORY_CLASSNAME, config);
 	}
 
+	private Instrumentation getInstrumentation(ServletConfig config)
+			throws InstantiationException, IllegalAccessException, ClassNotFoundException {
+		String classNames = config.getInitParameter(INSTRUMENTATION_CLASSNAME);
+		if (classNames == null) {
+			return null;
+		}
+		String[] names = StringUtils.split(classNames, ", ");
+		Instrumentation[] instrumentations = new Instrumentation[names.length];
+		for (int i = 0; i < names.length; i++) {
+			instrumentations[i] = (Instrumentation)Class.forName(names[i]).newInstance();
+		}
+		if (instrumentations.length == 1) {
+			return instrumentations[0];
+		} else {
+			return new CompositeInstrumentation(instrumentations);
+		}
+	}
+
+	private void setFailureTracker(FailureTracker failureTracker,
+			GrantHandlerProvider grantHandlerProvider) {
+		token.setFailureTracker(failureTracker);
+		if (grantHandlerProvider.getHandlers() == null) {
+			return;
+		}
+		for (GrantHandler handler : grantHandlerProvider.getHandlers().values()) {
+			if (handler instanceof Password) {
+				((Password)handler).setFailureTracker(failureTracker);
+			}
+		}
+	}
+
+	private ExecutorService getExecutor(ServletConfig config) throws ServletException {
+		String mode = config.getInitParameter(EXECUTION_MODE);
+		if (mode == null || mode.equals("container")) {
+			return null;
+		} else if (mode.equals("virtualThread")) {
+			return VirtualThreads.newVirtualThreadPerTaskExecutor("oauth2-token");
+		} else {
+			throw new ServletException("Unknown execution mode: " + mode);
+		}
+	}
+
+	private boolean isStreamingParser(ServletConfig config) throws ServletException {
+		String parser = config.getInitParameter(REQUEST_PARSER);
+		if (parser == null || parser.equals("container")) {
+			return false;
+		} else if (parser.equals("streaming")) {
+			return true;
+		} else {
+			throw new ServletException("Unknown request parser: " + parser);
+		}
+	}
+
+	private void warmUp(ServletConfig config,
+			GrantHandlerProvider grantHandlerProvider,
+			ClientCredentialFetcher clientCredentialFetcher) throws ServletException {
+		String iterations = config.getInitParameter(WARM_UP_ITERATIONS);
+		if (iterations == null) {
+			return;
+		}
+		WarmUp warmUp = new WarmUp();
+		try {
+			warmUp.setIterations(Integer.parseInt(iterations));
+		} catch (IllegalArgumentException e) {
+			throw new ServletException("Invalid warm-up iterations: " + iterations);
+		}
+		warmUp.setTokenComponents(grantHandlerProvider, clientCredentialFetcher);
+		long start = System.nanoTime();
+		long count = warmUp.run();
+		LOG.log(Level.INFO, "Warm-up completed: {0} requests in {1} ms.",
+				new Object[] {count, (System.nanoTime() - start) / 1000000});
+	}
+
 	@SuppressWarnings("unchecked")
 	private <T> T createInstance(String name, ServletConfig config)
 			throws InstantiationException, IllegalAccessException, ClassNotFoundException {
 		String className = config.getInitParameter(name);
-		if (className != null) {
+		if (className == null) {
+			return null;
+		} else if (components != null) {
+			return components.<T>getInstance(className);
+		} else {
 			Class<?> clazz = Class.forName(className);
 			return (T)clazz.newInstance();
-		} else {
-			return null;
 		}
 	}
 
@@ -153,8 +325,76 @@ public class TokenServlet extends HttpServlet {
 	@Override
 	protected void doPost(HttpServletRequest req, HttpServletResponse resp)
 			throws ServletException, IOException {
-		HttpServletRequestAdapter request = new HttpServletRequestAdapter(req);
-		Response response = token.handleRequest(request);
+		final Request request = createRequest(req, resp);
+		if (request == null) {
+			return;
+		} else if (executor == null) {
+			writeResponse(resp, token.handleRequest(request));
+		} else if (req.isAsyncSupported()) {
+			final AsyncContext asyncContext = req.startAsync();
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					HttpServletResponse response =
+							(HttpServletResponse)asyncContext.getResponse();
+					try {
+						writeResponse(response, token.handleRequest(request));
+					} catch (IOException e) {
+						LOG.log(Level.WARNING, "Writing the response failed.", e);
+					} catch (RuntimeException e) {
+						LOG.log(Level.SEVERE, "Issuing a token failed.", e);
+						if (!response.isCommitted()) {
+							response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+						}
+					} finally {
+						asyncContext.complete();
+					}
+				}
+			});
+		} else {
+			Future<Response> future = executor.submit(new Callable<Response>() {
+				@Override
+				public Response call() {
+					return token.handleRequest(request);
+				}
+			});
+			writeResponse(resp, waitFor(future));
+		}
+	}
+
+	/**
+	 * Shut down the executor if the virtual thread execution mode is used.
+	 */
+	@Override
+	public void destroy() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+		super.destroy();
+	}
+
+	private Request createRequest(HttpServletRequest req, HttpServletResponse resp)
+			throws IOException {
+		if (!streamingParser || !FormBodyRequestAdapter.hasFormBody(req)) {
+			return new HttpServletRequestAdapter(req);
+		}
+		OAuthError error;
+		try {
+			FormParameters parameters =
+					FormBodyRequestAdapter.readBody(req, MAX_FORM_BODY_SIZE);
+			if (parameters != null) {
+				return new FormBodyRequestAdapter(req, parameters);
+			}
+			error = new OAuthError.InvalidRequest("Request body too large.");
+		} catch (IllegalArgumentException e) {
+			error = new OAuthError.InvalidRequest("Malformed request body.");
+		}
+		writeResponse(resp, new Response(error.getCode(), Util.toJson(error)));
+		return null;
+	}
+
+	private void writeResponse(HttpServletResponse resp, Response response)
+			throws IOException {
 		resp.setStatus(response.getCode());
 		resp.setContentType("application/json; charset=UTF-8");
 		PrintWriter writer = resp.getWriter();
@@ -162,4 +402,18 @@ public class TokenServlet extends HttpServlet {
 		writer.flush();
 	}
 
+	private Response waitFor(Future<Response> future) throws ServletException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServletException(e.getMessage(), e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			throw new ServletException(e.getCause().getMessage(), e.getCause());
+		}
+	}
+
 }
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.utils;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class parses an application/x-www-form-urlencoded body of the token
+ * request.
+ *
+ * The parameters used by the Token endpoint are recognized by comparing the
+ * raw bytes of each name, and only their values are decoded. The other
+ * parameters are kept in a map which is allocated only when such a parameter
+ * appears. If the same parameter appears twice, the first value is used.
+ * The body is decoded as UTF-8 in place, therefore the passed buffer can be
+ * reused right after parsing, but its content is destroyed.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class FormParameters {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String[] NAMES = new String[] {
+		"grant_type", "code", "redirect_uri", "refresh_token", "username",
+		"password", "scope", "client_id", "client_secret"
+	};
+
+	private static final byte[][] NAME_BYTES = new byte[NAMES.length][];
+
+	static {
+		for (int i = 0; i < NAMES.length; i++) {
+			NAME_BYTES[i] = NAMES[i].getBytes(UTF_8);
+		}
+	}
+
+	private final String[] values = new String[NAMES.length];
+	private Map<String, String> others;
+
+	private FormParameters() {
+		super();
+	}
+
+	/**
+	 * Parse the body.
+	 * @param buffer The buffer which has the body. The content is destroyed.
+	 * @param offset The offset of the body in the buffer.
+	 * @param length The length of the body.
+	 * @return The parsed parameters.
+	 * @throws IllegalArgumentException If the body has an illegal escape
+	 * sequence.
+	 */
+	public static FormParameters parse(byte[] buffer, int offset, int length) {
+		FormParameters result = new FormParameters();
+		int end = offset + length;
+		int start = offset;
+		while (start < end) {
+			int separator = indexOf(buffer, (byte)'&', start, end);
+			int equal = indexOf(buffer, (byte)'=', start, separator);
+			if (equal > start) {
+				int valueStart = equal < separator ? equal + 1 : separator;
+				result.add(buffer, start, equal, valueStart, separator);
+			}
+			start = separator + 1;
+		}
+		return result;
+	}
+
+	/**
+	 * Retrieve the value of the parameter.
+	 * @param name The parameter name.
+	 * @return The decoded value, or null if not found.
+	 */
+	public String get(String name) {
+		int index = indexOfName(name);
+		if (index >= 0) {
+			return values[index];
+		}
+		return others != null ? others.get(name) : null;
+	}
+
+	/**
+	 * Retrieve all parameters as a map.
+	 * @return The map which has each parameter name and its value.
+	 */
+	public Map<String, String> toMap() {
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		for (int i = 0; i < NAMES.length; i++) {
+			if (values[i] != null) {
+				result.put(NAMES[i], values[i]);
+			}
+		}
+		if (others != null) {
+			result.putAll(others);
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	private void add(byte[] buffer, int nameStart, int nameEnd,
+			int valueStart, int valueEnd) {
+		int index = indexOfName(buffer, nameStart, nameEnd);
+		if (index >= 0) {
+			if (values[index] == null) {
+				values[index] = decode(buffer, valueStart, valueEnd);
+			}
+			return;
+		}
+		String name = decode(buffer, nameStart, nameEnd);
+		index = indexOfName(name);
+		if (index >= 0) {
+			// The name was escaped.
+			if (values[index] == null) {
+				values[index] = decode(buffer, valueStart, valueEnd);
+			}
+			return;
+		}
+		if (others == null) {
+			others = new LinkedHashMap<String, String>();
+		}
+		if (!others.containsKey(name)) {
+			others.put(name, decode(buffer, valueStart, valueEnd));
+		}
+	}
+
+	private static int indexOfName(byte[] buffer, int start, int end) {
+		int length = end - start;
+		for (int i = 0; i < NAME_BYTES.length; i++) {
+			byte[] name = NAME_BYTES[i];
+			if (name.length != length) {
+				continue;
+			}
+			int j = 0;
+			while (j < length && name[j] == buffer[start + j]) {
+				j++;
+			}
+			if (j == length) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int indexOfName(String name) {
+		for (int i = 0; i < NAMES.length; i++) {
+			if (NAMES[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int indexOf(byte[] buffer, byte target, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (buffer[i] == target) {
+				return i;
+			}
+		}
+		return end;
+	}
+
+	private static String decode(byte[] buffer, int start, int end) {
+		int read = start;
+		while (read < end && buffer[read] != '%' && buffer[read] != '+') {
+			read++;
+		}
+		if (read == end) {
+			return new String(buffer, start, end - start, UTF_8);
+		}
+		int write = read;
+		while (read < end) {
+			byte b = buffer[read];
+			if (b == '+') {
+				buffer[write++] = ' ';
+				read++;
+			} else if (b == '%') {
+				if (read + 2 >= end) {
+					throw new IllegalArgumentException("Incomplete escape sequence.");
+				}
+				int high = Character.digit(buffer[read + 1], 16);
+				int low = Character.digit(buffer[read + 2], 16);
+				if (high < 0 || low < 0) {
+					throw new IllegalArgumentException("Illegal escape sequence.");
+				}
+				buffer[write++] = (byte)((high << 4) | low);
+				read += 3;
+			} else {
+				buffer[write++] = b;
+				read++;
+			}
+		}
+		return new String(buffer, start, write - start, UTF_8);
+	}
+
+}
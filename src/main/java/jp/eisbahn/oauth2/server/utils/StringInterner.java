@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.utils;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class canonicalizes equal strings to one instance, to reduce the
+ * duplicated strings held by the in-memory stores and caches.
+ *
+ * <p>Client IDs, user IDs, scopes and redirect URIs repeat across many
+ * tokens, but each token read from a database has its own copies. Passing
+ * them through this class makes the cached objects share one instance per
+ * value.</p>
+ *
+ * <p>The pool is a fixed-size table indexed by the hash code of each string,
+ * so its memory is bounded and it never takes a lock. When two values
+ * collide on a slot, the newer one replaces the older one; the older value
+ * is simply not deduplicated any more. Unlike String.intern(), the pooled
+ * strings are not kept forever.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class StringInterner {
+
+	/**
+	 * The instance shared by the in-memory stores and caches by default.
+	 */
+	public static final StringInterner SHARED = new StringInterner(4096);
+
+	private final AtomicReferenceArray<String> slots;
+	private final int mask;
+
+	/**
+	 * Initialize this instance.
+	 * @param size The number of the slots. This is rounded up to a power
+	 * of two.
+	 */
+	public StringInterner(int size) {
+		if (size <= 0 || size > (1 << 30)) {
+			throw new IllegalArgumentException("Invalid size: " + size);
+		}
+		int capacity = Integer.highestOneBit(size);
+		if (capacity < size) {
+			capacity <<= 1;
+		}
+		slots = new AtomicReferenceArray<String>(capacity);
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Return the pooled instance equal to the value. If there is no such
+	 * instance, the value is pooled and returned.
+	 * @param value The string value.
+	 * @return The canonical instance, or null if the value is null.
+	 */
+	public String intern(String value) {
+		if (value == null) {
+			return null;
+		}
+		int hash = value.hashCode();
+		int index = (hash ^ (hash >>> 16)) & mask;
+		String pooled = slots.get(index);
+		if (pooled != null && pooled.equals(value)) {
+			return pooled;
+		}
+		slots.lazySet(index, value);
+		return value;
+	}
+
+	/**
+	 * Retrieve the number of the slots.
+	 * @return The number of the slots.
+	 */
+	public int capacity() {
+		return slots.length();
+	}
+
+	/**
+	 * Remove all pooled strings.
+	 */
+	public void clear() {
+		for (int i = 0; i < slots.length(); i++) {
+			slots.set(i, null);
+		}
+	}
+
+}
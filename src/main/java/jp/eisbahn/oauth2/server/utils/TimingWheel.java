@@ -0,0 +1,325 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.utils;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class schedules the expiration of items with a hashed hierarchical
+ * timing wheel.
+ *
+ * The time is divided into ticks. Each level has 64 slots, and a slot of the
+ * level N covers 64^N ticks. An item is put into the slot of the lowest level
+ * which covers its expiration time, and is moved to a lower level when the
+ * higher slot comes around. Therefore, scheduling and cancelling are O(1), and
+ * each tick processes only the items which are in its slot, instead of
+ * scanning all items. An item which expires beyond the highest level is
+ * parked in the highest level and rescheduled repeatedly.
+ *
+ * This class doesn't have its own thread. The owner calls the advance() method
+ * with the current time, usually while storing a new item. If another thread
+ * is advancing the wheel at the same time, the call returns immediately.
+ * The handler is called on the advancing thread, outside of the lock.
+ * An item never expires earlier than its expiration time, and expires at
+ * the latest one tick after it, once the wheel is advanced.
+ *
+ * @author Yoichiro Tanaka
+ *
+ * @param <T> The type of items.
+ */
+public class TimingWheel<T> {
+
+	private static final int SLOT_BITS = 6;
+	private static final int SLOT_COUNT = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOT_COUNT - 1;
+	private static final int LEVEL_COUNT = 4;
+
+	private final long tickMillis;
+	private final ExpirationHandler<T> handler;
+	private final Timeout<T>[][] slots;
+	private final AtomicBoolean advancing = new AtomicBoolean();
+	private long currentTick;
+	private int size;
+
+	/**
+	 * Initialize this instance with the current time.
+	 * @param tickMillis The length of a tick in milliseconds.
+	 * @param handler The handler which is called for each expired item.
+	 */
+	public TimingWheel(long tickMillis, ExpirationHandler<T> handler) {
+		this(tickMillis, handler, System.currentTimeMillis());
+	}
+
+	/**
+	 * Initialize this instance.
+	 * @param tickMillis The length of a tick in milliseconds.
+	 * @param handler The handler which is called for each expired item.
+	 * @param now The current time in milliseconds.
+	 */
+	@SuppressWarnings("unchecked")
+	public TimingWheel(long tickMillis, ExpirationHandler<T> handler, long now) {
+		super();
+		if (tickMillis <= 0) {
+			throw new IllegalArgumentException("tickMillis must be positive.");
+		}
+		this.tickMillis = tickMillis;
+		this.handler = handler;
+		this.slots = new Timeout[LEVEL_COUNT][SLOT_COUNT];
+		this.currentTick = now / tickMillis;
+	}
+
+	/**
+	 * Schedule the expiration of the item.
+	 * If the time has already passed, the item expires at the next advance.
+	 * @param item The item.
+	 * @param expiresAt The expiration time in milliseconds.
+	 * @return The handle to cancel the expiration.
+	 */
+	public Timeout<T> schedule(T item, long expiresAt) {
+		Timeout<T> timeout = new Timeout<T>(this, item, expiresAt,
+				(expiresAt + tickMillis - 1) / tickMillis);
+		synchronized (this) {
+			place(timeout);
+			size++;
+		}
+		return timeout;
+	}
+
+	/**
+	 * Advance the wheel to the current time, and pass the expired items to
+	 * the handler.
+	 * @param now The current time in milliseconds.
+	 * @return The number of expired items, or -1 if another thread is
+	 * advancing the wheel.
+	 */
+	public int advance(long now) {
+		long targetTick = now / tickMillis;
+		if (!advancing.compareAndSet(false, true)) {
+			return -1;
+		}
+		try {
+			int count = 0;
+			while (true) {
+				Timeout<T> expired;
+				synchronized (this) {
+					if (currentTick >= targetTick) {
+						return count;
+					}
+					if (size == 0) {
+						// Nothing to do in the ticks between.
+						currentTick = targetTick;
+						return count;
+					}
+					expired = tick();
+				}
+				for (Timeout<T> timeout = expired; timeout != null;) {
+					Timeout<T> next = timeout.next;
+					timeout.next = null;
+					handler.expired(timeout.item);
+					count++;
+					timeout = next;
+				}
+			}
+		} finally {
+			advancing.set(false);
+		}
+	}
+
+	/**
+	 * Retrieve the number of scheduled items which have not expired nor been
+	 * cancelled yet.
+	 * @return The number of items.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Cancel all scheduled items.
+	 */
+	public synchronized void clear() {
+		for (Timeout<T>[] level : slots) {
+			for (int i = 0; i < SLOT_COUNT; i++) {
+				for (Timeout<T> timeout = level[i]; timeout != null;) {
+					Timeout<T> next = timeout.next;
+					timeout.prev = null;
+					timeout.next = null;
+					timeout.level = -1;
+					timeout = next;
+				}
+				level[i] = null;
+			}
+		}
+		size = 0;
+	}
+
+	private Timeout<T> tick() {
+		currentTick++;
+		Timeout<T> expired = null;
+		for (int level = LEVEL_COUNT - 1; level >= 0; level--) {
+			if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+				continue;
+			}
+			int index = (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+			Timeout<T> timeout = detach(level, index);
+			while (timeout != null) {
+				Timeout<T> next = timeout.next;
+				if (timeout.deadlineTick <= currentTick) {
+					timeout.level = -1;
+					timeout.prev = null;
+					timeout.next = expired;
+					expired = timeout;
+					size--;
+				} else {
+					place(timeout);
+				}
+				timeout = next;
+			}
+		}
+		return expired;
+	}
+
+	private void place(Timeout<T> timeout) {
+		long delta = timeout.deadlineTick - currentTick;
+		int level;
+		int index;
+		if (delta <= 0) {
+			// Expires at the next tick.
+			level = 0;
+			index = (int) ((currentTick + 1) & SLOT_MASK);
+		} else {
+			level = 0;
+			while (level < LEVEL_COUNT - 1
+					&& delta >= (1L << (SLOT_BITS * (level + 1)))) {
+				level++;
+			}
+			if (delta >= (1L << (SLOT_BITS * (level + 1)))) {
+				// Beyond the highest level, parked in the farthest slot.
+				index = (int) (((currentTick >>> (SLOT_BITS * level)) - 1) & SLOT_MASK);
+			} else {
+				index = (int) ((timeout.deadlineTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+			}
+		}
+		Timeout<T> head = slots[level][index];
+		timeout.level = level;
+		timeout.index = index;
+		timeout.prev = null;
+		timeout.next = head;
+		if (head != null) {
+			head.prev = timeout;
+		}
+		slots[level][index] = timeout;
+	}
+
+	private Timeout<T> detach(int level, int index) {
+		Timeout<T> head = slots[level][index];
+		slots[level][index] = null;
+		return head;
+	}
+
+	private synchronized boolean cancel(Timeout<T> timeout) {
+		if (timeout.level < 0) {
+			return false;
+		}
+		if (timeout.prev != null) {
+			timeout.prev.next = timeout.next;
+		} else {
+			slots[timeout.level][timeout.index] = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.prev = timeout.prev;
+		}
+		timeout.prev = null;
+		timeout.next = null;
+		timeout.level = -1;
+		size--;
+		return true;
+	}
+
+	/**
+	 * This interface receives the expired items.
+	 *
+	 * @author Yoichiro Tanaka
+	 *
+	 * @param <T> The type of items.
+	 */
+	public interface ExpirationHandler<T> {
+
+		/**
+		 * Handle the expired item.
+		 * @param item The item.
+		 */
+		public void expired(T item);
+
+	}
+
+	/**
+	 * This class is the handle of a scheduled item.
+	 *
+	 * @author Yoichiro Tanaka
+	 *
+	 * @param <T> The type of items.
+	 */
+	public static class Timeout<T> {
+
+		private final TimingWheel<T> wheel;
+		private final T item;
+		private final long expiresAt;
+		private final long deadlineTick;
+		private int level = -1;
+		private int index;
+		private Timeout<T> prev;
+		private Timeout<T> next;
+
+		private Timeout(TimingWheel<T> wheel, T item, long expiresAt,
+				long deadlineTick) {
+			this.wheel = wheel;
+			this.item = item;
+			this.expiresAt = expiresAt;
+			this.deadlineTick = deadlineTick;
+		}
+
+		/**
+		 * Retrieve the scheduled item.
+		 * @return The item.
+		 */
+		public T getItem() {
+			return item;
+		}
+
+		/**
+		 * Retrieve the expiration time.
+		 * @return The time in milliseconds.
+		 */
+		public long getExpiresAt() {
+			return expiresAt;
+		}
+
+		/**
+		 * Cancel the expiration of the item.
+		 * @return True if cancelled, false if the item has already expired or
+		 * been cancelled.
+		 */
+		public boolean cancel() {
+			return wheel.cancel(this);
+		}
+
+	}
+
+}
@@ -20,9 +20,10 @@ package jp.eisbahn.oauth2.server.utils;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
+import java.nio.charset.Charset;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang3.StringUtils;
 import org.codehaus.jackson.JsonGenerationException;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
@@ -35,17 +36,90 @@ import org.codehaus.jackson.map.ObjectMapper;
  */
 public class Util {
 
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int SCRATCH_SIZE = 256;
+
+	private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[SCRATCH_SIZE];
+		}
+	};
+
 	/**
 	 * Decode the URL encoded string.
+	 * The result is the same as URLDecoder.decode(source, "UTF-8"). If the
+	 * string has neither '%' nor '+', the string is returned as is without
+	 * any allocation.
 	 * @param source The URL encoded string.
 	 * @return The decoded original string.
+	 * @throws IllegalArgumentException If the string has an illegal escape
+	 * sequence.
 	 */
 	public static String decodeParam(String source) {
-		try {
-			return URLDecoder.decode(source, "UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			throw new IllegalStateException(e);
+		int length = source.length();
+		int i = 0;
+		while (i < length) {
+			char c = source.charAt(i);
+			if (c == '%' || c == '+') {
+				break;
+			}
+			i++;
+		}
+		if (i == length) {
+			return source;
 		}
+		char[] result = new char[length];
+		source.getChars(0, i, result, 0);
+		int position = i;
+		byte[] scratch = SCRATCH.get();
+		while (i < length) {
+			char c = source.charAt(i);
+			if (c == '+') {
+				result[position++] = ' ';
+				i++;
+			} else if (c == '%') {
+				// Consecutive escapes are decoded together as UTF-8 bytes.
+				byte[] bytes = scratch.length >= (length - i) / 3 ?
+						scratch : new byte[(length - i) / 3];
+				int count = 0;
+				while (i + 2 < length && c == '%') {
+					bytes[count++] = (byte)parseHex(source, i + 1);
+					i += 3;
+					if (i < length) {
+						c = source.charAt(i);
+					}
+				}
+				if (i < length && c == '%') {
+					throw new IllegalArgumentException(
+							"Incomplete trailing escape (%) pattern");
+				}
+				String decoded = new String(bytes, 0, count, UTF_8);
+				decoded.getChars(0, decoded.length(), result, position);
+				position += decoded.length();
+			} else {
+				result[position++] = c;
+				i++;
+			}
+		}
+		return new String(result, 0, position);
+	}
+
+	private static int parseHex(String source, int index) {
+		char high = source.charAt(index);
+		int low = Character.digit(source.charAt(index + 1), 16);
+		if (high == '+' && low >= 0) {
+			// URLDecoder accepts a plus sign here, because it uses
+			// Integer.parseInt().
+			return low;
+		}
+		int value = Character.digit(high, 16);
+		if (value < 0 || low < 0) {
+			throw new IllegalArgumentException(
+					"Illegal hex characters in escape (%) pattern");
+		}
+		return (value << 4) | low;
 	}
 
 	/**
@@ -61,6 +135,28 @@ public class Util {
 		}
 	}
 
+	/**
+	 * Create the value of the WWW-Authenticate response header of the Bearer
+	 * scheme defined by RFC 6750. This is shared by the ProtectedResourceFilter
+	 * and the standalone HTTP servers.
+	 * @param type The error type, for instance "invalid_token".
+	 * @param description The human-readable description, or null.
+	 * @param scope The scopes required to access the resource delimited by
+	 * a space, or null.
+	 * @return The header value.
+	 */
+	public static String toWwwAuthenticate(String type, String description,
+			String scope) {
+		StringBuilder sb = new StringBuilder("Bearer error=\"").append(type).append('"');
+		if (StringUtils.isNotBlank(description)) {
+			sb.append(", error_description=\"").append(description).append('"');
+		}
+		if (StringUtils.isNotBlank(scope)) {
+			sb.append(", scope=\"").append(scope).append('"');
+		}
+		return sb.toString();
+	}
+
 	/**
 	 * Encode the object to JSON format string.
 	 * @param source The object that you want to change to JSON string.
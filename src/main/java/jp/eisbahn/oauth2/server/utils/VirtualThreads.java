@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.utils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * This class creates an executor which runs each task on a new virtual
+ * thread.
+ *
+ * Virtual threads are available on Java 21 or later. This library is compiled
+ * for older versions, therefore the executor is looked up by reflection.
+ * On a Java runtime without virtual threads, a cached thread pool of daemon
+ * platform threads is used instead, so that the same configuration works on
+ * every runtime.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class VirtualThreads {
+
+	private static final Logger LOG = Logger.getLogger(VirtualThreads.class.getName());
+
+	private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findMethod();
+
+	/**
+	 * Return whether virtual threads are available on the current runtime.
+	 * @return True if available.
+	 */
+	public static boolean isAvailable() {
+		return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+	}
+
+	/**
+	 * Create an executor which starts a new virtual thread for each task.
+	 * If virtual threads are not available, a cached thread pool is returned.
+	 * @param name The name prefix of the threads, used only for the platform
+	 * threads of the cached thread pool.
+	 * @return The executor. It must be shut down when it is no longer used.
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor(final String name) {
+		if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null) {
+			try {
+				return (ExecutorService)NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			} catch (InvocationTargetException e) {
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		LOG.warning("Virtual threads are not available on this runtime. "
+				+ "A cached thread pool is used instead.");
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	private static Method findMethod() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,308 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import jp.eisbahn.oauth2.server.cache.impl.InProcessInvalidationBus;
+import jp.eisbahn.oauth2.server.clock.Clock;
+
+import org.junit.Test;
+
+public class ClusteredTokenCacheRegistryTest {
+
+	@Test
+	public void testPropagate() throws Exception {
+		TokenCache cache1 = createMock(TokenCache.class);
+		cache1.invalidate("token1");
+		cache1.invalidateAll();
+		cache1.invalidate("token2");
+		TokenCache cache2 = createMock(TokenCache.class);
+		cache2.invalidate("token1");
+		cache2.invalidateAll();
+		cache2.invalidate("token2");
+		replay(cache1, cache2);
+
+		InProcessInvalidationBus.Topic topic = new InProcessInvalidationBus.Topic();
+		ClusteredTokenCacheRegistry node1 = new ClusteredTokenCacheRegistry(
+				new InProcessInvalidationBus(topic), "node1");
+		ClusteredTokenCacheRegistry node2 = new ClusteredTokenCacheRegistry(
+				new InProcessInvalidationBus(topic), "node2");
+		node1.register(cache1);
+		node2.register(cache2);
+		node1.invalidate("token1");
+		node1.invalidateAll();
+		node2.invalidate("token2");
+		node1.awaitSent();
+		node2.awaitSent();
+		node1.close();
+		node2.close();
+
+		verify(cache1, cache2);
+		assertEquals(0, node1.getGapCount());
+		assertEquals(0, node2.getGapCount());
+	}
+
+	@Test
+	public void testDuplicateAndGap() {
+		TokenCache cache = createMock(TokenCache.class);
+		cache.invalidate("token1");
+		cache.invalidateAll();
+		cache.invalidate("token4");
+		replay(cache);
+
+		InProcessInvalidationBus.Topic topic = new InProcessInvalidationBus.Topic();
+		ClusteredTokenCacheRegistry target = new ClusteredTokenCacheRegistry(
+				new InProcessInvalidationBus(topic), "node1");
+		target.register(cache);
+		target.receive(new InvalidationMessage("node1", 1L, "own"));
+		target.receive(new InvalidationMessage("node2", 1L, "token1"));
+		target.receive(new InvalidationMessage("node2", 1L, "token1"));
+		target.receive(new InvalidationMessage("node2", 3L, "token3"));
+		target.receive(new InvalidationMessage("node2", 2L, "token2"));
+		target.receive(new InvalidationMessage("node2", 4L, "token4"));
+		target.close();
+
+		verify(cache);
+		assertEquals(1, target.getGapCount());
+	}
+
+	@Test
+	public void testFirstMessageMissed() {
+		TokenCache cache = createMock(TokenCache.class);
+		cache.invalidateAll();
+		cache.invalidate("token6");
+		replay(cache);
+
+		ClusteredTokenCacheRegistry target = new ClusteredTokenCacheRegistry(
+				new InProcessInvalidationBus(new InProcessInvalidationBus.Topic()));
+		MutableClock clock = new MutableClock();
+		target.setClock(clock);
+		target.register(cache);
+		// Long after this node started, a new node must start from 1.
+		clock.now += 5000L;
+		target.receive(new InvalidationMessage("node2", 5L, "token5"));
+		target.receive(new InvalidationMessage("node2", 6L, "token6"));
+		target.close();
+
+		verify(cache);
+		assertEquals(1, target.getGapCount());
+	}
+
+	@Test
+	public void testJoinRunningCluster() {
+		TokenCache cache = createMock(TokenCache.class);
+		cache.invalidate("token5");
+		cache.invalidate("token6");
+		replay(cache);
+
+		ClusteredTokenCacheRegistry target = new ClusteredTokenCacheRegistry(
+				new InProcessInvalidationBus(new InProcessInvalidationBus.Topic()));
+		target.setClock(new MutableClock());
+		target.register(cache);
+		// The nodes heard first just after this node started are not new.
+		target.receive(new InvalidationMessage("node2", 5L, "token5"));
+		target.receive(InvalidationMessage.heartbeat("node3", 9L));
+		target.receive(new InvalidationMessage("node3", 10L, "token6"));
+		target.close();
+
+		verify(cache);
+		assertEquals(0, target.getGapCount());
+	}
+
+	@Test
+	public void testHeartbeatDetectsLostLastMessage() {
+		TokenCache cache = createMock(TokenCache.class);
+		cache.invalidate("token1");
+		cache.invalidateAll();
+		replay(cache);
+
+		ClusteredTokenCacheRegistry target = new ClusteredTokenCacheRegistry(
+				new InProcessInvalidationBus(new InProcessInvalidationBus.Topic()));
+		target.register(cache);
+		target.receive(new InvalidationMessage("node2", 1L, "token1"));
+		target.receive(InvalidationMessage.heartbeat("node2", 1L));
+		// The message 2 was lost, and no message follows it.
+		target.receive(InvalidationMessage.heartbeat("node2", 2L));
+		target.receive(InvalidationMessage.heartbeat("node2", 2L));
+		target.close();
+
+		verify(cache);
+		assertEquals(1, target.getGapCount());
+	}
+
+	@Test
+	public void testSendHeartbeat() throws Exception {
+		final BlockingQueue<InvalidationMessage> sent =
+				new LinkedBlockingQueue<InvalidationMessage>();
+		ClusteredTokenCacheRegistry target = new ClusteredTokenCacheRegistry(
+				new RecordingBus(sent), "node1");
+		target.setHeartbeatIntervalMillis(10L);
+		target.invalidate("token1");
+		InvalidationMessage message = sent.poll(5, TimeUnit.SECONDS);
+		assertEquals(1L, message.getSequence());
+		assertFalse(message.isHeartbeat());
+		message = sent.poll(5, TimeUnit.SECONDS);
+		assertTrue(message.isHeartbeat());
+		assertEquals("node1", message.getNodeId());
+		assertEquals(1L, message.getSequence());
+		target.close();
+	}
+
+	@Test
+	public void testExpireNodes() {
+		ClusteredTokenCacheRegistry target = new ClusteredTokenCacheRegistry(
+				new InProcessInvalidationBus(new InProcessInvalidationBus.Topic()));
+		MutableClock clock = new MutableClock();
+		target.setClock(clock);
+		target.setNodeExpiryMillis(10000L);
+		target.receive(new InvalidationMessage("node2", 1L, "token1"));
+		clock.now += 6000L;
+		target.receive(InvalidationMessage.heartbeat("node3", 0L));
+		clock.now += 6000L;
+		target.expireNodes();
+		assertEquals(1, target.getNodeCount());
+		clock.now += 6000L;
+		target.expireNodes();
+		assertEquals(0, target.getNodeCount());
+		target.close();
+	}
+
+	@Test
+	public void testInvalidateDoesNotWaitForBus() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final BlockingQueue<InvalidationMessage> sent =
+				new LinkedBlockingQueue<InvalidationMessage>();
+		InvalidationBus bus = new RecordingBus(sent) {
+			@Override
+			public void publish(InvalidationMessage message) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.publish(message);
+			}
+		};
+		ClusteredTokenCacheRegistry target =
+				new ClusteredTokenCacheRegistry(bus, "node1");
+		target.invalidate("token1");
+		target.invalidate("token2");
+		assertTrue(sent.isEmpty());
+		release.countDown();
+		target.awaitSent();
+		assertEquals("token1", sent.poll().getToken());
+		assertEquals("token2", sent.poll().getToken());
+		target.close();
+	}
+
+	@Test
+	public void testConcurrentInvalidationsInOrder() throws Exception {
+		final List<Long> sequences = new ArrayList<Long>();
+		InvalidationBus bus = new InvalidationBus() {
+			@Override
+			public void publish(InvalidationMessage message) {
+				if (message.isHeartbeat()) {
+					return;
+				}
+				synchronized (sequences) {
+					sequences.add(message.getSequence());
+				}
+				// Widen the window between taking the number and sending.
+				Thread.yield();
+			}
+			@Override
+			public void setListener(Listener listener) {
+			}
+			@Override
+			public void close() {
+			}
+		};
+		final ClusteredTokenCacheRegistry target =
+				new ClusteredTokenCacheRegistry(bus, "node1");
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 500; j++) {
+						target.invalidate("token" + j);
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		target.awaitSent();
+		target.close();
+		assertEquals(4000, sequences.size());
+		for (int i = 0; i < sequences.size(); i++) {
+			assertEquals(i + 1, sequences.get(i).longValue());
+		}
+	}
+
+	private static class MutableClock implements Clock {
+
+		private long now = 1000000L;
+
+		@Override
+		public long currentTimeMillis() {
+			return now;
+		}
+
+	}
+
+	private static class RecordingBus implements InvalidationBus {
+
+		private final BlockingQueue<InvalidationMessage> sent;
+
+		private RecordingBus(BlockingQueue<InvalidationMessage> sent) {
+			this.sent = sent;
+		}
+
+		@Override
+		public void publish(InvalidationMessage message) {
+			sent.add(message);
+		}
+
+		@Override
+		public void setListener(Listener listener) {
+		}
+
+		@Override
+		public void close() {
+		}
+
+	}
+
+}
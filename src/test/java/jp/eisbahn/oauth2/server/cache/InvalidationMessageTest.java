@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class InvalidationMessageTest {
+
+	@Test
+	public void testRoundTrip() {
+		byte[] bytes = new InvalidationMessage("node1", 3L, "token1").toBytes();
+		InvalidationMessage message =
+				InvalidationMessage.fromBytes(bytes, 0, bytes.length);
+		assertEquals("node1", message.getNodeId());
+		assertEquals(3L, message.getSequence());
+		assertEquals("token1", message.getToken());
+
+		byte[] buffer = new byte[100];
+		bytes = new InvalidationMessage("node2", 4L, null).toBytes();
+		System.arraycopy(bytes, 0, buffer, 10, bytes.length);
+		message = InvalidationMessage.fromBytes(buffer, 10, bytes.length);
+		assertEquals("node2", message.getNodeId());
+		assertEquals(4L, message.getSequence());
+		assertNull(message.getToken());
+		assertFalse(message.isHeartbeat());
+
+		bytes = InvalidationMessage.heartbeat("node3", 5L).toBytes();
+		message = InvalidationMessage.fromBytes(bytes, 0, bytes.length);
+		assertEquals("node3", message.getNodeId());
+		assertEquals(5L, message.getSequence());
+		assertNull(message.getToken());
+		assertTrue(message.isHeartbeat());
+	}
+
+	@Test
+	public void testMalformed() {
+		byte[] bytes = new InvalidationMessage("node1", 3L, "token1").toBytes();
+		try {
+			InvalidationMessage.fromBytes(bytes, 0, bytes.length - 2);
+			fail("Error expected.");
+		} catch (IllegalArgumentException e) {
+		}
+		bytes[0] = 9;
+		try {
+			InvalidationMessage.fromBytes(bytes, 0, bytes.length);
+			fail("Error expected.");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Unknown version: 9", e.getMessage());
+		}
+	}
+
+}
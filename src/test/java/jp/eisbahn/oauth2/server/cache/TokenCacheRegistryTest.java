@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TokenCacheRegistryTest {
+
+	@Test
+	public void testInvalidate() {
+		TokenCache cache1 = createMock(TokenCache.class);
+		cache1.invalidate("token1");
+		cache1.invalidateAll();
+		TokenCache cache2 = createMock(TokenCache.class);
+		cache2.invalidate("token1");
+		TokenCache cache3 = createMock(TokenCache.class);
+		replay(cache1, cache2, cache3);
+
+		TokenCacheRegistry target = new TokenCacheRegistry();
+		target.register(cache1);
+		target.register(cache1);
+		target.register(cache2);
+		target.register(cache3);
+		target.unregister(cache3);
+		assertEquals(2, target.getCaches().size());
+		target.invalidate("token1");
+		target.unregister(cache2);
+		target.invalidateAll();
+
+		verify(cache1, cache2, cache3);
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class InMemoryIntrospectionCacheTest {
+
+	@Test
+	public void testGetAndPut() {
+		InMemoryIntrospectionCache target = new InMemoryIntrospectionCache();
+		byte[] response = "{\"active\":true}".getBytes();
+		assertNull(target.get("token1"));
+		target.put("token1", response, System.currentTimeMillis() + 60000);
+		assertArrayEquals(response, target.get("token1"));
+		target.invalidate("token1");
+		assertNull(target.get("token1"));
+		target.put("token1", response, System.currentTimeMillis() + 60000);
+		target.put("token2", response, System.currentTimeMillis() + 60000);
+		target.invalidateAll();
+		assertNull(target.get("token2"));
+		// The tombstone of token1 is kept.
+		assertEquals(1, target.size());
+		// A response computed before invalidateAll() is not stored.
+		target.put("token3", response, System.currentTimeMillis() + 60000);
+		assertNull(target.get("token3"));
+	}
+
+	@Test
+	public void testTombstoneNotEvicted() {
+		InMemoryIntrospectionCache target = new InMemoryIntrospectionCache();
+		target.setMaxEntries(2);
+		long expiresAt = System.currentTimeMillis() + 60000;
+		byte[] response = "{\"active\":true}".getBytes();
+		target.invalidate("token1");
+		target.put("token2", response, expiresAt);
+		target.put("token3", response, expiresAt);
+		assertArrayEquals(response, target.get("token3"));
+		target.put("token1", response, expiresAt);
+		assertNull(target.get("token1"));
+		target.invalidate("token4");
+		target.invalidate("token5");
+		// Full of tombstones, so nothing is stored.
+		target.put("token6", response, expiresAt);
+		assertNull(target.get("token6"));
+		assertNull(target.get("token1"));
+	}
+
+	@Test
+	public void testExpired() throws Exception {
+		InMemoryIntrospectionCache target = new InMemoryIntrospectionCache();
+		byte[] response = "{\"active\":true}".getBytes();
+		target.put("token1", response, System.currentTimeMillis() - 1);
+		assertEquals(0, target.size());
+		target.put("token2", response, System.currentTimeMillis() + 20);
+		Thread.sleep(40);
+		assertNull(target.get("token2"));
+		assertEquals(0, target.size());
+	}
+
+	@Test
+	public void testMaxTimeToLive() throws Exception {
+		InMemoryIntrospectionCache target = new InMemoryIntrospectionCache();
+		target.setMaxTimeToLiveMillis(20);
+		target.put("token1", new byte[0], System.currentTimeMillis() + 60000);
+		assertTrue(target.get("token1") != null);
+		Thread.sleep(40);
+		assertNull(target.get("token1"));
+	}
+
+	@Test
+	public void testMaxEntries() {
+		InMemoryIntrospectionCache target = new InMemoryIntrospectionCache();
+		target.setMaxEntries(10);
+		long expiresAt = System.currentTimeMillis() + 60000;
+		for (int i = 0; i < 100; i++) {
+			target.put("token" + i, new byte[0], expiresAt);
+			assertTrue(target.size() <= 10);
+		}
+		assertTrue(target.get("token99") != null);
+	}
+
+}
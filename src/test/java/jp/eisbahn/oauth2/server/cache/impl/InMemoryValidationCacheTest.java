@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.clock.Clock;
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource.Response;
+import jp.eisbahn.oauth2.server.utils.StringInterner;
+
+public class InMemoryValidationCacheTest {
+
+	@Test
+	public void testValid() throws Exception {
+		InMemoryValidationCache target = new InMemoryValidationCache();
+		Response response = new Response("userId1", "clientId1", "scope1",
+				System.currentTimeMillis() + 60000);
+		target.put("token1", response);
+		assertSame(response, target.get("token1"));
+		target.put("token2", new Response("userId1", "clientId1", "scope1",
+				System.currentTimeMillis() + 20));
+		Thread.sleep(40);
+		assertNull(target.get("token2"));
+		target.put("token3", new Response("userId1", "clientId1", "scope1"));
+		assertNull(target.get("token3"));
+	}
+
+	@Test
+	public void testStringInterner() throws Exception {
+		InMemoryValidationCache target = new InMemoryValidationCache();
+		target.setStringInterner(new StringInterner(64));
+		long expiresAt = System.currentTimeMillis() + 60000;
+		target.put("token1", new Response(new String("userId1"),
+				new String("clientId1"), new String("scope1"), expiresAt, 3L));
+		target.put("token2", new Response(new String("userId2"),
+				new String("clientId1"), new String("scope1"), expiresAt, 3L));
+		Response response1 = target.get("token1");
+		Response response2 = target.get("token2");
+		assertSame(response1.getClientId(), response2.getClientId());
+		assertSame(response1.getScope(), response2.getScope());
+		assertEquals("userId2", response2.getRemoteUser());
+		assertEquals(expiresAt, response2.getExpiresAt());
+		assertEquals(3L, response2.getScopeMask());
+		assertTrue(response2.isScopeMaskCompiled());
+		target.put("token3", new Response(new String("userId3"),
+				new String("clientId1"), new String("scope1"), expiresAt));
+		assertFalse(target.get("token3").isScopeMaskCompiled());
+	}
+
+	@Test
+	public void testInvalid() throws Exception {
+		InMemoryValidationCache target = new InMemoryValidationCache();
+		target.setNegativeTimeToLiveMillis(20);
+		assertFalse(target.isInvalid("token1"));
+		target.putInvalid("token1");
+		assertTrue(target.isInvalid("token1"));
+		Thread.sleep(40);
+		assertFalse(target.isInvalid("token1"));
+	}
+
+	@Test
+	public void testInvalidate() {
+		InMemoryValidationCache target = new InMemoryValidationCache();
+		target.put("token1", new Response("userId1", "clientId1", "scope1",
+				System.currentTimeMillis() + 60000));
+		target.putInvalid("token2");
+		target.invalidate("token1");
+		target.invalidate("token2");
+		assertNull(target.get("token1"));
+		assertFalse(target.isInvalid("token2"));
+		target.put("token3", new Response("userId1", "clientId1", "scope1",
+				System.currentTimeMillis() + 60000));
+		target.invalidateAll();
+		assertNull(target.get("token3"));
+	}
+
+	@Test
+	public void testPutIssued() {
+		InMemoryValidationCache target = new InMemoryValidationCache();
+		Response response = new Response("userId1", "clientId1", "scope1",
+				System.currentTimeMillis() + 60000);
+		target.putInvalid("token1");
+		target.invalidate("token1");
+		// A result computed before the invalidation is not stored.
+		target.put("token1", response);
+		assertNull(target.get("token1"));
+		target.putIssued("token1", response);
+		assertEquals("userId1", target.get("token1").getRemoteUser());
+		target.putInvalid("token2");
+		target.putIssued("token2", response);
+		assertFalse(target.isInvalid("token2"));
+		assertNotNull(target.get("token2"));
+	}
+
+	@Test
+	public void testClock() {
+		final long[] now = new long[] {1000000L};
+		InMemoryValidationCache target = new InMemoryValidationCache();
+		target.setClock(new Clock() {
+			@Override
+			public long currentTimeMillis() {
+				return now[0];
+			}
+		});
+		target.setNegativeTimeToLiveMillis(5000);
+		target.put("token1", new Response("userId1", "clientId1", "scope1", 1010000L));
+		target.putInvalid("token2");
+		now[0] = 1004999L;
+		assertTrue(target.isInvalid("token2"));
+		now[0] = 1005000L;
+		assertFalse(target.isInvalid("token2"));
+		now[0] = 1009999L;
+		assertNotNull(target.get("token1"));
+		now[0] = 1010000L;
+		assertNull(target.get("token1"));
+	}
+
+}
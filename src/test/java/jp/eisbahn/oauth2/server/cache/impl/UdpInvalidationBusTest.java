@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import jp.eisbahn.oauth2.server.cache.InvalidationBus;
+import jp.eisbahn.oauth2.server.cache.InvalidationMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UdpInvalidationBusTest {
+
+	private UdpInvalidationBus bus1;
+	private UdpInvalidationBus bus2;
+	private BlockingQueue<InvalidationMessage> received;
+
+	@Before
+	public void setUp() throws Exception {
+		received = new LinkedBlockingQueue<InvalidationMessage>();
+		bus1 = new UdpInvalidationBus();
+		bus1.start();
+		bus2 = new UdpInvalidationBus();
+		bus2.setListener(new InvalidationBus.Listener() {
+			@Override
+			public void onMessage(InvalidationMessage message) {
+				received.add(message);
+			}
+		});
+		bus2.start();
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		bus1.setPeers(Arrays.asList(
+				new InetSocketAddress(loopback, bus2.getLocalPort())));
+	}
+
+	@After
+	public void tearDown() {
+		bus1.close();
+		bus2.close();
+	}
+
+	@Test
+	public void testPublish() throws Exception {
+		bus1.publish(new InvalidationMessage("node1", 1L, "token1"));
+		bus1.publish(new InvalidationMessage("node1", 2L, null));
+		InvalidationMessage message = received.poll(5, TimeUnit.SECONDS);
+		assertEquals("node1", message.getNodeId());
+		assertEquals(1L, message.getSequence());
+		assertEquals("token1", message.getToken());
+		message = received.poll(5, TimeUnit.SECONDS);
+		assertEquals(2L, message.getSequence());
+		assertNull(message.getToken());
+	}
+
+	@Test
+	public void testIgnoreMalformed() throws Exception {
+		DatagramSocket socket = new DatagramSocket();
+		try {
+			byte[] bytes = new byte[] {1, 2, 3};
+			socket.send(new DatagramPacket(bytes, bytes.length,
+					InetAddress.getLoopbackAddress(), bus2.getLocalPort()));
+		} finally {
+			socket.close();
+		}
+		bus1.publish(new InvalidationMessage("node1", 1L, "token1"));
+		InvalidationMessage message = received.poll(5, TimeUnit.SECONDS);
+		assertEquals("token1", message.getToken());
+		assertTrue(received.isEmpty());
+	}
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.clock.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CoarseClockTest {
+
+	@Test
+	public void testCurrentTimeMillis() throws Exception {
+		CoarseClock target = new CoarseClock(5);
+		try {
+			long start = target.currentTimeMillis();
+			assertTrue(Math.abs(System.currentTimeMillis() - start) < 1000);
+			long deadline = System.currentTimeMillis() + 5000;
+			while (target.currentTimeMillis() == start
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(5);
+			}
+			assertTrue(target.currentTimeMillis() > start);
+		} finally {
+			target.stop();
+		}
+		Thread.sleep(20);
+		long stopped = target.currentTimeMillis();
+		Thread.sleep(20);
+		assertEquals(stopped, target.currentTimeMillis());
+	}
+
+}
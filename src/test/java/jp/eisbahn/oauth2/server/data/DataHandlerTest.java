@@ -104,4 +104,10 @@ public class DataHandlerTest {
 		assertTrue(target.validateUserById(null));
 	}
 
+	@Test(expected = UnsupportedOperationException.class)
+	public void testStoreAccessTokenNotSupported() throws Exception {
+		Request request = EasyMock.createMock(Request.class);
+		new Target(request).storeAccessToken(new AuthInfo(), new AccessToken());
+	}
+
 }
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.clock.Clock;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+
+public class InMemoryAuthorizationCodeStoreTest {
+
+	private long[] now;
+	private InMemoryAuthorizationCodeStore target;
+
+	@Before
+	public void setUp() {
+		now = new long[] {1000000L};
+		target = new InMemoryAuthorizationCodeStore();
+		target.setClock(new Clock() {
+			@Override
+			public long currentTimeMillis() {
+				return now[0];
+			}
+		});
+	}
+
+	@Test
+	public void testIssueAndConsume() throws Exception {
+		AuthInfo authInfo = new AuthInfo();
+		String code = target.issue(authInfo);
+		assertEquals(43, code.length());
+		assertEquals(code, authInfo.getCode());
+		assertSame(authInfo, target.get(code));
+		assertSame(authInfo, target.consume(code));
+		assertNull(target.consume(code));
+		assertNull(target.get(code));
+		assertNull(target.consume(null));
+		assertEquals(0, target.size());
+	}
+
+	@Test
+	public void testExpiration() throws Exception {
+		target.setCodeLifetime(60);
+		AuthInfo authInfo = new AuthInfo();
+		target.put("code1", authInfo);
+		now[0] += 59999;
+		assertSame(authInfo, target.get("code1"));
+		now[0] += 1;
+		assertNull(target.get("code1"));
+		assertNull(target.consume("code1"));
+
+		target.put("code2", authInfo);
+		now[0] += 120000;
+		target.put("code3", authInfo);
+		assertEquals(1, target.size());
+	}
+
+	@Test
+	public void testConcurrentConsume() throws Exception {
+		final AuthInfo authInfo = new AuthInfo();
+		target.put("code1", authInfo);
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicInteger winners = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					if (target.consume("code1") == authInfo) {
+						winners.incrementAndGet();
+					}
+				}
+			});
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1, winners.get());
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.impl;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.clock.Clock;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+
+public class ReplicaRoutingDataHandlerFactoryTest {
+
+	private long[] now;
+	private Request request;
+	private DataHandlerFactory primaryFactory;
+	private DataHandlerFactory replicaFactory;
+	private DataHandler primary;
+	private DataHandler replica;
+	private ReplicaRoutingDataHandlerFactory target;
+
+	@Before
+	public void setUp() {
+		now = new long[] {1000000L};
+		request = createMock(Request.class);
+		primaryFactory = createMock(DataHandlerFactory.class);
+		replicaFactory = createMock(DataHandlerFactory.class);
+		primary = createMock(DataHandler.class);
+		replica = createMock(DataHandler.class);
+		List<DataHandlerFactory> replicas = new ArrayList<DataHandlerFactory>();
+		replicas.add(replicaFactory);
+		target = new ReplicaRoutingDataHandlerFactory(primaryFactory, replicas);
+		target.setReplicaLagMillis(500);
+		target.setClock(new Clock() {
+			@Override
+			public long currentTimeMillis() {
+				return now[0];
+			}
+		});
+	}
+
+	@Test
+	public void testReadFromReplica() throws Exception {
+		AccessToken accessToken = new AccessToken();
+		AuthInfo authInfo = new AuthInfo();
+		expect(replicaFactory.create(request)).andReturn(replica);
+		expect(replica.getAccessToken("token1")).andReturn(accessToken);
+		expect(replica.getAuthInfoById("authId1")).andReturn(authInfo);
+		expect(replica.validateClientById("clientId1")).andReturn(true);
+		expect(replica.validateUserById("userId1")).andReturn(true);
+		replay(request, primaryFactory, replicaFactory, primary, replica);
+
+		DataHandler dataHandler = target.create(request);
+		assertSame(accessToken, dataHandler.getAccessToken("token1"));
+		assertSame(authInfo, dataHandler.getAuthInfoById("authId1"));
+		assertTrue(dataHandler.validateClientById("clientId1"));
+		assertTrue(dataHandler.validateUserById("userId1"));
+		verify(request, primaryFactory, replicaFactory, primary, replica);
+	}
+
+	@Test
+	public void testReadYourWrites() throws Exception {
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setId("authId1");
+		AccessToken accessToken = new AccessToken();
+		accessToken.setAuthId("authId1");
+		accessToken.setToken("token1");
+		DataHandler primary2 = createMock(DataHandler.class);
+		expect(primaryFactory.create(request)).andReturn(primary);
+		expect(primaryFactory.create(request)).andReturn(primary2);
+		expect(replicaFactory.create(request)).andReturn(replica);
+		expect(primary.getAuthInfoByCode("code1")).andReturn(authInfo);
+		expect(primary.createOrUpdateAccessToken(authInfo)).andReturn(accessToken);
+		expect(primary2.getAccessToken("token1")).andReturn(accessToken);
+		expect(primary2.getAuthInfoById("authId1")).andReturn(authInfo);
+		expect(replica.getAccessToken("token1")).andReturn(accessToken);
+		expect(replica.getAuthInfoById("authId1")).andReturn(authInfo);
+		replay(request, primaryFactory, replicaFactory, primary, primary2,
+				replica);
+
+		DataHandler issuer = target.create(request);
+		assertSame(authInfo, issuer.getAuthInfoByCode("code1"));
+		assertSame(accessToken, issuer.createOrUpdateAccessToken(authInfo));
+
+		now[0] += 499;
+		DataHandler reader = target.create(request);
+		assertSame(accessToken, reader.getAccessToken("token1"));
+		assertSame(authInfo, reader.getAuthInfoById("authId1"));
+
+		now[0] += 1;
+		reader = target.create(request);
+		assertSame(accessToken, reader.getAccessToken("token1"));
+		assertSame(authInfo, reader.getAuthInfoById("authId1"));
+		verify(request, primaryFactory, replicaFactory, primary, primary2,
+				replica);
+	}
+
+	@Test
+	public void testRevokeToken() throws Exception {
+		DataHandler primary2 = createMock(DataHandler.class);
+		expect(primaryFactory.create(request)).andReturn(primary);
+		expect(primaryFactory.create(request)).andReturn(primary2);
+		expect(primary.revokeToken("clientId1", "refresh1", null))
+				.andReturn(Arrays.asList("token1"));
+		expect(primary.revokeToken("clientId1", "refresh2", null)).andReturn(null);
+		expect(primary2.getAccessToken("token2")).andReturn(null);
+		replay(request, primaryFactory, replicaFactory, primary, primary2, replica);
+
+		DataHandler revoker = target.create(request);
+		revoker.revokeToken("clientId1", "refresh1", null);
+		revoker.revokeToken("clientId1", "refresh2", null);
+		// All tokens are read from the primary after an unknown revocation.
+		assertNull(target.create(request).getAccessToken("token2"));
+		verify(request, primaryFactory, replicaFactory, primary, primary2, replica);
+	}
+
+	@Test
+	public void testFallbackToPrimary() throws Exception {
+		AccessToken accessToken = new AccessToken();
+		expect(replicaFactory.create(request)).andReturn(replica).times(2);
+		expect(primaryFactory.create(request)).andReturn(primary);
+		expect(replica.getAccessToken("token1")).andReturn(null).times(2);
+		expect(primary.getAccessToken("token1")).andReturn(accessToken);
+		replay(request, primaryFactory, replicaFactory, primary, replica);
+
+		assertNull(target.create(request).getAccessToken("token1"));
+		target.setFallbackToPrimary(true);
+		assertSame(accessToken, target.create(request).getAccessToken("token1"));
+		verify(request, primaryFactory, replicaFactory, primary, replica);
+	}
+
+	@Test
+	public void testNoReplica() throws Exception {
+		target = new ReplicaRoutingDataHandlerFactory(primaryFactory,
+				new ArrayList<DataHandlerFactory>());
+		expect(primaryFactory.create(request)).andReturn(primary);
+		expect(primary.getAccessToken("token1")).andReturn(null);
+		expect(primary.validateUserById("userId1")).andReturn(true);
+		replay(request, primaryFactory, replicaFactory, primary, replica);
+
+		DataHandler dataHandler = target.create(request);
+		assertNull(dataHandler.getAccessToken("token1"));
+		assertTrue(dataHandler.validateUserById("userId1"));
+		verify(request, primaryFactory, replicaFactory, primary, replica);
+	}
+
+}
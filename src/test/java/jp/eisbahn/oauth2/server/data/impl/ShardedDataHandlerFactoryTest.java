@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.impl;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.cache.impl.InMemoryValidationCache;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+
+public class ShardedDataHandlerFactoryTest {
+
+	private static List<DataHandlerFactory> createFactories(int count) {
+		List<DataHandlerFactory> factories = new ArrayList<DataHandlerFactory>();
+		for (int i = 0; i < count; i++) {
+			factories.add(createMock(DataHandlerFactory.class));
+		}
+		return factories;
+	}
+
+	@Test
+	public void testPrefix() throws Exception {
+		ShardedDataHandlerFactory target =
+				new ShardedDataHandlerFactory(createFactories(40));
+		assertEquals(40, target.getShardCount());
+		assertEquals("0~token1", target.addPrefix(0, "token1"));
+		assertEquals("13~token1", target.addPrefix(39, "token1"));
+		assertNull(target.addPrefix(1, null));
+		assertEquals(0, target.getShard("0~token1"));
+		assertEquals(39, target.getShard("13~token1"));
+		assertEquals(-1, target.getShard("14~token1"));
+		assertEquals(-1, target.getShard("~token1"));
+		assertEquals(-1, target.getShard("token1"));
+		assertEquals(-1, target.getShard("a-b~token1"));
+		assertEquals(-1, target.getShard("12345~token1"));
+		assertEquals(-1, target.getShard(null));
+		assertEquals("token1", target.removePrefix("13~token1"));
+		assertEquals("14~token1", target.removePrefix("14~token1"));
+		assertNull(target.removePrefix(null));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoShard() throws Exception {
+		new ShardedDataHandlerFactory(new ArrayList<DataHandlerFactory>());
+	}
+
+	@Test
+	public void testDistribution() throws Exception {
+		ShardedDataHandlerFactory four =
+				new ShardedDataHandlerFactory(createFactories(4));
+		ShardedDataHandlerFactory five =
+				new ShardedDataHandlerFactory(createFactories(5));
+		int[] counts = new int[4];
+		int moved = 0;
+		for (int i = 0; i < 10000; i++) {
+			int before = four.getShard("client" + (i % 50), "user" + i);
+			int after = five.getShard("client" + (i % 50), "user" + i);
+			counts[before]++;
+			if (before != after) {
+				assertEquals(4, after);
+				moved++;
+			}
+		}
+		for (int count : counts) {
+			assertTrue(String.valueOf(count), count > 1500 && count < 3500);
+		}
+		assertTrue(String.valueOf(moved), moved > 1000 && moved < 3000);
+	}
+
+	@Test
+	public void testRouteByPrefix() throws Exception {
+		List<DataHandlerFactory> factories = createFactories(3);
+		ShardedDataHandlerFactory target = new ShardedDataHandlerFactory(factories);
+		int shard = target.getShard("clientId1", "userId1");
+		String prefix = Integer.toString(shard, 36) + "~";
+
+		Request request = createMock(Request.class);
+		DataHandler handler = createMock(DataHandler.class);
+		expect(factories.get(shard).create(request)).andReturn(handler);
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setId("authId1");
+		authInfo.setClientId("clientId1");
+		authInfo.setUserId("userId1");
+		authInfo.setScope("scope1");
+		authInfo.setCode("code1");
+		authInfo.setRefreshToken("refreshToken1");
+		authInfo.setRedirectUri("redirectUri1");
+		expect(handler.createOrUpdateAuthInfo("clientId1", "userId1", "scope1"))
+				.andReturn(authInfo);
+		AccessToken accessToken = new AccessToken();
+		accessToken.setAuthId("authId1");
+		accessToken.setToken("accessToken1");
+		accessToken.setExpiresIn(3600);
+		accessToken.setCreatedOn(new Date(1000L));
+		Capture<AuthInfo> captured = new Capture<AuthInfo>();
+		expect(handler.createOrUpdateAccessToken(EasyMock.capture(captured)))
+				.andReturn(accessToken);
+		expect(handler.getAccessToken("accessToken1")).andReturn(accessToken);
+		expect(handler.getAuthInfoByCode("code1")).andReturn(authInfo);
+		expect(handler.getAuthInfoByRefreshToken("refreshToken1")).andReturn(authInfo);
+		expect(handler.getAuthInfoById("authId1")).andReturn(null);
+		expect(handler.revokeToken("clientId1", "refreshToken1", null))
+				.andReturn(Arrays.asList("accessToken1"));
+		replay(factories.toArray());
+		replay(request, handler);
+
+		DataHandler dataHandler = target.create(request);
+		AuthInfo sharded =
+				dataHandler.createOrUpdateAuthInfo("clientId1", "userId1", "scope1");
+		assertEquals(prefix + "authId1", sharded.getId());
+		assertEquals(prefix + "code1", sharded.getCode());
+		assertEquals(prefix + "refreshToken1", sharded.getRefreshToken());
+		assertEquals("clientId1", sharded.getClientId());
+		assertEquals("userId1", sharded.getUserId());
+		assertEquals("scope1", sharded.getScope());
+		assertEquals("redirectUri1", sharded.getRedirectUri());
+		assertEquals("authId1", authInfo.getId());
+
+		AccessToken issued = dataHandler.createOrUpdateAccessToken(sharded);
+		assertEquals(prefix + "accessToken1", issued.getToken());
+		assertEquals(prefix + "authId1", issued.getAuthId());
+		assertEquals(3600, issued.getExpiresIn());
+		assertEquals(1000L, issued.getCreatedOn().getTime());
+		assertEquals(3601000L, issued.getExpiresAt());
+		assertEquals("authId1", captured.getValue().getId());
+		assertEquals("code1", captured.getValue().getCode());
+		assertEquals("accessToken1", accessToken.getToken());
+
+		assertEquals(prefix + "accessToken1",
+				dataHandler.getAccessToken(prefix + "accessToken1").getToken());
+		assertEquals(prefix + "authId1",
+				dataHandler.getAuthInfoByCode(prefix + "code1").getId());
+		assertEquals(prefix + "authId1",
+				dataHandler.getAuthInfoByRefreshToken(prefix + "refreshToken1").getId());
+		assertNull(dataHandler.getAuthInfoById(prefix + "authId1"));
+		assertEquals(Arrays.asList(prefix + "accessToken1"),
+				dataHandler.revokeToken("clientId1", prefix + "refreshToken1", null));
+		verify(factories.toArray());
+		verify(request, handler);
+	}
+
+	@Test
+	public void testUnprefixedFallback() throws Exception {
+		List<DataHandlerFactory> factories = createFactories(3);
+		Request request = createMock(Request.class);
+		DataHandler handler1 = createMock(DataHandler.class);
+		expect(factories.get(1).create(request)).andReturn(handler1);
+		AccessToken accessToken = new AccessToken();
+		accessToken.setAuthId("authId1");
+		accessToken.setToken("legacy1");
+		expect(handler1.getAccessToken("legacy1")).andReturn(accessToken);
+		expect(handler1.getAccessToken("invalid1")).andReturn(null);
+		expect(handler1.revokeToken("clientId1", "refresh1", null))
+				.andReturn(Arrays.asList("legacy1"));
+		replay(factories.toArray());
+		replay(request, handler1);
+
+		ShardedDataHandlerFactory factory = new ShardedDataHandlerFactory(factories);
+		factory.setLegacyShard(1);
+		DataHandler target = factory.create(request);
+		AccessToken result = target.getAccessToken("legacy1");
+		assertEquals("1~legacy1", result.getToken());
+		assertEquals("1~authId1", result.getAuthId());
+		// An invalid token is looked up only on the legacy shard.
+		assertNull(target.getAccessToken("invalid1"));
+		assertEquals(Arrays.asList("1~legacy1", "legacy1"),
+				target.revokeToken("clientId1", "refresh1", null));
+		verify(factories.toArray());
+		verify(request, handler1);
+	}
+
+	@Test
+	public void testRevokePrefixedOnLegacyShard() throws Exception {
+		List<DataHandlerFactory> factories = createFactories(3);
+		Request request = createMock(Request.class);
+		DataHandler handler0 = createMock(DataHandler.class);
+		expect(factories.get(0).create(request)).andReturn(handler0);
+		expect(handler0.revokeToken("clientId1", "token1", null))
+				.andReturn(Arrays.asList("token1", "refresh1"));
+		replay(factories.toArray());
+		replay(request, handler0);
+
+		ShardedDataHandlerFactory factory = new ShardedDataHandlerFactory(factories);
+		InMemoryValidationCache cache = new InMemoryValidationCache();
+		long expiresAt = System.currentTimeMillis() + 60000L;
+		cache.put("token1", new ProtectedResource.Response(
+				"userId1", "clientId1", "scope1", expiresAt));
+		cache.put("0~token1", new ProtectedResource.Response(
+				"userId1", "clientId1", "scope1", expiresAt));
+		DataHandler target = factory.create(request);
+		List<String> revoked = target.revokeToken("clientId1", "0~token1", null);
+		assertEquals(Arrays.asList("0~token1", "0~refresh1", "token1", "refresh1"),
+				revoked);
+		for (String token : revoked) {
+			cache.invalidate(token);
+		}
+		// The bare form is accepted through the legacy shard, so it must not
+		// survive the revocation of the prefixed form.
+		assertNull(cache.get("token1"));
+		assertNull(cache.get("0~token1"));
+		verify(factories.toArray());
+		verify(request, handler0);
+	}
+
+	@Test
+	public void testNoLegacyShard() throws Exception {
+		List<DataHandlerFactory> factories = createFactories(3);
+		Request request = createMock(Request.class);
+		replay(factories.toArray());
+		replay(request);
+
+		ShardedDataHandlerFactory factory = new ShardedDataHandlerFactory(factories);
+		factory.setLegacyShard(-1);
+		DataHandler target = factory.create(request);
+		assertNull(target.getAccessToken("invalid1"));
+		assertNull(target.getAuthInfoById("invalid1"));
+		assertNull(target.getAuthInfoByCode("invalid1"));
+		assertNull(target.getAuthInfoByRefreshToken("invalid1"));
+		assertNull(target.revokeToken("clientId1", "invalid1", null));
+		verify(factories.toArray());
+		verify(request);
+	}
+
+	@Test
+	public void testRouteToDirectoryShard() throws Exception {
+		List<DataHandlerFactory> factories = createFactories(3);
+		Request request = createMock(Request.class);
+		DataHandler handler = createMock(DataHandler.class);
+		expect(factories.get(2).create(isA(Request.class))).andReturn(handler);
+		expect(handler.validateClient("clientId1", "secret1", "password")).andReturn(true);
+		expect(handler.getUserId("user1", "pass1")).andReturn("userId1");
+		expect(handler.getClientUserId("clientId1", "secret1")).andReturn("userId2");
+		expect(handler.validateClientById("clientId1")).andReturn(true);
+		expect(handler.validateUserById("userId1")).andReturn(false);
+		replay(factories.toArray());
+		replay(request, handler);
+
+		ShardedDataHandlerFactory factory = new ShardedDataHandlerFactory(factories);
+		factory.setDirectoryShard(2);
+		DataHandler target = factory.create(request);
+		assertTrue(target.validateClient("clientId1", "secret1", "password"));
+		assertEquals("userId1", target.getUserId("user1", "pass1"));
+		assertEquals("userId2", target.getClientUserId("clientId1", "secret1"));
+		assertTrue(target.validateClientById("clientId1"));
+		assertEquals(false, target.validateUserById("userId1"));
+		verify(factories.toArray());
+		verify(request, handler);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidDirectoryShard() throws Exception {
+		new ShardedDataHandlerFactory(createFactories(2)).setDirectoryShard(2);
+	}
+
+}
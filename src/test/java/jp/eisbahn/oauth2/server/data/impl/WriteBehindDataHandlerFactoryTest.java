@@ -0,0 +1,329 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.impl;
+
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.exceptions.TemporarilyUnavailableException;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+
+public class WriteBehindDataHandlerFactoryTest {
+
+	private File file;
+	private WriteBehindDataHandlerFactory target;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("oauth2-journal", ".log");
+	}
+
+	@After
+	public void tearDown() {
+		if (target != null) {
+			target.close();
+		}
+		file.delete();
+	}
+
+	private static AuthInfo createAuthInfo() {
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setId("authId1");
+		authInfo.setClientId("clientId1");
+		authInfo.setUserId("userId1");
+		authInfo.setScope("scope1");
+		return authInfo;
+	}
+
+	@Test
+	public void testIssueAndFlush() throws Exception {
+		Request request = createMock(Request.class);
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		DataHandler handler = createMock(DataHandler.class);
+		DataHandler storer = createMock(DataHandler.class);
+		expect(factory.create(request)).andReturn(handler);
+		expect(handler.getRequest()).andReturn(request);
+		expect(factory.create(null)).andReturn(storer);
+		storer.storeAccessToken(isA(AuthInfo.class), isA(AccessToken.class));
+		expect(handler.revokeToken("clientId1", "refresh1", null))
+				.andReturn(Arrays.asList("token1"));
+		replay(request, factory, handler, storer);
+
+		target = new WriteBehindDataHandlerFactory(factory, file);
+		target.setExpiresIn(600);
+		target.start();
+		DataHandler dataHandler = target.create(request);
+		AccessToken accessToken =
+				dataHandler.createOrUpdateAccessToken(createAuthInfo());
+		assertEquals("authId1", accessToken.getAuthId());
+		assertEquals(43, accessToken.getToken().length());
+		assertEquals(600, accessToken.getExpiresIn());
+		assertNotNull(accessToken.getCreatedOn());
+		assertEquals(Arrays.asList("token1"),
+				dataHandler.revokeToken("clientId1", "refresh1", null));
+		assertEquals(0, target.getPendingCount());
+		verify(request, factory, handler, storer);
+	}
+
+	@Test
+	public void testReadPending() throws Exception {
+		Request request = createMock(Request.class);
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		DataHandler handler = createMock(DataHandler.class);
+		DataHandler storer = createMock(DataHandler.class);
+		expect(factory.create(request)).andReturn(handler);
+		expect(handler.getRequest()).andReturn(request);
+		expect(handler.getAccessToken("unknown")).andReturn(null);
+		expect(factory.create(null)).andReturn(storer).anyTimes();
+		storer.storeAccessToken(isA(AuthInfo.class), isA(AccessToken.class));
+		expectLastCall().andThrow(new IllegalStateException("down")).anyTimes();
+		replay(request, factory, handler, storer);
+
+		target = new WriteBehindDataHandlerFactory(factory, file);
+		target.setRetryMillis(10);
+		target.start();
+		DataHandler dataHandler = target.create(request);
+		AccessToken accessToken =
+				dataHandler.createOrUpdateAccessToken(createAuthInfo());
+		assertSame(accessToken, dataHandler.getAccessToken(accessToken.getToken()));
+		assertNull(dataHandler.getAccessToken("unknown"));
+		assertEquals(1, target.getPendingCount());
+		verify(request, factory, handler);
+	}
+
+	@Test
+	public void testRevokeTimeout() throws Exception {
+		Request request = createMock(Request.class);
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		DataHandler handler = createMock(DataHandler.class);
+		DataHandler storer = createMock(DataHandler.class);
+		expect(factory.create(request)).andReturn(handler);
+		expect(handler.getRequest()).andReturn(request);
+		expect(factory.create(null)).andReturn(storer).anyTimes();
+		storer.storeAccessToken(isA(AuthInfo.class), isA(AccessToken.class));
+		expectLastCall().andThrow(new IllegalStateException("down")).anyTimes();
+		replay(request, factory, handler, storer);
+
+		target = new WriteBehindDataHandlerFactory(factory, file);
+		target.setRetryMillis(10);
+		target.setFlushTimeoutMillis(50);
+		target.start();
+		DataHandler dataHandler = target.create(request);
+		dataHandler.createOrUpdateAccessToken(createAuthInfo());
+		try {
+			dataHandler.revokeToken("clientId1", "refresh1", null);
+			fail("TemporarilyUnavailableException not thrown");
+		} catch (TemporarilyUnavailableException expected) {
+		}
+		assertEquals(1, target.getPendingCount());
+		verify(request, factory, handler);
+	}
+
+	@Test
+	public void testReplay() throws Exception {
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		DataHandler storer = createMock(DataHandler.class);
+		expect(factory.create(null)).andReturn(storer).anyTimes();
+		storer.storeAccessToken(isA(AuthInfo.class), isA(AccessToken.class));
+		expectLastCall().andThrow(new IllegalStateException("down")).anyTimes();
+		replay(factory, storer);
+
+		target = new WriteBehindDataHandlerFactory(factory, file);
+		target.setRetryMillis(10);
+		target.start();
+		AuthInfo authInfo = createAuthInfo();
+		authInfo.setRefreshToken("refresh1");
+		AccessToken issued = target.issue(authInfo);
+		target.close();
+		target = null;
+		// A torn record at the end of the journal is discarded.
+		FileOutputStream out = new FileOutputStream(file, true);
+		out.write(new byte[] {0, 0, 0, 100, 1, 2, 3});
+		out.close();
+
+		factory = createMock(DataHandlerFactory.class);
+		storer = createMock(DataHandler.class);
+		expect(factory.create(null)).andReturn(storer);
+		Capture<AuthInfo> authInfoCapture = new Capture<AuthInfo>();
+		Capture<AccessToken> accessTokenCapture = new Capture<AccessToken>();
+		storer.storeAccessToken(capture(authInfoCapture), capture(accessTokenCapture));
+		final CountDownLatch latch = new CountDownLatch(1);
+		expectLastCall().andAnswer(new IAnswer<Object>() {
+			@Override
+			public Object answer() throws Throwable {
+				latch.await();
+				return null;
+			}
+		});
+		replay(factory, storer);
+		target = new WriteBehindDataHandlerFactory(factory, file);
+		target.start();
+		assertEquals(issued.getToken(),
+				target.getPending(issued.getToken()).getToken());
+		latch.countDown();
+		target.awaitFlushed();
+		assertEquals(0, target.getPendingCount());
+		verify(factory, storer);
+		assertEquals("refresh1", authInfoCapture.getValue().getRefreshToken());
+		assertEquals(issued.getToken(), accessTokenCapture.getValue().getToken());
+		assertEquals(issued.getExpiresAt(), accessTokenCapture.getValue().getExpiresAt());
+	}
+
+	@Test
+	public void testConcurrentIssueAndReplay() throws Exception {
+		final Set<String> stored = Collections.newSetFromMap(
+				new ConcurrentHashMap<String, Boolean>());
+		final AtomicInteger accepted = new AtomicInteger(200);
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		DataHandler storer = createMock(DataHandler.class);
+		expect(factory.create(null)).andReturn(storer).anyTimes();
+		storer.storeAccessToken(isA(AuthInfo.class), isA(AccessToken.class));
+		expectLastCall().andAnswer(new IAnswer<Object>() {
+			@Override
+			public Object answer() throws Throwable {
+				if (accepted.getAndDecrement() <= 0) {
+					throw new IllegalStateException("down");
+				}
+				AccessToken accessToken =
+						(AccessToken)EasyMock.getCurrentArguments()[1];
+				stored.add(accessToken.getToken());
+				return null;
+			}
+		}).anyTimes();
+		replay(factory, storer);
+
+		target = new WriteBehindDataHandlerFactory(factory, file);
+		target.setRetryMillis(10);
+		target.start();
+		final List<String> issued =
+				Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch ready = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						ready.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int j = 0; j < 50; j++) {
+						issued.add(target.issue(createAuthInfo()).getToken());
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		ready.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		while (stored.size() < 200) {
+			Thread.sleep(10);
+		}
+		target.close();
+		target = null;
+
+		accepted.set(Integer.MAX_VALUE);
+		target = new WriteBehindDataHandlerFactory(factory, file);
+		target.start();
+		target.awaitFlushed();
+		assertEquals(0, target.getPendingCount());
+		assertEquals(400, issued.size());
+		for (String token : issued) {
+			assertTrue(token, stored.contains(token));
+		}
+	}
+
+	@Test
+	public void testJournal() throws Exception {
+		AccessTokenJournal journal = new AccessTokenJournal(file);
+		assertEquals(0, journal.open().size());
+		AuthInfo authInfo = createAuthInfo();
+		authInfo.setRedirectUri("http://example.com/");
+		AccessToken accessToken = new AccessToken();
+		accessToken.setAuthId("authId1");
+		accessToken.setToken("token1");
+		accessToken.setExpiresIn(3600);
+		accessToken.setCreatedOn(new Date(1000L));
+		assertEquals(1, journal.append(authInfo, accessToken));
+		assertEquals(2, journal.append(authInfo, accessToken));
+		journal.markFlushed(1);
+		journal.close();
+
+		journal = new AccessTokenJournal(file);
+		List<AccessTokenJournal.Record> records = journal.open();
+		assertEquals(1, records.size());
+		AccessTokenJournal.Record record = records.get(0);
+		assertEquals(2, record.sequence);
+		assertEquals("authId1", record.authInfo.getId());
+		assertEquals("clientId1", record.authInfo.getClientId());
+		assertEquals("userId1", record.authInfo.getUserId());
+		assertEquals("scope1", record.authInfo.getScope());
+		assertNull(record.authInfo.getCode());
+		assertEquals("http://example.com/", record.authInfo.getRedirectUri());
+		assertEquals("token1", record.accessToken.getToken());
+		assertEquals(3600, record.accessToken.getExpiresIn());
+		assertEquals(1000L, record.accessToken.getCreatedOn().getTime());
+		assertEquals(3601000L, record.accessToken.getExpiresAt());
+
+		journal.setCompactionSize(0);
+		journal.markFlushed(2);
+		assertEquals(0, file.length());
+		assertEquals(3, journal.append(authInfo, accessToken));
+		journal.close();
+	}
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.endpoint;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.cache.impl.InMemoryIntrospectionCache;
+import jp.eisbahn.oauth2.server.clock.Clock;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.endpoint.Introspection.Response;
+import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcher;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.ClientCredential;
+import jp.eisbahn.oauth2.server.models.Request;
+
+public class IntrospectionTest {
+
+	@Test
+	public void testActiveAndCached() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("token")).andReturn("accessToken1").times(2);
+		ClientCredentialFetcher fetcher = createMock(ClientCredentialFetcher.class);
+		expect(fetcher.fetch(request)).andReturn(
+				new ClientCredential("resourceServer1", "secret1")).times(2);
+		AccessToken accessToken = new AccessToken();
+		accessToken.setAuthId("authId1");
+		accessToken.setCreatedOn(new Date(System.currentTimeMillis()));
+		accessToken.setExpiresIn(3600);
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setClientId("clientId1");
+		authInfo.setUserId("userId1");
+		authInfo.setScope("scope1 scope2");
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.validateClient("resourceServer1", "secret1", "introspection"))
+			.andReturn(true);
+		expect(dataHandler.getAccessToken("accessToken1")).andReturn(accessToken);
+		expect(dataHandler.getAuthInfoById("authId1")).andReturn(authInfo);
+		expect(dataHandler.validateClientById("clientId1")).andReturn(true);
+		expect(dataHandler.validateUserById("userId1")).andReturn(true);
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		expect(factory.create(request)).andReturn(dataHandler).times(2);
+		replay(request, fetcher, dataHandler, factory);
+
+		InMemoryIntrospectionCache cache = new InMemoryIntrospectionCache();
+		Introspection target = createTarget(fetcher, factory);
+		target.setCache(cache);
+		Response response = target.handleRequest(request);
+		long exp = (accessToken.getCreatedOn().getTime() + 3600 * 1000) / 1000;
+		assertEquals(200, response.getCode());
+		assertEquals("{\"active\":true,\"scope\":\"scope1 scope2\",\"client_id\":\"clientId1\","
+				+ "\"sub\":\"userId1\",\"token_type\":\"Bearer\",\"exp\":" + exp + "}",
+				response.getBody());
+		assertEquals(1, cache.size());
+
+		response.getBodyBytes()[0] = 'X';
+		Response cached = target.handleRequest(request);
+		assertEquals(200, cached.getCode());
+		assertEquals(response.getBody(), cached.getBody());
+		assertEquals(response.getBodyBytes().length, cached.getBodyLength());
+
+		verify(request, fetcher, dataHandler, factory);
+	}
+
+	@Test
+	public void testInactive() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("token")).andReturn("accessToken1");
+		ClientCredentialFetcher fetcher = createMock(ClientCredentialFetcher.class);
+		expect(fetcher.fetch(request)).andReturn(new ClientCredential("resourceServer1", "secret1"));
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.validateClient("resourceServer1", "secret1", "introspection"))
+			.andReturn(true);
+		expect(dataHandler.getAccessToken("accessToken1")).andReturn(null);
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		expect(factory.create(request)).andReturn(dataHandler).times(2);
+		replay(request, fetcher, dataHandler, factory);
+
+		InMemoryIntrospectionCache cache = new InMemoryIntrospectionCache();
+		Introspection target = createTarget(fetcher, factory);
+		target.setCache(cache);
+		Response response = target.handleRequest(request);
+		assertEquals(200, response.getCode());
+		assertEquals("{\"active\":false}", response.getBody());
+		assertEquals(0, cache.size());
+
+		verify(request, fetcher, dataHandler, factory);
+	}
+
+	@Test
+	public void testInvalidClient() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("token")).andReturn("accessToken1");
+		ClientCredentialFetcher fetcher = createMock(ClientCredentialFetcher.class);
+		expect(fetcher.fetch(request)).andReturn(new ClientCredential("resourceServer1", "secret1"));
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.validateClient("resourceServer1", "secret1", "introspection"))
+			.andReturn(false);
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		expect(factory.create(request)).andReturn(dataHandler);
+		replay(request, fetcher, dataHandler, factory);
+
+		Introspection target = createTarget(fetcher, factory);
+		Response response = target.handleRequest(request);
+		assertEquals(401, response.getCode());
+		assertEquals("{\"error\":\"invalid_client\"}", response.getBody());
+
+		verify(request, fetcher, dataHandler, factory);
+	}
+
+	@Test
+	public void testTokenNotFound() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("token")).andReturn(null);
+		ClientCredentialFetcher fetcher = createMock(ClientCredentialFetcher.class);
+		expect(fetcher.fetch(request)).andReturn(new ClientCredential("resourceServer1", "secret1"));
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		replay(request, fetcher, factory);
+
+		Introspection target = createTarget(fetcher, factory);
+		Response response = target.handleRequest(request);
+		assertEquals(400, response.getCode());
+		assertEquals("{\"error\":\"invalid_request\",\"error_description\":\"'token' not found\"}",
+				response.getBody());
+
+		verify(request, fetcher, factory);
+	}
+
+	@Test
+	public void testAuthenticatedClientRemembered() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("token")).andReturn("accessToken1").times(4);
+		ClientCredentialFetcher fetcher = createMock(ClientCredentialFetcher.class);
+		expect(fetcher.fetch(request)).andReturn(
+				new ClientCredential("resourceServer1", "secret1")).times(2);
+		expect(fetcher.fetch(request)).andReturn(
+				new ClientCredential("resourceServer1", "secret2"));
+		expect(fetcher.fetch(request)).andReturn(
+				new ClientCredential("resourceServer1", "secret1"));
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.validateClient("resourceServer1", "secret1", "introspection"))
+			.andReturn(true).times(2);
+		expect(dataHandler.validateClient("resourceServer1", "secret2", "introspection"))
+			.andReturn(false);
+		expect(dataHandler.getAccessToken("accessToken1")).andReturn(null).times(3);
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		expect(factory.create(request)).andReturn(dataHandler).times(6);
+		replay(request, fetcher, dataHandler, factory);
+
+		MutableClock clock = new MutableClock();
+		Introspection target = createTarget(fetcher, factory);
+		target.setClock(clock);
+		assertEquals(200, target.handleRequest(request).getCode());
+		// The remembered credential is used.
+		assertEquals(200, target.handleRequest(request).getCode());
+		// Another secret is validated again.
+		assertEquals(401, target.handleRequest(request).getCode());
+		clock.now += 60000;
+		// Expired.
+		assertEquals(200, target.handleRequest(request).getCode());
+
+		verify(request, fetcher, dataHandler, factory);
+	}
+
+	private Introspection createTarget(ClientCredentialFetcher fetcher,
+			DataHandlerFactory factory) {
+		ProtectedResource protectedResource = new ProtectedResource();
+		protectedResource.setDataHandlerFactory(factory);
+		Introspection target = new Introspection();
+		target.setClientCredentialFetcher(fetcher);
+		target.setDataHandlerFactory(factory);
+		target.setProtectedResource(protectedResource);
+		return target;
+	}
+
+	private static class MutableClock implements Clock {
+
+		private long now = 1000000L;
+
+		@Override
+		public long currentTimeMillis() {
+			return now;
+		}
+
+	}
+
+}
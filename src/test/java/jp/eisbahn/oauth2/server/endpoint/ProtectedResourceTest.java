@@ -22,8 +22,10 @@ import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 import java.util.Calendar;
@@ -31,6 +33,8 @@ import java.util.Date;
 
 import org.junit.Test;
 
+import jp.eisbahn.oauth2.server.cache.impl.InMemoryValidationCache;
+import jp.eisbahn.oauth2.server.clock.Clock;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
 import jp.eisbahn.oauth2.server.endpoint.ProtectedResource.Response;
@@ -38,9 +42,11 @@ import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcher;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcherProvider;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.AuthHeader;
+import jp.eisbahn.oauth2.server.instrumentation.RecordingInstrumentation;
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.scope.ScopeRegistry;
 
 public class ProtectedResourceTest {
 
@@ -121,6 +127,36 @@ public class ProtectedResourceTest {
 		verify(request);
 	}
 
+	@Test
+	public void testHandleRequestAccessTokenExpiredByClock() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(2);
+		AccessToken accessToken = new AccessToken();
+		accessToken.setExpiresAt(1000L);
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.getAccessToken("accessToken1")).andReturn(accessToken);
+		DataHandlerFactory dataHandlerFactory = createMock(DataHandlerFactory.class);
+		expect(dataHandlerFactory.create(request)).andReturn(dataHandler);
+		Clock clock = createMock(Clock.class);
+		expect(clock.currentTimeMillis()).andReturn(1000L);
+		replay(request, dataHandler, dataHandlerFactory, clock);
+		ProtectedResource target = new ProtectedResource();
+		AccessTokenFetcherProvider accessTokenFetcherProvider = new AccessTokenFetcherProvider();
+		accessTokenFetcherProvider.setAccessTokenFetchers(new AccessTokenFetcher[]{
+				new AuthHeader()
+		});
+		target.setAccessTokenFetcherProvider(accessTokenFetcherProvider);
+		target.setDataHandlerFactory(dataHandlerFactory);
+		target.setClock(clock);
+		try {
+			target.handleRequest(request);
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertTrue(e instanceof OAuthError.ExpiredToken);
+		}
+		verify(request, clock);
+	}
+
 	@Test
 	public void testHandleRequestAuthInfoNotFound() throws Exception {
 		Request request = createMock(Request.class);
@@ -250,7 +286,213 @@ public class ProtectedResourceTest {
 		assertEquals("userId1", response.getRemoteUser());
 		assertEquals("clientId1", response.getClientId());
 		assertEquals("scope1", response.getScope());
+		assertEquals(0L, response.getScopeMask());
 		verify(request);
 	}
 
+	@Test
+	public void testHandleRequestScopeMask() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(2);
+		AccessToken accessToken = new AccessToken();
+		accessToken.setCreatedOn(createDate(0));
+		accessToken.setExpiresIn(3600);
+		accessToken.setAuthId("authId1");
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.getAccessToken("accessToken1")).andReturn(accessToken);
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setClientId("clientId1");
+		authInfo.setUserId("userId1");
+		authInfo.setScope("write unknown read");
+		expect(dataHandler.getAuthInfoById("authId1")).andReturn(authInfo);
+		expect(dataHandler.validateClientById("clientId1")).andReturn(true);
+		expect(dataHandler.validateUserById("userId1")).andReturn(true);
+		DataHandlerFactory dataHandlerFactory = createMock(DataHandlerFactory.class);
+		expect(dataHandlerFactory.create(request)).andReturn(dataHandler);
+		replay(request, dataHandler, dataHandlerFactory);
+		ProtectedResource target = new ProtectedResource();
+		AccessTokenFetcherProvider accessTokenFetcherProvider = new AccessTokenFetcherProvider();
+		accessTokenFetcherProvider.setAccessTokenFetchers(new AccessTokenFetcher[]{
+				new AuthHeader()
+		});
+		target.setAccessTokenFetcherProvider(accessTokenFetcherProvider);
+		target.setDataHandlerFactory(dataHandlerFactory);
+		ScopeRegistry registry = new ScopeRegistry();
+		registry.setScopes("read write admin");
+		target.setScopeRegistry(registry);
+		Response response = target.handleRequest(request);
+		assertEquals("write unknown read", response.getScope());
+		assertEquals(3L, response.getScopeMask());
+		assertTrue(response.hasScopes(registry.compile("read write")));
+		assertFalse(response.hasScopes(registry.compile("read admin")));
+		verify(request);
+	}
+
+	@Test
+	public void testHandleRequestInstrumented() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(2);
+		AccessToken accessToken = new AccessToken();
+		accessToken.setCreatedOn(createDate(0));
+		accessToken.setExpiresIn(3600);
+		accessToken.setAuthId("authId1");
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.getRequest()).andReturn(request);
+		expect(dataHandler.getAccessToken("accessToken1")).andReturn(accessToken);
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setClientId("clientId1");
+		authInfo.setUserId("userId1");
+		expect(dataHandler.getAuthInfoById("authId1")).andReturn(authInfo);
+		expect(dataHandler.validateClientById("clientId1")).andReturn(true);
+		expect(dataHandler.validateUserById("userId1")).andReturn(false);
+		DataHandlerFactory dataHandlerFactory = createMock(DataHandlerFactory.class);
+		expect(dataHandlerFactory.create(request)).andReturn(dataHandler);
+		replay(request, dataHandler, dataHandlerFactory);
+		ProtectedResource target = new ProtectedResource();
+		AccessTokenFetcherProvider accessTokenFetcherProvider = new AccessTokenFetcherProvider();
+		accessTokenFetcherProvider.setAccessTokenFetchers(new AccessTokenFetcher[]{
+				new AuthHeader()
+		});
+		target.setAccessTokenFetcherProvider(accessTokenFetcherProvider);
+		target.setDataHandlerFactory(dataHandlerFactory);
+		RecordingInstrumentation instrumentation = new RecordingInstrumentation();
+		target.setInstrumentation(instrumentation);
+		try {
+			target.handleRequest(request);
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertTrue(e instanceof OAuthError.InvalidToken);
+		}
+		assertEquals(5, instrumentation.getRecords().size());
+		assertEquals("dataHandler:getAccessToken:null:null:success",
+			instrumentation.getRecords().get(0));
+		assertEquals("protectedResource:null:InvalidToken",
+			instrumentation.getRecords().get(4));
+		verify(request, dataHandler, dataHandlerFactory);
+	}
+
+	@Test
+	public void testHandleRequestCached() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(4);
+		AccessToken accessToken = new AccessToken();
+		accessToken.setCreatedOn(createDate(0));
+		accessToken.setExpiresIn(3600);
+		accessToken.setAuthId("authId1");
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.getAccessToken("accessToken1")).andReturn(accessToken);
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setClientId("clientId1");
+		authInfo.setUserId("userId1");
+		authInfo.setScope("scope1");
+		expect(dataHandler.getAuthInfoById("authId1")).andReturn(authInfo);
+		expect(dataHandler.validateClientById("clientId1")).andReturn(true);
+		expect(dataHandler.validateUserById("userId1")).andReturn(true);
+		DataHandlerFactory dataHandlerFactory = createMock(DataHandlerFactory.class);
+		expect(dataHandlerFactory.create(request)).andReturn(dataHandler);
+		replay(request, dataHandler, dataHandlerFactory);
+		ProtectedResource target = new ProtectedResource();
+		AccessTokenFetcherProvider accessTokenFetcherProvider = new AccessTokenFetcherProvider();
+		accessTokenFetcherProvider.setAccessTokenFetchers(new AccessTokenFetcher[]{
+				new AuthHeader()
+		});
+		target.setAccessTokenFetcherProvider(accessTokenFetcherProvider);
+		target.setDataHandlerFactory(dataHandlerFactory);
+		InMemoryValidationCache validationCache = new InMemoryValidationCache();
+		target.setValidationCache(validationCache);
+		Response response = target.handleRequest(request);
+		assertEquals(accessToken.getCreatedOn().getTime() + 3600 * 1000,
+				response.getExpiresAt());
+		Response cached = target.handleRequest(request);
+		assertEquals("userId1", cached.getRemoteUser());
+		assertEquals("clientId1", cached.getClientId());
+		assertEquals("scope1", cached.getScope());
+		verify(request, dataHandler, dataHandlerFactory);
+	}
+
+	@Test
+	public void testHandleRequestCachedWithoutScopeMask() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(2);
+		DataHandlerFactory dataHandlerFactory = createMock(DataHandlerFactory.class);
+		replay(request, dataHandlerFactory);
+		ProtectedResource target = new ProtectedResource();
+		AccessTokenFetcherProvider accessTokenFetcherProvider = new AccessTokenFetcherProvider();
+		accessTokenFetcherProvider.setAccessTokenFetchers(new AccessTokenFetcher[]{
+				new AuthHeader()
+		});
+		target.setAccessTokenFetcherProvider(accessTokenFetcherProvider);
+		target.setDataHandlerFactory(dataHandlerFactory);
+		ScopeRegistry scopeRegistry = new ScopeRegistry();
+		scopeRegistry.setScopes("read write");
+		target.setScopeRegistry(scopeRegistry);
+		InMemoryValidationCache validationCache = new InMemoryValidationCache();
+		target.setValidationCache(validationCache);
+		long expiresAt = System.currentTimeMillis() + 60000;
+		validationCache.put("accessToken1",
+				new Response("userId1", "clientId1", "write", expiresAt));
+		Response response = target.handleRequest(request);
+		assertEquals(2L, response.getScopeMask());
+		assertEquals(expiresAt, response.getExpiresAt());
+		assertEquals(2L, validationCache.get("accessToken1").getScopeMask());
+		verify(request, dataHandlerFactory);
+	}
+
+	@Test
+	public void testHandleRequestCachedWithZeroScopeMask() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(6);
+		DataHandlerFactory dataHandlerFactory = createMock(DataHandlerFactory.class);
+		replay(request, dataHandlerFactory);
+		ProtectedResource target = new ProtectedResource();
+		AccessTokenFetcherProvider accessTokenFetcherProvider = new AccessTokenFetcherProvider();
+		accessTokenFetcherProvider.setAccessTokenFetchers(new AccessTokenFetcher[]{
+				new AuthHeader()
+		});
+		target.setAccessTokenFetcherProvider(accessTokenFetcherProvider);
+		target.setDataHandlerFactory(dataHandlerFactory);
+		ScopeRegistry scopeRegistry = new ScopeRegistry();
+		scopeRegistry.setScopes("read write");
+		target.setScopeRegistry(scopeRegistry);
+		InMemoryValidationCache validationCache = new InMemoryValidationCache();
+		target.setValidationCache(validationCache);
+		long expiresAt = System.currentTimeMillis() + 60000;
+		validationCache.put("accessToken1",
+				new Response("userId1", "clientId1", "unknown", expiresAt));
+		Response response = target.handleRequest(request);
+		assertEquals(0L, response.getScopeMask());
+		assertTrue(response.isScopeMaskCompiled());
+		assertSame(response, target.handleRequest(request));
+		assertSame(response, target.handleRequest(request));
+		verify(request, dataHandlerFactory);
+	}
+
+	@Test
+	public void testHandleRequestNegativeCached() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(4);
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.getAccessToken("accessToken1")).andReturn(null);
+		DataHandlerFactory dataHandlerFactory = createMock(DataHandlerFactory.class);
+		expect(dataHandlerFactory.create(request)).andReturn(dataHandler);
+		replay(request, dataHandler, dataHandlerFactory);
+		ProtectedResource target = new ProtectedResource();
+		AccessTokenFetcherProvider accessTokenFetcherProvider = new AccessTokenFetcherProvider();
+		accessTokenFetcherProvider.setAccessTokenFetchers(new AccessTokenFetcher[]{
+				new AuthHeader()
+		});
+		target.setAccessTokenFetcherProvider(accessTokenFetcherProvider);
+		target.setDataHandlerFactory(dataHandlerFactory);
+		target.setValidationCache(new InMemoryValidationCache());
+		for (int i = 0; i < 2; i++) {
+			try {
+				target.handleRequest(request);
+				fail("OAuthError not occurred.");
+			} catch (OAuthError e) {
+				assertTrue(e instanceof OAuthError.InvalidToken);
+			}
+		}
+		verify(request, dataHandler, dataHandlerFactory);
+	}
+
 }
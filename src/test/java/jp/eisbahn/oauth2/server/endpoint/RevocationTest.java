@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.endpoint;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.cache.TokenCacheRegistry;
+import jp.eisbahn.oauth2.server.cache.impl.InMemoryIntrospectionCache;
+import jp.eisbahn.oauth2.server.cache.impl.InMemoryValidationCache;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.endpoint.Revocation.Response;
+import jp.eisbahn.oauth2.server.exceptions.TemporarilyUnavailableException;
+import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcher;
+import jp.eisbahn.oauth2.server.models.ClientCredential;
+import jp.eisbahn.oauth2.server.models.Request;
+
+public class RevocationTest {
+
+	@Test
+	public void testRevokeRefreshToken() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("token")).andReturn("refreshToken1");
+		expect(request.getParameter("token_type_hint")).andReturn("refresh_token");
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.validateClient("clientId1", "secret1", "revocation")).andReturn(true);
+		expect(dataHandler.revokeToken("clientId1", "refreshToken1", "refresh_token"))
+			.andReturn(Arrays.asList("accessToken1", "accessToken2"));
+		replay(request, dataHandler);
+
+		long expiresAt = System.currentTimeMillis() + 60000;
+		InMemoryIntrospectionCache introspectionCache = new InMemoryIntrospectionCache();
+		introspectionCache.put("accessToken1", new byte[0], expiresAt);
+		introspectionCache.put("accessToken3", new byte[0], expiresAt);
+		InMemoryValidationCache validationCache = new InMemoryValidationCache();
+		validationCache.put("accessToken2", new ProtectedResource.Response(
+				"userId1", "clientId1", "scope1", expiresAt));
+		TokenCacheRegistry registry = new TokenCacheRegistry();
+		registry.register(introspectionCache);
+		registry.register(validationCache);
+
+		Revocation target = createTarget(request, dataHandler);
+		target.setCacheRegistry(registry);
+		Response response = target.handleRequest(request);
+		assertEquals(200, response.getCode());
+		assertEquals("", response.getBody());
+		assertNull(introspectionCache.get("accessToken1"));
+		assertNotNull(introspectionCache.get("accessToken3"));
+		assertNull(validationCache.get("accessToken2"));
+
+		// A result computed before the revocation is not stored after it.
+		validationCache.put("accessToken2", new ProtectedResource.Response(
+				"userId1", "clientId1", "scope1", expiresAt));
+		assertNull(validationCache.get("accessToken2"));
+
+		verify(request, dataHandler);
+	}
+
+	@Test
+	public void testRevokeUnknownTokens() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("token")).andReturn("refreshToken1");
+		expect(request.getParameter("token_type_hint")).andReturn(null);
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.validateClient("clientId1", "secret1", "revocation")).andReturn(true);
+		expect(dataHandler.revokeToken("clientId1", "refreshToken1", null)).andReturn(null);
+		replay(request, dataHandler);
+
+		InMemoryIntrospectionCache introspectionCache = new InMemoryIntrospectionCache();
+		introspectionCache.put("accessToken3", new byte[0], System.currentTimeMillis() + 60000);
+		Revocation target = createTarget(request, dataHandler);
+		target.getCacheRegistry().register(introspectionCache);
+		Response response = target.handleRequest(request);
+		assertEquals(200, response.getCode());
+		assertEquals(0, introspectionCache.size());
+
+		verify(request, dataHandler);
+	}
+
+	@Test
+	public void testUnsupported() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("token")).andReturn("accessToken1");
+		expect(request.getParameter("token_type_hint")).andReturn(null);
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.validateClient("clientId1", "secret1", "revocation")).andReturn(true);
+		expect(dataHandler.revokeToken("clientId1", "accessToken1", null))
+			.andThrow(new UnsupportedOperationException("Revocation is not supported."));
+		replay(request, dataHandler);
+
+		Revocation target = createTarget(request, dataHandler);
+		Response response = target.handleRequest(request);
+		assertEquals(400, response.getCode());
+		assertEquals("{\"error\":\"unsupported_token_type\",\"error_description\":\"Revocation is not supported.\"}",
+				response.getBody());
+
+		verify(request, dataHandler);
+	}
+
+	@Test
+	public void testTemporarilyUnavailable() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("token")).andReturn("accessToken1");
+		expect(request.getParameter("token_type_hint")).andReturn(null);
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.validateClient("clientId1", "secret1", "revocation")).andReturn(true);
+		expect(dataHandler.revokeToken("clientId1", "accessToken1", null))
+			.andThrow(new TemporarilyUnavailableException("Try again later."));
+		replay(request, dataHandler);
+
+		Revocation target = createTarget(request, dataHandler);
+		Response response = target.handleRequest(request);
+		assertEquals(503, response.getCode());
+		assertEquals("{\"error\":\"temporarily_unavailable\",\"error_description\":\"Try again later.\"}",
+				response.getBody());
+
+		verify(request, dataHandler);
+	}
+
+	@Test
+	public void testInvalidClient() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("token")).andReturn("accessToken1");
+		expect(request.getParameter("token_type_hint")).andReturn(null);
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.validateClient("clientId1", "secret1", "revocation")).andReturn(false);
+		replay(request, dataHandler);
+
+		Revocation target = createTarget(request, dataHandler);
+		Response response = target.handleRequest(request);
+		assertEquals(401, response.getCode());
+		assertEquals("{\"error\":\"invalid_client\"}", response.getBody());
+
+		verify(request, dataHandler);
+	}
+
+	private Revocation createTarget(Request request, DataHandler dataHandler) {
+		ClientCredentialFetcher fetcher = createMock(ClientCredentialFetcher.class);
+		expect(fetcher.fetch(request)).andReturn(new ClientCredential("clientId1", "secret1"));
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		expect(factory.create(request)).andReturn(dataHandler);
+		replay(fetcher, factory);
+		Revocation target = new Revocation();
+		target.setClientCredentialFetcher(fetcher);
+		target.setDataHandlerFactory(factory);
+		return target;
+	}
+
+}
@@ -23,9 +23,17 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.util.Date;
 import java.util.HashMap;
 
+import jp.eisbahn.oauth2.server.cache.TokenCache;
+import jp.eisbahn.oauth2.server.cache.TokenCacheRegistry;
+import jp.eisbahn.oauth2.server.cache.impl.InMemoryValidationCache;
+import jp.eisbahn.oauth2.server.clock.Clock;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
 import jp.eisbahn.oauth2.server.endpoint.Token;
@@ -34,9 +42,13 @@ import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcher
 import jp.eisbahn.oauth2.server.granttype.GrantHandler;
 import jp.eisbahn.oauth2.server.granttype.GrantHandlerProvider;
 import jp.eisbahn.oauth2.server.granttype.impl.RefreshToken;
+import jp.eisbahn.oauth2.server.instrumentation.RecordingInstrumentation;
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.ratelimit.FailureTracker;
+import jp.eisbahn.oauth2.server.ratelimit.RateLimiter;
+import jp.eisbahn.oauth2.server.ratelimit.impl.StripedFailureTracker;
 
 import org.junit.Test;
 
@@ -80,7 +92,6 @@ public class TokenTest {
 		expect(request.getParameter("client_id")).andReturn(null);
 		expect(request.getParameter("client_secret")).andReturn(null);
 		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
-		expect(factory.create(request)).andReturn(null);
 		replay(request, factory);
 		Token target = createToken(factory);
 		Response response = target.handleRequest(request);
@@ -92,6 +103,97 @@ public class TokenTest {
 		verify(request, factory);
 	}
 
+	@Test
+	public void testHandleRequestRateLimited() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("grant_type")).andReturn("refresh_token");
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		DataHandler dataHandler = createMock(DataHandler.class);
+		RateLimiter rateLimiter = createMock(RateLimiter.class);
+		expect(rateLimiter.tryAcquire("clientId1")).andReturn(false);
+		replay(request, factory, dataHandler, rateLimiter);
+		Token target = createToken(factory);
+		target.setRateLimiter(rateLimiter);
+		Response response = target.handleRequest(request);
+		assertEquals(429, response.getCode());
+		assertEquals(
+			"{\"error\":\"temporarily_unavailable\","
+				+ "\"error_description\":\"Too many requests\"}",
+			response.getBody());
+		verify(request, factory, dataHandler, rateLimiter);
+	}
+
+	@Test
+	public void testHandleRequestClientBlocked() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("grant_type")).andReturn("refresh_token");
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(factory.create(request)).andReturn(dataHandler);
+		FailureTracker failureTracker = createMock(FailureTracker.class);
+		expect(failureTracker.isBlocked("client:clientId1")).andReturn(true);
+		replay(request, factory, dataHandler, failureTracker);
+		Token target = createToken(factory);
+		target.setFailureTracker(failureTracker);
+		Response response = target.handleRequest(request);
+		assertEquals(429, response.getCode());
+		verify(request, factory, dataHandler, failureTracker);
+	}
+
+	@Test
+	public void testHandleRequestClientFailureRecorded() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("grant_type")).andReturn("refresh_token");
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.validateClient(
+			"clientId1", "clientSecret1", "refresh_token")).andReturn(false);
+		expect(factory.create(request)).andReturn(dataHandler);
+		FailureTracker failureTracker = createMock(FailureTracker.class);
+		expect(failureTracker.isBlocked("client:clientId1")).andReturn(false);
+		failureTracker.recordFailure("client:clientId1");
+		replay(request, factory, dataHandler, failureTracker);
+		Token target = createToken(factory);
+		target.setFailureTracker(failureTracker);
+		Response response = target.handleRequest(request);
+		assertEquals(401, response.getCode());
+		verify(request, factory, dataHandler, failureTracker);
+	}
+
+	@Test
+	public void testHandleRequestClientNotBlockedByUsername() throws Exception {
+		StripedFailureTracker failureTracker = new StripedFailureTracker();
+		failureTracker.setThreshold(1);
+		// The Password grant handler failed for the username "clientId1".
+		failureTracker.recordFailure(FailureTracker.USER_PREFIX + "clientId1");
+		Request request = createMock(Request.class);
+		expect(request.getParameter("grant_type")).andReturn("refresh_token");
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.validateClient(
+			"clientId1", "clientSecret1", "refresh_token")).andReturn(false);
+		expect(factory.create(request)).andReturn(dataHandler);
+		replay(request, factory, dataHandler);
+		Token target = createToken(factory);
+		target.setFailureTracker(failureTracker);
+		Response response = target.handleRequest(request);
+		assertEquals(401, response.getCode());
+		assertTrue(failureTracker.isBlocked(FailureTracker.CLIENT_PREFIX + "clientId1"));
+		verify(request, factory, dataHandler);
+	}
+
 	@Test
 	public void testHandleRequestClientSecretNotFound() throws Exception {
 		Request request = createMock(Request.class);
@@ -164,6 +266,192 @@ public class TokenTest {
 		verify(request, factory, dataHandler);
 	}
 
+	@Test
+	public void testHandleRequestInvalidatesCache() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("grant_type")).andReturn("refresh_token");
+		expect(request.getHeader("Authorization")).andReturn(null).times(2);
+		expect(request.getParameter("client_id")).andReturn("clientId1").times(2);
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1").times(2);
+		expect(request.getParameter("refresh_token")).andReturn("refreshToken1");
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.validateClient(
+			"clientId1", "clientSecret1", "refresh_token")).andReturn(true);
+		expect(dataHandler.getRequest()).andReturn(request);
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setClientId("clientId1");
+		expect(dataHandler.getAuthInfoByRefreshToken("refreshToken1")).andReturn(authInfo);
+		AccessToken accessToken = new AccessToken();
+		accessToken.setToken("accessToken1");
+		expect(dataHandler.createOrUpdateAccessToken(authInfo)).andReturn(accessToken);
+		expect(factory.create(request)).andReturn(dataHandler);
+		TokenCache cache = createMock(TokenCache.class);
+		cache.invalidate("accessToken1");
+		replay(request, factory, dataHandler, cache);
+		Token target = createToken(factory);
+		target.setCacheRegistry(cache);
+		Response response = target.handleRequest(request);
+		assertEquals(200, response.getCode());
+		verify(request, factory, dataHandler, cache);
+	}
+
+	@Test
+	public void testHandleRequestPopulatesValidationCache() throws Exception {
+		assertValidationCachePopulated(false);
+	}
+
+	@Test
+	public void testHandleRequestPopulatesRegisteredValidationCache() throws Exception {
+		assertValidationCachePopulated(true);
+	}
+
+	private void assertValidationCachePopulated(boolean registered) throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("grant_type")).andReturn("refresh_token");
+		expect(request.getHeader("Authorization")).andReturn(null).times(2);
+		expect(request.getParameter("client_id")).andReturn("clientId1").times(2);
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1").times(2);
+		expect(request.getParameter("refresh_token")).andReturn("refreshToken1");
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.validateClient(
+			"clientId1", "clientSecret1", "refresh_token")).andReturn(true);
+		expect(dataHandler.getRequest()).andReturn(request);
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setClientId("clientId1");
+		authInfo.setUserId("userId1");
+		authInfo.setScope("scope1");
+		expect(dataHandler.getAuthInfoByRefreshToken("refreshToken1")).andReturn(authInfo);
+		AccessToken accessToken = new AccessToken();
+		accessToken.setToken("accessToken1");
+		accessToken.setExpiresIn(3600);
+		accessToken.setCreatedOn(new Date());
+		expect(dataHandler.createOrUpdateAccessToken(authInfo)).andReturn(accessToken);
+		expect(factory.create(request)).andReturn(dataHandler);
+		replay(request, factory, dataHandler);
+		Token target = createToken(factory);
+		InMemoryValidationCache cache = new InMemoryValidationCache();
+		target.setValidationCache(cache);
+		if (registered) {
+			cache.putInvalid("accessToken1");
+			TokenCacheRegistry registry = new TokenCacheRegistry();
+			registry.register(cache);
+			target.setCacheRegistry(registry);
+		}
+		Response response = target.handleRequest(request);
+		assertEquals(200, response.getCode());
+		assertEquals("{\"token_type\":\"Bearer\",\"access_token\":\"accessToken1\","
+				+ "\"expires_in\":3600,\"scope\":\"scope1\"}", response.getBody());
+		assertEquals(false, cache.isInvalid("accessToken1"));
+		ProtectedResource.Response cached = cache.get("accessToken1");
+		assertEquals("userId1", cached.getRemoteUser());
+		assertEquals("clientId1", cached.getClientId());
+		assertEquals("scope1", cached.getScope());
+		assertEquals(accessToken.getExpiresAt(), cached.getExpiresAt());
+		assertEquals(0L, cached.getScopeMask());
+		assertFalse(cached.isScopeMaskCompiled());
+		verify(request, factory, dataHandler);
+	}
+
+	@Test
+	public void testHandleRequestSkipsValidationCacheExpiredByClock() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("grant_type")).andReturn("refresh_token");
+		expect(request.getHeader("Authorization")).andReturn(null).times(2);
+		expect(request.getParameter("client_id")).andReturn("clientId1").times(2);
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1").times(2);
+		expect(request.getParameter("refresh_token")).andReturn("refreshToken1");
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.validateClient(
+			"clientId1", "clientSecret1", "refresh_token")).andReturn(true);
+		expect(dataHandler.getRequest()).andReturn(request);
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setClientId("clientId1");
+		authInfo.setUserId("userId1");
+		authInfo.setScope("scope1");
+		expect(dataHandler.getAuthInfoByRefreshToken("refreshToken1")).andReturn(authInfo);
+		AccessToken accessToken = new AccessToken();
+		accessToken.setToken("accessToken1");
+		accessToken.setExpiresIn(3600);
+		accessToken.setCreatedOn(new Date());
+		expect(dataHandler.createOrUpdateAccessToken(authInfo)).andReturn(accessToken);
+		expect(factory.create(request)).andReturn(dataHandler);
+		Clock clock = createMock(Clock.class);
+		expect(clock.currentTimeMillis()).andReturn(accessToken.getExpiresAt());
+		replay(request, factory, dataHandler, clock);
+		Token target = createToken(factory);
+		InMemoryValidationCache cache = new InMemoryValidationCache();
+		target.setValidationCache(cache);
+		target.setClock(clock);
+		Response response = target.handleRequest(request);
+		assertEquals(200, response.getCode());
+		assertNull(cache.get("accessToken1"));
+		verify(request, factory, dataHandler, clock);
+	}
+
+	@Test
+	public void testHandleRequestInstrumented() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("grant_type")).andReturn("refresh_token");
+		expect(request.getHeader("Authorization")).andReturn(null).times(2);
+		expect(request.getParameter("client_id")).andReturn("clientId1").times(2);
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1").times(2);
+		expect(request.getParameter("refresh_token")).andReturn("refreshToken1");
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.validateClient(
+			"clientId1", "clientSecret1", "refresh_token")).andReturn(true);
+		expect(dataHandler.getRequest()).andReturn(request).times(2);
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setClientId("clientId1");
+		expect(dataHandler.getAuthInfoByRefreshToken("refreshToken1")).andReturn(authInfo);
+		AccessToken accessToken = new AccessToken();
+		accessToken.setToken("accessToken1");
+		expect(dataHandler.createOrUpdateAccessToken(authInfo)).andReturn(accessToken);
+		expect(factory.create(request)).andReturn(dataHandler);
+		replay(request, factory, dataHandler);
+		Token target = createToken(factory);
+		RecordingInstrumentation instrumentation = new RecordingInstrumentation();
+		target.setInstrumentation(instrumentation);
+		Response response = target.handleRequest(request);
+		assertEquals(200, response.getCode());
+		assertEquals(4, instrumentation.getRecords().size());
+		assertEquals("dataHandler:validateClient:refresh_token:clientId1:success",
+			instrumentation.getRecords().get(0));
+		assertEquals("dataHandler:getAuthInfoByRefreshToken:refresh_token:clientId1:success",
+			instrumentation.getRecords().get(1));
+		assertEquals("dataHandler:createOrUpdateAccessToken:refresh_token:clientId1:success",
+			instrumentation.getRecords().get(2));
+		assertEquals("token:refresh_token:clientId1:success",
+			instrumentation.getRecords().get(3));
+		assertEquals(4, instrumentation.getBegins().size());
+		assertEquals("token", instrumentation.getBegins().get(0));
+		assertEquals("dataHandler:validateClient",
+			instrumentation.getBegins().get(1));
+		verify(request, factory, dataHandler);
+	}
+
+	@Test
+	public void testHandleRequestInstrumentedError() throws Exception {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("grant_type")).andReturn("evil");
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		replay(request, factory);
+		Token target = createToken(factory);
+		RecordingInstrumentation instrumentation = new RecordingInstrumentation();
+		target.setInstrumentation(instrumentation);
+		Response response = target.handleRequest(request);
+		assertEquals(400, response.getCode());
+		assertEquals(1, instrumentation.getRecords().size());
+		assertEquals("token:null:null:UnsupportedGrantType",
+			instrumentation.getRecords().get(0));
+		assertEquals(1, instrumentation.getBegins().size());
+		assertEquals("token", instrumentation.getBegins().get(0));
+		verify(request, factory);
+	}
+
 	@SuppressWarnings("serial")
 	private Token createToken(DataHandlerFactory factory) {
 		Token token = new Token();
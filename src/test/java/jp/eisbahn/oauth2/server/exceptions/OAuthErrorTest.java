@@ -32,9 +32,11 @@ import jp.eisbahn.oauth2.server.exceptions.OAuthError.InvalidRequest;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError.InvalidScope;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError.InvalidToken;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError.RedirectUriMismatch;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError.TooManyRequests;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError.UnauthorizedClient;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError.UnsupportedGrantType;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError.UnsupportedResponseType;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError.UnsupportedTokenType;
 
 public class OAuthErrorTest {
 
@@ -163,4 +165,20 @@ public class OAuthErrorTest {
 		assertEquals("insufficient_scope", target.getType());
 	}
 
+	@Test
+	public void testUnsupportedTokenType() {
+		UnsupportedTokenType target = new UnsupportedTokenType("desc1");
+		assertEquals(400, target.getCode());
+		assertEquals("desc1", target.getDescription());
+		assertEquals("unsupported_token_type", target.getType());
+	}
+
+	@Test
+	public void testTooManyRequests() {
+		TooManyRequests target = new TooManyRequests();
+		assertEquals(429, target.getCode());
+		assertEquals("Too many requests", target.getDescription());
+		assertEquals("temporarily_unavailable", target.getType());
+	}
+
 }
@@ -88,7 +88,7 @@ public class AuthorizationCodeTest {
 		expect(request.getParameter("code")).andReturn("code1");
 		expect(request.getParameter("redirect_uri")).andReturn("redirectUri1");
 		DataHandler dataHandler = createDataHandlerMock(request);
-		expect(dataHandler.getAuthInfoByCode("code1")).andReturn(null);
+		expect(dataHandler.consumeAuthInfoByCode("code1")).andReturn(null);
 		replay(request, dataHandler);
 		try {
 			target.handleRequest(dataHandler);
@@ -105,7 +105,7 @@ public class AuthorizationCodeTest {
 		DataHandler dataHandler = createDataHandlerMock(request);
 		AuthInfo authInfo = new AuthInfo();
 		authInfo.setClientId("clientId2");
-		expect(dataHandler.getAuthInfoByCode("code1")).andReturn(authInfo);
+		expect(dataHandler.consumeAuthInfoByCode("code1")).andReturn(authInfo);
 		replay(request, dataHandler);
 		try {
 			target.handleRequest(dataHandler);
@@ -123,7 +123,7 @@ public class AuthorizationCodeTest {
 		AuthInfo authInfo = new AuthInfo();
 		authInfo.setClientId("clientId1");
 		authInfo.setRedirectUri("");
-		expect(dataHandler.getAuthInfoByCode("code1")).andReturn(authInfo);
+		expect(dataHandler.consumeAuthInfoByCode("code1")).andReturn(authInfo);
 		replay(request, dataHandler);
 		try {
 			target.handleRequest(dataHandler);
@@ -141,7 +141,7 @@ public class AuthorizationCodeTest {
 		AuthInfo authInfo = new AuthInfo();
 		authInfo.setClientId("clientId1");
 		authInfo.setRedirectUri("redirectUri2");
-		expect(dataHandler.getAuthInfoByCode("code1")).andReturn(authInfo);
+		expect(dataHandler.consumeAuthInfoByCode("code1")).andReturn(authInfo);
 		replay(request, dataHandler);
 		try {
 			target.handleRequest(dataHandler);
@@ -159,7 +159,7 @@ public class AuthorizationCodeTest {
 		AuthInfo authInfo = new AuthInfo();
 		authInfo.setClientId("clientId1");
 		authInfo.setRedirectUri("redirectUri1");
-		expect(dataHandler.getAuthInfoByCode("code1")).andReturn(authInfo);
+		expect(dataHandler.consumeAuthInfoByCode("code1")).andReturn(authInfo);
 		AccessToken accessToken = new AccessToken();
 		accessToken.setToken("accessToken1");
 		expect(dataHandler.createOrUpdateAccessToken(authInfo)).andReturn(accessToken);
@@ -183,7 +183,7 @@ public class AuthorizationCodeTest {
 		authInfo.setRedirectUri("redirectUri1");
 		authInfo.setRefreshToken("refreshToken1");
 		authInfo.setScope("scope1");
-		expect(dataHandler.getAuthInfoByCode("code1")).andReturn(authInfo);
+		expect(dataHandler.consumeAuthInfoByCode("code1")).andReturn(authInfo);
 		AccessToken accessToken = new AccessToken();
 		accessToken.setToken("accessToken1");
 		accessToken.setExpiresIn(123L);
@@ -21,8 +21,11 @@ package jp.eisbahn.oauth2.server.granttype.impl;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import org.junit.After;
@@ -37,6 +40,8 @@ import jp.eisbahn.oauth2.server.granttype.impl.Password;
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.ratelimit.FailureTracker;
+import jp.eisbahn.oauth2.server.ratelimit.impl.StripedFailureTracker;
 
 public class PasswordTest {
 
@@ -97,6 +102,41 @@ public class PasswordTest {
 		}
 	}
 
+	@Test
+	public void testHandleRequestUserBlocked() throws Exception {
+		StripedFailureTracker failureTracker = new StripedFailureTracker();
+		failureTracker.setThreshold(2);
+		target.setFailureTracker(failureTracker);
+		for (int i = 0; i < 2; i++) {
+			Request request = createRequestMock();
+			expect(request.getParameter("username")).andReturn("username1");
+			expect(request.getParameter("password")).andReturn("password1");
+			DataHandler dataHandler = createDataHandlerMock(request);
+			expect(dataHandler.getUserId("username1", "password1")).andReturn(null);
+			replay(request, dataHandler);
+			try {
+				target.handleRequest(dataHandler);
+				fail("Error.InvalidGrant not occurred.");
+			} catch (OAuthError.InvalidGrant e) {
+			}
+			verify(dataHandler);
+		}
+		Request request = createRequestMock();
+		expect(request.getParameter("username")).andReturn("username1");
+		expect(request.getParameter("password")).andReturn("password1");
+		DataHandler dataHandler = createDataHandlerMock(request);
+		replay(request, dataHandler);
+		try {
+			target.handleRequest(dataHandler);
+			fail("Error.TooManyRequests not occurred.");
+		} catch (OAuthError.TooManyRequests e) {
+		}
+		verify(dataHandler);
+		// A client which has the same ID as the username is not blocked.
+		assertTrue(failureTracker.isBlocked(FailureTracker.USER_PREFIX + "username1"));
+		assertFalse(failureTracker.isBlocked(FailureTracker.CLIENT_PREFIX + "username1"));
+	}
+
 	@Test
 	public void testHandleRequestAuthInfoNotFound() throws Exception {
 		Request request = createRequestMock();
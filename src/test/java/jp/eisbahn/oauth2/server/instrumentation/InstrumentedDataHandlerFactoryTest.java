@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.instrumentation;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.instrumentation.impl.NoopInstrumentation;
+import jp.eisbahn.oauth2.server.models.Request;
+
+public class InstrumentedDataHandlerFactoryTest {
+
+	@Test
+	public void testCreate() throws Exception {
+		Request request = createMock(Request.class);
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.getRequest()).andReturn(request);
+		expect(dataHandler.getAuthInfoById("authId1")).andReturn(null);
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		expect(factory.create(request)).andReturn(dataHandler);
+		replay(request, dataHandler, factory);
+
+		RecordingInstrumentation instrumentation = new RecordingInstrumentation();
+		InstrumentedDataHandlerFactory target =
+				new InstrumentedDataHandlerFactory(factory, instrumentation);
+		DataHandler result = target.create(request);
+		assertTrue(result instanceof InstrumentedDataHandler);
+		assertSame(dataHandler, ((InstrumentedDataHandler)result).getDelegate());
+		result.getAuthInfoById("authId1");
+		assertEquals(1, instrumentation.getRecords().size());
+		assertEquals("dataHandler:getAuthInfoById:null:null:success",
+				instrumentation.getRecords().get(0));
+
+		verify(request, dataHandler, factory);
+	}
+
+	@Test
+	public void testCreateDisabled() throws Exception {
+		Request request = createMock(Request.class);
+		DataHandler dataHandler = createMock(DataHandler.class);
+		DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		expect(factory.create(request)).andReturn(dataHandler);
+		replay(request, dataHandler, factory);
+
+		InstrumentedDataHandlerFactory target = new InstrumentedDataHandlerFactory(
+				factory, new NoopInstrumentation());
+		assertSame(dataHandler, target.create(request));
+
+		verify(request, dataHandler, factory);
+	}
+
+}
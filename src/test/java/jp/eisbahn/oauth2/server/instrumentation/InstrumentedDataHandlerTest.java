@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.instrumentation;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+
+public class InstrumentedDataHandlerTest {
+
+	@Test
+	public void testDelegate() throws Exception {
+		Request request = createMock(Request.class);
+		DataHandler delegate = createMock(DataHandler.class);
+		expect(delegate.getRequest()).andReturn(request).times(2);
+		AuthInfo authInfo = new AuthInfo();
+		AccessToken accessToken = new AccessToken();
+		expect(delegate.validateClient("clientId1", "secret1", "password")).andReturn(true);
+		expect(delegate.getUserId("user1", "pass1")).andReturn("userId1");
+		expect(delegate.createOrUpdateAuthInfo("clientId1", "userId1", "scope1")).andReturn(authInfo);
+		expect(delegate.createOrUpdateAccessToken(authInfo)).andReturn(accessToken);
+		expect(delegate.getAuthInfoByCode("code1")).andReturn(authInfo);
+		expect(delegate.getAuthInfoByRefreshToken("refreshToken1")).andReturn(authInfo);
+		expect(delegate.getClientUserId("clientId1", "secret1")).andReturn("clientUserId1");
+		expect(delegate.validateClientById("clientId1")).andReturn(true);
+		expect(delegate.validateUserById("userId1")).andReturn(false);
+		expect(delegate.getAccessToken("accessToken1")).andReturn(accessToken);
+		expect(delegate.getAuthInfoById("authId1")).andReturn(authInfo);
+		replay(request, delegate);
+
+		RecordingInstrumentation instrumentation = new RecordingInstrumentation();
+		InstrumentedDataHandler target = new InstrumentedDataHandler(
+				delegate, instrumentation, "password", "clientId1");
+		assertSame(delegate, target.getDelegate());
+		assertSame(request, target.getRequest());
+		assertTrue(target.validateClient("clientId1", "secret1", "password"));
+		assertEquals("userId1", target.getUserId("user1", "pass1"));
+		assertSame(authInfo, target.createOrUpdateAuthInfo("clientId1", "userId1", "scope1"));
+		assertSame(accessToken, target.createOrUpdateAccessToken(authInfo));
+		assertSame(authInfo, target.getAuthInfoByCode("code1"));
+		assertSame(authInfo, target.getAuthInfoByRefreshToken("refreshToken1"));
+		assertEquals("clientUserId1", target.getClientUserId("clientId1", "secret1"));
+		assertTrue(target.validateClientById("clientId1"));
+		assertEquals(false, target.validateUserById("userId1"));
+		assertSame(accessToken, target.getAccessToken("accessToken1"));
+		assertSame(authInfo, target.getAuthInfoById("authId1"));
+
+		assertEquals(11, instrumentation.getRecords().size());
+		assertEquals("dataHandler:validateClient:password:clientId1:success",
+				instrumentation.getRecords().get(0));
+		assertEquals("dataHandler:getAuthInfoById:password:clientId1:success",
+				instrumentation.getRecords().get(10));
+		verify(request, delegate);
+	}
+
+	@Test
+	public void testException() throws Exception {
+		Request request = createMock(Request.class);
+		DataHandler delegate = createMock(DataHandler.class);
+		expect(delegate.getRequest()).andReturn(request);
+		expect(delegate.getAccessToken("accessToken1")).andThrow(new IllegalStateException());
+		replay(request, delegate);
+
+		RecordingInstrumentation instrumentation = new RecordingInstrumentation();
+		InstrumentedDataHandler target = new InstrumentedDataHandler(
+				delegate, instrumentation, null, null);
+		try {
+			target.getAccessToken("accessToken1");
+			fail("IllegalStateException not occurred.");
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(1, instrumentation.getRecords().size());
+		assertEquals("dataHandler:getAccessToken:null:null:IllegalStateException",
+				instrumentation.getRecords().get(0));
+		verify(request, delegate);
+	}
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.instrumentation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RecordingInstrumentation implements Instrumentation {
+
+	private List<String> begins = new ArrayList<String>();
+	private List<String> records = new ArrayList<String>();
+
+	public List<String> getBegins() {
+		return begins;
+	}
+
+	public List<String> getRecords() {
+		return records;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return true;
+	}
+
+	@Override
+	public synchronized void beginTokenRequest() {
+		begins.add("token");
+	}
+
+	@Override
+	public synchronized void beginProtectedResourceRequest() {
+		begins.add("protectedResource");
+	}
+
+	@Override
+	public synchronized void beginDataHandlerCall(String method) {
+		begins.add("dataHandler:" + method);
+	}
+
+	@Override
+	public synchronized void recordTokenRequest(String grantType, String clientId,
+			String outcome, long elapsedNanos) {
+		records.add("token:" + grantType + ":" + clientId + ":" + outcome);
+	}
+
+	@Override
+	public synchronized void recordProtectedResourceRequest(String clientId,
+			String outcome, long elapsedNanos) {
+		records.add("protectedResource:" + clientId + ":" + outcome);
+	}
+
+	@Override
+	public synchronized void recordDataHandlerCall(String method, String grantType,
+			String clientId, String outcome, long elapsedNanos) {
+		records.add("dataHandler:" + method + ":" + grantType + ":" + clientId + ":" + outcome);
+	}
+
+}
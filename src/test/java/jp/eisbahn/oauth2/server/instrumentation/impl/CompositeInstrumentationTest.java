@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.instrumentation.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.instrumentation.RecordingInstrumentation;
+
+public class CompositeInstrumentationTest {
+
+	@Test
+	public void testDisabled() {
+		CompositeInstrumentation target = new CompositeInstrumentation(
+				new NoopInstrumentation(), new NoopInstrumentation());
+		assertFalse(target.isEnabled());
+	}
+
+	@Test
+	public void testForward() {
+		RecordingInstrumentation recording1 = new RecordingInstrumentation();
+		RecordingInstrumentation recording2 = new RecordingInstrumentation();
+		CompositeInstrumentation target = new CompositeInstrumentation(
+				recording1, new NoopInstrumentation(), recording2);
+		assertTrue(target.isEnabled());
+		assertEquals(3, target.getInstrumentations().length);
+		target.beginTokenRequest();
+		target.beginProtectedResourceRequest();
+		target.beginDataHandlerCall("getAccessToken");
+		target.recordTokenRequest("password", "clientId1", "success", 1L);
+		target.recordProtectedResourceRequest("clientId1", "success", 1L);
+		target.recordDataHandlerCall("getAccessToken", null, null, "success", 1L);
+		assertEquals(3, recording1.getRecords().size());
+		assertEquals(recording1.getRecords(), recording2.getRecords());
+		assertEquals("token:password:clientId1:success", recording1.getRecords().get(0));
+		assertEquals("protectedResource:clientId1:success", recording1.getRecords().get(1));
+		assertEquals("dataHandler:getAccessToken:null:null:success", recording1.getRecords().get(2));
+		assertEquals(3, recording1.getBegins().size());
+		assertEquals(recording1.getBegins(), recording2.getBegins());
+		assertEquals("dataHandler:getAccessToken", recording1.getBegins().get(2));
+	}
+
+}
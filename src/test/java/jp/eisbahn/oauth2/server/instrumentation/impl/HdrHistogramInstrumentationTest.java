@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.instrumentation.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+
+public class HdrHistogramInstrumentationTest {
+
+	@Test
+	public void testRecord() {
+		HdrHistogramInstrumentation target = new HdrHistogramInstrumentation();
+		assertTrue(target.isEnabled());
+		assertNull(target.getIntervalHistogram("getAccessToken"));
+		for (int i = 1; i <= 100; i++) {
+			target.recordDataHandlerCall("getAccessToken", null, null,
+					"success", TimeUnit.MICROSECONDS.toNanos(i));
+		}
+		target.recordDataHandlerCall("getAuthInfoById", null, null,
+				"success", 1000L);
+		target.recordTokenRequest("password", "clientId1", "success", 1000L);
+		assertEquals(2, target.getMethods().size());
+
+		Histogram histogram = target.getIntervalHistogram("getAccessToken");
+		assertEquals(100, histogram.getTotalCount());
+		assertEquals(50000.0, histogram.getValueAtPercentile(50.0), 50.0);
+		assertEquals(99000.0, histogram.getValueAtPercentile(99.0), 100.0);
+		assertEquals(0, target.getIntervalHistogram("getAccessToken").getTotalCount());
+	}
+
+	@Test
+	public void testSlowCall() {
+		final List<LogRecord> records = new ArrayList<LogRecord>();
+		Handler handler = new Handler() {
+			@Override
+			public void publish(LogRecord record) {
+				records.add(record);
+			}
+			@Override
+			public void flush() {
+			}
+			@Override
+			public void close() {
+			}
+		};
+		Logger logger = Logger.getLogger(HdrHistogramInstrumentation.class.getName());
+		logger.addHandler(handler);
+		try {
+			HdrHistogramInstrumentation target = new HdrHistogramInstrumentation();
+			target.setSlowCallThresholdMillis(10);
+			target.recordDataHandlerCall("getAccessToken", null, "clientId1",
+					"success", TimeUnit.MILLISECONDS.toNanos(9));
+			target.recordDataHandlerCall("createOrUpdateAccessToken",
+					"password", "clientId1", "IllegalStateException",
+					TimeUnit.MILLISECONDS.toNanos(25));
+			assertEquals(1, records.size());
+			Object[] params = records.get(0).getParameters();
+			assertEquals("createOrUpdateAccessToken", params[0]);
+			assertEquals("IllegalStateException", params[3]);
+			assertEquals(25L, params[4]);
+
+			target.setSlowCallThresholdMillis(0);
+			target.recordDataHandlerCall("getAccessToken", null, null,
+					"success", TimeUnit.MILLISECONDS.toNanos(100));
+			assertEquals(1, records.size());
+		} finally {
+			logger.removeHandler(handler);
+		}
+	}
+
+}
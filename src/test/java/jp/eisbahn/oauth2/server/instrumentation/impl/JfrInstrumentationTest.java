@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.instrumentation.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+public class JfrInstrumentationTest {
+
+	@Test
+	public void testDisabled() {
+		JfrInstrumentation target = new JfrInstrumentation();
+		assertFalse(target.isEnabled());
+	}
+
+	@Test
+	public void testRecord() throws Exception {
+		JfrInstrumentation target = new JfrInstrumentation();
+		Recording recording = new Recording();
+		recording.enable("jp.eisbahn.oauth2.TokenIssuance");
+		recording.enable("jp.eisbahn.oauth2.BearerValidation");
+		recording.enable("jp.eisbahn.oauth2.DataHandlerCall");
+		recording.start();
+		assertTrue(target.isEnabled());
+		target.beginTokenRequest();
+		target.beginDataHandlerCall("getUserId");
+		Thread.sleep(20L);
+		target.recordDataHandlerCall("getUserId", "password", "clientId1",
+				"IllegalStateException", 3000L);
+		target.recordTokenRequest("password", "clientId1", "success", 1000L);
+		target.beginProtectedResourceRequest();
+		target.recordProtectedResourceRequest(null, "ExpiredToken", 2000L);
+		recording.stop();
+		File file = File.createTempFile("oauth2", ".jfr");
+		try {
+			recording.dump(file.toPath());
+			recording.close();
+			List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+			for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+				if (event.getEventType().getName().startsWith("jp.eisbahn.oauth2.")) {
+					events.add(event);
+				}
+			}
+			assertEquals(3, events.size());
+			for (RecordedEvent event : events) {
+				String name = event.getEventType().getName();
+				if (name.equals("jp.eisbahn.oauth2.TokenIssuance")) {
+					assertEquals("password", event.getString("grantType"));
+					assertEquals("clientId1".hashCode(), event.getInt("clientIdHash"));
+					assertNull(event.getString("errorType"));
+					assertTrue(event.getDuration().toMillis() >= 20L);
+				} else if (name.equals("jp.eisbahn.oauth2.BearerValidation")) {
+					assertEquals(0, event.getInt("clientIdHash"));
+					assertEquals("ExpiredToken", event.getString("errorType"));
+				} else {
+					assertEquals("getUserId", event.getString("method"));
+					assertEquals("IllegalStateException", event.getString("errorType"));
+					assertTrue(event.getDuration().toMillis() >= 20L);
+				}
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+}
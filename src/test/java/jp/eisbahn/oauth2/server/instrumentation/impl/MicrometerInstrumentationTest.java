@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.instrumentation.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.Test;
+
+public class MicrometerInstrumentationTest {
+
+	@Test
+	public void testRecordTokenRequest() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		MicrometerInstrumentation target = new MicrometerInstrumentation(registry);
+		assertTrue(target.isEnabled());
+		target.recordTokenRequest("password", "clientId1", "success", 1000000L);
+		target.recordTokenRequest("password", "clientId2", "success", 3000000L);
+		target.recordTokenRequest("password", "clientId1", "InvalidClient", 1000000L);
+		target.recordTokenRequest(null, null, "InvalidRequest", 1000000L);
+		Timer timer = registry.get("oauth2.token.requests")
+				.tag("grant_type", "password").tag("outcome", "success").timer();
+		assertEquals(2, timer.count());
+		assertEquals(4.0, timer.totalTime(TimeUnit.MILLISECONDS), 0.001);
+		assertEquals(1, registry.get("oauth2.token.requests")
+				.tag("grant_type", "password").tag("outcome", "InvalidClient").timer().count());
+		assertEquals(1, registry.get("oauth2.token.requests")
+				.tag("grant_type", "unknown").tag("outcome", "InvalidRequest").timer().count());
+		assertNull(registry.find("oauth2.token.requests").tag("client_id", "clientId1").timer());
+	}
+
+	@Test
+	public void testRecordProtectedResourceRequest() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		MicrometerInstrumentation target = new MicrometerInstrumentation(registry);
+		target.recordProtectedResourceRequest("clientId1", "success", 1000L);
+		target.recordProtectedResourceRequest(null, "ExpiredToken", 1000L);
+		target.recordProtectedResourceRequest(null, "ExpiredToken", 1000L);
+		assertEquals(1, registry.get("oauth2.protected_resource.requests")
+				.tag("outcome", "success").timer().count());
+		assertEquals(2, registry.get("oauth2.protected_resource.requests")
+				.tag("outcome", "ExpiredToken").timer().count());
+	}
+
+	@Test
+	public void testRecordDataHandlerCall() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		MicrometerInstrumentation target = new MicrometerInstrumentation(registry);
+		target.recordDataHandlerCall("getAccessToken", null, null, "success", 1000L);
+		target.recordDataHandlerCall("validateClient", "password", "clientId1", "success", 1000L);
+		assertEquals(1, registry.get("oauth2.data_handler.calls")
+				.tag("method", "getAccessToken").tag("outcome", "success").timer().count());
+		assertEquals(1, registry.get("oauth2.data_handler.calls")
+				.tag("method", "validateClient").tag("outcome", "success").timer().count());
+	}
+
+}
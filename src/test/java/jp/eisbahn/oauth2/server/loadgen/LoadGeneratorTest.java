@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.loadgen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource;
+import jp.eisbahn.oauth2.server.endpoint.Token;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.models.Request;
+
+public class LoadGeneratorTest {
+
+	private final ConcurrentMap<String, AtomicInteger> calls =
+			new ConcurrentHashMap<String, AtomicInteger>();
+
+	private void count(String key) {
+		AtomicInteger created = new AtomicInteger();
+		AtomicInteger counter = calls.putIfAbsent(key, created);
+		(counter == null ? created : counter).incrementAndGet();
+	}
+
+	private int calls(String key) {
+		AtomicInteger counter = calls.get(key);
+		return counter == null ? 0 : counter.get();
+	}
+
+	private LoadGenerator createTarget() {
+		Token token = new Token() {
+			@Override
+			public Response handleRequest(Request request) {
+				String grantType = request.getParameter("grant_type");
+				count(grantType);
+				if (grantType.equals("refresh_token")) {
+					count(request.getParameter("refresh_token"));
+				} else if (grantType.equals("authorization_code")) {
+					assertEquals("redirectUri1", request.getParameter("redirect_uri"));
+				} else {
+					return new Response(400, "{\"error\":\"unsupported_grant_type\"}");
+				}
+				assertEquals("clientId1", request.getParameter("client_id"));
+				assertEquals("clientSecret1", request.getParameter("client_secret"));
+				return new Response(200, "{}");
+			}
+		};
+		ProtectedResource protectedResource = new ProtectedResource() {
+			@Override
+			public Response handleRequest(Request request) throws OAuthError {
+				String token = request.getHeader("Authorization").substring(7);
+				count(token);
+				if (token.startsWith("invalid-")) {
+					throw new OAuthError.InvalidToken("Invalid access token.");
+				}
+				return new Response("userId1", "clientId1", "scope1");
+			}
+		};
+		LoadGenerator target = new LoadGenerator(token, protectedResource);
+		target.setClientCredential("clientId1", "clientSecret1");
+		target.setAccessTokens(Arrays.asList("accessToken1", "accessToken2",
+				"accessToken3"));
+		target.setRefreshTokens(Arrays.asList("refreshToken1"));
+		target.setAuthorizationCodes(Arrays.asList("code1", "code2"),
+				"redirectUri1");
+		target.setSeed(1L);
+		target.setThreads(4);
+		return target;
+	}
+
+	@Test
+	public void testRun() throws Exception {
+		LoadGenerator target = createTarget();
+		target.setRequestsPerSecond(5000);
+		LoadResult result = target.run(400);
+		long total = result.getTotalCount();
+		assertTrue(total > 1200 && total < 2800);
+		long bearer = result.getCount(RequestType.BEARER_VALIDATION);
+		assertTrue(bearer > total * 0.8 && bearer < total * 0.97);
+		assertEquals(0, result.getErrorCount(RequestType.BEARER_VALIDATION));
+		assertEquals(result.getCount(RequestType.REFRESH_TOKEN),
+				calls("refresh_token"));
+		assertEquals(result.getCount(RequestType.AUTHORIZATION_CODE),
+				calls("authorization_code"));
+		assertEquals(0, result.getErrorCount(RequestType.REFRESH_TOKEN));
+		assertEquals(result.getCount(RequestType.ERROR),
+				result.getErrorCount(RequestType.ERROR));
+		assertEquals(total, bearer + calls("refresh_token")
+				+ calls("authorization_code") + result.getCount(RequestType.ERROR));
+		assertTrue(calls("accessToken1") > calls("accessToken3"));
+		assertTrue(result.getHistogram(RequestType.BEARER_VALIDATION)
+				.getMaxValue() > 0);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		result.print(new PrintStream(out, true, "UTF-8"));
+		String printed = out.toString("UTF-8");
+		assertTrue(printed.contains("BEARER_VALIDATION"));
+		assertTrue(printed.contains("requests/sec"));
+		assertTrue(printed.contains("Value     Percentile"));
+	}
+
+	@Test
+	public void testWeights() throws Exception {
+		LoadGenerator target = createTarget();
+		target.setWeight(RequestType.BEARER_VALIDATION, 0);
+		target.setWeight(RequestType.AUTHORIZATION_CODE, 0);
+		target.setWeight(RequestType.ERROR, 0);
+		target.setPoissonArrivals(false);
+		target.setRequestsPerSecond(1000);
+		LoadResult result = target.run(100);
+		assertEquals(result.getTotalCount(),
+				result.getCount(RequestType.REFRESH_TOKEN));
+		assertTrue(result.getTotalCount() >= 90);
+		assertEquals(result.getTotalCount(), calls("refreshToken1"));
+	}
+
+	@Test
+	public void testNoTokens() throws Exception {
+		LoadGenerator target = createTarget();
+		target.setAccessTokens(Collections.<String>emptyList());
+		try {
+			target.run(100);
+			fail("IllegalStateException not occurred.");
+		} catch (IllegalStateException e) {
+		}
+		target.setWeight(RequestType.BEARER_VALIDATION, 0);
+		target.setWeight(RequestType.REFRESH_TOKEN, 0);
+		target.setWeight(RequestType.AUTHORIZATION_CODE, 0);
+		target.setWeight(RequestType.ERROR, 0);
+		try {
+			target.run(100);
+			fail("IllegalStateException not occurred.");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.loadgen;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.DefaultAccessTokenFetcherProvider;
+import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcherImpl;
+import jp.eisbahn.oauth2.server.granttype.GrantHandler;
+import jp.eisbahn.oauth2.server.granttype.GrantHandler.GrantHandlerResult;
+import jp.eisbahn.oauth2.server.granttype.GrantHandlerProvider;
+import jp.eisbahn.oauth2.server.granttype.impl.DefaultGrantHandlerProvider;
+
+public class WarmUpTest {
+
+	@Test
+	public void testRun() throws Exception {
+		WarmUp target = new WarmUp();
+		target.setTokenComponents(new DefaultGrantHandlerProvider(),
+				new ClientCredentialFetcherImpl());
+		target.setAccessTokenFetcherProvider(new DefaultAccessTokenFetcherProvider());
+		target.setIterations(2);
+		// 4 grant types * 3 requests + 2 requests, and 5 validations.
+		assertEquals(2 * (4 * 3 + 2 + 5), target.run());
+		target.setIterations(0);
+		assertEquals(0, target.run());
+	}
+
+	@Test
+	public void testGrantHandlersCalled() throws Exception {
+		GrantHandler handler = createMock(GrantHandler.class);
+		expect(handler.handleRequest(isA(WarmUpDataHandler.class)))
+			.andReturn(new GrantHandlerResult("Bearer", "token1")).times(6);
+		replay(handler);
+		Map<String, GrantHandler> handlers = new HashMap<String, GrantHandler>();
+		handlers.put("password", handler);
+		GrantHandlerProvider provider = new GrantHandlerProvider();
+		provider.setGrantHandlers(handlers);
+		WarmUp target = new WarmUp();
+		target.setTokenComponents(provider, new ClientCredentialFetcherImpl());
+		target.setIterations(3);
+		// The request with the invalid client secret is rejected before.
+		assertEquals(3 * (3 + 2), target.run());
+		verify(handler);
+	}
+
+	@Test
+	public void testInvalidIterations() throws Exception {
+		try {
+			new WarmUp().setIterations(-1);
+			fail("IllegalArgumentException not occurred.");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.loadgen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ZipfDistributionTest {
+
+	@Test
+	public void testSkewed() throws Exception {
+		ZipfDistribution target = new ZipfDistribution(10, 1.0);
+		assertEquals(10, target.size());
+		Random random = new Random(1L);
+		int[] counts = new int[10];
+		for (int i = 0; i < 100000; i++) {
+			counts[target.next(random)]++;
+		}
+		// The rank 0 is chosen about 34% and the rank 9 about 3.4%.
+		assertTrue(counts[0] > 30000 && counts[0] < 38000);
+		assertTrue(counts[0] > counts[1] && counts[1] > counts[9]);
+		assertTrue(counts[9] > 2500 && counts[9] < 4500);
+	}
+
+	@Test
+	public void testUniform() throws Exception {
+		ZipfDistribution target = new ZipfDistribution(4, 0.0);
+		Random random = new Random(1L);
+		int[] counts = new int[4];
+		for (int i = 0; i < 40000; i++) {
+			counts[target.next(random)]++;
+		}
+		for (int count : counts) {
+			assertTrue(count > 9000 && count < 11000);
+		}
+	}
+
+	@Test
+	public void testInvalid() throws Exception {
+		try {
+			new ZipfDistribution(0, 1.0);
+			fail("IllegalArgumentException not occurred.");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new ZipfDistribution(10, -1.0);
+			fail("IllegalArgumentException not occurred.");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+}
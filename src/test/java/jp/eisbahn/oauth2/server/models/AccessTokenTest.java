@@ -19,6 +19,7 @@
 package jp.eisbahn.oauth2.server.models;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import java.util.Date;
 
@@ -57,4 +58,23 @@ public class AccessTokenTest {
 		assertEquals(now, target.getCreatedOn());
 	}
 
+	@Test
+	public void testExpiresAtProperty() throws Exception {
+		AccessToken target = new AccessToken();
+		assertEquals(0L, target.getExpiresAt());
+		Date createdOn = new Date(1000000L);
+		target.setCreatedOn(createdOn);
+		target.setExpiresIn(60L);
+		assertEquals(1060000L, target.getExpiresAt());
+		createdOn.setTime(0L);
+		assertEquals(1060000L, target.getExpiresAt());
+		target.getCreatedOn().setTime(0L);
+		assertEquals(1000000L, target.getCreatedOn().getTime());
+		target.setExpiresAt(2000000L);
+		assertEquals(2000000L, target.getExpiresAt());
+		assertEquals(60L, target.getExpiresIn());
+		target.setCreatedOn(null);
+		assertNull(target.getCreatedOn());
+	}
+
 }
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.ratelimit.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import jp.eisbahn.oauth2.server.clock.Clock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class StripedFailureTrackerTest {
+
+	private long[] now;
+	private StripedFailureTracker target;
+
+	@Before
+	public void setUp() {
+		now = new long[] {1000000L};
+		target = new StripedFailureTracker();
+		target.setClock(new Clock() {
+			@Override
+			public long currentTimeMillis() {
+				return now[0];
+			}
+		});
+		target.setThreshold(3);
+		target.setBaseBackoffSeconds(1);
+		target.setMaxBackoffSeconds(8);
+	}
+
+	@Test
+	public void testBackoff() {
+		target.recordFailure("user1");
+		target.recordFailure("user1");
+		assertFalse(target.isBlocked("user1"));
+		target.recordFailure("user1");
+		assertTrue(target.isBlocked("user1"));
+		assertFalse(target.isBlocked("user2"));
+		now[0] += 1000;
+		assertFalse(target.isBlocked("user1"));
+		target.recordFailure("user1");
+		now[0] += 1000;
+		assertTrue(target.isBlocked("user1"));
+		now[0] += 1000;
+		assertFalse(target.isBlocked("user1"));
+		for (int i = 0; i < 10; i++) {
+			target.recordFailure("user1");
+		}
+		now[0] += 7000;
+		assertTrue(target.isBlocked("user1"));
+		now[0] += 1000;
+		assertFalse(target.isBlocked("user1"));
+	}
+
+	@Test
+	public void testSuccessAndReset() {
+		for (int i = 0; i < 3; i++) {
+			target.recordFailure("user1");
+		}
+		assertTrue(target.isBlocked("user1"));
+		target.recordSuccess("user1");
+		assertFalse(target.isBlocked("user1"));
+		target.recordFailure("user1");
+		target.recordFailure("user1");
+		now[0] += 9000;
+		// The count was reset because no failure happened for a while.
+		target.recordFailure("user1");
+		assertFalse(target.isBlocked("user1"));
+	}
+
+	@Test
+	public void testBoundedStripes() {
+		target.setStripes(1);
+		for (int i = 0; i < 3; i++) {
+			target.recordFailure("victim");
+		}
+		assertTrue(target.isBlocked("victim"));
+		for (int i = 0; i < 10000; i++) {
+			target.recordFailure("user" + i);
+		}
+		// A blocked record is not replaced by others.
+		assertTrue(target.isBlocked("victim"));
+		now[0] += 1000;
+		target.recordFailure("other");
+		assertFalse(target.isBlocked("victim"));
+	}
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.ratelimit.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.eisbahn.oauth2.server.clock.Clock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TokenBucketRateLimiterTest {
+
+	private long[] now;
+	private TokenBucketRateLimiter target;
+
+	@Before
+	public void setUp() {
+		now = new long[] {1000000L};
+		target = new TokenBucketRateLimiter();
+		target.setClock(new Clock() {
+			@Override
+			public long currentTimeMillis() {
+				return now[0];
+			}
+		});
+	}
+
+	@Test
+	public void testDefaultLimit() {
+		target.setDefaultLimit(3, 2.0);
+		assertTrue(target.tryAcquire("client1"));
+		assertTrue(target.tryAcquire("client1"));
+		assertTrue(target.tryAcquire("client1"));
+		assertFalse(target.tryAcquire("client1"));
+		assertTrue(target.tryAcquire("client2"));
+		now[0] += 499;
+		assertFalse(target.tryAcquire("client1"));
+		now[0] += 1;
+		assertTrue(target.tryAcquire("client1"));
+		assertFalse(target.tryAcquire("client1"));
+		now[0] += 10000;
+		assertTrue(target.tryAcquire("client1"));
+		assertTrue(target.tryAcquire("client1"));
+		assertTrue(target.tryAcquire("client1"));
+		assertFalse(target.tryAcquire("client1"));
+	}
+
+	@Test
+	public void testLimitPerClient() {
+		target.setDefaultLimit(1, 1.0);
+		target.setLimit("client1", 5, 100.0);
+		for (int i = 0; i < 5; i++) {
+			assertTrue(target.tryAcquire("client1"));
+		}
+		assertFalse(target.tryAcquire("client1"));
+		assertTrue(target.tryAcquire("client2"));
+		assertFalse(target.tryAcquire("client2"));
+		now[0] += 10;
+		assertTrue(target.tryAcquire("client1"));
+		assertFalse(target.tryAcquire("client2"));
+		target.removeLimit("client1");
+		assertTrue(target.tryAcquire("client1"));
+		assertFalse(target.tryAcquire("client1"));
+	}
+
+	@Test
+	public void testMaxBuckets() {
+		target.setDefaultLimit(2, 1.0);
+		target.setMaxBuckets(2);
+		assertTrue(target.tryAcquire("client1"));
+		assertTrue(target.tryAcquire("client1"));
+		assertTrue(target.tryAcquire("client2"));
+		now[0] += 1000;
+		// client2 is full again and discarded, client1 is kept.
+		assertTrue(target.tryAcquire("client3"));
+		assertTrue(target.tryAcquire("client1"));
+		assertFalse(target.tryAcquire("client1"));
+	}
+
+	@Test
+	public void testOverflowBucket() {
+		target.setDefaultLimit(2, 1.0);
+		target.setMaxBuckets(2);
+		target.setLimit("special", 1, 1.0);
+		assertTrue(target.tryAcquire("client1"));
+		assertTrue(target.tryAcquire("client2"));
+		// The buckets are not full, so the new clients share the overflow bucket.
+		assertTrue(target.tryAcquire("random1"));
+		assertTrue(target.tryAcquire("random2"));
+		assertFalse(target.tryAcquire("random3"));
+		assertEquals(2, target.getBucketCount());
+		// The known clients and the clients with their own limit are not affected.
+		assertTrue(target.tryAcquire("client1"));
+		assertTrue(target.tryAcquire("special"));
+		assertEquals(3, target.getBucketCount());
+		// The purge doesn't run again within a second, even if buckets become full.
+		now[0] += 999;
+		assertFalse(target.tryAcquire("random4"));
+		assertEquals(3, target.getBucketCount());
+		now[0] += 1001;
+		assertTrue(target.tryAcquire("random5"));
+		assertEquals(1, target.getBucketCount());
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		target.setDefaultLimit(1000, 1.0);
+		final AtomicInteger accepted = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int j = 0; j < 500; j++) {
+						if (target.tryAcquire("client1")) {
+							accepted.incrementAndGet();
+						}
+					}
+				}
+			});
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1000, accepted.get());
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.scope;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class ScopePathRulesTest {
+
+	@Test
+	public void testMatch() throws Exception {
+		ScopeRegistry registry = new ScopeRegistry();
+		ScopePathRules target = new ScopePathRules(registry);
+		target.load(new StringReader(
+				"# comment\n"
+				+ "/* read\n"
+				+ "/api/admin/*   admin\n"
+				+ "\n"
+				+ "/api/users/*/mail read mail; /api/users/me read\n"
+				+ "/api/public/*\n"
+				+ "/api/status\n"));
+		assertEquals(6, target.size());
+		long read = registry.getMask("read");
+		long admin = registry.getMask("admin");
+		long mail = registry.getMask("mail");
+		assertEquals(read, target.getRequiredMask("/"));
+		assertEquals(read, target.getRequiredMask("/other/path"));
+		assertEquals(admin, target.getRequiredMask("/api/admin"));
+		assertEquals(admin, target.getRequiredMask("/api/admin/"));
+		assertEquals(admin, target.getRequiredMask("/api/admin/users/1"));
+		assertEquals(read | mail, target.getRequiredMask("/api/users/1/mail"));
+		assertEquals(read, target.getRequiredMask("/api/users/1/profile"));
+		assertEquals(read, target.getRequiredMask("/api/users/me"));
+		assertEquals(0L, target.getRequiredMask("/api/public/index.html"));
+		assertEquals(0L, target.getRequiredMask("/api/status"));
+		assertEquals(read, target.getRequiredMask("/api/status/detail"));
+		assertEquals(0L, target.getRequiredMask(null));
+	}
+
+	@Test
+	public void testLiteralPriority() throws Exception {
+		ScopeRegistry registry = new ScopeRegistry();
+		ScopePathRules target = new ScopePathRules(registry);
+		target.add("/api/*/items", "a");
+		target.add("/api/shop/*", "b");
+		target.add("/api/shop/items", "c");
+		assertEquals(registry.getMask("c"), target.getRequiredMask("/api/shop/items"));
+		assertEquals(registry.getMask("b"), target.getRequiredMask("/api/shop/other"));
+		assertEquals(registry.getMask("a"), target.getRequiredMask("/api/cart/items"));
+		assertEquals(0L, target.getRequiredMask("/api/cart"));
+	}
+
+	@Test
+	public void testNormalizedPath() throws Exception {
+		ScopeRegistry registry = new ScopeRegistry();
+		ScopePathRules target = new ScopePathRules(registry);
+		target.add("/admin/*", "admin");
+		target.add("/api/*", "read");
+		long admin = registry.getMask("admin");
+		assertEquals(admin, target.getRequiredMask("/api/../admin/x"));
+		assertEquals(admin, target.getRequiredMask("/./admin//x"));
+		assertEquals(admin, target.getRequiredMask("/../../admin"));
+		assertEquals(registry.getMask("read"), target.getRequiredMask("/admin/../api/x"));
+		// A decoded path is not decoded again.
+		assertEquals(0L, target.getRequiredMask("/%61dmin/x"));
+		assertEquals(0L, target.getRequiredMask("/admin;x=y/x"));
+		assertEquals("/admin/100%25", ScopePathRules.normalize("/admin/./100%25"));
+		assertEquals("/", ScopePathRules.normalize("/api/.."));
+		assertEquals("/a%zz", ScopePathRules.normalize("/a%zz"));
+	}
+
+	@Test
+	public void testNormalizedRequestUri() throws Exception {
+		ScopeRegistry registry = new ScopeRegistry();
+		ScopePathRules target = new ScopePathRules(registry);
+		target.add("/admin/*", "admin");
+		target.add("/api/*", "read");
+		long admin = registry.getMask("admin");
+		assertEquals(admin, target.getRequiredMaskOfRequestUri("/%61dmin/x"));
+		assertEquals(admin, target.getRequiredMaskOfRequestUri("/admin;x=y/x"));
+		assertEquals(admin, target.getRequiredMaskOfRequestUri("/api/%2e%2e/admin/x"));
+		assertEquals(admin, target.getRequiredMaskOfRequestUri("/../../admin"));
+		assertEquals(0L, target.getRequiredMaskOfRequestUri(null));
+		assertEquals("/admin/x",
+				ScopePathRules.normalizeRequestUri("/api;a=b/..;c/%61dmin/./x"));
+		assertEquals("/a%zz", ScopePathRules.normalizeRequestUri("/a%zz"));
+	}
+
+	@Test
+	public void testSizeCountsReplacedRuleOnce() throws Exception {
+		ScopeRegistry registry = new ScopeRegistry();
+		ScopePathRules target = new ScopePathRules(registry);
+		target.add("/api/*", "read");
+		target.add("/api/*", "write");
+		target.add("/api", "read");
+		assertEquals(2, target.size());
+		assertEquals(registry.getMask("write"), target.getRequiredMask("/api/x"));
+	}
+
+	@Test
+	public void testInvalidPattern() throws Exception {
+		ScopePathRules target = new ScopePathRules(new ScopeRegistry());
+		try {
+			target.add("api/*", "read");
+			fail("IllegalArgumentException not occurred.");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Invalid path pattern: api/*", e.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.scope;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class ScopeRegistryTest {
+
+	@Test
+	public void testRegister() throws Exception {
+		ScopeRegistry target = new ScopeRegistry();
+		assertEquals(0, target.register("read"));
+		assertEquals(1, target.register("write"));
+		assertEquals(0, target.register("read"));
+		target.setScopes(" admin  write ");
+		assertEquals(3, target.size());
+		assertEquals(1L, target.getMask("read"));
+		assertEquals(4L, target.getMask("admin"));
+		assertEquals(0L, target.getMask("unknown"));
+		try {
+			target.register("read write");
+			fail("IllegalArgumentException not occurred.");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testMask() throws Exception {
+		ScopeRegistry target = new ScopeRegistry();
+		target.setScopes("read write admin");
+		assertEquals(0L, target.toMask(null));
+		assertEquals(0L, target.toMask(""));
+		assertEquals(5L, target.toMask("admin read"));
+		assertEquals(5L, target.toMask("  admin unknown  read "));
+		assertEquals(3L, target.compile("write read"));
+		try {
+			target.compile("read unknown");
+			fail("IllegalArgumentException not occurred.");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Unknown scope: unknown", e.getMessage());
+		}
+		assertEquals("read admin", target.toScope(5L));
+		assertEquals("", target.toScope(0L));
+		assertTrue(ScopeRegistry.containsAll(7L, 5L));
+		assertTrue(ScopeRegistry.containsAll(1L, 0L));
+		assertFalse(ScopeRegistry.containsAll(3L, 5L));
+	}
+
+	@Test
+	public void testMaxScopes() throws Exception {
+		ScopeRegistry target = new ScopeRegistry();
+		for (int i = 0; i < ScopeRegistry.MAX_SCOPES; i++) {
+			target.register("scope" + i);
+		}
+		assertEquals(Long.MIN_VALUE, target.getMask("scope63"));
+		assertEquals(-1L, target.toMask(target.toScope(-1L)));
+		try {
+			target.register("scope64");
+			fail("IllegalStateException not occurred.");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.jdkhttp;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.net.URI;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+public class HttpExchangeRequestAdapterTest {
+
+	@Test
+	public void testParameters() throws Exception {
+		Headers headers = new Headers();
+		headers.set("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+		headers.set("Authorization", "Basic abc");
+		HttpExchange exchange = createExchange("/token?client_id=query1&foo=bar", headers);
+		HttpExchangeRequestAdapter target = new HttpExchangeRequestAdapter(exchange,
+				"client_id=body1&grant_type=password&username=a%40b+c".getBytes("UTF-8"));
+
+		assertEquals("query1", target.getParameter("client_id"));
+		assertEquals("bar", target.getParameter("foo"));
+		assertEquals("password", target.getParameter("grant_type"));
+		assertEquals("a@b c", target.getParameter("username"));
+		assertNull(target.getParameter("unknown"));
+		assertEquals(4, target.getParameterMap().size());
+		assertEquals("Basic abc", target.getHeader("authorization"));
+		assertNull(target.getHeader("X-Unknown"));
+	}
+
+	@Test
+	public void testBodyIgnoredWithoutFormContentType() throws Exception {
+		Headers headers = new Headers();
+		headers.set("Content-Type", "application/json");
+		HttpExchange exchange = createExchange("/token", headers);
+		HttpExchangeRequestAdapter target = new HttpExchangeRequestAdapter(exchange,
+				"grant_type=password".getBytes("UTF-8"));
+
+		assertNull(target.getParameter("grant_type"));
+		assertEquals(0, target.getParameterMap().size());
+	}
+
+	@Test
+	public void testMalformedValueSkipped() throws Exception {
+		Headers headers = new Headers();
+		headers.set("Content-Type", "application/x-www-form-urlencoded");
+		HttpExchange exchange = createExchange("/validate", headers);
+		HttpExchangeRequestAdapter target = new HttpExchangeRequestAdapter(exchange,
+				"access_token=%zz&foo=bar".getBytes("UTF-8"));
+
+		assertNull(target.getParameter("access_token"));
+		assertEquals("bar", target.getParameter("foo"));
+		assertEquals(1, target.getParameterMap().size());
+	}
+
+	private HttpExchange createExchange(String uri, Headers headers) throws Exception {
+		HttpExchange exchange = createMock(HttpExchange.class);
+		expect(exchange.getRequestURI()).andReturn(new URI(uri)).anyTimes();
+		expect(exchange.getRequestHeaders()).andReturn(headers).anyTimes();
+		replay(exchange);
+		return exchange;
+	}
+
+}
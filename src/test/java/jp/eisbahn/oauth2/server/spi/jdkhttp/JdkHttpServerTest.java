@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.jdkhttp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource;
+import jp.eisbahn.oauth2.server.endpoint.Token;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.models.Request;
+
+public class JdkHttpServerTest {
+
+	private JdkHttpServer target;
+
+	@Before
+	public void setUp() throws Exception {
+		target = createServer(0);
+		target.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		target.stop();
+	}
+
+	@Test
+	public void testToken() throws Exception {
+		HttpURLConnection connection = postToken("grant_type=password");
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("application/json; charset=UTF-8", connection.getContentType());
+		assertEquals("no-store", connection.getHeaderField("Cache-Control"));
+		assertEquals("{\"access_token\":\"token1\"}",
+				IOUtils.toString(connection.getInputStream(), "UTF-8"));
+	}
+
+	@Test
+	public void testTokenMethodNotAllowed() throws Exception {
+		HttpURLConnection connection = open("/token");
+		assertEquals(405, connection.getResponseCode());
+		assertEquals("POST", connection.getHeaderField("Allow"));
+	}
+
+	@Test
+	public void testTokenTooLarge() throws Exception {
+		target.stop();
+		target = createServer(0);
+		target.setMaxContentLength(8);
+		target.start();
+		HttpURLConnection connection = postToken("grant_type=password");
+		assertEquals(413, connection.getResponseCode());
+	}
+
+	@Test
+	public void testValidate() throws Exception {
+		HttpURLConnection connection = open("/validate");
+		connection.setRequestProperty("Authorization", "Bearer token1");
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("{\"client_id\":\"client1\",\"remote_user\":\"user1\",\"scope\":\"scope1\"}",
+				IOUtils.toString(connection.getInputStream(), "UTF-8"));
+	}
+
+	@Test
+	public void testValidateInvalid() throws Exception {
+		HttpURLConnection connection = open("/validate");
+		connection.setRequestProperty("Authorization", "Bearer token2");
+		assertEquals(401, connection.getResponseCode());
+		assertEquals("Bearer error=\"invalid_token\", error_description=\"Invalid access token.\"",
+				connection.getHeaderField("WWW-Authenticate"));
+	}
+
+	@Test
+	public void testNotFound() throws Exception {
+		assertEquals(404, open("/unknown").getResponseCode());
+	}
+
+	@Test
+	public void testBoundedWorkerThreads() throws Exception {
+		target.stop();
+		target = createServer(2);
+		target.start();
+		for (int i = 0; i < 5; i++) {
+			assertEquals(200, postToken("grant_type=password").getResponseCode());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testStartWithoutEndpoints() throws Exception {
+		new JdkHttpServer().start();
+	}
+
+	private JdkHttpServer createServer(int workerThreads) {
+		Token token = new Token() {
+			@Override
+			public Response handleRequest(Request request) {
+				if ("password".equals(request.getParameter("grant_type"))) {
+					return new Response(200, "{\"access_token\":\"token1\"}");
+				}
+				return new Response(400, "{\"error\":\"unsupported_grant_type\"}");
+			}
+		};
+		ProtectedResource protectedResource = new ProtectedResource() {
+			@Override
+			public Response handleRequest(Request request) throws OAuthError {
+				if ("Bearer token1".equals(request.getHeader("Authorization"))) {
+					return new Response("user1", "client1", "scope1");
+				}
+				throw new OAuthError.InvalidToken("Invalid access token.");
+			}
+		};
+		JdkHttpServer server = new JdkHttpServer();
+		server.setPort(0);
+		server.setWorkerThreads(workerThreads);
+		server.setToken(token);
+		server.setProtectedResource(protectedResource);
+		return server;
+	}
+
+	private HttpURLConnection postToken(String body) throws Exception {
+		HttpURLConnection connection = open("/token");
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+		OutputStream out = connection.getOutputStream();
+		out.write(body.getBytes("UTF-8"));
+		out.close();
+		return connection;
+	}
+
+	private HttpURLConnection open(String path) throws Exception {
+		URL url = new URL("http://127.0.0.1:" + target.getBoundPort() + path);
+		return (HttpURLConnection)url.openConnection();
+	}
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+
+public class FullHttpRequestAdapterTest {
+
+	@Test
+	public void testParameters() throws Exception {
+		FullHttpRequest request = new DefaultFullHttpRequest(
+				HttpVersion.HTTP_1_1, HttpMethod.POST, "/token?client_id=query1&foo=bar",
+				Unpooled.copiedBuffer("client_id=body1&grant_type=password&username=a%40b+c",
+						CharsetUtil.UTF_8));
+		request.headers().set("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+		request.headers().set("Authorization", "Basic abc");
+		FullHttpRequestAdapter target = new FullHttpRequestAdapter(request);
+		request.release();
+
+		assertEquals("query1", target.getParameter("client_id"));
+		assertEquals("bar", target.getParameter("foo"));
+		assertEquals("password", target.getParameter("grant_type"));
+		assertEquals("a@b c", target.getParameter("username"));
+		assertNull(target.getParameter("unknown"));
+		assertEquals(4, target.getParameterMap().size());
+		assertEquals("Basic abc", target.getHeader("authorization"));
+		assertNull(target.getHeader("X-Unknown"));
+	}
+
+	@Test
+	public void testBodyIgnoredWithoutFormContentType() throws Exception {
+		FullHttpRequest request = new DefaultFullHttpRequest(
+				HttpVersion.HTTP_1_1, HttpMethod.POST, "/token",
+				Unpooled.copiedBuffer("grant_type=password", CharsetUtil.UTF_8));
+		request.headers().set("Content-Type", "application/json");
+		FullHttpRequestAdapter target = new FullHttpRequestAdapter(request);
+		request.release();
+
+		assertNull(target.getParameter("grant_type"));
+		assertEquals(0, target.getParameterMap().size());
+	}
+
+}
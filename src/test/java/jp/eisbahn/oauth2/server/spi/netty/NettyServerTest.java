@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource;
+import jp.eisbahn.oauth2.server.endpoint.Token;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.models.Request;
+
+public class NettyServerTest {
+
+	private NettyServer target;
+
+	@Before
+	public void setUp() throws Exception {
+		Token token = new Token() {
+			@Override
+			public Response handleRequest(Request request) {
+				if ("password".equals(request.getParameter("grant_type"))) {
+					return new Response(200, "{\"access_token\":\"token1\"}");
+				}
+				return new Response(400, "{\"error\":\"unsupported_grant_type\"}");
+			}
+		};
+		ProtectedResource protectedResource = new ProtectedResource() {
+			@Override
+			public Response handleRequest(Request request) throws OAuthError {
+				if ("Bearer token1".equals(request.getHeader("Authorization"))) {
+					return new Response("user1", "client1", "scope1");
+				}
+				throw new OAuthError.InvalidToken("Invalid access token.");
+			}
+		};
+		target = new NettyServer();
+		target.setPort(0);
+		target.setWorkerThreads(2);
+		target.setToken(token);
+		target.setProtectedResource(protectedResource);
+		target.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		target.stop();
+	}
+
+	@Test
+	public void testToken() throws Exception {
+		HttpURLConnection connection = open("/token");
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+		OutputStream out = connection.getOutputStream();
+		out.write("grant_type=password".getBytes("UTF-8"));
+		out.close();
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("application/json; charset=UTF-8", connection.getContentType());
+		assertEquals("{\"access_token\":\"token1\"}",
+				IOUtils.toString(connection.getInputStream(), "UTF-8"));
+	}
+
+	@Test
+	public void testTokenMethodNotAllowed() throws Exception {
+		HttpURLConnection connection = open("/token");
+		assertEquals(405, connection.getResponseCode());
+		assertEquals("POST", connection.getHeaderField("Allow"));
+	}
+
+	@Test
+	public void testValidate() throws Exception {
+		HttpURLConnection connection = open("/validate");
+		connection.setRequestProperty("Authorization", "Bearer token1");
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("{\"client_id\":\"client1\",\"remote_user\":\"user1\",\"scope\":\"scope1\"}",
+				IOUtils.toString(connection.getInputStream(), "UTF-8"));
+	}
+
+	@Test
+	public void testValidateInvalid() throws Exception {
+		HttpURLConnection connection = open("/validate");
+		connection.setRequestProperty("Authorization", "Bearer token2");
+		assertEquals(401, connection.getResponseCode());
+		assertEquals("Bearer error=\"invalid_token\", error_description=\"Invalid access token.\"",
+				connection.getHeaderField("WWW-Authenticate"));
+	}
+
+	@Test
+	public void testNotFound() throws Exception {
+		assertEquals(404, open("/unknown").getResponseCode());
+	}
+
+	@Test
+	public void testPipelining() throws Exception {
+		Socket socket = new Socket("127.0.0.1", target.getBoundPort());
+		try {
+			String body = "grant_type=password";
+			String tokenRequest = "POST /token HTTP/1.1\r\n"
+					+ "Host: localhost\r\n"
+					+ "Content-Type: application/x-www-form-urlencoded\r\n"
+					+ "Content-Length: " + body.length() + "\r\n\r\n" + body;
+			String validateRequest = "GET /validate HTTP/1.1\r\n"
+					+ "Host: localhost\r\n"
+					+ "Authorization: Bearer token2\r\n\r\n";
+			String closeRequest = "GET /validate HTTP/1.1\r\n"
+					+ "Host: localhost\r\n"
+					+ "Authorization: Bearer token1\r\n"
+					+ "Connection: close\r\n\r\n";
+			OutputStream out = socket.getOutputStream();
+			out.write((tokenRequest + validateRequest + closeRequest).getBytes("UTF-8"));
+			out.flush();
+			InputStream in = socket.getInputStream();
+			ByteArrayOutputStream received = new ByteArrayOutputStream();
+			IOUtils.copy(in, received);
+			String responses = received.toString("UTF-8");
+			int first = responses.indexOf("HTTP/1.1 200 OK");
+			int second = responses.indexOf("HTTP/1.1 401 Unauthorized");
+			int third = responses.indexOf("HTTP/1.1 200 OK", first + 1);
+			assertTrue(responses, first == 0);
+			assertTrue(responses, second > first);
+			assertTrue(responses, third > second);
+			assertTrue(responses, responses.indexOf("access_token") < second);
+			assertTrue(responses, responses.indexOf("remote_user") > third);
+		} finally {
+			socket.close();
+		}
+	}
+
+	private HttpURLConnection open(String path) throws Exception {
+		URL url = new URL("http://127.0.0.1:" + target.getBoundPort() + path);
+		return (HttpURLConnection)url.openConnection();
+	}
+
+}
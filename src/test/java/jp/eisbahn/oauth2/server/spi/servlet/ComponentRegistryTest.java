@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.cache.TokenCacheRegistry;
+import jp.eisbahn.oauth2.server.cache.impl.InMemoryValidationCache;
+
+public class ComponentRegistryTest {
+
+	private static final String DATA_HANDLER_FACTORY =
+			"jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl";
+	private static final String VALIDATION_CACHE =
+			"jp.eisbahn.oauth2.server.cache.impl.InMemoryValidationCache";
+
+	@Test
+	public void testGetInstance() throws Exception {
+		ComponentRegistry target = new ComponentRegistry();
+		Object instance = target.getInstance(DATA_HANDLER_FACTORY);
+		assertTrue(instance instanceof DummyDataHandlerFactoryImpl);
+		assertSame(instance, target.getInstance(DATA_HANDLER_FACTORY));
+		Object registered = new Object();
+		target.register("component1", registered);
+		assertSame(registered, target.getInstance("component1"));
+		assertEquals(Arrays.asList(DATA_HANDLER_FACTORY, "component1"),
+				target.getNames());
+		try {
+			target.register("component1", new Object());
+			fail("IllegalStateException not occurred.");
+		} catch (IllegalStateException e) {
+		}
+		try {
+			target.getInstance("jp.eisbahn.oauth2.server.Unknown");
+			fail("ClassNotFoundException not occurred.");
+		} catch (ClassNotFoundException e) {
+		}
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		final List<String> closed = new ArrayList<String>();
+		ComponentRegistry target = new ComponentRegistry();
+		target.register("component1", new Closeable() {
+			@Override
+			public void close() throws IOException {
+				closed.add("component1");
+			}
+		});
+		target.register("component2", new Object());
+		target.register("component3", new Closeable() {
+			@Override
+			public void close() throws IOException {
+				closed.add("component3");
+				throw new IOException("failed");
+			}
+		});
+		target.close();
+		assertEquals(Arrays.asList("component3", "component1"), closed);
+		assertTrue(target.getNames().isEmpty());
+	}
+
+	@Test
+	public void testListener() throws Exception {
+		ComponentRegistry registry = new ComponentRegistry();
+		ServletContext context = createMock(ServletContext.class);
+		expect(context.getAttribute(ComponentRegistry.ATTRIBUTE)).andReturn(null);
+		expect(context.getInitParameter("oauth2.components"))
+			.andReturn(DATA_HANDLER_FACTORY + ", " + VALIDATION_CACHE);
+		context.setAttribute(eq(ComponentRegistry.ATTRIBUTE),
+				isA(ComponentRegistry.class));
+		expect(context.getAttribute(ComponentRegistry.ATTRIBUTE)).andReturn(registry);
+		context.removeAttribute(ComponentRegistry.ATTRIBUTE);
+		replay(context);
+		ComponentRegistryListener target = new ComponentRegistryListener();
+		target.contextInitialized(new ServletContextEvent(context));
+		registry.getInstance(VALIDATION_CACHE);
+		target.contextDestroyed(new ServletContextEvent(context));
+		assertTrue(registry.getNames().isEmpty());
+		verify(context);
+		assertNull(ComponentRegistry.get(null));
+	}
+
+	@Test
+	public void testSharedByServletAndFilter() throws Exception {
+		ComponentRegistry registry = new ComponentRegistry();
+		TokenCacheRegistry cacheRegistry = new TokenCacheRegistry();
+		ServletContext context = createMock(ServletContext.class);
+		expect(context.getAttribute(ComponentRegistry.ATTRIBUTE))
+			.andReturn(registry).times(2);
+		expect(context.getAttribute(TokenCaches.REGISTRY_ATTRIBUTE))
+			.andReturn(cacheRegistry).times(2);
+
+		ServletConfig servletConfig = createMock(ServletConfig.class);
+		expect(servletConfig.getServletContext()).andReturn(context).times(2);
+		expect(servletConfig.getInitParameter("dataHandlerFactory")).andReturn(DATA_HANDLER_FACTORY);
+		expect(servletConfig.getInitParameter("grantHandlerProvider")).andReturn(null);
+		expect(servletConfig.getInitParameter("clientCredentialFetcher")).andReturn(null);
+		expect(servletConfig.getInitParameter("instrumentation")).andReturn(null);
+		expect(servletConfig.getInitParameter("executionMode")).andReturn(null);
+		expect(servletConfig.getInitParameter("requestParser")).andReturn(null);
+		expect(servletConfig.getInitParameter("rateLimiter")).andReturn(null);
+		expect(servletConfig.getInitParameter("failureTracker")).andReturn(null);
+		expect(servletConfig.getInitParameter("validationCache")).andReturn(VALIDATION_CACHE);
+		expect(servletConfig.getInitParameter("warmUpIterations")).andReturn(null);
+
+		FilterConfig filterConfig = createMock(FilterConfig.class);
+		expect(filterConfig.getServletContext()).andReturn(context).times(2);
+		expect(filterConfig.getInitParameter("dataHandlerFactory")).andReturn(DATA_HANDLER_FACTORY);
+		expect(filterConfig.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
+		expect(filterConfig.getInitParameter("instrumentation")).andReturn(null);
+		expect(filterConfig.getInitParameter("executionMode")).andReturn(null);
+		expect(filterConfig.getInitParameter("validationCache")).andReturn(VALIDATION_CACHE);
+		expect(filterConfig.getInitParameter("scopeRules")).andReturn(null);
+		expect(filterConfig.getInitParameter("scopeRulesFile")).andReturn(null);
+		expect(filterConfig.getInitParameter("warmUpIterations")).andReturn(null);
+		replay(context, servletConfig, filterConfig);
+
+		new TokenServlet().init(servletConfig);
+		new ProtectedResourceFilter().init(filterConfig);
+
+		assertEquals(Arrays.asList(DATA_HANDLER_FACTORY, VALIDATION_CACHE),
+				registry.getNames());
+		InMemoryValidationCache cache = registry.getInstance(VALIDATION_CACHE);
+		cache.putInvalid("accessToken1");
+		cacheRegistry.invalidate("accessToken1");
+		assertFalse(cache.isInvalid("accessToken1"));
+		verify(context, servletConfig, filterConfig);
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+import jp.eisbahn.oauth2.server.utils.FormParameters;
+
+import org.junit.Test;
+
+public class FormBodyRequestAdapterTest {
+
+	private static ServletInputStream stream(String body) throws Exception {
+		final ByteArrayInputStream in = new ByteArrayInputStream(body.getBytes("UTF-8"));
+		return new ServletInputStream() {
+			@Override
+			public int read() throws IOException {
+				return in.read();
+			}
+		};
+	}
+
+	@Test
+	public void testHasFormBody() {
+		HttpServletRequest request = createMock(HttpServletRequest.class);
+		expect(request.getContentType()).andReturn("Application/X-WWW-Form-Urlencoded; charset=UTF-8");
+		expect(request.getContentType()).andReturn("application/json");
+		expect(request.getContentType()).andReturn(null);
+		replay(request);
+		assertTrue(FormBodyRequestAdapter.hasFormBody(request));
+		assertFalse(FormBodyRequestAdapter.hasFormBody(request));
+		assertFalse(FormBodyRequestAdapter.hasFormBody(request));
+		verify(request);
+	}
+
+	@Test
+	public void testReadBody() throws Exception {
+		String body = "grant_type=password&username=user1&password=p%40ss";
+		HttpServletRequest request = createMock(HttpServletRequest.class);
+		expect(request.getContentLength()).andReturn(body.length());
+		expect(request.getInputStream()).andReturn(stream(body));
+		expect(request.getQueryString()).andReturn(null).times(2);
+		expect(request.getHeader("Authorization")).andReturn("Basic xxx");
+		replay(request);
+		FormParameters parameters = FormBodyRequestAdapter.readBody(request, 1024);
+		FormBodyRequestAdapter target = new FormBodyRequestAdapter(request, parameters);
+		assertEquals("password", target.getParameter("grant_type"));
+		assertEquals("p@ss", target.getParameter("password"));
+		assertNull(target.getParameter("scope"));
+		assertEquals("Basic xxx", target.getHeader("Authorization"));
+		assertEquals(3, target.getParameterMap().size());
+		verify(request);
+	}
+
+	@Test
+	public void testReadBodyChunked() throws Exception {
+		StringBuilder body = new StringBuilder("grant_type=client_credentials&pad=");
+		for (int i = 0; i < 10000; i++) {
+			body.append('x');
+		}
+		HttpServletRequest request = createMock(HttpServletRequest.class);
+		expect(request.getContentLength()).andReturn(-1).times(2);
+		expect(request.getInputStream()).andReturn(stream(body.toString()));
+		expect(request.getInputStream()).andReturn(stream(body.toString()));
+		replay(request);
+		FormParameters parameters = FormBodyRequestAdapter.readBody(request, 20000);
+		assertEquals("client_credentials", parameters.get("grant_type"));
+		assertEquals(10000, parameters.get("pad").length());
+		assertNull(FormBodyRequestAdapter.readBody(request, 8000));
+		verify(request);
+	}
+
+	@Test
+	public void testReadBodyTooLarge() throws Exception {
+		HttpServletRequest request = createMock(HttpServletRequest.class);
+		expect(request.getContentLength()).andReturn(2000);
+		replay(request);
+		assertNull(FormBodyRequestAdapter.readBody(request, 1024));
+		verify(request);
+	}
+
+	@Test
+	public void testQueryString() throws Exception {
+		String body = "grant_type=refresh_token";
+		HttpServletRequest request = createMock(HttpServletRequest.class);
+		expect(request.getContentLength()).andReturn(body.length());
+		expect(request.getInputStream()).andReturn(stream(body));
+		expect(request.getQueryString()).andReturn("refresh_token=r1").times(2);
+		expect(request.getParameter("refresh_token")).andReturn("r1");
+		@SuppressWarnings("serial")
+		Map<String, String[]> map = new HashMap<String, String[]>() {
+			{
+				put("refresh_token", new String[] {"r1"});
+				put("grant_type", new String[] {"other"});
+			}
+		};
+		expect(request.getParameterMap()).andReturn(map);
+		replay(request);
+		FormBodyRequestAdapter target = new FormBodyRequestAdapter(request,
+				FormBodyRequestAdapter.readBody(request, 1024));
+		assertEquals("refresh_token", target.getParameter("grant_type"));
+		assertEquals("r1", target.getParameter("refresh_token"));
+		Map<String, String> parameterMap = target.getParameterMap();
+		assertEquals(2, parameterMap.size());
+		assertEquals("refresh_token", parameterMap.get("grant_type"));
+		verify(request);
+	}
+
+}
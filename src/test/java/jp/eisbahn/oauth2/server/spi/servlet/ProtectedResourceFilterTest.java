@@ -22,10 +22,12 @@ import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
@@ -51,9 +53,16 @@ public class ProtectedResourceFilterTest {
 		FilterConfig config = createMock(FilterConfig.class);
 		FilterChain chain = createMock(FilterChain.class);
 		chain.doFilter(request, response);
+		expect(config.getServletContext()).andReturn(null);
 		expect(config.getInitParameter("dataHandlerFactory"))
 			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
 		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
+		expect(config.getInitParameter("instrumentation")).andReturn(null);
+		expect(config.getInitParameter("executionMode")).andReturn(null);
+		expect(config.getInitParameter("validationCache")).andReturn(null);
+		expect(config.getInitParameter("scopeRules")).andReturn(null);
+		expect(config.getInitParameter("scopeRulesFile")).andReturn(null);
+		expect(config.getInitParameter("warmUpIterations")).andReturn(null);
 		replay(request, response, config, chain);
 		ProtectedResourceFilter target = new ProtectedResourceFilter();
 		target.init(config);
@@ -73,10 +82,17 @@ public class ProtectedResourceFilterTest {
 		FilterConfig config = createMock(FilterConfig.class);
 		FilterChain chain = createMock(FilterChain.class);
 		chain.doFilter(request, response);
+		expect(config.getServletContext()).andReturn(null);
 		expect(config.getInitParameter("dataHandlerFactory"))
 			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
 		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(
 			"jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.DefaultAccessTokenFetcherProvider");
+		expect(config.getInitParameter("instrumentation")).andReturn(null);
+		expect(config.getInitParameter("executionMode")).andReturn(null);
+		expect(config.getInitParameter("validationCache")).andReturn(null);
+		expect(config.getInitParameter("scopeRules")).andReturn(null);
+		expect(config.getInitParameter("scopeRulesFile")).andReturn(null);
+		expect(config.getInitParameter("warmUpIterations")).andReturn(null);
 		replay(request, response, config, chain);
 		ProtectedResourceFilter target = new ProtectedResourceFilter();
 		target.init(config);
@@ -98,9 +114,16 @@ public class ProtectedResourceFilterTest {
 				+ "error_description=\"Access token was not specified.\"");
 		FilterConfig config = createMock(FilterConfig.class);
 		FilterChain chain = createMock(FilterChain.class);
+		expect(config.getServletContext()).andReturn(null);
 		expect(config.getInitParameter("dataHandlerFactory"))
 			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
 		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
+		expect(config.getInitParameter("instrumentation")).andReturn(null);
+		expect(config.getInitParameter("executionMode")).andReturn(null);
+		expect(config.getInitParameter("validationCache")).andReturn(null);
+		expect(config.getInitParameter("scopeRules")).andReturn(null);
+		expect(config.getInitParameter("scopeRulesFile")).andReturn(null);
+		expect(config.getInitParameter("warmUpIterations")).andReturn(null);
 		replay(request, response, config, chain);
 		ProtectedResourceFilter target = new ProtectedResourceFilter();
 		target.init(config);
@@ -109,9 +132,84 @@ public class ProtectedResourceFilterTest {
 		verify(request, response, config, chain);
 	}
 
+	@Test
+	public void testScopeRulesSatisfied() throws Exception {
+		assertScopeSatisfied("/api", "/users/1");
+	}
+
+	@Test
+	public void testScopeRulesInsufficient() throws Exception {
+		HttpServletRequest request = createMock(HttpServletRequest.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(2);
+		expect(request.getServletPath()).andReturn("/api/admin/users");
+		expect(request.getPathInfo()).andReturn(null);
+		HttpServletResponse response = createMock(HttpServletResponse.class);
+		response.setStatus(403);
+		response.setHeader("WWW-Authenticate",
+				"Bearer error=\"insufficient_scope\", "
+				+ "error_description=\"Insufficient scope.\", scope=\"admin\"");
+		FilterConfig config = createMock(FilterConfig.class);
+		FilterChain chain = createMock(FilterChain.class);
+		expect(config.getServletContext()).andReturn(null);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
+		expect(config.getInitParameter("instrumentation")).andReturn(null);
+		expect(config.getInitParameter("executionMode")).andReturn(null);
+		expect(config.getInitParameter("validationCache")).andReturn(null);
+		expect(config.getInitParameter("scopeRules"))
+			.andReturn("/api/admin/* admin; /api/* scope1");
+		expect(config.getInitParameter("scopeRulesFile")).andReturn(null);
+		expect(config.getInitParameter("warmUpIterations")).andReturn(null);
+		replay(request, response, config, chain);
+		ProtectedResourceFilter target = new ProtectedResourceFilter();
+		target.init(config);
+		target.doFilter(request, response, chain);
+		target.destroy();
+		verify(request, response, config, chain);
+	}
+
+	@Test
+	public void testScopeRulesLiteralPercent() throws Exception {
+		// The container has decoded "/%2561dmin" already.
+		assertScopeSatisfied("/api", "/%61dmin/users");
+	}
+
+	@Test
+	public void testScopeRulesDotSegment() throws Exception {
+		assertInsufficientScope("/api", "/public/../admin/users");
+	}
+
+	@Test
+	public void testScopeRulesFileNotFound() throws Exception {
+		FilterConfig config = createMock(FilterConfig.class);
+		ServletContext context = createMock(ServletContext.class);
+		expect(config.getServletContext()).andReturn(null);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
+		expect(config.getInitParameter("instrumentation")).andReturn(null);
+		expect(config.getInitParameter("executionMode")).andReturn(null);
+		expect(config.getInitParameter("validationCache")).andReturn(null);
+		expect(config.getInitParameter("scopeRules")).andReturn(null);
+		expect(config.getInitParameter("scopeRulesFile")).andReturn("/WEB-INF/none.txt");
+		expect(config.getServletContext()).andReturn(context);
+		expect(context.getResourceAsStream("/WEB-INF/none.txt")).andReturn(null);
+		replay(config, context);
+		ProtectedResourceFilter target = new ProtectedResourceFilter();
+		try {
+			target.init(config);
+			fail("ServletException not occurred.");
+		} catch (ServletException e) {
+			assertEquals("Scope rules file not found: /WEB-INF/none.txt", e.getMessage());
+		}
+		verify(config, context);
+	}
+
 	@Test
 	public void testClassNotFound() throws Exception {
 		FilterConfig config = createMock(FilterConfig.class);
+		expect(config.getServletContext()).andReturn(null);
 		expect(config.getInitParameter("dataHandlerFactory")).andReturn("evil");
 		replay(config);
 
@@ -127,6 +225,7 @@ public class ProtectedResourceFilterTest {
 	@Test
 	public void testIllegalAccessException() throws Exception {
 		FilterConfig config = createMock(FilterConfig.class);
+		expect(config.getServletContext()).andReturn(null);
 		expect(config.getInitParameter("dataHandlerFactory")).andReturn(
 			EvilDataHandlerFactory.class.getName());
 		replay(config);
@@ -143,6 +242,7 @@ public class ProtectedResourceFilterTest {
 	@Test
 	public void testInstantiationException() throws Exception {
 		FilterConfig config = createMock(FilterConfig.class);
+		expect(config.getServletContext()).andReturn(null);
 		expect(config.getInitParameter("dataHandlerFactory")).andReturn(
 			DataHandlerFactory.class.getName());
 		replay(config);
@@ -178,9 +278,16 @@ public class ProtectedResourceFilterTest {
 		ServletResponse response = createMock(ServletResponse.class);
 		FilterConfig config = createMock(FilterConfig.class);
 		FilterChain chain = createMock(FilterChain.class);
+		expect(config.getServletContext()).andReturn(null);
 		expect(config.getInitParameter("dataHandlerFactory"))
 			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
 		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
+		expect(config.getInitParameter("instrumentation")).andReturn(null);
+		expect(config.getInitParameter("executionMode")).andReturn(null);
+		expect(config.getInitParameter("validationCache")).andReturn(null);
+		expect(config.getInitParameter("scopeRules")).andReturn(null);
+		expect(config.getInitParameter("scopeRulesFile")).andReturn(null);
+		expect(config.getInitParameter("warmUpIterations")).andReturn(null);
 		replay(request, response, config, chain);
 		ProtectedResourceFilter target = new ProtectedResourceFilter();
 		target.init(config);
@@ -205,4 +312,69 @@ public class ProtectedResourceFilterTest {
 
 	}
 
+	private void assertScopeSatisfied(String servletPath, String pathInfo)
+			throws Exception {
+		HttpServletRequest request = createMock(HttpServletRequest.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(2);
+		expect(request.getServletPath()).andReturn(servletPath);
+		expect(request.getPathInfo()).andReturn(pathInfo);
+		request.setAttribute("scope_mask", 2L);
+		request.setAttribute("client_id", "clientId1");
+		request.setAttribute("remote_user", "userId1");
+		request.setAttribute("scope", "scope1");
+		HttpServletResponse response = createMock(HttpServletResponse.class);
+		FilterConfig config = createMock(FilterConfig.class);
+		FilterChain chain = createMock(FilterChain.class);
+		chain.doFilter(request, response);
+		expect(config.getServletContext()).andReturn(null);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
+		expect(config.getInitParameter("instrumentation")).andReturn(null);
+		expect(config.getInitParameter("executionMode")).andReturn(null);
+		expect(config.getInitParameter("validationCache")).andReturn(null);
+		expect(config.getInitParameter("scopeRules"))
+			.andReturn("/api/admin/* admin\n/api/* scope1");
+		expect(config.getInitParameter("scopeRulesFile")).andReturn(null);
+		expect(config.getInitParameter("warmUpIterations")).andReturn(null);
+		replay(request, response, config, chain);
+		ProtectedResourceFilter target = new ProtectedResourceFilter();
+		target.init(config);
+		target.doFilter(request, response, chain);
+		target.destroy();
+		verify(request, response, config, chain);
+	}
+
+	private void assertInsufficientScope(String servletPath, String pathInfo)
+			throws Exception {
+		HttpServletRequest request = createMock(HttpServletRequest.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(2);
+		expect(request.getServletPath()).andReturn(servletPath);
+		expect(request.getPathInfo()).andReturn(pathInfo);
+		HttpServletResponse response = createMock(HttpServletResponse.class);
+		response.setStatus(403);
+		response.setHeader("WWW-Authenticate",
+				"Bearer error=\"insufficient_scope\", "
+				+ "error_description=\"Insufficient scope.\", scope=\"admin\"");
+		FilterConfig config = createMock(FilterConfig.class);
+		FilterChain chain = createMock(FilterChain.class);
+		expect(config.getServletContext()).andReturn(null);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
+		expect(config.getInitParameter("instrumentation")).andReturn(null);
+		expect(config.getInitParameter("executionMode")).andReturn(null);
+		expect(config.getInitParameter("validationCache")).andReturn(null);
+		expect(config.getInitParameter("scopeRules"))
+			.andReturn("/api/admin/* admin; /api/* scope1");
+		expect(config.getInitParameter("scopeRulesFile")).andReturn(null);
+		expect(config.getInitParameter("warmUpIterations")).andReturn(null);
+		replay(request, response, config, chain);
+		ProtectedResourceFilter target = new ProtectedResourceFilter();
+		target.init(config);
+		target.doFilter(request, response, chain);
+		target.destroy();
+		verify(request, response, config, chain);
+	}
+
 }
@@ -22,18 +22,28 @@ import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
 
 import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.granttype.impl.DefaultGrantHandlerProvider;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.ratelimit.FailureTracker;
+import jp.eisbahn.oauth2.server.utils.Util;
 
 import org.junit.Test;
 
@@ -56,10 +66,18 @@ public class TokenServletTest {
 		response.setContentType("application/json; charset=UTF-8");
 		expect(response.getWriter()).andReturn(writer);
 		ServletConfig config = createMock(ServletConfig.class);
+		expect(config.getServletContext()).andReturn(null);
 		expect(config.getInitParameter("dataHandlerFactory"))
 			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
 		expect(config.getInitParameter("grantHandlerProvider")).andReturn(null);
 		expect(config.getInitParameter("clientCredentialFetcher")).andReturn(null);
+		expect(config.getInitParameter("instrumentation")).andReturn(null);
+		expect(config.getInitParameter("executionMode")).andReturn(null);
+		expect(config.getInitParameter("requestParser")).andReturn(null);
+		expect(config.getInitParameter("rateLimiter")).andReturn(null);
+		expect(config.getInitParameter("failureTracker")).andReturn(null);
+		expect(config.getInitParameter("validationCache")).andReturn(null);
+		expect(config.getInitParameter("warmUpIterations")).andReturn(null);
 		replay(request, response, config, writer);
 
 		TokenServlet target = new TokenServlet();
@@ -86,11 +104,19 @@ public class TokenServletTest {
 		response.setContentType("application/json; charset=UTF-8");
 		expect(response.getWriter()).andReturn(writer);
 		ServletConfig config = createMock(ServletConfig.class);
+		expect(config.getServletContext()).andReturn(null);
 		expect(config.getInitParameter("dataHandlerFactory"))
 			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
 		expect(config.getInitParameter("grantHandlerProvider")).andReturn(
 				"jp.eisbahn.oauth2.server.granttype.impl.DefaultGrantHandlerProvider");
 		expect(config.getInitParameter("clientCredentialFetcher")).andReturn(null);
+		expect(config.getInitParameter("instrumentation")).andReturn(null);
+		expect(config.getInitParameter("executionMode")).andReturn(null);
+		expect(config.getInitParameter("requestParser")).andReturn(null);
+		expect(config.getInitParameter("rateLimiter")).andReturn(null);
+		expect(config.getInitParameter("failureTracker")).andReturn(null);
+		expect(config.getInitParameter("validationCache")).andReturn(null);
+		expect(config.getInitParameter("warmUpIterations")).andReturn(null);
 		replay(request, response, config, writer);
 
 		TokenServlet target = new TokenServlet();
@@ -117,12 +143,20 @@ public class TokenServletTest {
 		response.setContentType("application/json; charset=UTF-8");
 		expect(response.getWriter()).andReturn(writer);
 		ServletConfig config = createMock(ServletConfig.class);
+		expect(config.getServletContext()).andReturn(null);
 		expect(config.getInitParameter("dataHandlerFactory"))
 			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
 		expect(config.getInitParameter("grantHandlerProvider")).andReturn(
 				"jp.eisbahn.oauth2.server.granttype.impl.DefaultGrantHandlerProvider");
 		expect(config.getInitParameter("clientCredentialFetcher")).andReturn(
 				"jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcherImpl");
+		expect(config.getInitParameter("instrumentation")).andReturn(null);
+		expect(config.getInitParameter("executionMode")).andReturn(null);
+		expect(config.getInitParameter("requestParser")).andReturn(null);
+		expect(config.getInitParameter("rateLimiter")).andReturn(null);
+		expect(config.getInitParameter("failureTracker")).andReturn(null);
+		expect(config.getInitParameter("validationCache")).andReturn(null);
+		expect(config.getInitParameter("warmUpIterations")).andReturn(null);
 		replay(request, response, config, writer);
 
 		TokenServlet target = new TokenServlet();
@@ -132,9 +166,219 @@ public class TokenServletTest {
 		verify(request, response, config, writer);
 	}
 
+	@Test
+	public void testStreamingParser() throws Exception {
+		String body = "grant_type=authorization_code&client_id=clientId1"
+				+ "&client_secret=clientSecret1&code=code1&redirect_uri=redirectUri1";
+		HttpServletRequest request = createMock(HttpServletRequest.class);
+		expect(request.getContentType()).andReturn("application/x-www-form-urlencoded");
+		expect(request.getContentLength()).andReturn(body.length());
+		expect(request.getInputStream()).andReturn(stream(body));
+		expect(request.getQueryString()).andReturn(null).anyTimes();
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(2);
+		PrintWriter writer = createMock(PrintWriter.class);
+		writer.write("{\"token_type\":\"Bearer\",\"access_token\":\"accessToken1\",\"refresh_token\":\"refreshToken1\",\"expires_in\":900,\"scope\":\"scope1\"}");
+		writer.flush();
+		HttpServletResponse response = createMock(HttpServletResponse.class);
+		response.setStatus(200);
+		response.setContentType("application/json; charset=UTF-8");
+		expect(response.getWriter()).andReturn(writer);
+		ServletConfig config = createStreamingConfig();
+		replay(request, response, config, writer);
+
+		TokenServlet target = new TokenServlet();
+		target.init(config);
+		target.doPost(request, response);
+
+		verify(request, response, config, writer);
+	}
+
+	@Test
+	public void testStreamingParserMalformedBody() throws Exception {
+		String body = "grant_type=authorization_code&code=%zz";
+		HttpServletRequest request = createMock(HttpServletRequest.class);
+		expect(request.getContentType()).andReturn("application/x-www-form-urlencoded");
+		expect(request.getContentLength()).andReturn(body.length());
+		expect(request.getInputStream()).andReturn(stream(body));
+		PrintWriter writer = createMock(PrintWriter.class);
+		writer.write("{\"error\":\"invalid_request\",\"error_description\":\"Malformed request body.\"}");
+		writer.flush();
+		HttpServletResponse response = createMock(HttpServletResponse.class);
+		response.setStatus(400);
+		response.setContentType("application/json; charset=UTF-8");
+		expect(response.getWriter()).andReturn(writer);
+		ServletConfig config = createStreamingConfig();
+		replay(request, response, config, writer);
+
+		TokenServlet target = new TokenServlet();
+		target.init(config);
+		target.doPost(request, response);
+
+		verify(request, response, config, writer);
+	}
+
+	private ServletConfig createStreamingConfig() {
+		ServletConfig config = createMock(ServletConfig.class);
+		expect(config.getServletContext()).andReturn(null);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("grantHandlerProvider")).andReturn(null);
+		expect(config.getInitParameter("clientCredentialFetcher")).andReturn(null);
+		expect(config.getInitParameter("instrumentation")).andReturn(null);
+		expect(config.getInitParameter("executionMode")).andReturn(null);
+		expect(config.getInitParameter("requestParser")).andReturn("streaming");
+		expect(config.getInitParameter("rateLimiter")).andReturn(null);
+		expect(config.getInitParameter("failureTracker")).andReturn(null);
+		expect(config.getInitParameter("validationCache")).andReturn(null);
+		expect(config.getInitParameter("warmUpIterations")).andReturn(null);
+		return config;
+	}
+
+	private static ServletInputStream stream(String body) throws Exception {
+		final ByteArrayInputStream in = new ByteArrayInputStream(body.getBytes("UTF-8"));
+		return new ServletInputStream() {
+			@Override
+			public int read() throws IOException {
+				return in.read();
+			}
+		};
+	}
+
+	@Test
+	public void testInitWithWarmUp() throws Exception {
+		ServletConfig config = createMock(ServletConfig.class);
+		expect(config.getServletContext()).andReturn(null);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("grantHandlerProvider")).andReturn(null);
+		expect(config.getInitParameter("clientCredentialFetcher")).andReturn(null);
+		expect(config.getInitParameter("instrumentation")).andReturn(null);
+		expect(config.getInitParameter("executionMode")).andReturn(null);
+		expect(config.getInitParameter("requestParser")).andReturn(null);
+		expect(config.getInitParameter("rateLimiter")).andReturn(null);
+		expect(config.getInitParameter("failureTracker")).andReturn(null);
+		expect(config.getInitParameter("validationCache")).andReturn(null);
+		expect(config.getInitParameter("warmUpIterations")).andReturn("10");
+		replay(config);
+		new TokenServlet().init(config);
+		verify(config);
+	}
+
+	@Test
+	public void testInitWithInvalidWarmUpIterations() throws Exception {
+		ServletConfig config = createMock(ServletConfig.class);
+		expect(config.getServletContext()).andReturn(null);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("grantHandlerProvider")).andReturn(null);
+		expect(config.getInitParameter("clientCredentialFetcher")).andReturn(null);
+		expect(config.getInitParameter("instrumentation")).andReturn(null);
+		expect(config.getInitParameter("executionMode")).andReturn(null);
+		expect(config.getInitParameter("requestParser")).andReturn(null);
+		expect(config.getInitParameter("rateLimiter")).andReturn(null);
+		expect(config.getInitParameter("failureTracker")).andReturn(null);
+		expect(config.getInitParameter("validationCache")).andReturn(null);
+		expect(config.getInitParameter("warmUpIterations")).andReturn("many");
+		replay(config);
+		try {
+			new TokenServlet().init(config);
+			fail("ServletException not occurred.");
+		} catch (ServletException e) {
+			assertEquals("Invalid warm-up iterations: many", e.getMessage());
+		}
+		verify(config);
+	}
+
+	@Test
+	public void testInitWithInstrumentations() throws Exception {
+		ServletConfig config = createMock(ServletConfig.class);
+		expect(config.getServletContext()).andReturn(null);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("grantHandlerProvider")).andReturn(null);
+		expect(config.getInitParameter("clientCredentialFetcher")).andReturn(null);
+		expect(config.getInitParameter("instrumentation")).andReturn(
+				"jp.eisbahn.oauth2.server.instrumentation.impl.NoopInstrumentation, "
+				+ "jp.eisbahn.oauth2.server.instrumentation.impl.JfrInstrumentation");
+		expect(config.getInitParameter("executionMode")).andReturn(null);
+		expect(config.getInitParameter("requestParser")).andReturn(null);
+		expect(config.getInitParameter("rateLimiter")).andReturn(null);
+		expect(config.getInitParameter("failureTracker")).andReturn(null);
+		expect(config.getInitParameter("validationCache")).andReturn(null);
+		expect(config.getInitParameter("warmUpIterations")).andReturn(null);
+		replay(config);
+
+		TokenServlet target = new TokenServlet();
+		target.init(config);
+
+		verify(config);
+	}
+
+	@Test
+	public void testInitWithFailureTracker() throws Exception {
+		FailureTracker failureTracker = createMock(FailureTracker.class);
+		expect(failureTracker.isBlocked("client:clientId1")).andReturn(true);
+		expect(failureTracker.isBlocked("user:username1")).andReturn(true);
+		DefaultGrantHandlerProvider provider = new DefaultGrantHandlerProvider();
+		ComponentRegistry registry = new ComponentRegistry();
+		registry.register("failureTracker1", failureTracker);
+		registry.register("grantHandlerProvider1", provider);
+		ServletContext context = createMock(ServletContext.class);
+		expect(context.getAttribute(ComponentRegistry.ATTRIBUTE)).andReturn(registry);
+		ServletConfig config = createMock(ServletConfig.class);
+		expect(config.getServletContext()).andReturn(context);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("grantHandlerProvider")).andReturn("grantHandlerProvider1");
+		expect(config.getInitParameter("clientCredentialFetcher")).andReturn(null);
+		expect(config.getInitParameter("instrumentation")).andReturn(null);
+		expect(config.getInitParameter("executionMode")).andReturn(null);
+		expect(config.getInitParameter("requestParser")).andReturn(null);
+		expect(config.getInitParameter("rateLimiter")).andReturn(null);
+		expect(config.getInitParameter("failureTracker")).andReturn("failureTracker1");
+		expect(config.getInitParameter("validationCache")).andReturn(null);
+		expect(config.getInitParameter("warmUpIterations")).andReturn(null);
+		HttpServletRequest request = createMock(HttpServletRequest.class);
+		expect(request.getParameter("grant_type")).andReturn("password");
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
+		PrintWriter writer = createMock(PrintWriter.class);
+		writer.write(Util.toJson(new OAuthError.TooManyRequests()));
+		writer.flush();
+		HttpServletResponse response = createMock(HttpServletResponse.class);
+		response.setStatus(429);
+		response.setContentType("application/json; charset=UTF-8");
+		expect(response.getWriter()).andReturn(writer);
+		Request passwordRequest = createMock(Request.class);
+		expect(passwordRequest.getHeader("Authorization")).andReturn(null);
+		expect(passwordRequest.getParameter("client_id")).andReturn("clientId1");
+		expect(passwordRequest.getParameter("client_secret")).andReturn("clientSecret1");
+		expect(passwordRequest.getParameter("username")).andReturn("username1");
+		expect(passwordRequest.getParameter("password")).andReturn("password1");
+		DataHandler dataHandler = createMock(DataHandler.class);
+		expect(dataHandler.getRequest()).andReturn(passwordRequest);
+		replay(failureTracker, context, config, request, writer, response,
+				passwordRequest, dataHandler);
+
+		TokenServlet target = new TokenServlet();
+		target.init(config);
+		target.doPost(request, response);
+		try {
+			provider.getHandler("password").handleRequest(dataHandler);
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertTrue(e instanceof OAuthError.TooManyRequests);
+		}
+
+		verify(failureTracker, context, config, request, writer, response,
+				passwordRequest, dataHandler);
+	}
+
 	@Test
 	public void testClassNotFound() throws Exception {
 		ServletConfig config = createMock(ServletConfig.class);
+		expect(config.getServletContext()).andReturn(null);
 		expect(config.getInitParameter("dataHandlerFactory")).andReturn("evil");
 		replay(config);
 
@@ -150,6 +394,7 @@ public class TokenServletTest {
 	@Test
 	public void testIllegalAccessException() throws Exception {
 		ServletConfig config = createMock(ServletConfig.class);
+		expect(config.getServletContext()).andReturn(null);
 		expect(config.getInitParameter("dataHandlerFactory")).andReturn(
 				EvilDataHandlerFactory.class.getName());
 		replay(config);
@@ -166,6 +411,7 @@ public class TokenServletTest {
 	@Test
 	public void testInstantiationException() throws Exception {
 		ServletConfig config = createMock(ServletConfig.class);
+		expect(config.getServletContext()).andReturn(null);
 		expect(config.getInitParameter("dataHandlerFactory")).andReturn(
 				DataHandlerFactory.class.getName());
 		replay(config);
@@ -0,0 +1,409 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+
+public class VirtualThreadExecutionTest {
+
+	private static final int REQUESTS = 200;
+	private static final long LATENCY_MILLIS = 50;
+
+	@Before
+	public void setUp() {
+		SlowDataHandlerFactory.current.set(0);
+		SlowDataHandlerFactory.peak.set(0);
+	}
+
+	@Test
+	public void testTokenServlet() throws Exception {
+		ServletConfig config = createMock(ServletConfig.class);
+		expect(config.getServletContext()).andReturn(null);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn(SlowDataHandlerFactory.class.getName());
+		expect(config.getInitParameter("grantHandlerProvider")).andReturn(null);
+		expect(config.getInitParameter("clientCredentialFetcher")).andReturn(null);
+		expect(config.getInitParameter("instrumentation")).andReturn(null);
+		expect(config.getInitParameter("executionMode")).andReturn("virtualThread");
+		expect(config.getInitParameter("requestParser")).andReturn(null);
+		expect(config.getInitParameter("rateLimiter")).andReturn(null);
+		expect(config.getInitParameter("failureTracker")).andReturn(null);
+		expect(config.getInitParameter("validationCache")).andReturn(null);
+		expect(config.getInitParameter("warmUpIterations")).andReturn(null);
+		replay(config);
+		TokenServlet target = new TokenServlet();
+		target.init(config);
+
+		CountDownLatch latch = new CountDownLatch(REQUESTS);
+		Exchange[] exchanges = new Exchange[REQUESTS];
+		for (int i = 0; i < REQUESTS; i++) {
+			Map<String, String> params = new HashMap<String, String>();
+			params.put("grant_type", "password");
+			params.put("client_id", "clientId" + i);
+			params.put("client_secret", "secret");
+			params.put("username", "user" + i);
+			params.put("password", "pass");
+			exchanges[i] = new Exchange(params, null, latch, null);
+			target.doPost(exchanges[i].request, exchanges[i].response);
+		}
+		assertTrue(latch.await(30, TimeUnit.SECONDS));
+		target.destroy();
+
+		for (int i = 0; i < REQUESTS; i++) {
+			assertEquals(200, exchanges[i].status);
+			assertTrue(exchanges[i].body.toString().contains("\"access_token\":\"token-user" + i + "\""));
+		}
+		// The container's thread never waited for the slow DataHandler.
+		assertTrue("peak=" + SlowDataHandlerFactory.peak.get(),
+				SlowDataHandlerFactory.peak.get() > REQUESTS / 4);
+	}
+
+	@Test
+	public void testProtectedResourceFilter() throws Exception {
+		assertProtectedResourceFilter(true);
+	}
+
+	@Test
+	public void testProtectedResourceFilterWithoutAsyncMapping() throws Exception {
+		// The dispatched request goes to the servlet without this filter.
+		assertProtectedResourceFilter(false);
+	}
+
+	private void assertProtectedResourceFilter(boolean asyncMapped) throws Exception {
+		FilterConfig config = createMock(FilterConfig.class);
+		expect(config.getServletContext()).andReturn(null);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn(SlowDataHandlerFactory.class.getName());
+		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
+		expect(config.getInitParameter("instrumentation")).andReturn(null);
+		expect(config.getInitParameter("executionMode")).andReturn("virtualThread");
+		expect(config.getInitParameter("validationCache")).andReturn(null);
+		expect(config.getInitParameter("scopeRules")).andReturn(null);
+		expect(config.getInitParameter("scopeRulesFile")).andReturn(null);
+		expect(config.getInitParameter("warmUpIterations")).andReturn(null);
+		replay(config);
+		final ProtectedResourceFilter target = new ProtectedResourceFilter();
+		target.init(config);
+
+		final AtomicInteger passed = new AtomicInteger();
+		final Map<String, Object> clientIds = new ConcurrentHashMap<String, Object>();
+		FilterChain chain = new FilterChain() {
+			@Override
+			public void doFilter(ServletRequest req, ServletResponse resp) {
+				passed.incrementAndGet();
+				clientIds.put((String)req.getAttribute("remote_user"),
+						req.getAttribute("client_id"));
+			}
+		};
+		CountDownLatch latch = new CountDownLatch(REQUESTS);
+		Exchange[] exchanges = new Exchange[REQUESTS];
+		for (int i = 0; i < REQUESTS; i++) {
+			String token = i % 10 == 0 ? "invalid" : "token" + i;
+			exchanges[i] = new Exchange(new HashMap<String, String>(),
+					"Bearer " + token, latch,
+					new Dispatcher(asyncMapped ? target : null, chain));
+			target.doFilter(exchanges[i].request, exchanges[i].response, chain);
+		}
+		assertTrue(latch.await(30, TimeUnit.SECONDS));
+		target.destroy();
+
+		assertEquals(REQUESTS - REQUESTS / 10, passed.get());
+		for (int i = 0; i < REQUESTS; i++) {
+			if (i % 10 == 0) {
+				assertEquals(401, exchanges[i].status);
+				assertEquals("Bearer error=\"invalid_token\", error_description=\"Invalid access token.\"",
+						exchanges[i].headers.get("WWW-Authenticate"));
+			} else {
+				assertEquals("clientId" + i, clientIds.get("userId" + i));
+			}
+		}
+		assertTrue("peak=" + SlowDataHandlerFactory.peak.get(),
+				SlowDataHandlerFactory.peak.get() > REQUESTS / 4);
+	}
+
+	@Test
+	public void testUnknownExecutionMode() throws Exception {
+		ServletConfig config = createMock(ServletConfig.class);
+		expect(config.getServletContext()).andReturn(null);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn(SlowDataHandlerFactory.class.getName());
+		expect(config.getInitParameter("grantHandlerProvider")).andReturn(null);
+		expect(config.getInitParameter("clientCredentialFetcher")).andReturn(null);
+		expect(config.getInitParameter("instrumentation")).andReturn(null);
+		expect(config.getInitParameter("executionMode")).andReturn("unknown");
+		replay(config);
+		try {
+			new TokenServlet().init(config);
+			fail("ServletException not occurred.");
+		} catch (ServletException e) {
+			assertEquals("Unknown execution mode: unknown", e.getMessage());
+		}
+	}
+
+	private static class Dispatcher {
+
+		private ProtectedResourceFilter filter;
+		private FilterChain chain;
+
+		private Dispatcher(ProtectedResourceFilter filter, FilterChain chain) {
+			this.filter = filter;
+			this.chain = chain;
+		}
+
+	}
+
+	private static class Exchange {
+
+		private HttpServletRequest request;
+		private HttpServletResponse response;
+		private volatile int status;
+		private StringWriter body = new StringWriter();
+		private Map<String, String> headers = new ConcurrentHashMap<String, String>();
+
+		private Exchange(final Map<String, String> params, final String authorization,
+				final CountDownLatch latch, final Dispatcher dispatcher) {
+			final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+			final DispatcherType[] dispatcherType = {DispatcherType.REQUEST};
+			final AsyncContext asyncContext = fake(AsyncContext.class, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args)
+						throws Throwable {
+					String name = method.getName();
+					if (name.equals("getRequest")) {
+						return request;
+					} else if (name.equals("getResponse")) {
+						return response;
+					} else if (name.equals("complete")) {
+						latch.countDown();
+					} else if (name.equals("dispatch")) {
+						dispatcherType[0] = DispatcherType.ASYNC;
+						if (dispatcher.filter != null) {
+							dispatcher.filter.doFilter(request, response, dispatcher.chain);
+						} else {
+							dispatcher.chain.doFilter(request, response);
+						}
+						latch.countDown();
+					}
+					return null;
+				}
+			});
+			request = fake(HttpServletRequest.class, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args)
+						throws Throwable {
+					String name = method.getName();
+					if (name.equals("getParameter")) {
+						return params.get(args[0]);
+					} else if (name.equals("getHeader")) {
+						return "Authorization".equals(args[0]) ? authorization : null;
+					} else if (name.equals("isAsyncSupported")) {
+						return true;
+					} else if (name.equals("startAsync")) {
+						return asyncContext;
+					} else if (name.equals("getDispatcherType")) {
+						return dispatcherType[0];
+					} else if (name.equals("getAttribute")) {
+						return attributes.get(args[0]);
+					} else if (name.equals("setAttribute")) {
+						if (args[1] != null) {
+							attributes.put((String)args[0], args[1]);
+						}
+					} else if (name.equals("removeAttribute")) {
+						attributes.remove(args[0]);
+					}
+					return null;
+				}
+			});
+			response = fake(HttpServletResponse.class, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args)
+						throws Throwable {
+					String name = method.getName();
+					if (name.equals("setStatus")) {
+						status = (Integer)args[0];
+					} else if (name.equals("setHeader")) {
+						headers.put((String)args[0], (String)args[1]);
+					} else if (name.equals("getWriter")) {
+						return new PrintWriter(body);
+					} else if (name.equals("isCommitted")) {
+						return false;
+					}
+					return null;
+				}
+			});
+		}
+
+		private static <T> T fake(Class<T> type, InvocationHandler handler) {
+			return type.cast(Proxy.newProxyInstance(
+					VirtualThreadExecutionTest.class.getClassLoader(),
+					new Class<?>[] {type}, handler));
+		}
+
+	}
+
+	public static class SlowDataHandlerFactory implements DataHandlerFactory {
+
+		private static final AtomicInteger current = new AtomicInteger();
+		private static final AtomicInteger peak = new AtomicInteger();
+
+		@Override
+		public DataHandler create(Request request) {
+			return new SlowDataHandler(request);
+		}
+
+		private static void block() {
+			int now = current.incrementAndGet();
+			int max = peak.get();
+			while (now > max && !peak.compareAndSet(max, now)) {
+				max = peak.get();
+			}
+			try {
+				Thread.sleep(LATENCY_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				current.decrementAndGet();
+			}
+		}
+
+	}
+
+	private static class SlowDataHandler extends DataHandler {
+
+		public SlowDataHandler(Request request) {
+			super(request);
+		}
+
+		@Override
+		public boolean validateClient(String clientId, String clientSecret,
+				String grantType) {
+			return true;
+		}
+
+		@Override
+		public String getUserId(String username, String password) {
+			SlowDataHandlerFactory.block();
+			return username;
+		}
+
+		@Override
+		public AuthInfo createOrUpdateAuthInfo(String clientId, String userId,
+				String scope) {
+			AuthInfo authInfo = new AuthInfo();
+			authInfo.setClientId(clientId);
+			authInfo.setUserId(userId);
+			return authInfo;
+		}
+
+		@Override
+		public AccessToken createOrUpdateAccessToken(AuthInfo authInfo) {
+			AccessToken accessToken = new AccessToken();
+			accessToken.setToken("token-" + authInfo.getUserId());
+			accessToken.setExpiresIn(3600L);
+			return accessToken;
+		}
+
+		@Override
+		public AuthInfo getAuthInfoByCode(String code) {
+			return null;
+		}
+
+		@Override
+		public AuthInfo getAuthInfoByRefreshToken(String refreshToken) {
+			return null;
+		}
+
+		@Override
+		public String getClientUserId(String clientId, String clientSecret) {
+			return null;
+		}
+
+		@Override
+		public boolean validateClientById(String clientId) {
+			return true;
+		}
+
+		@Override
+		public boolean validateUserById(String userId) {
+			return true;
+		}
+
+		@Override
+		public AccessToken getAccessToken(String token) {
+			SlowDataHandlerFactory.block();
+			if (!token.startsWith("token")) {
+				return null;
+			}
+			AccessToken accessToken = new AccessToken();
+			accessToken.setAuthId(token.substring("token".length()));
+			accessToken.setCreatedOn(new Date());
+			accessToken.setExpiresIn(3600L);
+			return accessToken;
+		}
+
+		@Override
+		public AuthInfo getAuthInfoById(String id) {
+			AuthInfo authInfo = new AuthInfo();
+			authInfo.setClientId("clientId" + id);
+			authInfo.setUserId("userId" + id);
+			authInfo.setScope("scope1");
+			return authInfo;
+		}
+
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class FormParametersTest {
+
+	private FormParameters parse(String body) throws Exception {
+		byte[] bytes = ("xx" + body + "yy").getBytes("UTF-8");
+		return FormParameters.parse(bytes, 2, bytes.length - 4);
+	}
+
+	@Test
+	public void testParse() throws Exception {
+		FormParameters target = parse(
+				"grant_type=authorization_code&code=abc%2Fdef&redirect_uri="
+				+ "http%3A%2F%2Fexample.com%2Fcb%3Fa%3D1&client_id=c+1"
+				+ "&scope=&client_secret&&=x&code=second&custom=%E3%81%82");
+		assertEquals("authorization_code", target.get("grant_type"));
+		assertEquals("abc/def", target.get("code"));
+		assertEquals("http://example.com/cb?a=1", target.get("redirect_uri"));
+		assertEquals("c 1", target.get("client_id"));
+		assertEquals("", target.get("scope"));
+		assertEquals("", target.get("client_secret"));
+		assertEquals("あ", target.get("custom"));
+		assertNull(target.get("username"));
+		assertNull(target.get("unknown"));
+		Map<String, String> map = target.toMap();
+		assertEquals(7, map.size());
+		assertEquals("abc/def", map.get("code"));
+		assertEquals("あ", map.get("custom"));
+	}
+
+	@Test
+	public void testEscapedName() throws Exception {
+		FormParameters target = parse("client%5Fid=c1&my+key=v");
+		assertEquals("c1", target.get("client_id"));
+		assertEquals("v", target.get("my key"));
+	}
+
+	@Test
+	public void testMalformed() throws Exception {
+		String[] bodies = new String[] {"code=%", "code=%2", "code=%zz", "a%=b"};
+		for (String body : bodies) {
+			try {
+				parse(body);
+				fail("IllegalArgumentException not occurred: " + body);
+			} catch (IllegalArgumentException e) {
+			}
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class StringInternerTest {
+
+	@Test
+	public void testIntern() throws Exception {
+		StringInterner target = new StringInterner(16);
+		String value1 = new String("clientId1");
+		String value2 = new String("clientId1");
+		assertNotSame(value1, value2);
+		assertSame(value1, target.intern(value1));
+		assertSame(value1, target.intern(value2));
+		assertNull(target.intern(null));
+		target.clear();
+		assertSame(value2, target.intern(value2));
+	}
+
+	@Test
+	public void testCollision() throws Exception {
+		StringInterner target = new StringInterner(1);
+		String value1 = new String("scope1");
+		String value2 = new String("scope2");
+		assertSame(value1, target.intern(value1));
+		assertSame(value2, target.intern(value2));
+		assertSame(value2, target.intern(new String("scope2")));
+		String value3 = new String("scope1");
+		assertSame(value3, target.intern(value3));
+	}
+
+	@Test
+	public void testCapacity() throws Exception {
+		assertEquals(1, new StringInterner(1).capacity());
+		assertEquals(64, new StringInterner(33).capacity());
+		assertEquals(64, new StringInterner(64).capacity());
+		try {
+			new StringInterner(0);
+			fail("IllegalArgumentException not occurred.");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+}
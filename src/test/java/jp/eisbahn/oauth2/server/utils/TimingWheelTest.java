@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+	private List<String> expired;
+	private TimingWheel<String> target;
+
+	@Before
+	public void setUp() {
+		expired = new ArrayList<String>();
+		target = new TimingWheel<String>(10, new TimingWheel.ExpirationHandler<String>() {
+			@Override
+			public void expired(String item) {
+				expired.add(item);
+			}
+		}, 1000);
+	}
+
+	@Test
+	public void testAdvance() {
+		target.schedule("a", 1025);
+		target.schedule("b", 1030);
+		target.schedule("c", 1000 + 10 * 64 * 3 + 5);
+		target.schedule("past", 500);
+		assertEquals(4, target.size());
+
+		assertEquals(1, target.advance(1010));
+		assertEquals("past", expired.get(0));
+		assertEquals(0, target.advance(1029));
+		assertEquals(2, target.advance(1030));
+		assertTrue(expired.contains("a"));
+		assertTrue(expired.contains("b"));
+		assertEquals(0, target.advance(1000 + 10 * 64 * 3));
+		assertEquals(1, target.advance(1000 + 10 * 64 * 3 + 10));
+		assertEquals("c", expired.get(3));
+		assertEquals(0, target.size());
+	}
+
+	@Test
+	public void testHigherLevels() {
+		long[] delays = new long[] {
+				10L * 64 * 64 + 7, 10L * 64 * 64 * 64 * 2 + 13,
+				10L * 64 * 64 * 64 * 64 * 3 + 17};
+		for (int i = 0; i < delays.length; i++) {
+			target.schedule("item" + i, 1000 + delays[i]);
+		}
+		for (int i = 0; i < delays.length; i++) {
+			long expiresAt = 1000 + delays[i];
+			long tickEnd = (expiresAt + 9) / 10 * 10;
+			target.advance(expiresAt - 10);
+			assertEquals(i, expired.size());
+			target.advance(tickEnd);
+			assertEquals(i + 1, expired.size());
+			assertEquals("item" + i, expired.get(i));
+		}
+	}
+
+	@Test
+	public void testCancel() {
+		TimingWheel.Timeout<String> a = target.schedule("a", 1050);
+		target.schedule("b", 1050);
+		TimingWheel.Timeout<String> c = target.schedule("c", 1050);
+		assertTrue(a.cancel());
+		assertFalse(a.cancel());
+		assertTrue(c.cancel());
+		assertEquals(1, target.size());
+		assertEquals(1, target.advance(1100));
+		assertEquals("b", expired.get(0));
+	}
+
+	@Test
+	public void testClear() {
+		TimingWheel.Timeout<String> a = target.schedule("a", 1050);
+		target.schedule("b", 100000);
+		target.clear();
+		assertEquals(0, target.size());
+		assertFalse(a.cancel());
+		assertEquals(0, target.advance(200000));
+		assertTrue(expired.isEmpty());
+	}
+
+	@Test
+	public void testSpreadAcrossTicks() {
+		for (int i = 0; i < 1000; i++) {
+			target.schedule("item" + i, 1000 + 10 * (i % 100) + 1);
+		}
+		for (int tick = 1; tick <= 100; tick++) {
+			assertEquals(10, target.advance(1000 + 10 * tick));
+		}
+		assertEquals(1000, expired.size());
+	}
+
+}
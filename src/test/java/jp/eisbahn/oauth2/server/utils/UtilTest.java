@@ -19,6 +19,12 @@
 package jp.eisbahn.oauth2.server.utils;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.net.URLDecoder;
+import java.util.Random;
+
 import jp.eisbahn.oauth2.server.utils.Util;
 
 import org.codehaus.jackson.annotate.JsonPropertyOrder;
@@ -33,6 +39,61 @@ public class UtilTest {
 		assertEquals("wOJIO9A2W5mFwDgiDvZbTSMK/PY=", result);
 	}
 
+	@Test
+	public void testDecodeParamCompatibility() throws Exception {
+		String plain = "abcDEF123-._~";
+		assertSame(plain, Util.decodeParam(plain));
+		String[] sources = new String[] {
+			"", "a+b", "+++", "%E3%81%82%E3%81%84", "x%E3%81y", "%ff%FE",
+			"\u3042%2B\u3044", "%+1", "%2", "%", "a%zz", "%-1", "%1+", "%41%",
+			"redirect_uri=http%3A%2F%2Fexample.com%2F%3Fq%3Da+b"
+		};
+		for (String source : sources) {
+			assertDecodedLikeUrlDecoder(source);
+		}
+		Random random = new Random(1L);
+		char[] alphabet = "%+aZ09Ef\u3042".toCharArray();
+		for (int i = 0; i < 10000; i++) {
+			char[] chars = new char[random.nextInt(12)];
+			for (int j = 0; j < chars.length; j++) {
+				chars[j] = alphabet[random.nextInt(alphabet.length)];
+			}
+			assertDecodedLikeUrlDecoder(new String(chars));
+		}
+		StringBuilder longSource = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			longSource.append("%E3%81%82");
+		}
+		assertDecodedLikeUrlDecoder(longSource.toString());
+	}
+
+	private void assertDecodedLikeUrlDecoder(String source) throws Exception {
+		String expected;
+		try {
+			expected = URLDecoder.decode(source, "UTF-8");
+		} catch (IllegalArgumentException e) {
+			try {
+				Util.decodeParam(source);
+				fail("IllegalArgumentException not occurred: " + source);
+			} catch (IllegalArgumentException e2) {
+			}
+			return;
+		}
+		assertEquals(source, expected, Util.decodeParam(source));
+	}
+
+	@Test
+	public void testToWwwAuthenticate() throws Exception {
+		assertEquals("Bearer error=\"invalid_token\"",
+				Util.toWwwAuthenticate("invalid_token", null, null));
+		assertEquals("Bearer error=\"invalid_token\", error_description=\"Expired.\"",
+				Util.toWwwAuthenticate("invalid_token", "Expired.", " "));
+		assertEquals("Bearer error=\"insufficient_scope\", "
+				+ "error_description=\"Insufficient scope.\", scope=\"read write\"",
+				Util.toWwwAuthenticate("insufficient_scope", "Insufficient scope.",
+						"read write"));
+	}
+
 	@Test
 	public void testToJson() throws Exception {
 		JsonTarget target = new JsonTarget();